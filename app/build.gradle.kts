@@ -1,4 +1,6 @@
 import org.jetbrains.kotlin.gradle.tasks.*
+import java.time.LocalDateTime
+import java.time.format.DateTimeFormatter
 
 plugins {
     id("application")
@@ -6,6 +8,7 @@ plugins {
     id("org.jetbrains.kotlin.plugin.allopen") version "1.9.20"
     id("org.springframework.boot") version "3.1.5"
     id("it.nicolasfarabegoli.conventional-commits") version "3.1.3"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories {
@@ -14,11 +17,23 @@ repositories {
 
 
 sourceSets {
+    val testSupport = "src/testSupport/java"
+    named("test") {
+        java.srcDir(testSupport)
+    }
+    named("jmh") {
+        java.srcDir(testSupport)
+    }
     val intTest by creating {
         java.srcDir("src/intTest/kotlin")
         compileClasspath += sourceSets["main"].output + sourceSets["test"].compileClasspath
         runtimeClasspath += sourceSets["main"].output + sourceSets["test"].compileClasspath
     }
+    val loadTest by creating {
+        java.srcDir(testSupport)
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
 }
 
 configurations {
@@ -28,6 +43,12 @@ configurations {
     val intTestRuntimeOnly by getting {
         extendsFrom(configurations["runtimeOnly"])
     }
+    val loadTestImplementation by getting {
+        extendsFrom(configurations["implementation"])
+    }
+    val loadTestRuntimeOnly by getting {
+        extendsFrom(configurations["runtimeOnly"])
+    }
 }
 
 
@@ -49,6 +70,15 @@ tasks.check {
     dependsOn(integrationTestTask)
 }
 
+tasks.register<JavaExec>("loadTest") {
+    description = "Runs the open-loop HTTP load generator, arguments are given with -PloadArgs."
+    group = "verification"
+
+    classpath = sourceSets["loadTest"].runtimeClasspath
+    mainClass = "debit.card.load.LoadGenerator"
+    args(providers.gradleProperty("loadArgs").map { it.split(" ") }.getOrElse(listOf()))
+}
+
 
 kotlin.target.compilations.getByName("intTest") {
     associateWith(target.compilations.getByName("test"))
@@ -61,8 +91,10 @@ dependencies {
 
     implementation("org.springframework.boot:spring-boot-starter-web")
     implementation("org.springframework.boot:spring-boot-starter-actuator")
+    runtimeOnly("io.micrometer:micrometer-registry-prometheus")
 
     implementation("org.springframework.boot:spring-boot-starter-data-mongodb")
+    implementation("com.github.ben-manes.caffeine:caffeine")
 
     implementation("io.vavr:vavr:_")
     implementation("io.vavr:vavr-jackson:_")
@@ -77,6 +109,8 @@ dependencies {
     "intTestImplementation"("org.testcontainers:mongodb:_")
     "intTestImplementation"("org.springframework.boot:spring-boot-testcontainers")
 
+    "loadTestImplementation"("org.hdrhistogram:HdrHistogram:_")
+
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
@@ -97,6 +131,7 @@ application {
 
 tasks.withType<JavaCompile>().configureEach {
     options.compilerArgs.add("--enable-preview")
+    options.compilerArgs.add("-Werror")
 }
 
 tasks.withType<Test>().configureEach {
@@ -108,6 +143,23 @@ tasks.withType<JavaExec>().configureEach {
     jvmArgs("--enable-preview")
 }
 
+jmh {
+    jvmArgsAppend.add("--enable-preview")
+    profilers.add("gc")
+    includes.addAll(providers.gradleProperty("jmhIncludes").map { it.split(",") }.orElse(listOf()))
+    threads = providers.gradleProperty("jmhThreads").map(String::toInt)
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file(
+        providers.gradleProperty("jmhRun")
+            .orElse(provider { LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) })
+            .map { "results/jmh/$it.json" }
+    )
+}
+
+tasks.named<me.champeau.jmh.JmhBytecodeGeneratorTask>("jmhRunBytecodeGenerator") {
+    jvmArgs.add("--enable-preview")
+}
+
 conventionalCommits {
     warningIfNoGitRoot = true
 
@@ -5,7 +5,13 @@ import debit.card.domain.*
 import debit.card.domain.DebitCardError.*
 import debit.card.domain.commands.*
 import debit.card.view.DebitCardSummary
+import debit.card.view.TransactionHistoryEntry
+import debit.card.view.TransactionHistoryPage
+import debit.card.view.TransactionHistoryQuery
+import debit.card.view.VersionedDebitCardSummary
 import io.vavr.control.Option
+import org.assertj.core.api.Assertions.assertThat
+import org.hamcrest.Matchers.containsString
 import org.junit.jupiter.api.Named.named
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.params.ParameterizedTest
@@ -23,12 +29,13 @@ import org.springframework.test.web.servlet.get
 import org.springframework.test.web.servlet.post
 import org.springframework.test.web.servlet.put
 import java.util.UUID
+import java.util.concurrent.CompletableFuture
 import java.util.stream.Stream
 
 private val debitCardId = UUID.randomUUID()
 
-@WebMvcTest(DebitCardController::class)
-@Import(JacksonConfig::class)
+@WebMvcTest(DebitCardController::class, properties = ["debit.card.trace.debug-header-enabled=true"])
+@Import(JacksonConfig::class, RequestTracingConfig::class)
 internal class DebitCardControllerIT {
     @MockBean
     private lateinit var debitCardFacade: DebitCardFacade
@@ -36,6 +43,9 @@ internal class DebitCardControllerIT {
     @Autowired
     private lateinit var mockMvc: MockMvc
 
+    @Autowired
+    private lateinit var slowestTraces: SlowestTraces
+
     @Test
     fun `should return uuid on debit card creation`() {
         // given
@@ -63,24 +73,26 @@ internal class DebitCardControllerIT {
             summary: DebitCardSummary, expectedBody: String
     ) {
         // given
-        given(debitCardFacade.getSummary(debitCardId)).willReturn(Option.of(summary))
+        given(debitCardFacade.getVersionedSummary(debitCardId)).willReturn(Option.of(VersionedDebitCardSummary(3, summary)))
 
         // expect
         mockMvc.get("/v1/debit-cards/$debitCardId")
                 .andDo { print() }
                 .andExpect {
                     status { isOk() }
+                    header { string("ETag", "\"3\"") }
                     content {
                         contentType("application/json")
                         json(expectedBody)
                     }
                 }
+        then(debitCardFacade).should(never()).getVersion(debitCardId)
     }
 
     @Test
     fun `should return 404 for not found summary`() {
         // given
-        given(debitCardFacade.getSummary(debitCardId)).willReturn(Option.none())
+        given(debitCardFacade.getVersionedSummary(debitCardId)).willReturn(Option.none())
 
         // expect
         mockMvc.get("/v1/debit-cards/$debitCardId")
@@ -101,6 +113,91 @@ internal class DebitCardControllerIT {
                 }
     }
 
+    @Test
+    fun `should return 304 without reading summary when card version matches etag`() {
+        // given
+        given(debitCardFacade.getVersion(debitCardId)).willReturn(Option.of(3L))
+
+        // expect
+        mockMvc.get("/v1/debit-cards/$debitCardId") {
+            header("If-None-Match", "\"3\"")
+        }
+                .andDo { print() }
+                .andExpect {
+                    status { isNotModified() }
+                    header { string("ETag", "\"3\"") }
+                    content { string("") }
+                }
+        then(debitCardFacade).should(never()).getVersionedSummary(debitCardId)
+    }
+
+    @Test
+    fun `should return summary when card changed since etag`() {
+        // given
+        val summary = DebitCardSummary(debitCardId, "10".bd, Option.none(), false)
+        given(debitCardFacade.getVersion(debitCardId)).willReturn(Option.of(4L))
+        given(debitCardFacade.getVersionedSummary(debitCardId)).willReturn(Option.of(VersionedDebitCardSummary(4, summary)))
+
+        // expect
+        mockMvc.get("/v1/debit-cards/$debitCardId") {
+            header("If-None-Match", "\"3\"")
+        }
+                .andDo { print() }
+                .andExpect {
+                    status { isOk() }
+                    header { string("ETag", "\"4\"") }
+                    jsonPath("$.balance") { value(10) }
+                }
+    }
+
+    @Test
+    fun `should return page of transactions`() {
+        // given
+        val transactionUUID = UUID.randomUUID()
+        val query = TransactionHistoryQuery(4, 500, Option.of(TransactionHistoryEntry.Outcome.REJECTED), Option.none())
+        given(debitCardFacade.getTransactions(debitCardId, query)).willReturn(Option.of(TransactionHistoryPage(
+                io.vavr.collection.List.of(TransactionHistoryEntry(7, transactionUUID, TransactionHistoryEntry.Type.CHARGE, TransactionHistoryEntry.Outcome.REJECTED, "500".bd)),
+                Option.of(7L)
+        )))
+
+        // expect
+        mockMvc.get("/v1/debit-cards/$debitCardId/transactions?after=4&limit=10000&outcome=REJECTED")
+                .andDo { print() }
+                .andExpect {
+                    status { isOk() }
+                    content {
+                        json("""
+                            {
+                                "transactions": [
+                                    {
+                                        "sequence": 7,
+                                        "transactionUUID": "$transactionUUID",
+                                        "type": "CHARGE",
+                                        "outcome": "REJECTED",
+                                        "amount": 500
+                                    }
+                                ],
+                                "nextCursor": 7
+                            }
+                        """.trimIndent())
+                    }
+                }
+    }
+
+    @Test
+    fun `should return 404 for transactions of not found card`() {
+        // given
+        given(debitCardFacade.getTransactions(eq(debitCardId), any())).willReturn(Option.none())
+
+        // expect
+        mockMvc.get("/v1/debit-cards/$debitCardId/transactions")
+                .andDo { print() }
+                .andExpect {
+                    status { isNotFound() }
+                    jsonPath("$.type") { value("CardNotFoundError") }
+                }
+    }
+
     @Test
     fun `should return 200 when card limmit assigned`() {
         // given
@@ -375,6 +472,36 @@ internal class DebitCardControllerIT {
                 }
     }
 
+    @Test
+    fun `should return server timing and keep the trace when tracing is requested`() {
+        // given
+        given(debitCardFacade.createNewCard()).willReturn(debitCardId)
+
+        // expect
+        mockMvc.post("/v1/debit-cards") {
+            header("X-Debug-Trace", "true")
+        }
+                .andDo { print() }
+                .andExpect {
+                    status { isOk() }
+                    header { string("Server-Timing", containsString("handler;dur=")) }
+                }
+        assertThat(slowestTraces.slowest().map { it.request() }).contains("POST /v1/debit-cards")
+    }
+
+    @Test
+    fun `should not return server timing when tracing is not requested`() {
+        // given
+        given(debitCardFacade.createNewCard()).willReturn(debitCardId)
+
+        // expect
+        mockMvc.post("/v1/debit-cards")
+                .andExpect {
+                    status { isOk() }
+                    header { doesNotExist("Server-Timing") }
+                }
+    }
+
     @Test
     fun `should return 200 when card unblock successfull`() {
         // given
@@ -424,6 +551,218 @@ internal class DebitCardControllerIT {
     }
 
 
+    @Test
+    fun `should return result per item of transactions batch`() {
+        // given
+        val otherCardId = UUID.randomUUID()
+        val charge = ChargeCardCommand(debitCardId, UUID.randomUUID(), "10".bd)
+        val payOff = PayOffCardCommand(otherCardId, UUID.randomUUID(), "5".bd)
+        given(debitCardFacade.applyTransactions(io.vavr.collection.List.of(charge, payOff)))
+                .willReturn(io.vavr.collection.List.of(
+                        DebitCardOperationResult.success(charge),
+                        DebitCardOperationResult.failed(payOff, CardNotFoundError())
+                ))
+
+        // expect
+        mockMvc.post("/v1/debit-cards/transactions") {
+            contentType = MediaType.APPLICATION_JSON
+            content = """
+                {
+                    "transactions": [
+                        {
+                            "debitCardUUID": "$debitCardId",
+                            "type": "CHARGE",
+                            "transactionUUID": "${charge.transactionUUID}",
+                            "amount": ${charge.amount}
+                        },
+                        {
+                            "debitCardUUID": "$otherCardId",
+                            "type": "PAY_OFF",
+                            "transactionUUID": "${payOff.transactionUUID}",
+                            "amount": ${payOff.amount}
+                        }
+                    ]
+                }
+            """.trimIndent()
+        }
+                .andDo { print() }
+                .andExpect {
+                    status { isOk() }
+                    content {
+                        contentType("application/json")
+                        json("""
+                            {
+                                "results": [
+                                    {
+                                        "status": 200,
+                                        "result": {
+                                            "cardUUID": "$debitCardId",
+                                            "transactionUUID": "${charge.transactionUUID}",
+                                            "amount": ${charge.amount}
+                                        }
+                                    },
+                                    {
+                                        "status": 404,
+                                        "result": {
+                                            "type": "CardNotFoundError",
+                                            "details": {
+                                                "cardUUID": "$otherCardId",
+                                                "transactionUUID": "${payOff.transactionUUID}",
+                                                "amount": ${payOff.amount}
+                                            }
+                                        }
+                                    }
+                                ]
+                            }
+                        """.trimIndent())
+                    }
+                }
+    }
+
+    @Test
+    fun `should reject batch with index of incomplete item without applying any`() {
+        // expect
+        mockMvc.post("/v1/debit-cards/transactions") {
+            contentType = MediaType.APPLICATION_JSON
+            content = """
+                {
+                    "transactions": [
+                        {
+                            "debitCardUUID": "$debitCardId",
+                            "type": "CHARGE",
+                            "transactionUUID": "${UUID.randomUUID()}",
+                            "amount": 10
+                        },
+                        {
+                            "debitCardUUID": "$debitCardId",
+                            "transactionUUID": "${UUID.randomUUID()}"
+                        }
+                    ]
+                }
+            """.trimIndent()
+        }
+                .andDo { print() }
+                .andExpect {
+                    status { isBadRequest() }
+                    content {
+                        json("""
+                            {
+                                "type": "InvalidBatchItemError",
+                                "details": {
+                                    "index": 1,
+                                    "missingFields": ["type", "amount"]
+                                }
+                            }
+                        """.trimIndent())
+                    }
+                }
+        then(debitCardFacade).should(never()).applyTransactions(any())
+    }
+
+    @Test
+    fun `should reject batch larger than max batch size`() {
+        // given
+        val item = """{"debitCardUUID":"$debitCardId","type":"CHARGE","transactionUUID":"${UUID.randomUUID()}","amount":10}"""
+
+        // expect
+        mockMvc.post("/v1/debit-cards/transactions") {
+            contentType = MediaType.APPLICATION_JSON
+            content = """{"transactions":[${List(BatchTransactionsRequest.MAX_BATCH_SIZE + 1) { item }.joinToString(",")}]}"""
+        }
+                .andExpect {
+                    status { isBadRequest() }
+                    jsonPath("$.type") { value("BatchTooLargeError") }
+                    jsonPath("$.details.maxSize") { value(BatchTransactionsRequest.MAX_BATCH_SIZE) }
+                }
+        then(debitCardFacade).should(never()).applyTransactions(any())
+    }
+
+    @Test
+    fun `should stream result line per transaction record`() {
+        // given
+        val otherCardId = UUID.randomUUID()
+        val charge = ChargeCardCommand(debitCardId, UUID.randomUUID(), "10".bd)
+        val payOff = PayOffCardCommand(otherCardId, UUID.randomUUID(), "5".bd)
+        given(debitCardFacade.submitTransaction(charge))
+                .willReturn(CompletableFuture.completedFuture(DebitCardOperationResult.success(charge)))
+        given(debitCardFacade.submitTransaction(payOff))
+                .willReturn(CompletableFuture.completedFuture(DebitCardOperationResult.failed(payOff, CardNotFoundError())))
+
+        // expect
+        mockMvc.post("/v1/debit-cards/transactions/stream") {
+            contentType = MediaType.APPLICATION_NDJSON
+            content = """
+                {"debitCardUUID":"$debitCardId","type":"CHARGE","transactionUUID":"${charge.transactionUUID}","amount":10}
+                {"debitCardUUID":"$otherCardId","type":"PAY_OFF","transactionUUID":"${payOff.transactionUUID}","amount":5}
+            """.trimIndent()
+        }
+                .andDo { print() }
+                .andExpect {
+                    status { isOk() }
+                    content {
+                        contentType(MediaType.APPLICATION_NDJSON)
+                        string("""
+                            {"status":200,"result":{"cardUUID":"$debitCardId","transactionUUID":"${charge.transactionUUID}","amount":10}}
+                            {"status":404,"result":{"type":"CardNotFoundError","details":{"cardUUID":"$otherCardId","transactionUUID":"${payOff.transactionUUID}","amount":5}}}
+
+                        """.trimIndent())
+                    }
+                }
+    }
+
+    @Test
+    fun `should answer failed transaction with error line and continue stream`() {
+        // given
+        val failing = ChargeCardCommand(debitCardId, UUID.randomUUID(), "10".bd)
+        val charge = ChargeCardCommand(debitCardId, UUID.randomUUID(), "5".bd)
+        given(debitCardFacade.submitTransaction(failing))
+                .willReturn(CompletableFuture.failedFuture(IllegalStateException("store unavailable")))
+        given(debitCardFacade.submitTransaction(charge))
+                .willReturn(CompletableFuture.completedFuture(DebitCardOperationResult.success(charge)))
+
+        // when
+        val lines = mockMvc.post("/v1/debit-cards/transactions/stream") {
+            contentType = MediaType.APPLICATION_NDJSON
+            content = """
+                {"debitCardUUID":"$debitCardId","type":"CHARGE","transactionUUID":"${failing.transactionUUID}","amount":10}
+                {"debitCardUUID":"$debitCardId","type":"CHARGE","transactionUUID":"${charge.transactionUUID}","amount":5}
+            """.trimIndent()
+        }
+                .andExpect { status { isOk() } }
+                .andReturn().response.contentAsString.lines().filter { it.isNotBlank() }
+
+        // then
+        assertThat(lines).hasSize(2)
+        assertThat(lines[0]).startsWith("""{"status":500,"result":{"type":"TransactionFailedError"""")
+        assertThat(lines[1]).startsWith("""{"status":200""")
+    }
+
+    @Test
+    fun `should stop transaction stream on invalid record`() {
+        // given
+        val charge = ChargeCardCommand(debitCardId, UUID.randomUUID(), "10".bd)
+        given(debitCardFacade.submitTransaction(charge))
+                .willReturn(CompletableFuture.completedFuture(DebitCardOperationResult.success(charge)))
+
+        // when
+        val lines = mockMvc.post("/v1/debit-cards/transactions/stream") {
+            contentType = MediaType.APPLICATION_NDJSON
+            content = """
+                {"debitCardUUID":"$debitCardId","type":"CHARGE","transactionUUID":"${charge.transactionUUID}","amount":10}
+                {"debitCardUUID":"$debitCardId","type":"REFUND","transactionUUID":"${UUID.randomUUID()}","amount":10}
+                {"debitCardUUID":"$debitCardId","type":"CHARGE","transactionUUID":"${UUID.randomUUID()}","amount":10}
+            """.trimIndent()
+        }
+                .andExpect { status { isOk() } }
+                .andReturn().response.contentAsString.lines().filter { it.isNotBlank() }
+
+        // then
+        assertThat(lines).hasSize(2)
+        assertThat(lines[0]).startsWith("""{"status":200""")
+        assertThat(lines[1]).startsWith("""{"status":400,"result":{"type":"InvalidRecordError"""")
+        then(debitCardFacade).should(times(1)).submitTransaction(any())
+    }
+
     companion object {
         @JvmStatic
         fun cardSummaries(): Stream<Arguments> = Stream.of(
@@ -481,4 +820,33 @@ internal class DebitCardControllerIT {
                 arguments(CardNotFoundError(), "CardNotFoundError", 404)
         )
     }
-}
\ No newline at end of file
+}
+
+@WebMvcTest(DebitCardController::class)
+@Import(JacksonConfig::class, RequestTracingConfig::class)
+internal class DebitCardControllerWithoutDebugHeaderIT {
+    @MockBean
+    private lateinit var debitCardFacade: DebitCardFacade
+
+    @Autowired
+    private lateinit var mockMvc: MockMvc
+
+    @Autowired
+    private lateinit var slowestTraces: SlowestTraces
+
+    @Test
+    fun `should ignore tracing request when debug header is not enabled`() {
+        // given
+        given(debitCardFacade.createNewCard()).willReturn(debitCardId)
+
+        // expect
+        mockMvc.post("/v1/debit-cards") {
+            header("X-Debug-Trace", "true")
+        }
+                .andExpect {
+                    status { isOk() }
+                    header { doesNotExist("Server-Timing") }
+                }
+        assertThat(slowestTraces.slowest()).isEmpty()
+    }
+}
@@ -0,0 +1,145 @@
+@file:Suppress("invisible_reference", "invisible_member")
+
+package debit.card.domain
+
+import debit.card.bd
+import debit.card.domain.DebitCardModule.DEBIT_CARD_MONGO_BUCKET_SIZE
+import debit.card.domain.DebitCardModule.DEBIT_CARD_REPOSITORY
+import debit.card.domain.TransactionCommand.charge
+import debit.card.money
+import org.assertj.core.api.Assertions.assertThat
+import org.bson.types.ObjectId
+import org.junit.jupiter.api.Test
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.context.annotation.Import
+import org.springframework.data.mongodb.core.MongoOperations
+import org.springframework.data.mongodb.core.query.Criteria.where
+import org.springframework.data.mongodb.core.query.Query.query
+import java.util.*
+
+
+@SpringBootTest(properties = [
+    "${DEBIT_CARD_REPOSITORY}=mongo-bucketed",
+    "${DEBIT_CARD_MONGO_BUCKET_SIZE}=4"
+])
+@Import(MongoDbTestContainerConfig::class)
+internal class BucketedMongoDebitCardRepositoryIT : DebitCardRepositoryTest() {
+
+    @Autowired
+    lateinit var bucketedRepository: BucketedMongoDebitCardRepository
+
+    @Autowired
+    lateinit var mongoOperations: MongoOperations
+
+    override val repository: DebitCardRepository
+        get() = bucketedRepository
+
+    @Test
+    fun `should replay events spread over many buckets`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        repeat(10) {
+            val card = repository.getByUUID(cardUUID).get()
+            repository.save(card.applyTransaction(charge(UUID.randomUUID(), "1".money)))
+        }
+
+        // when
+        val card = repository.getByUUID(cardUUID).get()
+        val eventsAfter = repository.getEventsAfter(cardUUID, 5).get()
+
+        // then
+        assertThat(card.sequence()).isEqualTo(11)
+        assertThat(card.toSummary().balance).isEqualByComparingTo("-10".bd)
+        assertThat(eventsAfter.events).hasSize(6)
+        assertThat(mongoOperations.count(query(where("debitCardId").`is`(cardUUID)), DebitCardEventBucketEntity::class.java)).isEqualTo(2)
+    }
+
+    @Test
+    fun `should keep rejections in buckets of their own`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+
+        // when
+        repeat(5) {
+            val card = repository.getByUUID(cardUUID).get()
+            repository.save(card.applyTransaction(charge(UUID.randomUUID(), "500".money)))
+        }
+
+        // then
+        val card = repository.getByUUID(cardUUID).get()
+        assertThat(card.sequence()).isEqualTo(1)
+        assertThat(card.rejections()).isEqualTo(5)
+        assertThat(repository.getRejections(cardUUID)).hasSize(5)
+        assertThat(mongoOperations.count(query(where("debitCardId").`is`(cardUUID)), DebitCardRejectionBucketEntity::class.java)).isEqualTo(1)
+        assertThat(mongoOperations.count(query(where("debitCardId").`is`(cardUUID)), DebitCardEventBucketEntity::class.java)).isZero()
+    }
+
+    @Test
+    fun `should replace bucket left behind by writer that lost the race on the head`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        mongoOperations.insert(abandonedBucket(cardUUID, 0))
+        val card = repository.getByUUID(cardUUID).get()
+                .applyTransaction(charge(UUID.randomUUID(), "1".money))
+                .applyTransaction(charge(UUID.randomUUID(), "1".money))
+                .applyTransaction(charge(UUID.randomUUID(), "1".money))
+
+        // when
+        val saved = repository.save(card)
+
+        // then
+        assertThat(saved).isEqualTo(SaveResult.Saved(1))
+        assertThat(repository.getByUUID(cardUUID).get().toSummary().balance).isEqualByComparingTo("-3".bd)
+    }
+
+    @Test
+    fun `should move head past bucket of writer that never switched it`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        mongoOperations.insert(abandonedBucket(cardUUID, 1))
+        val transactions = (1..3).map { charge(UUID.randomUUID(), "1".money) }
+
+        // when
+        val conflicting = repository.save(transactions.fold(repository.getByUUID(cardUUID).get()) { card, transaction -> card.applyTransaction(transaction) })
+        val retried = repository.save(transactions.fold(repository.getByUUID(cardUUID).get()) { card, transaction -> card.applyTransaction(transaction) })
+
+        // then
+        assertThat(conflicting).isEqualTo(SaveResult.VersionConflict(cardUUID, 0))
+        assertThat(retried).isEqualTo(SaveResult.Saved(2))
+        assertThat(repository.getByUUID(cardUUID).get().toSummary().balance).isEqualByComparingTo("-3".bd)
+    }
+
+    private fun abandonedBucket(cardUUID: UUID, version: Long) = DebitCardEventBucketEntity(
+            ObjectId(),
+            cardUUID,
+            0,
+            version,
+            listOf(),
+            (1..4).map { DebitCardEventEntity.from(DebitCardEvent.CardBlocked()) }
+    )
+
+    @Test
+    fun `should migrate card stored in single document layout`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        val events = listOf<DebitCardEvent>(DebitCardEvent.LimitAssigned("-100".money))
+                .plus((1..6).map { DebitCardEvent.TransactionAccepted(UUID.randomUUID(), "-2".money) })
+        mongoOperations.insert(DebitCardEntity(cardUUID, 6, events.map(DebitCardEventEntity::legacy), null, 0, null, null, null, null))
+
+        // when
+        val migrated = repository.getByUUID(cardUUID).get()
+        val saved = repository.save(migrated.applyTransaction(charge(UUID.randomUUID(), "1".money)))
+
+        // then
+        assertThat(migrated.version()).isEqualTo(6)
+        assertThat(migrated.toSummary().balance).isEqualByComparingTo("-12".bd)
+        assertThat(saved).isEqualTo(SaveResult.Saved(7))
+        assertThat(repository.getSummaryByUUID(cardUUID).get().balance).isEqualByComparingTo("-13".bd)
+        assertThat(mongoOperations.findById(cardUUID, DebitCardHeadEntity::class.java)!!.summary).isNotNull()
+    }
+}
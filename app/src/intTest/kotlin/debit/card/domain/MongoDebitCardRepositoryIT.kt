@@ -3,9 +3,18 @@
 package debit.card.domain
 
 import debit.card.domain.DebitCardModule.DEBIT_CARD_REPOSITORY
+import debit.card.domain.TransactionCommand.charge
+import debit.card.money
+import debit.card.view.TransactionHistoryEntry
+import debit.card.view.TransactionHistoryQuery
+import io.vavr.control.Option
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.boot.test.context.SpringBootTest
 import org.springframework.context.annotation.Import
+import org.springframework.data.mongodb.core.MongoOperations
+import java.util.*
 
 
 @SpringBootTest(properties = [
@@ -17,7 +26,51 @@ internal class MongoDebitCardRepositoryIT : DebitCardRepositoryTest() {
     @Autowired
     lateinit var mongoRepository: MongoDebitCardRepository
 
+    @Autowired
+    lateinit var mongoOperations: MongoOperations
+
     override val repository: DebitCardRepository
         get() = mongoRepository
 
-}
\ No newline at end of file
+    @Test
+    fun `should keep version when taking snapshot`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        val loadedBeforeSnapshot = repository.getByUUID(cardUUID).get()
+
+        // when
+        val snapshot = repository.takeSnapshot(cardUUID)
+
+        // then
+        assertThat(snapshot.get().version).isEqualTo(0L)
+        assertThat(repository.getVersion(cardUUID).get()).isEqualTo(0L)
+        assertThat(repository.save(loadedBeforeSnapshot.applyTransaction(charge(UUID.randomUUID(), "10".money))))
+                .isEqualTo(SaveResult.Saved(1L))
+    }
+
+    @Test
+    fun `should page history of card stored before history counts were kept`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        val accepted = UUID.randomUUID()
+        val rejected = UUID.randomUUID()
+        val events = listOf(
+                DebitCardEvent.LimitAssigned("-100".money),
+                DebitCardEvent.TransactionAccepted(accepted, "-20".money),
+                DebitCardEvent.TransactionRejected(rejected, "-500".money)
+        )
+        mongoOperations.insert(DebitCardEntity(cardUUID, 2, events.map(DebitCardEventEntity::legacy), null, 0, null, null, null, null))
+        val laterCharge = UUID.randomUUID()
+
+        // when
+        val saved = repository.save(repository.getByUUID(cardUUID).get().applyTransaction(charge(laterCharge, "10".money)))
+
+        // then
+        assertThat(saved).isEqualTo(SaveResult.Saved(3))
+        assertThat(repository.getTransactions(cardUUID, TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 10, Option.none(), Option.none()))
+                .transactions.map { it.transactionUUID }).containsExactly(accepted, rejected, laterCharge)
+        assertThat(repository.getTransactions(cardUUID, TransactionHistoryQuery(1, 10, Option.some(TransactionHistoryEntry.Outcome.ACCEPTED), Option.none()))
+                .transactions.map { it.transactionUUID }).containsExactly(laterCharge)
+    }
+}
@@ -0,0 +1,62 @@
+package debit.card.api;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import debit.card.view.DebitCardSummary;
+import io.vavr.control.Option;
+import io.vavr.jackson.datatype.VavrModule;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming codecs of {@link HotPathJsonModule} with databind and the Vavr module alone, as
+ * configured before, on the hottest request and response bodies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class JsonCodecBenchmark {
+    @Param({"hot-path", "databind"})
+    String codec;
+
+    private ObjectReader chargeRequestReader;
+    private ObjectWriter summaryWriter;
+    private byte[] chargeRequest;
+    private DebitCardSummary summary;
+
+    @Setup
+    public void prepareBodies() {
+        var objectMapper = new ObjectMapper()
+                .registerModule(new VavrModule())
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        if (codec.equals("hot-path")) {
+            objectMapper.registerModule(new HotPathJsonModule());
+        }
+        chargeRequestReader = objectMapper.readerFor(ChargeCardRequest.class);
+        summaryWriter = objectMapper.writerFor(DebitCardSummary.class);
+        chargeRequest = """
+                {"transactionUUID":"%s","amount":125.40}
+                """.formatted(UUID.randomUUID()).getBytes(StandardCharsets.UTF_8);
+        summary = new DebitCardSummary(UUID.randomUUID(), new BigDecimal("-125.40"), Option.of(new BigDecimal("-1000")), false);
+    }
+
+    @Benchmark
+    public Object readChargeRequest() throws IOException {
+        return chargeRequestReader.readValue(chargeRequest);
+    }
+
+    @Benchmark
+    public byte[] writeSummary() throws IOException {
+        return summaryWriter.writeValueAsBytes(summary);
+    }
+}
@@ -0,0 +1,154 @@
+package debit.card.domain;
+
+import debit.card.DebitCardApp;
+import debit.card.domain.commands.AssignLimitCommand;
+import debit.card.domain.commands.ChargeCardCommand;
+import debit.card.domain.commands.PayOffCardCommand;
+import debit.card.support.CumulativeDistribution;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Many threads charging and paying off a set of cards through {@link DebitCardFacade}, wired by Spring exactly
+ * as the application is, with caches and lanes. Cards are picked with a Zipf distribution of exponent
+ * {@code skew}: 0 is uniform, above 1 most transactions hit the first few cards.
+ * <p>
+ * Throughput mode reports accepted, rejected and conflicted transactions per second next to the total, sample
+ * time mode reports latency percentiles. At the end of a trial the rate of version conflicts is printed and the
+ * balance of every card is compared with the sum of the transactions acknowledged to the threads; a mismatch
+ * fails the trial. The Mongo layouts expect a local Mongo, e.g. {@code docker-compose up mongodb}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Threads(64)
+public class CardContentionBenchmark {
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+    private static final BigDecimal LIMIT = new BigDecimal("-1000000000");
+
+    @Param({"stub", "mongo", "mongo-bucketed", "journal"})
+    String repository;
+
+    @Param({"16", "0"})
+    String lanes;
+
+    @Param({"16", "10000"})
+    int cards;
+
+    @Param({"0", "1.2"})
+    double skew;
+
+    private ConfigurableApplicationContext context;
+    private DebitCardFacade facade;
+    private MeterRegistry meterRegistry;
+    private UUID[] cardUUIDs;
+    private CumulativeDistribution cardDistribution;
+    private LongAdder[] expectedBalances;
+    private final AtomicLong threads = new AtomicLong();
+    private final LongAdder transactions = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void startApplication() throws IOException {
+        context = new SpringApplicationBuilder(DebitCardApp.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.profiles.active=benchmark",
+                        "--spring.config.import=classpath:db/" + repository + "-db.yaml",
+                        "--spring.data.mongodb.database=debit-card-benchmark",
+                        "--debit.card.journal.directory=" + Files.createTempDirectory("journal"),
+                        "--debit.card.facade.lanes=" + lanes
+                );
+        facade = context.getBean(DebitCardFacade.class);
+        meterRegistry = context.getBean(MeterRegistry.class);
+        cardUUIDs = new UUID[cards];
+        expectedBalances = new LongAdder[cards];
+        for (int i = 0; i < cards; i++) {
+            cardUUIDs[i] = facade.createNewCard();
+            facade.assignLimitToCard(new AssignLimitCommand(cardUUIDs[i], LIMIT));
+            expectedBalances[i] = new LongAdder();
+        }
+        cardDistribution = CumulativeDistribution.zipf(cards, skew);
+    }
+
+    @TearDown(Level.Trial)
+    public void verifyBalances() {
+        try {
+            var conflicts = meterRegistry.get("debit.card.version.conflicts").counter().count();
+            System.out.printf("%nversion conflicts: %.0f in %d transactions (%.4f per transaction)%n",
+                    conflicts, transactions.sum(), conflicts / Math.max(transactions.sum(), 1));
+            for (int i = 0; i < cards; i++) {
+                var expected = BigDecimal.valueOf(expectedBalances[i].sum());
+                var actual = facade.getSummary(cardUUIDs[i]).get().balance();
+                if (actual.compareTo(expected) != 0) {
+                    throw new IllegalStateException("Card %s has balance %s, acknowledged transactions add up to %s"
+                            .formatted(cardUUIDs[i], actual, expected));
+                }
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Outcomes {
+        public long accepted;
+        public long rejected;
+        public long conflicted;
+
+        private long thread;
+        private long transaction;
+
+        @Setup(Level.Trial)
+        public void registerThread(CardContentionBenchmark benchmark) {
+            thread = benchmark.threads.incrementAndGet();
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            accepted = 0;
+            rejected = 0;
+            conflicted = 0;
+        }
+
+        UUID nextTransactionUUID() {
+            return new UUID(thread, transaction++);
+        }
+    }
+
+    @Benchmark
+    public boolean transaction(Outcomes outcomes) {
+        var random = ThreadLocalRandom.current();
+        var card = cardDistribution.pick(random.nextDouble());
+        var charge = random.nextInt(4) != 0;
+        var result = charge
+                ? facade.chargeCard(new ChargeCardCommand(cardUUIDs[card], outcomes.nextTransactionUUID(), AMOUNT))
+                : facade.payOffCard(new PayOffCardCommand(cardUUIDs[card], outcomes.nextTransactionUUID(), AMOUNT));
+        transactions.increment();
+        if (result.isSuccess()) {
+            expectedBalances[card].add(charge ? -1 : 1);
+            outcomes.accepted++;
+        } else if (result.error() instanceof DebitCardError.ConcurrentModificationError) {
+            outcomes.conflicted++;
+        } else {
+            outcomes.rejected++;
+        }
+        return result.isSuccess();
+    }
+}
@@ -0,0 +1,79 @@
+package debit.card.domain;
+
+import io.vavr.collection.List;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates card histories. The default mix of events is similar to production: mostly accepted charges and
+ * pay-offs, some declined charges and an occasional block and unblock.
+ */
+final class CardHistories {
+    static final CurrencyUnit CURRENCY = CurrencyUnit.of("PLN");
+    private static final Money LIMIT = new Money(-1_000_000_00L, 2);
+
+    private CardHistories() {
+    }
+
+    /**
+     * Percentages of charges, pay-offs and declined charges; the rest are pairs of a block and an unblock.
+     */
+    enum EventMix {
+        PRODUCTION(60, 25, 13),
+        CHARGES_ONLY(100, 0, 0),
+        REJECTION_HEAVY(30, 10, 55);
+
+        private final int charges;
+        private final int payOffs;
+        private final int rejections;
+
+        EventMix(int charges, int payOffs, int rejections) {
+            this.charges = charges;
+            this.payOffs = payOffs;
+            this.rejections = rejections;
+        }
+    }
+
+    static List<DebitCardEvent> events(int length, long seed) {
+        return events(length, EventMix.PRODUCTION, seed);
+    }
+
+    static List<DebitCardEvent> events(int length, EventMix mix, long seed) {
+        var random = new Random(seed);
+        var events = new ArrayList<DebitCardEvent>(length + 1);
+        events.add(new DebitCardEvent.LimitAssigned(LIMIT));
+        while (events.size() < length) {
+            var roll = random.nextInt(100);
+            var amount = new Money(1 + random.nextInt(10_000), 2);
+            if (roll < mix.charges) {
+                events.add(new DebitCardEvent.TransactionAccepted(UUID.randomUUID(), amount.negate()));
+            } else if (roll < mix.charges + mix.payOffs) {
+                events.add(new DebitCardEvent.TransactionAccepted(UUID.randomUUID(), amount));
+            } else if (roll < mix.charges + mix.payOffs + mix.rejections) {
+                events.add(new DebitCardEvent.TransactionRejected(UUID.randomUUID(), amount.negate()));
+            } else {
+                events.add(new DebitCardEvent.CardBlocked());
+                events.add(new DebitCardEvent.CardUnblocked());
+            }
+        }
+        return List.ofAll(events.subList(0, length));
+    }
+
+    static List<TransactionCommand> transactions(int length, long seed) {
+        var random = new Random(seed);
+        var transactions = new ArrayList<TransactionCommand>(length);
+        for (int i = 0; i < length; i++) {
+            var amount = new Money(1 + random.nextInt(10_000), 2);
+            transactions.add(random.nextInt(100) < 70
+                    ? TransactionCommand.charge(UUID.randomUUID(), amount)
+                    : TransactionCommand.payOff(UUID.randomUUID(), amount));
+        }
+        return List.ofAll(transactions);
+    }
+
+    static DebitCard cardWithLimit(UUID cardUUID) {
+        return DebitCard.createNew(cardUUID, 0L).assignLimit(LIMIT).flushChanges();
+    }
+}
@@ -0,0 +1,55 @@
+package debit.card.domain;
+
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a history into the entities stored in Mongo and decodes it back, without the BSON layer measured by
+ * {@link MongoEventDecodingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class DebitCardEventEntityBenchmark {
+    @Param({"10", "1000", "100000"})
+    int historyLength;
+
+    @Param({"PRODUCTION", "REJECTION_HEAVY"})
+    String eventMix;
+
+    @Param({"binary", "legacy"})
+    String eventFormat;
+
+    private List<DebitCardEvent> history;
+    private List<DebitCardEventEntity> stored;
+
+    @Setup
+    public void prepareHistory() {
+        history = CardHistories.events(historyLength, CardHistories.EventMix.valueOf(eventMix), 42);
+        stored = history.map(this::encode);
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) {
+        for (var event : history) {
+            blackhole.consume(encode(event));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        for (var entity : stored) {
+            blackhole.consume(entity.toEvent(CardHistories.CURRENCY));
+        }
+    }
+
+    private DebitCardEventEntity encode(DebitCardEvent event) {
+        return eventFormat.equals("legacy") ? DebitCardEventEntity.legacy(event) : DebitCardEventEntity.from(event);
+    }
+}
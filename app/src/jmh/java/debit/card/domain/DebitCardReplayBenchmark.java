@@ -0,0 +1,59 @@
+package debit.card.domain;
+
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares replaying a stored history with folding the same number of transactions through the command path,
+ * and measures a single transaction applied on top of that history.
+ * Run with the GC profiler and divide {@code gc.alloc.rate.norm} by {@code historyLength} to get bytes per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class DebitCardReplayBenchmark {
+    @Param({"10", "1000", "10000", "100000"})
+    int historyLength;
+
+    @Param({"PRODUCTION", "CHARGES_ONLY", "REJECTION_HEAVY"})
+    String eventMix;
+
+    private final UUID cardUUID = UUID.randomUUID();
+    private List<DebitCardEvent> history;
+    private List<TransactionCommand> transactions;
+    private DebitCard replayed;
+    private TransactionCommand charge;
+
+    @Setup
+    public void prepareHistory() {
+        history = CardHistories.events(historyLength, CardHistories.EventMix.valueOf(eventMix), 42);
+        transactions = CardHistories.transactions(historyLength, 42);
+        replayed = DebitCard.fromEvents(cardUUID, 1L, history);
+        charge = TransactionCommand.charge(UUID.randomUUID(), new Money(1_00, 2));
+    }
+
+    @Benchmark
+    public DebitCard replay() {
+        return DebitCard.fromEvents(cardUUID, 1L, history);
+    }
+
+    @Benchmark
+    public DebitCard commandPath() {
+        return transactions.foldLeft(CardHistories.cardWithLimit(cardUUID), DebitCard::applyTransaction)
+                .flushChanges();
+    }
+
+    /**
+     * A single charge on top of a card with the whole history behind it.
+     */
+    @Benchmark
+    public DebitCard applyTransaction() {
+        return replayed.applyTransaction(charge);
+    }
+}
@@ -0,0 +1,65 @@
+package debit.card.domain;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies and saves one transaction at a time in {@link InMemoryDebitCardRepository}, on a card that already holds
+ * {@code historyLength} events. Every benchmark thread writes its own card, so the thread count set with
+ * {@code -PjmhThreads} scales the load on the shared store without conflicts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class InMemoryRepositorySaveBenchmark {
+    private static final Money LIMIT = new Money(-1_000_000_00L, 2);
+    private static final Money AMOUNT = new Money(10_00, 2);
+
+    @Param({"10", "1000", "100000"})
+    int historyLength;
+
+    private final InMemoryDebitCardRepository repository = new InMemoryDebitCardRepository();
+    private final AtomicLong threads = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private long thread;
+        private long transactions;
+        private DebitCard card;
+
+        @Setup
+        public void storeCard(InMemoryRepositorySaveBenchmark benchmark) {
+            thread = benchmark.threads.incrementAndGet();
+            var history = DebitCard.createNew(UUID.randomUUID()).assignLimit(LIMIT);
+            for (int i = 1; i < benchmark.historyLength; i++) {
+                history = history.applyTransaction(nextTransaction());
+            }
+            benchmark.repository.save(history);
+            card = history.saved();
+        }
+
+        /**
+         * Alternates charges and pay-offs of the same amount, so the balance stays within the limit.
+         */
+        TransactionCommand nextTransaction() {
+            var transactionUUID = new UUID(thread, transactions++);
+            return (transactions & 1) == 0
+                    ? TransactionCommand.payOff(transactionUUID, AMOUNT)
+                    : TransactionCommand.charge(transactionUUID, AMOUNT);
+        }
+    }
+
+    @Benchmark
+    public SaveResult save(Writer writer) {
+        var next = writer.card.applyTransaction(writer.nextTransaction());
+        var result = repository.save(next);
+        writer.card = next.saved();
+        return result;
+    }
+}
@@ -0,0 +1,70 @@
+package debit.card.domain;
+
+import com.mongodb.MongoClientSettings;
+import io.vavr.collection.List;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading a card from the bytes returned by the driver through Spring Data mapping of
+ * {@link DebitCardEntity} with replaying it straight from raw BSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class MongoEventDecodingBenchmark {
+    @Param({"10", "1000", "10000"})
+    int historyLength;
+
+    @Param({"binary", "legacy"})
+    String eventFormat;
+
+    private final UUID cardUUID = UUID.randomUUID();
+    private CodecRegistry codecRegistry;
+    private Codec<Document> documentCodec;
+    private MappingMongoConverter converter;
+    private RawBsonDocument stored;
+
+    @Setup
+    public void storeHistory() {
+        codecRegistry = CodecRegistries.withUuidRepresentation(MongoClientSettings.getDefaultCodecRegistry(), UuidRepresentation.STANDARD);
+        documentCodec = codecRegistry.get(Document.class);
+        converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+
+        var events = CardHistories.events(historyLength, 42)
+                .map(eventFormat.equals("legacy") ? DebitCardEventEntity::legacy : DebitCardEventEntity::from);
+        var document = new Document();
+        converter.write(new DebitCardEntity(cardUUID, 1L, events.toJavaList(), null, 0, null, null, null, null), document);
+        stored = new RawBsonDocument(document, documentCodec);
+    }
+
+    @Benchmark
+    public DebitCard springDataMapping() {
+        var document = documentCodec.decode(stored.asBsonReader(), DecoderContext.builder().build());
+        var entity = converter.read(DebitCardEntity.class, document);
+        var events = List.ofAll(entity.events()).map(event -> event.toEvent(CardHistories.CURRENCY));
+        return DebitCard.fromEvents(entity.debitCardId(), entity.version(), events);
+    }
+
+    @Benchmark
+    public DebitCard rawBson() {
+        var document = new RawDebitCardDocument(stored, codecRegistry, CardHistories.CURRENCY);
+        return DebitCard.fromEvents(cardUUID, document.version(), document.eventsAfter(0));
+    }
+}
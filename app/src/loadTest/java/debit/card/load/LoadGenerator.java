@@ -0,0 +1,162 @@
+package debit.card.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import debit.card.DebitCardApp;
+import debit.card.support.CumulativeDistribution;
+import io.vavr.control.Option;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop HTTP load against {@code /v1/debit-cards}. It creates the cards and assigns them a limit, then sends
+ * requests at a fixed rate whatever the server does, picking the operation by weight from the mix and the card
+ * with a Zipf distribution of exponent {@code skew}.
+ * <p>
+ * The latency of a request is measured from the time it was scheduled to be sent, not from the time it was
+ * sent. When the server stalls, requests waiting behind the stall are charged for it instead of being sent late
+ * and timed as if nothing happened, so the percentiles are free of coordinated omission.
+ */
+public final class LoadGenerator {
+    private static final String LIMIT = "-1000000000";
+
+    private final LoadOptions options;
+    private final URI cards;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LoadReport report;
+    private final ConcurrentHashMap<Long, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    LoadGenerator(LoadOptions options, URI target) {
+        this.options = options;
+        this.cards = target.resolve("/v1/debit-cards/");
+        this.report = new LoadReport(options);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = LoadOptions.parse(args);
+        var application = options.target().isEmpty()
+                ? Option.some(startStubApplication())
+                : Option.<ConfigurableApplicationContext>none();
+        try {
+            var target = options.target().getOrElse(() -> URI.create(
+                    "http://localhost:" + application.get().getEnvironment().getProperty("local.server.port")));
+            var report = new LoadGenerator(options, target).run();
+            report.write(options.output());
+            report.print(System.out);
+            System.out.printf("results written to %s%n", options.output());
+        } finally {
+            application.forEach(ConfigurableApplicationContext::close);
+        }
+    }
+
+    private static ConfigurableApplicationContext startStubApplication() {
+        return new SpringApplicationBuilder(DebitCardApp.class).run(
+                "--server.port=0",
+                "--spring.profiles.active=load-test",
+                "--spring.config.import=classpath:db/stub-db.yaml"
+        );
+    }
+
+    LoadReport run() throws IOException, InterruptedException {
+        var cardUUIDs = createCards();
+        var cardDistribution = CumulativeDistribution.zipf(options.cards(), options.skew());
+        var operations = options.mix().keySet().toJavaArray(Operation[]::new);
+        var operationDistribution = CumulativeDistribution.ofWeights(Arrays.stream(operations)
+                .mapToDouble(operation -> options.mix().get(operation).get())
+                .toArray());
+        var transactions = ThreadLocalRandom.current().nextLong();
+        var random = ThreadLocalRandom.current();
+
+        var start = System.nanoTime();
+        var measuredFrom = start + options.warmup().toNanos();
+        var end = measuredFrom + options.duration().toNanos();
+        for (long request = 0; ; request++) {
+            var scheduledAt = start + (long) (request * (double) TimeUnit.SECONDS.toNanos(1) / options.rate());
+            if (scheduledAt >= end) {
+                break;
+            }
+            var ahead = scheduledAt - System.nanoTime();
+            if (ahead > 0) {
+                LockSupport.parkNanos(ahead);
+            }
+            var operation = operations[operationDistribution.pick(random.nextDouble())];
+            var cardUUID = cardUUIDs[cardDistribution.pick(random.nextDouble())];
+            send(request, operation, operation.request(cards, cardUUID, new UUID(transactions, request)), scheduledAt, scheduledAt >= measuredFrom);
+        }
+        awaitInFlight();
+        return report;
+    }
+
+    private void send(long id, Operation operation, HttpRequest request, long scheduledAt, boolean measured) {
+        if (measured) {
+            report.scheduled();
+        }
+        inFlight.put(id, new InFlight(operation, scheduledAt, measured));
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            var sent = inFlight.remove(id);
+            if (sent != null && sent.measured()) {
+                var status = failure == null ? String.valueOf(response.statusCode()) : failure.getClass().getSimpleName();
+                report.record(operation, System.nanoTime() - scheduledAt, status);
+            }
+        });
+    }
+
+    /**
+     * Waits for the answers to the requests still in flight. Those not answered within {@link Operation#TIMEOUT}
+     * are recorded as timed out at the deadline, so every scheduled request ends up in the report.
+     */
+    private void awaitInFlight() throws InterruptedException {
+        var deadline = System.nanoTime() + Operation.TIMEOUT.toNanos();
+        while (!inFlight.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        var timedOut = 0;
+        for (var id : inFlight.keySet()) {
+            var unanswered = inFlight.remove(id);
+            if (unanswered != null && unanswered.measured()) {
+                report.timedOut(unanswered.operation(), System.nanoTime() - unanswered.scheduledAt());
+                timedOut++;
+            }
+        }
+        if (timedOut > 0) {
+            System.out.printf("%d requests still unanswered after %s, recorded as timed out%n", timedOut, Operation.TIMEOUT);
+        }
+    }
+
+    private UUID[] createCards() throws IOException, InterruptedException {
+        var cardUUIDs = new UUID[options.cards()];
+        for (int i = 0; i < cardUUIDs.length; i++) {
+            var created = client.send(
+                    HttpRequest.newBuilder(cards.resolve("/v1/debit-cards")).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.ofString()
+            );
+            cardUUIDs[i] = UUID.fromString(objectMapper.readTree(created.body()).get("debitCardId").asText());
+            var limit = client.send(
+                    HttpRequest.newBuilder(cards.resolve(cardUUIDs[i] + "/limit"))
+                            .header("Content-Type", "application/json")
+                            .PUT(HttpRequest.BodyPublishers.ofString("{\"limit\":" + LIMIT + "}"))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding()
+            );
+            if (limit.statusCode() / 100 != 2) {
+                throw new IllegalStateException("Could not assign limit to card %s, status %d".formatted(cardUUIDs[i], limit.statusCode()));
+            }
+        }
+        return cardUUIDs;
+    }
+
+    private record InFlight(Operation operation, long scheduledAt, boolean measured) {
+    }
+}
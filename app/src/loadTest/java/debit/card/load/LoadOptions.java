@@ -0,0 +1,76 @@
+package debit.card.load;
+
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Options given as {@code --name=value} arguments. Without {@code --target} the application is started
+ * in-process with the stub repository.
+ */
+record LoadOptions(
+        Option<URI> target,
+        int cards,
+        double skew,
+        int rate,
+        Duration warmup,
+        Duration duration,
+        Map<Operation, Integer> mix,
+        String run,
+        Path output
+) {
+    static final String DEFAULT_MIX = "charge:60,pay-off:20,summary:16,block:2,unblock:2";
+
+    LoadOptions {
+        if (rate < 1 || cards < 1) {
+            throw new IllegalArgumentException("Rate and number of cards must be positive");
+        }
+        if (mix.values().sum().intValue() < 1) {
+            throw new IllegalArgumentException("Operation mix must have a positive weight");
+        }
+    }
+
+    static LoadOptions parse(String[] args) {
+        var options = List.of(args)
+                .map(arg -> arg.replaceFirst("^--", "").split("=", 2))
+                .toMap(pair -> pair[0], pair -> pair.length > 1 ? pair[1] : "true");
+        var run = options.get("run")
+                .getOrElse(() -> LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+        return new LoadOptions(
+                options.get("target").map(URI::create),
+                options.get("cards").map(Integer::parseInt).getOrElse(1000),
+                options.get("skew").map(Double::parseDouble).getOrElse(1.1),
+                options.get("rate").map(Integer::parseInt).getOrElse(1000),
+                options.get("warmup").map(Duration::parse).getOrElse(Duration.ofSeconds(10)),
+                options.get("duration").map(Duration::parse).getOrElse(Duration.ofSeconds(60)),
+                mixOf(options.get("mix").getOrElse(DEFAULT_MIX)),
+                run,
+                options.get("output").map(Path::of).getOrElse(() -> Path.of("build", "results", "load", run + ".json"))
+        );
+    }
+
+    private static Map<Operation, Integer> mixOf(String mix) {
+        return List.of(mix.split(","))
+                .map(weight -> weight.split(":"))
+                .foldLeft(LinkedHashMap.<Operation, Integer>empty(), (weights, weight) -> weights.put(Operation.of(weight[0]), Integer.parseInt(weight[1])));
+    }
+
+    java.util.Map<String, Object> describe() {
+        return LinkedHashMap.<String, Object>of(
+                "target", target.map(URI::toString).getOrElse("in-process stub"),
+                "cards", cards,
+                "skew", skew,
+                "rate", rate,
+                "warmup", warmup.toString(),
+                "duration", duration.toString(),
+                "mix", mix.mapKeys(Operation::path).toJavaMap()
+        ).toJavaMap();
+    }
+}
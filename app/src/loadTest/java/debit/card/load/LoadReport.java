@@ -0,0 +1,136 @@
+package debit.card.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.TreeMap;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and response statuses of every operation measured after the warmup. Latencies are in nanoseconds from
+ * the time a request was scheduled; the report converts them to milliseconds and also keeps the whole histogram,
+ * compressed and base64 encoded, so runs can be compared or merged with HdrHistogram tools later.
+ */
+final class LoadReport {
+    static final String TIMED_OUT = "timeout";
+    private static final List<Double> PERCENTILES = List.of(50.0, 90.0, 99.0, 99.9, 99.99);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LoadOptions options;
+    private final EnumMap<Operation, OperationResults> operations = new EnumMap<>(Operation.class);
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    LoadReport(LoadOptions options) {
+        this.options = options;
+        for (var operation : Operation.values()) {
+            operations.put(operation, new OperationResults());
+        }
+    }
+
+    void scheduled() {
+        scheduled.increment();
+    }
+
+    void record(Operation operation, long latencyNanos, String status) {
+        operations.get(operation).record(latencyNanos, status);
+    }
+
+    /**
+     * A request given up on without an answer, with its latency so far.
+     */
+    void timedOut(Operation operation, long latencyNanos) {
+        timedOut.increment();
+        record(operation, latencyNanos, TIMED_OUT);
+    }
+
+    void write(Path output) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(output.toFile(), toJson());
+    }
+
+    void print(PrintStream out) {
+        out.printf("%nrun %s: %d requests scheduled at %d/s over %s, %d timed out%n",
+                options.run(), scheduled.sum(), options.rate(), options.duration(), timedOut.sum());
+        out.printf("%-8s %9s %9s %9s %9s %9s %9s %9s  %s%n", "", "count", "p50", "p90", "p99", "p99.9", "p99.99", "max", "statuses");
+        operations.forEach((operation, results) -> {
+            var histogram = results.latencies;
+            if (histogram.getTotalCount() > 0) {
+                out.printf("%-8s %9d", operation.path(), histogram.getTotalCount());
+                PERCENTILES.forEach(percentile -> out.printf(" %9.2f", millis(histogram.getValueAtPercentile(percentile))));
+                out.printf(" %9.2f  %s%n", millis(histogram.getMaxValue()), results.statuses());
+            }
+        });
+    }
+
+    private java.util.Map<String, Object> toJson() {
+        var json = new java.util.LinkedHashMap<String, Object>();
+        json.put("run", options.run());
+        json.put("options", options.describe());
+        json.put("scheduled", scheduled.sum());
+        json.put("timedOut", timedOut.sum());
+        json.put("achievedRate", operations.values().stream().mapToLong(results -> results.latencies.getTotalCount()).sum()
+                / (double) options.duration().toSeconds());
+        var byOperation = new java.util.LinkedHashMap<String, Object>();
+        operations.forEach((operation, results) -> {
+            if (results.latencies.getTotalCount() > 0) {
+                byOperation.put(operation.path(), results.toJson());
+            }
+        });
+        json.put("operations", byOperation);
+        return json;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+
+    private static final class OperationResults {
+        private final Histogram latencies = new ConcurrentHistogram(3);
+        private final ConcurrentHashMap<String, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        void record(long latencyNanos, String status) {
+            latencies.recordValue(latencyNanos);
+            statuses.computeIfAbsent(status, ignored -> new LongAdder()).increment();
+        }
+
+        java.util.Map<String, Long> statuses() {
+            return TreeMap.ofAll(statuses).mapValues(LongAdder::sum).toJavaMap();
+        }
+
+        java.util.Map<String, Object> toJson() {
+            var latencyMillis = PERCENTILES
+                    .foldLeft(LinkedHashMap.<String, Object>empty(), (json, percentile) ->
+                            json.put("p" + percentile.toString().replaceFirst("\\.0$", ""), millis(latencies.getValueAtPercentile(percentile))))
+                    .put("max", millis(latencies.getMaxValue()))
+                    .put("mean", latencies.getMean() / NANOS_PER_MILLI);
+            return LinkedHashMap.<String, Object>of(
+                    "count", latencies.getTotalCount(),
+                    "statuses", statuses(),
+                    "latencyMillis", latencyMillis.toJavaMap(),
+                    "histogram", encoded(latencies)
+            ).toJavaMap();
+        }
+
+        private static String encoded(Histogram histogram) {
+            var buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+            var length = histogram.encodeIntoCompressedByteBuffer(buffer);
+            return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length));
+        }
+    }
+}
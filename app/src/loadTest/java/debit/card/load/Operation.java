@@ -0,0 +1,53 @@
+package debit.card.load;
+
+import io.vavr.collection.List;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Requests sent to {@code /v1/debit-cards}, named in the operation mix by the last segment of their path.
+ */
+enum Operation {
+    CHARGE("charge"),
+    PAY_OFF("pay-off"),
+    SUMMARY("summary"),
+    BLOCK("block"),
+    UNBLOCK("unblock");
+
+    static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+    private final String path;
+
+    Operation(String path) {
+        this.path = path;
+    }
+
+    static Operation of(String path) {
+        return List.of(values())
+                .find(operation -> operation.path.equals(path))
+                .getOrElseThrow(() -> new IllegalArgumentException("Unknown operation " + path));
+    }
+
+    String path() {
+        return path;
+    }
+
+    HttpRequest request(URI cards, UUID cardUUID, UUID transactionUUID) {
+        var card = HttpRequest.newBuilder(cards.resolve(this == SUMMARY ? cardUUID.toString() : cardUUID + "/" + path))
+                .timeout(TIMEOUT);
+        return switch (this) {
+            case SUMMARY -> card.GET().build();
+            case CHARGE, PAY_OFF -> card
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString("""
+                            {"transactionUUID":"%s","amount":%s}""".formatted(transactionUUID, AMOUNT)))
+                    .build();
+            case BLOCK, UNBLOCK -> card.PUT(HttpRequest.BodyPublishers.noBody()).build();
+        };
+    }
+}
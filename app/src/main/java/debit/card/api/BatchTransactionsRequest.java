@@ -0,0 +1,77 @@
+package debit.card.api;
+
+import debit.card.domain.commands.ChargeCardCommand;
+import debit.card.domain.commands.PayOffCardCommand;
+import debit.card.domain.commands.TransactionCardCommand;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * At most {@value MAX_BATCH_SIZE} transactions, every one of them complete. An invalid batch is rejected as a whole
+ * before any transaction is applied.
+ */
+record BatchTransactionsRequest(
+        Collection<BatchTransactionItem> transactions
+) {
+    static final int MAX_BATCH_SIZE = 1000;
+
+    Option<ErrorView> validate() {
+        if (transactions == null) {
+            return Option.some(new ErrorView("InvalidBatchError", HashMap.of("missingFields", List.of("transactions"))));
+        }
+        if (transactions.size() > MAX_BATCH_SIZE) {
+            return Option.some(new ErrorView("BatchTooLargeError", HashMap.of("size", transactions.size(), "maxSize", MAX_BATCH_SIZE)));
+        }
+        return List.ofAll(transactions)
+                .zipWithIndex()
+                .find(item -> item._1 == null || item._1.missingFields().nonEmpty())
+                .map(item -> BatchTransactionItem.invalidItemError(item._1, item._2));
+    }
+
+    List<TransactionCardCommand> toCommands() {
+        return List.ofAll(transactions).map(BatchTransactionItem::toCommand);
+    }
+}
+
+record BatchTransactionItem(
+        UUID debitCardUUID,
+        TransactionType type,
+        UUID transactionUUID,
+        BigDecimal amount
+) {
+    static final List<String> ALL_FIELDS = List.of("debitCardUUID", "type", "transactionUUID", "amount");
+
+    List<String> missingFields() {
+        return List.of(
+                Option.when(debitCardUUID == null, "debitCardUUID"),
+                Option.when(type == null, "type"),
+                Option.when(transactionUUID == null, "transactionUUID"),
+                Option.when(amount == null, "amount")
+        ).flatMap(Function.identity());
+    }
+
+    static ErrorView invalidItemError(BatchTransactionItem item, int index) {
+        return new ErrorView("InvalidBatchItemError", HashMap.of(
+                "index", index,
+                "missingFields", item == null ? ALL_FIELDS : item.missingFields()
+        ));
+    }
+
+    TransactionCardCommand toCommand() {
+        return switch (type) {
+            case CHARGE -> new ChargeCardCommand(debitCardUUID, transactionUUID, amount);
+            case PAY_OFF -> new PayOffCardCommand(debitCardUUID, transactionUUID, amount);
+        };
+    }
+
+    enum TransactionType {
+        CHARGE,
+        PAY_OFF
+    }
+}
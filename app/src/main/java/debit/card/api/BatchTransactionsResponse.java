@@ -0,0 +1,21 @@
+package debit.card.api;
+
+import io.vavr.collection.List;
+import org.springframework.http.ResponseEntity;
+
+record BatchTransactionsResponse(
+        List<BatchItemResult> results
+) {
+}
+
+/**
+ * Outcome of a single batch item: the status and body the single-item endpoint would have answered with.
+ */
+record BatchItemResult(
+        int status,
+        Object result
+) {
+    static BatchItemResult from(ResponseEntity<?> response) {
+        return new BatchItemResult(response.getStatusCode().value(), response.getBody());
+    }
+}
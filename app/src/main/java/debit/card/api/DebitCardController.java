@@ -1,25 +1,47 @@
 package debit.card.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import debit.card.domain.DebitCardFacade;
 import debit.card.domain.commands.*;
+import debit.card.view.TransactionHistoryEntry;
+import debit.card.view.TransactionHistoryQuery;
 import io.vavr.collection.HashMap;
+import io.vavr.control.Option;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.io.IOException;
 import java.util.UUID;
 
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
 
 @RestController
 @RequestMapping("/v1/debit-cards")
 class DebitCardController {
     private static final Logger log = LoggerFactory.getLogger(DebitCardController.class);
+    static final String DEBIT_CARD_INGESTION_IN_FLIGHT_WINDOW = "debit.card.ingestion.in-flight-window";
+    static final int MAX_TRANSACTIONS_PAGE_SIZE = 500;
+
     private final DebitCardFacade debitCardFacade;
+    private final TransactionStreamIngestion transactionStreamIngestion;
 
-    DebitCardController(DebitCardFacade debitCardFacade) {
+    DebitCardController(
+            DebitCardFacade debitCardFacade,
+            ObjectMapper objectMapper,
+            @Value("${" + DEBIT_CARD_INGESTION_IN_FLIGHT_WINDOW + ":" + TransactionStreamIngestion.DEFAULT_IN_FLIGHT_WINDOW + "}") int inFlightWindow
+    ) {
         this.debitCardFacade = debitCardFacade;
+        this.transactionStreamIngestion = new TransactionStreamIngestion(debitCardFacade, objectMapper, inFlightWindow);
     }
 
     @PostMapping
@@ -28,9 +50,58 @@ class DebitCardController {
         return ResponseEntity.ok(new DebitCardCreationResponse(debitCardFacade.createNewCard()));
     }
 
+    /**
+     * A conditional GET first reads only the version, so a matching {@code If-None-Match} is answered without the
+     * summary. Any other GET reads the versioned summary once and checks it.
+     */
     @GetMapping("/{debitCardUUID}")
-    ResponseEntity<?> getCardSummary(@PathVariable(name = "debitCardUUID") UUID debitCardUUID) {
-        return debitCardFacade.getSummary(debitCardUUID).fold(
+    ResponseEntity<?> getCardSummary(@PathVariable(name = "debitCardUUID") UUID debitCardUUID, WebRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            var notModified = debitCardFacade.getVersion(debitCardUUID)
+                    .map(DebitCardController::eTagOf)
+                    .filter(request::checkNotModified);
+            if (notModified.isDefined()) {
+                return notModified(notModified.get());
+            }
+        }
+        return debitCardFacade.getVersionedSummary(debitCardUUID).fold(
+                () -> debitCardNotFound(debitCardUUID),
+                versioned -> {
+                    var eTag = eTagOf(versioned.version());
+                    return request.checkNotModified(eTag)
+                            ? notModified(eTag)
+                            : ResponseEntity.ok().eTag(eTag).body(versioned.summary());
+                }
+        );
+    }
+
+    private static ResponseEntity<?> notModified(String eTag) {
+        return ResponseEntity.status(NOT_MODIFIED).eTag(eTag).build();
+    }
+
+    private static String eTagOf(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Transactions of the card after the {@code after} cursor, taken from {@code nextCursor} of the previous page.
+     * The page size is capped at {@value MAX_TRANSACTIONS_PAGE_SIZE}.
+     */
+    @GetMapping("/{debitCardUUID}/transactions")
+    ResponseEntity<?> getTransactions(
+            @PathVariable(name = "debitCardUUID") UUID debitCardUUID,
+            @RequestParam(name = "after", defaultValue = "-1") long after,
+            @RequestParam(name = "limit", defaultValue = "50") int limit,
+            @RequestParam(name = "outcome", required = false) TransactionHistoryEntry.Outcome outcome,
+            @RequestParam(name = "type", required = false) TransactionHistoryEntry.Type type
+    ) {
+        var query = new TransactionHistoryQuery(
+                after,
+                Math.max(1, Math.min(limit, MAX_TRANSACTIONS_PAGE_SIZE)),
+                Option.of(outcome),
+                Option.of(type)
+        );
+        return debitCardFacade.getTransactions(debitCardUUID, query).fold(
                 () -> debitCardNotFound(debitCardUUID),
                 ResponseEntity::ok
         );
@@ -68,6 +139,31 @@ class DebitCardController {
         );
     }
 
+    /**
+     * Applies up to {@value BatchTransactionsRequest#MAX_BATCH_SIZE} transactions. A batch that is too large or has
+     * an incomplete item is answered with 400 and the index of the first bad item, and nothing is applied.
+     */
+    @PostMapping("/transactions")
+    ResponseEntity<?> applyTransactions(@RequestBody BatchTransactionsRequest request) {
+        var invalid = request.validate();
+        if (invalid.isDefined()) {
+            return new ResponseEntity<>(invalid.get(), BAD_REQUEST);
+        }
+        var results = debitCardFacade.applyTransactions(request.toCommands())
+                .map(result -> result.<ResponseEntity<?>>fold(
+                        DebitCardErrorMapper::mapErrorToResultEntity,
+                        ResponseEntity::ok
+                ))
+                .map(BatchItemResult::from);
+        return ResponseEntity.ok(new BatchTransactionsResponse(results));
+    }
+
+    @PostMapping(value = "/transactions/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    void streamTransactions(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        transactionStreamIngestion.ingest(request.getInputStream(), response.getOutputStream());
+    }
+
     @PutMapping("/{debitCardUUID}/block")
     ResponseEntity<?> blockCard(@PathVariable(name = "debitCardUUID") UUID debitCardUUID) {
         return debitCardFacade.blockCard(new BlockCardCommand(debitCardUUID)).fold(
@@ -7,12 +7,16 @@ import org.springframework.http.ResponseEntity;
 
 import static debit.card.domain.DebitCardError.*;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.CONFLICT;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 
 class DebitCardErrorMapper {
     static ResponseEntity<ErrorView> mapErrorToResultEntity(CardCommand command, DebitCardError error) {
         return switch (error) {
             case CardNotFoundError cardNotFoundError -> notFound(command, cardNotFoundError);
+            case ConcurrentModificationError concurrentModificationError -> conflict(command, concurrentModificationError);
+            case CardBusyError cardBusyError -> serviceUnavailable(command, cardBusyError);
             default -> badRequest(command, error);
         };
     }
@@ -22,6 +26,14 @@ class DebitCardErrorMapper {
         return new ResponseEntity<>(errorView(command, cardNotFoundError), NOT_FOUND);
     }
 
+    private static ResponseEntity<ErrorView> conflict(CardCommand command, ConcurrentModificationError concurrentModificationError) {
+        return new ResponseEntity<>(errorView(command, concurrentModificationError), CONFLICT);
+    }
+
+    private static ResponseEntity<ErrorView> serviceUnavailable(CardCommand command, CardBusyError cardBusyError) {
+        return new ResponseEntity<>(errorView(command, cardBusyError), SERVICE_UNAVAILABLE);
+    }
+
     private static ResponseEntity<ErrorView> badRequest(CardCommand command, DebitCardError debitCardError) {
         return new ResponseEntity<>(errorView(command, debitCardError), BAD_REQUEST);
     }
@@ -0,0 +1,216 @@
+package debit.card.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import debit.card.domain.commands.*;
+import debit.card.view.DebitCardSummary;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+/**
+ * Streaming codecs for the request and response bodies of card operations. They read and write tokens directly,
+ * without bean introspection or the Vavr module, and produce the same JSON as the default configuration.
+ * UUIDs are read only in their canonical 36 character form, see {@link UuidChars}.
+ */
+final class HotPathJsonModule extends SimpleModule {
+    private static final SerializedString CARD_UUID = new SerializedString("cardUUID");
+    private static final SerializedString TRANSACTION_UUID = new SerializedString("transactionUUID");
+    private static final SerializedString AMOUNT = new SerializedString("amount");
+    private static final SerializedString LIMIT = new SerializedString("limit");
+    private static final SerializedString BALANCE = new SerializedString("balance");
+    private static final SerializedString BLOCKED = new SerializedString("blocked");
+
+    HotPathJsonModule() {
+        super("debit-card-hot-path");
+        addDeserializer(ChargeCardRequest.class, new TransactionRequestDeserializer<>(ChargeCardRequest.class, ChargeCardRequest::new));
+        addDeserializer(PayOffRequest.class, new TransactionRequestDeserializer<>(PayOffRequest.class, PayOffRequest::new));
+        addDeserializer(AssignLimitRequest.class, new AssignLimitRequestDeserializer());
+        addSerializer(DebitCardSummary.class, new DebitCardSummarySerializer());
+        addSerializer(ChargeCardCommand.class, new TransactionCommandSerializer());
+        addSerializer(PayOffCardCommand.class, new TransactionCommandSerializer());
+        addSerializer(AssignLimitCommand.class, new AssignLimitCommandSerializer());
+        addSerializer(BlockCardCommand.class, new CardCommandSerializer());
+        addSerializer(UnblockCardCommand.class, new CardCommandSerializer());
+    }
+
+    private static final class TransactionRequestDeserializer<T> extends StdDeserializer<T> {
+        private final BiFunction<UUID, BigDecimal, T> factory;
+
+        TransactionRequestDeserializer(Class<T> type, BiFunction<UUID, BigDecimal, T> factory) {
+            super(type);
+            this.factory = factory;
+        }
+
+        @Override
+        public T deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            UUID transactionUUID = null;
+            BigDecimal amount = null;
+            for (var field = firstFieldName(parser, context, handledType()); field != null; field = parser.nextFieldName()) {
+                parser.nextToken();
+                switch (field) {
+                    case "transactionUUID" -> transactionUUID = readUUID(parser, context);
+                    case "amount" -> amount = readDecimal(parser, context);
+                    default -> parser.skipChildren();
+                }
+            }
+            return factory.apply(transactionUUID, amount);
+        }
+    }
+
+    private static final class AssignLimitRequestDeserializer extends StdDeserializer<AssignLimitRequest> {
+        AssignLimitRequestDeserializer() {
+            super(AssignLimitRequest.class);
+        }
+
+        @Override
+        public AssignLimitRequest deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            BigDecimal limit = null;
+            for (var field = firstFieldName(parser, context, handledType()); field != null; field = parser.nextFieldName()) {
+                parser.nextToken();
+                if (field.equals("limit")) {
+                    limit = readDecimal(parser, context);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new AssignLimitRequest(limit);
+        }
+    }
+
+    private static final class DebitCardSummarySerializer extends StdSerializer<DebitCardSummary> {
+        DebitCardSummarySerializer() {
+            super(DebitCardSummary.class);
+        }
+
+        @Override
+        public void serialize(DebitCardSummary summary, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(summary);
+            generator.writeFieldName(CARD_UUID);
+            writeUUID(generator, summary.cardUUID());
+            generator.writeFieldName(BALANCE);
+            generator.writeNumber(summary.balance());
+            generator.writeFieldName(LIMIT);
+            generator.writeNumber(summary.limit().getOrNull());
+            generator.writeFieldName(BLOCKED);
+            generator.writeBoolean(summary.blocked());
+            generator.writeEndObject();
+        }
+    }
+
+    private static final class TransactionCommandSerializer extends StdSerializer<TransactionCardCommand> {
+        TransactionCommandSerializer() {
+            super(TransactionCardCommand.class);
+        }
+
+        @Override
+        public void serialize(TransactionCardCommand command, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(command);
+            generator.writeFieldName(CARD_UUID);
+            writeUUID(generator, command.cardUUID());
+            generator.writeFieldName(TRANSACTION_UUID);
+            writeUUID(generator, command.transactionUUID());
+            generator.writeFieldName(AMOUNT);
+            generator.writeNumber(command.amount());
+            generator.writeEndObject();
+        }
+    }
+
+    private static final class AssignLimitCommandSerializer extends StdSerializer<AssignLimitCommand> {
+        AssignLimitCommandSerializer() {
+            super(AssignLimitCommand.class);
+        }
+
+        @Override
+        public void serialize(AssignLimitCommand command, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(command);
+            generator.writeFieldName(CARD_UUID);
+            writeUUID(generator, command.cardUUID());
+            generator.writeFieldName(LIMIT);
+            generator.writeNumber(command.limit());
+            generator.writeEndObject();
+        }
+    }
+
+    private static final class CardCommandSerializer extends StdSerializer<CardCommand> {
+        CardCommandSerializer() {
+            super(CardCommand.class);
+        }
+
+        @Override
+        public void serialize(CardCommand command, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(command);
+            generator.writeFieldName(CARD_UUID);
+            writeUUID(generator, command.cardUUID());
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Name of the first field of an object, accepting a parser positioned either on the start of the object
+     * or already on its first field.
+     */
+    private static String firstFieldName(JsonParser parser, DeserializationContext context, Class<?> type) throws IOException {
+        if (parser.isExpectedStartObjectToken()) {
+            return parser.nextFieldName();
+        }
+        if (parser.hasToken(JsonToken.FIELD_NAME)) {
+            return parser.currentName();
+        }
+        if (parser.hasToken(JsonToken.END_OBJECT)) {
+            return null;
+        }
+        context.handleUnexpectedToken(type, parser);
+        return null;
+    }
+
+    private static UUID readUUID(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.hasToken(JsonToken.VALUE_NULL)) {
+            return null;
+        }
+        if (!parser.hasToken(JsonToken.VALUE_STRING)) {
+            return (UUID) context.handleUnexpectedToken(UUID.class, parser);
+        }
+        var uuid = UuidChars.parse(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        if (uuid == null) {
+            return (UUID) context.handleWeirdStringValue(UUID.class, parser.getText(), "not a valid UUID");
+        }
+        return uuid;
+    }
+
+    private static BigDecimal readDecimal(JsonParser parser, DeserializationContext context) throws IOException {
+        return switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getDecimalValue();
+            case VALUE_STRING -> parseDecimal(parser, context);
+            case VALUE_NULL -> null;
+            default -> (BigDecimal) context.handleUnexpectedToken(BigDecimal.class, parser);
+        };
+    }
+
+    private static BigDecimal parseDecimal(JsonParser parser, DeserializationContext context) throws IOException {
+        try {
+            return new BigDecimal(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        } catch (NumberFormatException e) {
+            return (BigDecimal) context.handleWeirdStringValue(BigDecimal.class, parser.getText(), "not a valid decimal");
+        }
+    }
+
+    private static void writeUUID(JsonGenerator generator, UUID uuid) throws IOException {
+        if (uuid == null) {
+            generator.writeNull();
+            return;
+        }
+        var chars = new char[UuidChars.LENGTH];
+        UuidChars.write(uuid, chars);
+        generator.writeString(chars, 0, UuidChars.LENGTH);
+    }
+}
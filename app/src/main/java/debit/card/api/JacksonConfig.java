@@ -10,4 +10,9 @@ class JacksonConfig {
     com.fasterxml.jackson.databind.Module vavrModule() {
         return new VavrModule();
     }
+
+    @Bean
+    com.fasterxml.jackson.databind.Module hotPathJsonModule() {
+        return new HotPathJsonModule();
+    }
 }
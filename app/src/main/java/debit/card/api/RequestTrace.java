@@ -0,0 +1,125 @@
+package debit.card.api;
+
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Stage timings of a single request, collected only when the request is traced. The trace is bound to the thread
+ * handling the request and follows commands onto card lanes; the facade, the repository stages and the stores add
+ * spans to it through {@link ThreadLocalRequestTracing}, anything outside a traced request records nothing.
+ */
+final class RequestTrace {
+    static final String SERVER_TIMING = "Server-Timing";
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String request;
+    private final Instant startedAt = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentLinkedQueue<Span> spans = new ConcurrentLinkedQueue<>();
+    private volatile long handledAtNanos;
+    private volatile long durationNanos = -1;
+
+    record Span(String stage, long offsetNanos, long durationNanos) {
+    }
+
+    private RequestTrace(String request) {
+        this.request = request;
+    }
+
+    /**
+     * Starts tracing the request on the current thread, until {@link #end()}.
+     */
+    static RequestTrace begin(String request) {
+        var trace = new RequestTrace(request);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    static Option<RequestTrace> current() {
+        return Option.of(CURRENT.get());
+    }
+
+    /**
+     * Runs the call with this trace bound to the current thread, which may be another than the one of the request.
+     */
+    <T> T bound(Supplier<T> call) {
+        var previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Adds a span of the given stage from {@code startedAt}, a {@link System#nanoTime()} reading, until now.
+     */
+    void record(String stage, long startedAt) {
+        record(stage, startedAt, System.nanoTime() - startedAt);
+    }
+
+    void record(String stage, long startedAt, long durationNanos) {
+        spans.add(new Span(stage, startedAt - startNanos, durationNanos));
+    }
+
+    /**
+     * Marks the end of handling, right before the response is written, and returns the {@value SERVER_TIMING}
+     * header of the stages measured so far. Writing the response is added to the trace when it ends.
+     */
+    String handled() {
+        if (handledAtNanos == 0) {
+            record("handler", startNanos);
+            handledAtNanos = System.nanoTime();
+        }
+        return serverTiming();
+    }
+
+    void end() {
+        if (handledAtNanos != 0) {
+            record("write", handledAtNanos);
+        }
+        durationNanos = System.nanoTime() - startNanos;
+        CURRENT.remove();
+    }
+
+    String request() {
+        return request;
+    }
+
+    Instant startedAt() {
+        return startedAt;
+    }
+
+    long durationNanos() {
+        return durationNanos < 0 ? System.nanoTime() - startNanos : durationNanos;
+    }
+
+    List<Span> spans() {
+        return List.ofAll(spans).sortBy(Span::offsetNanos);
+    }
+
+    /**
+     * Time spent in every stage, summed over its spans, e.g. {@code load;dur=0.412, persist;dur=1.305;desc="x2"}.
+     */
+    String serverTiming() {
+        return spans()
+                .foldLeft(LinkedHashMap.<String, List<Span>>empty(), (byStage, span) -> byStage.put(span.stage(), List.of(span), List::appendAll))
+                .map(stage -> serverTimingOf(stage._1, stage._2.map(Span::durationNanos).sum().longValue(), stage._2.size()))
+                .append(serverTimingOf("total", durationNanos(), 1))
+                .mkString(", ");
+    }
+
+    private static String serverTimingOf(String stage, long durationNanos, int count) {
+        var timing = String.format(Locale.ROOT, "%s;dur=%.3f", stage, durationNanos / NANOS_PER_MILLI);
+        return count > 1 ? timing + ";desc=\"x" + count + "\"" : timing;
+    }
+}
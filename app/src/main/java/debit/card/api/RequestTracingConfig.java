@@ -0,0 +1,40 @@
+package debit.card.api;
+
+import debit.card.domain.RequestTracing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+class RequestTracingConfig {
+    static final String DEBIT_CARD_TRACE_SAMPLE_RATE = "debit.card.trace.sample-rate";
+    static final String DEBIT_CARD_TRACE_SLOWEST = "debit.card.trace.slowest";
+    static final String DEBIT_CARD_TRACE_DEBUG_HEADER_ENABLED = "debit.card.trace.debug-header-enabled";
+
+    @Bean
+    RequestTracing requestTracing() {
+        return new ThreadLocalRequestTracing();
+    }
+
+    @Bean
+    SlowestTraces slowestTraces(@Value("${" + DEBIT_CARD_TRACE_SLOWEST + ":100}") int capacity) {
+        return new SlowestTraces(capacity);
+    }
+
+    @Bean
+    FilterRegistrationBean<RequestTracingFilter> requestTracingFilter(
+            @Value("${" + DEBIT_CARD_TRACE_SAMPLE_RATE + ":0}") double sampleRate,
+            @Value("${" + DEBIT_CARD_TRACE_DEBUG_HEADER_ENABLED + ":false}") boolean debugHeaderEnabled,
+            SlowestTraces slowestTraces
+    ) {
+        var registration = new FilterRegistrationBean<>(new RequestTracingFilter(sampleRate, debugHeaderEnabled, slowestTraces));
+        registration.addUrlPatterns("/v1/debit-cards/*");
+        return registration;
+    }
+
+    @Bean
+    SlowRequestsEndpoint slowRequestsEndpoint(SlowestTraces slowestTraces) {
+        return new SlowRequestsEndpoint(slowestTraces);
+    }
+}
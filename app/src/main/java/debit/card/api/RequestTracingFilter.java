@@ -0,0 +1,53 @@
+package debit.card.api;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Traces a random sample of requests and offers every finished trace to the {@link SlowestTraces}. Only when the
+ * debug header is enabled, requests can also ask for tracing with the {@value TRACE_HEADER} header, and the
+ * response of a traced request carries the {@value RequestTrace#SERVER_TIMING} header.
+ */
+class RequestTracingFilter extends OncePerRequestFilter {
+    static final String TRACE_HEADER = "X-Debug-Trace";
+
+    private final double sampleRate;
+    private final boolean debugHeaderEnabled;
+    private final SlowestTraces slowestTraces;
+
+    RequestTracingFilter(double sampleRate, boolean debugHeaderEnabled, SlowestTraces slowestTraces) {
+        this.sampleRate = sampleRate;
+        this.debugHeaderEnabled = debugHeaderEnabled;
+        this.slowestTraces = slowestTraces;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!isTraced(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        var trace = RequestTrace.begin(request.getMethod() + " " + request.getRequestURI());
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            trace.end();
+            if (debugHeaderEnabled && !response.isCommitted() && !response.containsHeader(RequestTrace.SERVER_TIMING)) {
+                response.setHeader(RequestTrace.SERVER_TIMING, trace.serverTiming());
+            }
+            slowestTraces.offer(TracedRequest.of(trace, response.getStatus()));
+        }
+    }
+
+    private boolean isTraced(HttpServletRequest request) {
+        return (debugHeaderEnabled && Boolean.parseBoolean(request.getHeader(TRACE_HEADER)))
+                || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+}
@@ -0,0 +1,44 @@
+package debit.card.api;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import static debit.card.api.RequestTracingConfig.DEBIT_CARD_TRACE_DEBUG_HEADER_ENABLED;
+
+/**
+ * Sets the {@value RequestTrace#SERVER_TIMING} header of a traced request before its body is serialized, once the
+ * response is committed it is too late to add headers. Serialization itself only shows up in the kept trace.
+ * The header is only set when the debug header is enabled, the end of handling is marked either way.
+ */
+@ControllerAdvice(assignableTypes = DebitCardController.class)
+class ServerTimingAdvice implements ResponseBodyAdvice<Object> {
+    private final boolean debugHeaderEnabled;
+
+    ServerTimingAdvice(@Value("${" + DEBIT_CARD_TRACE_DEBUG_HEADER_ENABLED + ":false}") boolean debugHeaderEnabled) {
+        this.debugHeaderEnabled = debugHeaderEnabled;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        RequestTrace.current().forEach(trace -> {
+            var serverTiming = trace.handled();
+            if (debugHeaderEnabled) {
+                response.getHeaders().set(RequestTrace.SERVER_TIMING, serverTiming);
+            }
+        });
+        return body;
+    }
+}
@@ -0,0 +1,29 @@
+package debit.card.api;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.List;
+
+/**
+ * {@code /actuator/slowrequests} lists the slowest traced requests, slowest first; a delete starts over.
+ */
+@Endpoint(id = "slowrequests")
+class SlowRequestsEndpoint {
+    private final SlowestTraces slowestTraces;
+
+    SlowRequestsEndpoint(SlowestTraces slowestTraces) {
+        this.slowestTraces = slowestTraces;
+    }
+
+    @ReadOperation
+    public List<TracedRequest> slowest() {
+        return slowestTraces.slowest().toJavaList();
+    }
+
+    @DeleteOperation
+    public void clear() {
+        slowestTraces.clear();
+    }
+}
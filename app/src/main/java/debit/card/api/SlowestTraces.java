@@ -0,0 +1,48 @@
+package debit.card.api;
+
+import io.vavr.collection.List;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * The slowest traced requests seen since start or the last {@link #clear()}, at most {@code capacity} of them.
+ * A trace faster than all kept ones is dropped without taking the lock once the buffer is full.
+ */
+class SlowestTraces {
+    private final int capacity;
+    private final PriorityQueue<TracedRequest> fastestFirst = new PriorityQueue<>(Comparator.comparingDouble(TracedRequest::durationMillis));
+    private volatile double threshold;
+
+    SlowestTraces(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void offer(TracedRequest trace) {
+        if (capacity < 1 || trace.durationMillis() <= threshold) {
+            return;
+        }
+        synchronized (fastestFirst) {
+            fastestFirst.add(trace);
+            if (fastestFirst.size() > capacity) {
+                fastestFirst.poll();
+            }
+            if (fastestFirst.size() == capacity) {
+                threshold = fastestFirst.peek().durationMillis();
+            }
+        }
+    }
+
+    List<TracedRequest> slowest() {
+        synchronized (fastestFirst) {
+            return List.ofAll(fastestFirst).sortBy(trace -> -trace.durationMillis());
+        }
+    }
+
+    void clear() {
+        synchronized (fastestFirst) {
+            fastestFirst.clear();
+            threshold = 0;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package debit.card.api;
+
+import debit.card.domain.RequestTracing;
+
+import java.util.function.Supplier;
+
+/**
+ * Adds the stages reported by the domain to the {@link RequestTrace} bound to the thread, when the request is
+ * traced.
+ */
+final class ThreadLocalRequestTracing implements RequestTracing {
+
+    @Override
+    public <T> T stage(String stage, Supplier<T> call) {
+        var trace = RequestTrace.current();
+        if (trace.isEmpty()) {
+            return call.get();
+        }
+        var startedAt = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            trace.get().record(stage, startedAt);
+        }
+    }
+
+    @Override
+    public void recordStage(String stage, long startedAt, long durationNanos) {
+        RequestTrace.current().forEach(trace -> trace.record(stage, startedAt, durationNanos));
+    }
+
+    @Override
+    public Runnable startStage(String stage) {
+        var trace = RequestTrace.current();
+        if (trace.isEmpty()) {
+            return RequestTracing.super.startStage(stage);
+        }
+        var startedAt = System.nanoTime();
+        return () -> trace.get().record(stage, startedAt);
+    }
+
+    /**
+     * Also records how long the command waited to be started, as the {@code lane-queue} stage.
+     */
+    @Override
+    public <T> Supplier<T> propagated(Supplier<T> command) {
+        var trace = RequestTrace.current();
+        if (trace.isEmpty()) {
+            return command;
+        }
+        var queuedAt = System.nanoTime();
+        return () -> trace.get().bound(() -> {
+            trace.get().record("lane-queue", queuedAt);
+            return command.get();
+        });
+    }
+}
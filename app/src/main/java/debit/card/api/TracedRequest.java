@@ -0,0 +1,33 @@
+package debit.card.api;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A finished trace as returned by the {@code slowrequests} actuator endpoint, with times in milliseconds and spans
+ * in the order they started.
+ */
+record TracedRequest(
+        String request,
+        int status,
+        Instant startedAt,
+        double durationMillis,
+        List<TracedSpan> spans
+) {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    static TracedRequest of(RequestTrace trace, int status) {
+        return new TracedRequest(
+                trace.request(),
+                status,
+                trace.startedAt(),
+                trace.durationNanos() / NANOS_PER_MILLI,
+                trace.spans()
+                        .map(span -> new TracedSpan(span.stage(), span.offsetNanos() / NANOS_PER_MILLI, span.durationNanos() / NANOS_PER_MILLI))
+                        .toJavaList()
+        );
+    }
+
+    record TracedSpan(String stage, double offsetMillis, double durationMillis) {
+    }
+}
@@ -0,0 +1,138 @@
+package debit.card.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import debit.card.domain.DebitCardFacade;
+import debit.card.domain.DebitCardOperationResult;
+import debit.card.domain.commands.TransactionCardCommand;
+import io.vavr.collection.HashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+
+/**
+ * Reads newline-delimited transaction records one by one and writes one result line per record, in the order
+ * of the records. At most {@code inFlightWindow} records are handed to the facade and not yet answered; when
+ * the window is full the oldest one is awaited before the next record is read, so a slow store throttles
+ * the reader and memory does not grow with the length of the stream. A record whose processing failed is
+ * answered with an error line and the stream goes on.
+ */
+class TransactionStreamIngestion {
+    private static final Logger log = LoggerFactory.getLogger(TransactionStreamIngestion.class);
+    static final String DEFAULT_IN_FLIGHT_WINDOW = "256";
+
+    private final DebitCardFacade debitCardFacade;
+    private final ObjectReader itemReader;
+    private final ObjectWriter resultWriter;
+    private final ObjectMapper objectMapper;
+    private final int inFlightWindow;
+
+    TransactionStreamIngestion(DebitCardFacade debitCardFacade, ObjectMapper objectMapper, int inFlightWindow) {
+        if (inFlightWindow < 1) {
+            throw new IllegalArgumentException("In-flight window must be positive, got " + inFlightWindow);
+        }
+        this.debitCardFacade = debitCardFacade;
+        this.objectMapper = objectMapper;
+        this.itemReader = objectMapper.readerFor(BatchTransactionItem.class);
+        this.resultWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.inFlightWindow = inFlightWindow;
+    }
+
+    void ingest(InputStream records, OutputStream results) throws IOException {
+        var inFlight = new ArrayDeque<Pending>(inFlightWindow);
+        try (var generator = objectMapper.getFactory().createGenerator(results);
+             var items = itemReader.<BatchTransactionItem>readValues(records)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            var index = 0;
+            try {
+                while (items.hasNextValue()) {
+                    if (inFlight.size() == inFlightWindow) {
+                        writeResult(generator, awaitOldest(generator, inFlight));
+                    }
+                    var item = items.nextValue();
+                    if (item == null || item.missingFields().nonEmpty()) {
+                        drain(generator, inFlight);
+                        writeLine(generator, BatchItemResult.from(new ResponseEntity<>(BatchTransactionItem.invalidItemError(item, index), BAD_REQUEST)));
+                        return;
+                    }
+                    var command = item.toCommand();
+                    inFlight.add(new Pending(command, debitCardFacade.submitTransaction(command)));
+                    index++;
+                }
+            } catch (JsonProcessingException invalidRecord) {
+                drain(generator, inFlight);
+                writeLine(generator, BatchItemResult.from(new ResponseEntity<>(invalidRecordError(invalidRecord), BAD_REQUEST)));
+                return;
+            }
+            drain(generator, inFlight);
+        }
+    }
+
+    private void drain(JsonGenerator generator, Queue<Pending> inFlight) throws IOException {
+        while (!inFlight.isEmpty()) {
+            writeResult(generator, awaitOldest(generator, inFlight));
+        }
+        generator.flush();
+    }
+
+    /**
+     * Flushes already written results before blocking, so the client sees them while the store is catching up.
+     * A transaction that failed instead of returning a result is answered with {@code TransactionFailedError}.
+     */
+    private ResponseEntity<?> awaitOldest(JsonGenerator generator, Queue<Pending> inFlight) throws IOException {
+        var oldest = inFlight.remove();
+        if (!oldest.result().isDone()) {
+            generator.flush();
+        }
+        try {
+            return oldest.result().get().<ResponseEntity<?>>fold(
+                    DebitCardErrorMapper::mapErrorToResultEntity,
+                    ResponseEntity::ok
+            );
+        } catch (ExecutionException e) {
+            log.error("Transaction {} of card {} failed", oldest.command().transactionUUID(), oldest.command().cardUUID(), e.getCause());
+            return new ResponseEntity<>(new ErrorView("TransactionFailedError", oldest.command()), INTERNAL_SERVER_ERROR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for transaction result", e);
+        }
+    }
+
+    private void writeResult(JsonGenerator generator, ResponseEntity<?> result) throws IOException {
+        writeLine(generator, BatchItemResult.from(result));
+    }
+
+    private void writeLine(JsonGenerator generator, BatchItemResult result) throws IOException {
+        resultWriter.writeValue(generator, result);
+        generator.writeRaw('\n');
+    }
+
+    private static ErrorView invalidRecordError(JsonProcessingException invalidRecord) {
+        return new ErrorView(
+                "InvalidRecordError",
+                HashMap.of("message", invalidRecord.getOriginalMessage())
+        );
+    }
+
+    private record Pending(
+            TransactionCardCommand command,
+            CompletableFuture<DebitCardOperationResult<TransactionCardCommand>> result
+    ) {
+    }
+}
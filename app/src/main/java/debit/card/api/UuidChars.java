@@ -0,0 +1,85 @@
+package debit.card.api;
+
+import java.util.UUID;
+
+/**
+ * Reads and writes the canonical 36 character form of a {@link UUID} straight from and into character buffers,
+ * so the JSON codecs do not go through an intermediate {@link String}. Only ASCII hex digits of either case are
+ * read; other forms, like the base64 one that Jackson also accepts, are not.
+ */
+final class UuidChars {
+    static final int LENGTH = 36;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private UuidChars() {
+    }
+
+    /**
+     * @return the parsed UUID, or {@code null} if the characters are not a canonical UUID of ASCII hex digits
+     */
+    static UUID parse(char[] chars, int offset, int length) {
+        if (length != LENGTH || !isHyphen(chars, offset, 8) || !isHyphen(chars, offset, 13)
+                || !isHyphen(chars, offset, 18) || !isHyphen(chars, offset, 23)) {
+            return null;
+        }
+        long mostSignificantBits = 0;
+        long leastSignificantBits = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                continue;
+            }
+            int digit = hexDigit(chars[offset + i]);
+            if (digit < 0) {
+                return null;
+            }
+            if (i < 18) {
+                mostSignificantBits = mostSignificantBits << 4 | digit;
+            } else {
+                leastSignificantBits = leastSignificantBits << 4 | digit;
+            }
+        }
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Writes the same characters as {@link UUID#toString()} into the first {@link #LENGTH} places of the buffer.
+     */
+    static void write(UUID uuid, char[] into) {
+        long mostSignificantBits = uuid.getMostSignificantBits();
+        long leastSignificantBits = uuid.getLeastSignificantBits();
+        writeHex(mostSignificantBits >>> 32, into, 0, 8);
+        into[8] = '-';
+        writeHex(mostSignificantBits >>> 16, into, 9, 4);
+        into[13] = '-';
+        writeHex(mostSignificantBits, into, 14, 4);
+        into[18] = '-';
+        writeHex(leastSignificantBits >>> 48, into, 19, 4);
+        into[23] = '-';
+        writeHex(leastSignificantBits, into, 24, 12);
+    }
+
+    private static boolean isHyphen(char[] chars, int offset, int index) {
+        return chars[offset + index] == '-';
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static void writeHex(long value, char[] into, int offset, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            into[offset + i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
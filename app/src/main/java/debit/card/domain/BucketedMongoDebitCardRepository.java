@@ -0,0 +1,647 @@
+package debit.card.domain;
+
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import debit.card.view.VersionedDebitCardSummary;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Stores a card in fixed-size bucket documents instead of one ever-growing document.
+ * Events and rejections are two streams of buckets, so a load reads the events only; rejections are read for the
+ * history and for outcome lookups. The head document holds the version, the counts of stored events and rejections
+ * and the latest, not yet full bucket of both streams, so most saves are a single conditional update of the head.
+ * Sealed buckets are keyed by card and bucket number within their stream; everything before the latest bucket is
+ * sealed, so a load reads the event buckets after the snapshot with one range query.
+ * The head also counts the changes and transactions of every bucket size of positions, so a page of the history
+ * reads only the buckets of the positions it covers, and an outcome lookup reads only the buckets holding the
+ * transactions it asks for.
+ * Cards still stored in the single-document layout are migrated on first access.
+ */
+class BucketedMongoDebitCardRepository implements DebitCardRepository {
+    static final int DEFAULT_BUCKET_SIZE = 256;
+
+    private final MongoOperations mongoOperations;
+    private final int bucketSize;
+    private final SnapshotPolicy snapshotPolicy;
+    private final ReplayMetrics replayMetrics;
+    private final CurrencyUnit currencyUnit;
+    private final BucketStream<DebitCardEventEntity, DebitCardEventBucketEntity> events;
+    private final BucketStream<DebitCardRejectionEntity, DebitCardRejectionBucketEntity> rejections = new BucketStream<>(
+            DebitCardRejectionBucketEntity.class,
+            DebitCardRejectionBucketEntity::new,
+            rejection -> TransactionHistory.transactionOf(rejection.toFailure()),
+            "rejections",
+            DebitCardHeadEntity::rejections,
+            "latestRejections",
+            DebitCardHeadEntity::latestRejections
+    );
+
+    private BucketedMongoDebitCardRepository(
+            MongoOperations mongoOperations,
+            int bucketSize,
+            SnapshotPolicy snapshotPolicy,
+            ReplayMetrics replayMetrics,
+            CurrencyUnit currencyUnit
+    ) {
+        this.mongoOperations = mongoOperations;
+        this.bucketSize = bucketSize;
+        this.snapshotPolicy = snapshotPolicy;
+        this.replayMetrics = replayMetrics;
+        this.currencyUnit = currencyUnit;
+        this.events = new BucketStream<>(
+                DebitCardEventBucketEntity.class,
+                DebitCardEventBucketEntity::new,
+                event -> TransactionHistory.transactionOf(event.toEvent(currencyUnit)),
+                "sequence",
+                DebitCardHeadEntity::sequence,
+                "latestEvents",
+                DebitCardHeadEntity::latestEvents
+        );
+    }
+
+    static BucketedMongoDebitCardRepository create(
+            MongoOperations mongoOperations,
+            int bucketSize,
+            SnapshotPolicy snapshotPolicy,
+            ReplayMetrics replayMetrics,
+            CurrencyUnit currencyUnit
+    ) {
+        ensureBucketIndex(mongoOperations, DebitCardEventBucketEntity.class);
+        ensureBucketIndex(mongoOperations, DebitCardRejectionBucketEntity.class);
+        return new BucketedMongoDebitCardRepository(mongoOperations, bucketSize, snapshotPolicy, replayMetrics, currencyUnit);
+    }
+
+    private static void ensureBucketIndex(MongoOperations mongoOperations, Class<?> bucketType) {
+        mongoOperations.indexOps(bucketType).ensureIndex(new Index()
+                .on("debitCardId", Sort.Direction.ASC)
+                .on("bucket", Sort.Direction.ASC)
+                .unique());
+        mongoOperations.indexOps(bucketType).ensureIndex(new Index()
+                .on("debitCardId", Sort.Direction.ASC)
+                .on("transactions", Sort.Direction.ASC));
+    }
+
+    @Override
+    public Option<DebitCard> getByUUID(UUID cardUUID) {
+        var query = query(where("_id").is(cardUUID));
+        query.fields().exclude("latestRejections").exclude("history");
+        return replayMetrics.traceStage("mongo-find", () -> head(cardUUID, query))
+                .map(head -> replayMetrics.timeReplay(() -> toDebitCard(head)));
+    }
+
+    /**
+     * Replays the events after the snapshot. Rejections stay in their own buckets, only their number is read.
+     */
+    private DebitCard toDebitCard(DebitCardHeadEntity head) {
+        var snapshot = snapshotOf(head);
+        var eventsAfterSnapshot = events.after(head, snapshot.map(DebitCardSnapshot::sequence).getOrElse(0L))
+                .map(event -> event.toEvent(currencyUnit));
+        replayMetrics.recordReplay(eventsAfterSnapshot.size());
+        return snapshot
+                .map(latest -> DebitCard.fromSnapshot(head.debitCardId(), head.version(), latest, eventsAfterSnapshot, head.rejections()))
+                .getOrElse(() -> DebitCard.fromEvents(head.debitCardId(), head.version(), eventsAfterSnapshot, head.rejections()));
+    }
+
+    @Override
+    public Option<VersionedDebitCardSummary> getVersionedSummaryByUUID(UUID cardUUID) {
+        var query = query(where("_id").is(cardUUID));
+        query.fields().include("version").include("summary");
+        return Option.of(mongoOperations.findOne(query, DebitCardHeadEntity.class))
+                .flatMap(head -> Option.of(head.summary())
+                        .map(summary -> new VersionedDebitCardSummary(head.version(), summary.toSummary(cardUUID))))
+                .orElse(() -> getByUUID(cardUUID).map(card -> new VersionedDebitCardSummary(card.version(), card.toSummary())));
+    }
+
+    /**
+     * Cards still in the single-document layout are not migrated by this lookup; their version is read
+     * from the old document instead.
+     */
+    @Override
+    public Option<Long> getVersion(UUID cardUUID) {
+        var query = query(where("_id").is(cardUUID));
+        query.fields().include("version");
+        return Option.of(mongoOperations.findOne(query, DebitCardHeadEntity.class))
+                .map(DebitCardHeadEntity::version)
+                .orElse(() -> Option.of(mongoOperations.findOne(query, DebitCardEntity.class)).map(DebitCardEntity::version));
+    }
+
+    @Override
+    public Option<EventsAfter> getEventsAfter(UUID cardUUID, long sequence) {
+        var query = query(where("_id").is(cardUUID));
+        query.fields().exclude("snapshot").exclude("latestRejections").exclude("history");
+        return head(cardUUID, query)
+                .map(head -> new EventsAfter(
+                        head.version(),
+                        events.after(head, sequence).map(event -> event.toEvent(currencyUnit)),
+                        head.rejections()
+                ));
+    }
+
+    private Option<DebitCardHeadEntity> head(UUID cardUUID, Query query) {
+        return Option.of(mongoOperations.findOne(query, DebitCardHeadEntity.class))
+                .orElse(() -> migrate(cardUUID));
+    }
+
+    @Override
+    public SaveResult save(DebitCard card) {
+        return replayMetrics.traceStage("mongo-write", () -> appendChanges(card));
+    }
+
+    private SaveResult appendChanges(DebitCard card) {
+        if (card.version() == null) {
+            return insertNew(card);
+        }
+        var result = fillsBucket(card)
+                ? sealBuckets(card)
+                : appendToLatestBuckets(card);
+        var cardUUID = card.toSummary().cardUUID();
+        if (result instanceof SaveResult.VersionConflict
+                && (!headExists(cardUUID) && migrate(cardUUID).isDefined() || withoutCounts(cardUUID).isDefined())) {
+            return appendChanges(card);
+        }
+        return result;
+    }
+
+    private boolean fillsBucket(DebitCard card) {
+        return bucketOf(card.sequence()) != bucketOf(card.sequenceAfterSave())
+                || bucketOf(card.rejections()) != bucketOf(card.rejectionsAfterSave());
+    }
+
+    private SaveResult insertNew(DebitCard card) {
+        var cardUUID = card.toSummary().cardUUID();
+        var newEvents = card.replayableChanges().map(DebitCardEventEntity::from);
+        var newRejections = card.pendingRejections().map(DebitCardRejectionEntity::from);
+        var sealing = sealFullBuckets(cardUUID, 0L, 0, newEvents, 0, newRejections);
+        if (sealing.isEmpty()) {
+            return new SaveResult.VersionConflict(cardUUID, null);
+        }
+        var sealed = sealing.get();
+        try {
+            mongoOperations.insert(new DebitCardHeadEntity(
+                    cardUUID,
+                    0L,
+                    card.sequenceAfterSave(),
+                    card.rejectionsAfterSave(),
+                    newEvents.drop(sealed.events().size() * bucketSize).toJavaList(),
+                    newRejections.drop(sealed.rejections().size() * bucketSize).toJavaList(),
+                    DebitCardHistoryChunkEntity.chunksOf(bucketSize, card.position(), card.pendingChanges()),
+                    snapshotIfDue(card),
+                    DebitCardSummaryEntity.from(card.toSummary())
+            ));
+        } catch (DuplicateKeyException e) {
+            return new SaveResult.VersionConflict(cardUUID, null);
+        }
+        return new SaveResult.Saved(0L);
+    }
+
+    private SaveResult appendToLatestBuckets(DebitCard card) {
+        var update = new Update();
+        if (card.replayableChanges().nonEmpty()) {
+            update.push("latestEvents").each(card.replayableChanges().map(DebitCardEventEntity::from).toJavaArray());
+        }
+        if (card.failedChanges().nonEmpty()) {
+            update.push("latestRejections").each(card.pendingRejections().map(DebitCardRejectionEntity::from).toJavaArray());
+        }
+        return updateHead(card, update);
+    }
+
+    /**
+     * A latest bucket fills up: its entries together with the pending ones are written to new bucket documents
+     * first, then the head is switched to them if nobody saved the card in the meantime.
+     */
+    private SaveResult sealBuckets(DebitCard card) {
+        var cardUUID = card.toSummary().cardUUID();
+        var query = query(where("_id").is(cardUUID).and("version").is(card.version()));
+        query.fields().include("latestEvents").include("latestRejections");
+        var head = mongoOperations.findOne(query, DebitCardHeadEntity.class);
+        if (head == null) {
+            return new SaveResult.VersionConflict(cardUUID, card.version());
+        }
+        var unsealedEvents = List.ofAll(head.latestEvents())
+                .appendAll(card.replayableChanges().map(DebitCardEventEntity::from));
+        var unsealedRejections = List.ofAll(head.latestRejections())
+                .appendAll(card.pendingRejections().map(DebitCardRejectionEntity::from));
+        var sealing = sealFullBuckets(
+                cardUUID,
+                card.version() + 1,
+                bucketOf(card.sequence()),
+                unsealedEvents,
+                bucketOf(card.rejections()),
+                unsealedRejections
+        );
+        if (sealing.isEmpty()) {
+            return new SaveResult.VersionConflict(cardUUID, card.version());
+        }
+        var sealed = sealing.get();
+        var update = new Update()
+                .set("latestEvents", unsealedEvents.drop(sealed.events().size() * bucketSize).toJavaList())
+                .set("latestRejections", unsealedRejections.drop(sealed.rejections().size() * bucketSize).toJavaList());
+        return updateHead(card, update);
+    }
+
+    private SaveResult updateHead(DebitCard card, Update update) {
+        var cardUUID = card.toSummary().cardUUID();
+        update.inc("version", 1)
+                .set("sequence", card.sequenceAfterSave())
+                .set("rejections", card.rejectionsAfterSave())
+                .set("summary", DebitCardSummaryEntity.from(card.toSummary()));
+        Option.of(snapshotIfDue(card)).forEach(snapshot -> update.set("snapshot", snapshot));
+        DebitCardHistoryChunkEntity.increment(update, "history", DebitCardHistoryChunkEntity.chunksOf(bucketSize, card.position(), card.pendingChanges()));
+
+        var result = mongoOperations.updateFirst(
+                query(where("_id").is(cardUUID).and("version").is(card.version()).and("history").exists(true)),
+                update,
+                DebitCardHeadEntity.class
+        );
+        if (result.getMatchedCount() == 0) {
+            return new SaveResult.VersionConflict(cardUUID, card.version());
+        }
+        return new SaveResult.Saved(card.version() + 1);
+    }
+
+    /**
+     * Writes the full buckets of both streams for the given version of the head, or nothing when the card was saved
+     * in the meantime. Buckets of a save that does not switch the head are left in place: they are never read and
+     * the next save sealing the same range replaces them.
+     */
+    private Option<SealedBuckets> sealFullBuckets(
+            UUID cardUUID,
+            long version,
+            int firstEventBucket,
+            List<DebitCardEventEntity> unsealedEvents,
+            int firstRejectionBucket,
+            List<DebitCardRejectionEntity> unsealedRejections
+    ) {
+        return events.seal(cardUUID, version, firstEventBucket, unsealedEvents)
+                .flatMap(sealedEvents -> rejections.seal(cardUUID, version, firstRejectionBucket, unsealedRejections)
+                        .map(sealedRejections -> new SealedBuckets(sealedEvents, sealedRejections)));
+    }
+
+    private int bucketOf(long entry) {
+        return (int) (entry / bucketSize);
+    }
+
+    private boolean headExists(UUID cardUUID) {
+        return mongoOperations.exists(query(where("_id").is(cardUUID)), DebitCardHeadEntity.class);
+    }
+
+    private DebitCardSnapshotEntity snapshotIfDue(DebitCard card) {
+        return card.isSnapshotDueAfterSave(snapshotPolicy)
+                ? DebitCardSnapshotEntity.from(card.snapshotAfterSave())
+                : null;
+    }
+
+    @Override
+    public Option<DebitCardSnapshot> takeSnapshot(UUID cardUUID) {
+        return getByUUID(cardUUID)
+                .map(DebitCard::snapshot)
+                .filter(snapshot -> storeSnapshot(cardUUID, snapshot));
+    }
+
+    private boolean storeSnapshot(UUID cardUUID, DebitCardSnapshot snapshot) {
+        var result = mongoOperations.updateFirst(
+                query(where("_id").is(cardUUID).and("version").is(snapshot.version())),
+                new Update().set("snapshot", DebitCardSnapshotEntity.from(snapshot)),
+                DebitCardHeadEntity.class
+        );
+        return result.getMatchedCount() == 1;
+    }
+
+    @Override
+    public List<DebitCardEvent.Failure> getRejections(UUID cardUUID) {
+        var query = query(where("_id").is(cardUUID));
+        query.fields().include("rejections").include("latestRejections");
+        return head(cardUUID, query)
+                .map(head -> rejections.after(head, 0).map(DebitCardRejectionEntity::toFailure))
+                .getOrElse(List.empty());
+    }
+
+    /**
+     * Reads the latest buckets from the head and, of the sealed ones, only those holding one of the transactions.
+     */
+    @Override
+    public Map<UUID, Boolean> findTransactionOutcomes(UUID cardUUID, Set<UUID> transactionIds) {
+        var query = query(where("_id").is(cardUUID));
+        query.fields().include("sequence").include("rejections").include("latestEvents").include("latestRejections");
+        return head(cardUUID, query)
+                .map(head -> CardTransactionHistory.outcomesOf(
+                        TransactionHistory.entriesOf(0, events.holding(head, transactionIds).map(event -> event.toEvent(currencyUnit))
+                                .appendAll(rejections.holding(head, transactionIds).map(DebitCardRejectionEntity::toFailure))),
+                        transactionIds
+                ))
+                .getOrElse(HashMap::empty);
+    }
+
+    /**
+     * Pages through the changes of the card by position, one bucket size of positions per chunk. The counts of the
+     * chunks in the head tell which events and rejections every chunk covers.
+     */
+    @Override
+    public TransactionHistoryPage getTransactions(UUID cardUUID, TransactionHistoryQuery query) {
+        var headQuery = query(where("_id").is(cardUUID));
+        headQuery.fields().exclude("snapshot").exclude("summary");
+        return head(cardUUID, headQuery)
+                .map(head -> TransactionHistory.page(
+                        query,
+                        bucketSize,
+                        Option.of(head.history()).getOrElse(() -> withoutCounts(cardUUID).map(DebitCardHeadEntity::history).getOrElse(Collections::emptyMap)),
+                        (firstPosition, firstEvent, eventCount, firstRejection, rejectionCount) -> TransactionHistory.interleave(
+                                firstPosition,
+                                events.between(head, firstEvent, firstEvent + eventCount).map(event -> event.toEvent(currencyUnit)),
+                                rejections.between(head, firstRejection, firstRejection + rejectionCount).map(DebitCardRejectionEntity::toRejection)
+                        )
+                ))
+                .getOrElse(() -> TransactionHistoryPage.of(List.empty(), query.limit()));
+    }
+
+    /**
+     * Computes and stores the history counts of a head written before they were kept, from all events and rejections
+     * of the card, unless the card was saved in the meantime. Returns the head with them, empty when the head keeps
+     * them already.
+     */
+    private Option<DebitCardHeadEntity> withoutCounts(UUID cardUUID) {
+        var query = query(where("_id").is(cardUUID).and("history").exists(false));
+        query.fields().exclude("snapshot").exclude("summary");
+        return Option.of(mongoOperations.findOne(query, DebitCardHeadEntity.class))
+                .map(head -> {
+                    var history = DebitCardHistoryChunkEntity.chunksOf(
+                            bucketSize,
+                            events.after(head, 0).map(event -> event.toEvent(currencyUnit)),
+                            rejections.after(head, 0).map(DebitCardRejectionEntity::toRejection)
+                    );
+                    mongoOperations.updateFirst(
+                            query(where("_id").is(cardUUID).and("version").is(head.version()).and("history").exists(false)),
+                            new Update().set("history", history),
+                            DebitCardHeadEntity.class
+                    );
+                    return head.withHistory(history);
+                });
+    }
+
+    private Option<DebitCardSnapshot> snapshotOf(DebitCardHeadEntity head) {
+        return Option.of(head.snapshot())
+                .filter(DebitCardSnapshotEntity::hasTransactionIndex)
+                .map(snapshot -> snapshot.toSnapshot(currencyUnit));
+    }
+
+    /**
+     * Copies all cards still stored in the single-document layout, returns how many were migrated.
+     */
+    long migrateAll() {
+        try (var legacyCards = mongoOperations.stream(new Query(), DebitCardEntity.class)) {
+            return legacyCards
+                    .filter(legacy -> !headExists(legacy.debitCardId()))
+                    .filter(legacy -> migrate(legacy).isDefined())
+                    .count();
+        }
+    }
+
+    private Option<DebitCardHeadEntity> migrate(UUID cardUUID) {
+        return Option.of(mongoOperations.findById(cardUUID, DebitCardEntity.class))
+                .flatMap(this::migrate);
+    }
+
+    /**
+     * Writes the card in the bucketed layout under the same version. The single document is left in place,
+     * it is no longer read once the head exists.
+     */
+    private Option<DebitCardHeadEntity> migrate(DebitCardEntity legacy) {
+        var legacyEvents = List.ofAll(legacy.events());
+        var legacyRejections = Option.of(legacy.rejections()).map(List::ofAll).getOrElse(List.empty());
+        var sealing = sealFullBuckets(legacy.debitCardId(), legacy.version(), 0, legacyEvents, 0, legacyRejections);
+        if (sealing.isEmpty()) {
+            return Option.of(mongoOperations.findById(legacy.debitCardId(), DebitCardHeadEntity.class));
+        }
+        var sealed = sealing.get();
+        var head = new DebitCardHeadEntity(
+                legacy.debitCardId(),
+                legacy.version(),
+                legacyEvents.size(),
+                legacyRejections.size(),
+                legacyEvents.drop(sealed.events().size() * bucketSize).toJavaList(),
+                legacyRejections.drop(sealed.rejections().size() * bucketSize).toJavaList(),
+                DebitCardHistoryChunkEntity.chunksOf(
+                        bucketSize,
+                        legacyEvents.map(event -> event.toEvent(currencyUnit)),
+                        legacyRejections.map(DebitCardRejectionEntity::toRejection)
+                ),
+                legacy.snapshot(),
+                legacy.summary()
+        );
+        try {
+            return Option.some(mongoOperations.insert(head));
+        } catch (DuplicateKeyException e) {
+            return Option.of(mongoOperations.findById(legacy.debitCardId(), DebitCardHeadEntity.class));
+        }
+    }
+
+    /**
+     * Buckets written by one save, to be sealed by switching the head to them.
+     */
+    private record SealedBuckets(List<ObjectId> events, List<ObjectId> rejections) {
+    }
+
+    /**
+     * One stream of entries of a card: sealed buckets in their own collection and the latest bucket in the head,
+     * under the given field next to the count of all entries of the stream.
+     */
+    private final class BucketStream<T, B extends DebitCardBucket<T>> {
+        private final Class<B> bucketType;
+        private final DebitCardBucket.Factory<T, B> bucketFactory;
+        private final Function<T, Option<UUID>> transactionOf;
+        private final String countField;
+        private final ToLongFunction<DebitCardHeadEntity> countOf;
+        private final String latestField;
+        private final Function<DebitCardHeadEntity, Collection<T>> latestOf;
+
+        private BucketStream(
+                Class<B> bucketType,
+                DebitCardBucket.Factory<T, B> bucketFactory,
+                Function<T, Option<UUID>> transactionOf,
+                String countField,
+                ToLongFunction<DebitCardHeadEntity> countOf,
+                String latestField,
+                Function<DebitCardHeadEntity, Collection<T>> latestOf
+        ) {
+            this.bucketType = bucketType;
+            this.bucketFactory = bucketFactory;
+            this.transactionOf = transactionOf;
+            this.countField = countField;
+            this.countOf = countOf;
+            this.latestField = latestField;
+            this.latestOf = latestOf;
+        }
+
+        /**
+         * Number of sealed buckets of the stream: every entry before its latest bucket is in one of them.
+         */
+        int sealedBucketsOf(DebitCardHeadEntity head) {
+            return bucketOf(countOf.applyAsLong(head) - latestOf.apply(head).size());
+        }
+
+        List<T> after(DebitCardHeadEntity head, long from) {
+            return between(head, from, countOf.applyAsLong(head));
+        }
+
+        /**
+         * Entries from the first index up to, not including, the second, read with one range query over the sealed
+         * buckets they are in.
+         */
+        List<T> between(DebitCardHeadEntity head, long from, long to) {
+            if (from >= to) {
+                return List.empty();
+            }
+            var sealedBuckets = sealedBucketsOf(head);
+            var firstBucket = Math.min(bucketOf(from), sealedBuckets);
+            var endBucket = Math.min(bucketOf(to - 1) + 1, sealedBuckets);
+            var buckets = firstBucket == endBucket
+                    ? List.<B>empty()
+                    : List.ofAll(mongoOperations.find(
+                            query(where("debitCardId").is(head.debitCardId()).and("bucket").gte(firstBucket).lt(endBucket))
+                                    .with(Sort.by("bucket")),
+                            bucketType
+                    ));
+            if (buckets.size() != endBucket - firstBucket) {
+                throw new IllegalStateException("Buckets of debit card %s are missing".formatted(head.debitCardId()));
+            }
+            var entries = buckets.flatMap(DebitCardBucket::entries);
+            if (endBucket == sealedBuckets) {
+                entries = entries.appendAll(latestOf.apply(head));
+            }
+            return entries
+                    .drop((int) (from - (long) firstBucket * bucketSize))
+                    .take((int) (to - from));
+        }
+
+        /**
+         * Entries of the sealed buckets holding one of the transactions, found with the index on their transaction
+         * UUIDs, followed by the latest bucket. Buckets sealed before their UUIDs were kept are read too.
+         */
+        List<T> holding(DebitCardHeadEntity head, Set<UUID> transactionIds) {
+            var holding = new Criteria().orOperator(
+                    where("transactions").in(transactionIds.toJavaList()),
+                    where("transactions").exists(false)
+            );
+            var buckets = mongoOperations.find(
+                    query(where("debitCardId").is(head.debitCardId()).and("bucket").lt(sealedBucketsOf(head)).andOperator(holding)),
+                    bucketType
+            );
+            return List.ofAll(buckets)
+                    .flatMap(DebitCardBucket::entries)
+                    .appendAll(latestOf.apply(head));
+        }
+
+        /**
+         * Writes the full buckets for the given version of the head and returns their ids, or nothing when the card
+         * was saved in the meantime.
+         */
+        Option<List<ObjectId>> seal(UUID cardUUID, long version, int firstBucket, List<T> entries) {
+            var buckets = entries.grouped(bucketSize)
+                    .filter(bucket -> bucket.size() == bucketSize)
+                    .zipWithIndex()
+                    .map(bucket -> bucketFactory.create(
+                            new ObjectId(),
+                            cardUUID,
+                            firstBucket + bucket._2,
+                            version,
+                            bucket._1.flatMap(transactionOf).distinct().toJavaList(),
+                            bucket._1.toJavaList()
+                    ))
+                    .toList();
+            if (buckets.isEmpty()) {
+                return Option.some(List.empty());
+            }
+            try {
+                mongoOperations.insertAll(buckets.toJavaList());
+                return Option.some(buckets.map(DebitCardBucket::id));
+            } catch (DuplicateKeyException e) {
+                var head = headOf(cardUUID);
+                var ids = List.<ObjectId>empty();
+                for (var bucket : buckets) {
+                    var id = claim(head, bucket);
+                    if (id.isEmpty()) {
+                        return Option.none();
+                    }
+                    ids = ids.append(id.get());
+                }
+                return Option.some(ids);
+            }
+        }
+
+        private Option<DebitCardHeadEntity> headOf(UUID cardUUID) {
+            var query = query(where("_id").is(cardUUID));
+            query.fields().include("version").include(countField).include(latestField);
+            return Option.of(mongoOperations.findOne(query, DebitCardHeadEntity.class));
+        }
+
+        /**
+         * Stores a bucket when another document may hold its number already. That one is reused when it has the same
+         * entries, and replaced when it was written for a version the head has reached without sealing it, as its
+         * writer lost the race on the head. One written for the same version as this bucket belongs to a writer still
+         * switching the head or one that stopped before: the head is moved to the next version, so that writer fails
+         * if it is still running, and the retried save replaces the bucket. Nothing is stored when the card was saved
+         * in the meantime, or when there is no head yet to decide by.
+         */
+        private Option<ObjectId> claim(Option<DebitCardHeadEntity> head, B bucket) {
+            var existing = mongoOperations.findOne(
+                    query(where("debitCardId").is(bucket.debitCardId()).and("bucket").is(bucket.bucket())),
+                    bucketType
+            );
+            if (existing == null) {
+                return insert(bucket);
+            }
+            if (existing.id().equals(bucket.id()) || existing.entries().equals(bucket.entries())) {
+                return Option.some(existing.id());
+            }
+            if (head.isEmpty()) {
+                return Option.none();
+            }
+            var current = head.get();
+            if (bucket.version() != current.version() + 1 || bucket.bucket() < sealedBucketsOf(current)) {
+                return Option.none();
+            }
+            if (existing.version() > current.version()) {
+                mongoOperations.updateFirst(
+                        query(where("_id").is(bucket.debitCardId()).and("version").is(current.version())),
+                        new Update().inc("version", 1),
+                        DebitCardHeadEntity.class
+                );
+                return Option.none();
+            }
+            var removed = mongoOperations.remove(
+                    query(where("_id").is(existing.id()).and("version").is(existing.version())),
+                    bucketType
+            );
+            return removed.getDeletedCount() == 1 ? insert(bucket) : Option.none();
+        }
+
+        private Option<ObjectId> insert(B bucket) {
+            try {
+                return Option.some(mongoOperations.insert(bucket).id());
+            } catch (DuplicateKeyException e) {
+                return Option.none();
+            }
+        }
+    }
+}
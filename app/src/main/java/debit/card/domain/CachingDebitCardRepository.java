@@ -0,0 +1,170 @@
+package debit.card.domain;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import debit.card.view.VersionedDebitCardSummary;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Keeps materialized cards in memory. Every read still asks the underlying repository for the events
+ * stored after the cached sequence, so a card written by another node is caught up instead of being replayed
+ * from scratch.
+ */
+class CachingDebitCardRepository implements DebitCardRepository {
+    private final DebitCardRepository debitCardRepository;
+    private final Cache<UUID, DebitCard> cards;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter catchUps;
+
+    CachingDebitCardRepository(DebitCardRepository debitCardRepository, AggregateCachePolicy cachePolicy, MeterRegistry meterRegistry) {
+        var evictions = Counter.builder("debit.card.aggregate.cache.evictions")
+                .description("Cards evicted from the aggregate cache because of its size or age limit")
+                .register(meterRegistry);
+        this.debitCardRepository = debitCardRepository;
+        this.cards = Caffeine.newBuilder()
+                .maximumSize(cachePolicy.maximumSize())
+                .expireAfterWrite(cachePolicy.expireAfterWrite())
+                .executor(Runnable::run)
+                .removalListener((UUID cardUUID, DebitCard card, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        evictions.increment();
+                    }
+                })
+                .build();
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        this.catchUps = lookupCounter(meterRegistry, "catch-up");
+        Gauge.builder("debit.card.aggregate.cache.size", cards, Cache::estimatedSize)
+                .description("Approximate number of cards in the aggregate cache")
+                .register(meterRegistry);
+    }
+
+    static DebitCardRepository decorate(DebitCardRepository debitCardRepository, AggregateCachePolicy cachePolicy, MeterRegistry meterRegistry) {
+        return cachePolicy.enabled()
+                ? new CachingDebitCardRepository(debitCardRepository, cachePolicy, meterRegistry)
+                : debitCardRepository;
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("debit.card.aggregate.cache.lookups")
+                .description("Aggregate cache lookups by result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Option<DebitCard> getByUUID(UUID cardUUID) {
+        return Option.of(cards.getIfPresent(cardUUID))
+                .fold(
+                        () -> loadMissing(cardUUID),
+                        cachedCard -> refresh(cardUUID, cachedCard)
+                );
+    }
+
+    private Option<DebitCard> loadMissing(UUID cardUUID) {
+        misses.increment();
+        var card = debitCardRepository.getByUUID(cardUUID);
+        card.forEach(loadedCard -> remember(cardUUID, loadedCard));
+        return card;
+    }
+
+    private Option<DebitCard> refresh(UUID cardUUID, DebitCard cachedCard) {
+        var eventsAfter = debitCardRepository.getEventsAfter(cardUUID, cachedCard.sequence());
+        if (eventsAfter.isEmpty()) {
+            cards.invalidate(cardUUID);
+            return Option.none();
+        }
+        var stored = eventsAfter.get();
+        if (stored.size() == 0 && stored.version().equals(cachedCard.version())) {
+            hits.increment();
+            return Option.some(cachedCard);
+        }
+        catchUps.increment();
+        var caughtUpCard = cachedCard.catchUp(stored.version(), stored.events(), stored.rejections());
+        remember(cardUUID, caughtUpCard);
+        return Option.some(caughtUpCard);
+    }
+
+    @Override
+    public Option<VersionedDebitCardSummary> getVersionedSummaryByUUID(UUID cardUUID) {
+        return debitCardRepository.getVersionedSummaryByUUID(cardUUID);
+    }
+
+    @Override
+    public Option<Long> getVersion(UUID cardUUID) {
+        return debitCardRepository.getVersion(cardUUID);
+    }
+
+    @Override
+    public Option<EventsAfter> getEventsAfter(UUID cardUUID, long sequence) {
+        return debitCardRepository.getEventsAfter(cardUUID, sequence);
+    }
+
+    @Override
+    public SaveResult save(DebitCard card) {
+        var cardUUID = card.toSummary().cardUUID();
+        SaveResult result;
+        try {
+            result = debitCardRepository.save(card);
+        } catch (RuntimeException e) {
+            cards.invalidate(cardUUID);
+            throw e;
+        }
+        switch (result) {
+            case SaveResult.Saved saved -> remember(cardUUID, card.saved());
+            case SaveResult.VersionConflict conflict -> cards.invalidate(cardUUID);
+        }
+        return result;
+    }
+
+    @Override
+    public Option<DebitCardSnapshot> takeSnapshot(UUID cardUUID) {
+        return debitCardRepository.takeSnapshot(cardUUID);
+    }
+
+    @Override
+    public List<DebitCardEvent.Failure> getRejections(UUID cardUUID) {
+        return debitCardRepository.getRejections(cardUUID);
+    }
+
+    @Override
+    public Map<UUID, Boolean> findTransactionOutcomes(UUID cardUUID, Set<UUID> transactionIds) {
+        return debitCardRepository.findTransactionOutcomes(cardUUID, transactionIds);
+    }
+
+    @Override
+    public TransactionHistoryPage getTransactions(UUID cardUUID, TransactionHistoryQuery query) {
+        return debitCardRepository.getTransactions(cardUUID, query);
+    }
+
+    private void remember(UUID cardUUID, DebitCard card) {
+        cards.asMap().merge(cardUUID, card, CachingDebitCardRepository::newerVersion);
+    }
+
+    private static DebitCard newerVersion(DebitCard cached, DebitCard candidate) {
+        return candidate.version() >= cached.version() ? candidate : cached;
+    }
+}
+
+record AggregateCachePolicy(
+        boolean enabled,
+        long maximumSize,
+        Duration expireAfterWrite
+) {
+    static AggregateCachePolicy disabled() {
+        return new AggregateCachePolicy(false, 0, Duration.ZERO);
+    }
+}
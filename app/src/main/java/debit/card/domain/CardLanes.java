@@ -0,0 +1,144 @@
+package debit.card.domain;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Fixed set of single-writer lanes. Commands for one card always run on the same lane, one after another,
+ * so they never race for the same version; commands for cards on different lanes run in parallel.
+ * Without lanes commands run on the calling thread. The trace of a traced request follows its commands.
+ * <p>
+ * Each lane queues at most {@code queueCapacity} commands. A command submitted to a full lane blocks the caller for
+ * at most {@code offerTimeout} waiting for room, so the caller is slowed down to the pace of the store instead of
+ * piling up work in memory; a command never runs outside its lane. When the lane stays full, or is closed, the
+ * returned future fails with {@link RejectedExecutionException}.
+ * Every lane holds at most one Mongo connection at a time, so the lane count should stay well below the driver pool
+ * size, leaving connections for reads that do not go through the lanes.
+ */
+final class CardLanes implements AutoCloseable {
+    private final ExecutorService[] lanes;
+    private final RequestTracing requestTracing;
+
+    private CardLanes(ExecutorService[] lanes, RequestTracing requestTracing) {
+        this.lanes = lanes;
+        this.requestTracing = requestTracing;
+    }
+
+    static CardLanes inline() {
+        return new CardLanes(new ExecutorService[0], RequestTracing.NONE);
+    }
+
+    static CardLanes of(int count, int queueCapacity, Duration offerTimeout) {
+        return of(count, queueCapacity, offerTimeout, RequestTracing.NONE);
+    }
+
+    static CardLanes of(int count, int queueCapacity, Duration offerTimeout, RequestTracing requestTracing) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Lane queue capacity must be positive, got " + queueCapacity);
+        }
+        if (offerTimeout.isNegative()) {
+            throw new IllegalArgumentException("Lane offer timeout must not be negative, got " + offerTimeout);
+        }
+        return new CardLanes(IntStream.range(0, count)
+                .mapToObj(index -> lane(index, queueCapacity, offerTimeout))
+                .toArray(ExecutorService[]::new), requestTracing);
+    }
+
+    private static ExecutorService lane(int index, int queueCapacity, Duration offerTimeout) {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            var thread = new Thread(runnable, "debit-card-lane-" + index);
+            thread.setDaemon(true);
+            return thread;
+        }, new WaitForRoom(offerTimeout));
+    }
+
+    int size() {
+        return lanes.length;
+    }
+
+    <T> T execute(UUID cardUUID, Supplier<T> command) {
+        if (lanes.length == 0) {
+            return command.get();
+        }
+        return await(cardUUID, submit(cardUUID, command));
+    }
+
+    /**
+     * Queues the command on the lane of the card without waiting for it to run; when the lane is full, waits for
+     * room first. Without lanes the command runs on the calling thread before this method returns. The future fails
+     * with {@link RejectedExecutionException} when the lane stays full or is closed.
+     */
+    <T> CompletableFuture<T> submit(UUID cardUUID, Supplier<T> command) {
+        if (lanes.length == 0) {
+            return CompletableFuture.completedFuture(command.get());
+        }
+        try {
+            return CompletableFuture.supplyAsync(requestTracing.propagated(command), laneOf(cardUUID));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    <T> T await(UUID cardUUID, CompletableFuture<T> result) {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for command on card " + cardUUID, e);
+        }
+    }
+
+    private ExecutorService laneOf(UUID cardUUID) {
+        return lanes[Math.floorMod(cardUUID.hashCode(), lanes.length)];
+    }
+
+    @Override
+    public void close() {
+        for (var lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * Waits for room in the queue of a full lane instead of running the command anywhere else. Once the lane
+     * is shut down nothing is queued any more, including a command that raced the shutdown while waiting.
+     */
+    private record WaitForRoom(Duration timeout) implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable command, ThreadPoolExecutor lane) {
+            if (lane.isShutdown()) {
+                throw new RejectedExecutionException("Card lane is closed");
+            }
+            try {
+                if (!lane.getQueue().offer(command, timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                    throw new RejectedExecutionException("Card lane stayed full for " + timeout);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in card lane", e);
+            }
+            if (lane.isShutdown() && lane.remove(command)) {
+                throw new RejectedExecutionException("Card lane is closed");
+            }
+        }
+    }
+}
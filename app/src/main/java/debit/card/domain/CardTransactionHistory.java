@@ -0,0 +1,114 @@
+package debit.card.domain;
+
+import debit.card.view.TransactionHistoryEntry;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.collection.Vector;
+
+import java.util.UUID;
+
+import static debit.card.view.TransactionHistoryEntry.Outcome.ACCEPTED;
+
+/**
+ * Immutable transaction history of one card: a vector ordered by sequence, plus one vector per outcome and type.
+ * A page is found with a binary search in the vectors of the requested kinds and read by index from there.
+ * The outcome of every transaction is kept by its UUID for outcome lookups.
+ * Saves must be appended in the order they were stored.
+ */
+record CardTransactionHistory(
+        Vector<TransactionHistoryEntry> all,
+        Map<Kind, Vector<TransactionHistoryEntry>> byKind,
+        Map<UUID, Boolean> outcomes
+) {
+    private static final CardTransactionHistory EMPTY = new CardTransactionHistory(Vector.empty(), HashMap.empty(), HashMap.empty());
+
+    static CardTransactionHistory empty() {
+        return EMPTY;
+    }
+
+    CardTransactionHistory appendAll(List<TransactionHistoryEntry> entries) {
+        var updatedAll = all;
+        var updatedByKind = byKind;
+        var updatedOutcomes = outcomes;
+        for (var entry : entries) {
+            updatedAll = updatedAll.append(entry);
+            updatedByKind = updatedByKind.put(Kind.of(entry), Vector.of(entry), Vector::appendAll);
+            updatedOutcomes = updatedOutcomes.put(entry.transactionUUID(), entry.outcome() == ACCEPTED, Boolean::logicalOr);
+        }
+        return new CardTransactionHistory(updatedAll, updatedByKind, updatedOutcomes);
+    }
+
+    Map<UUID, Boolean> outcomesOf(Set<UUID> transactionIds) {
+        var found = HashMap.<UUID, Boolean>empty();
+        for (var transactionId : transactionIds) {
+            var outcome = outcomes.get(transactionId);
+            if (outcome.isDefined()) {
+                found = found.put(transactionId, outcome.get());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Outcomes of the given transactions among the entries: a transaction is accepted when any of its entries is.
+     */
+    static Map<UUID, Boolean> outcomesOf(Iterable<TransactionHistoryEntry> entries, Set<UUID> transactionIds) {
+        var found = HashMap.<UUID, Boolean>empty();
+        for (var entry : entries) {
+            if (transactionIds.contains(entry.transactionUUID())) {
+                found = found.put(entry.transactionUUID(), entry.outcome() == ACCEPTED, Boolean::logicalOr);
+            }
+        }
+        return found;
+    }
+
+    TransactionHistoryPage page(TransactionHistoryQuery query) {
+        if (!query.isFiltered()) {
+            return TransactionHistoryPage.of(after(all, query.after(), query.limit() + 1), query.limit());
+        }
+        var matching = byKind
+                .filterKeys(kind -> kind.matches(query))
+                .values()
+                .map(entries -> after(entries, query.after(), query.limit() + 1))
+                .fold(List.<TransactionHistoryEntry>empty(), CardTransactionHistory::merge);
+        return TransactionHistoryPage.of(matching.take(query.limit() + 1), query.limit());
+    }
+
+    /**
+     * At most {@code count} entries with sequence greater than the given one, found by binary search.
+     */
+    private static List<TransactionHistoryEntry> after(Vector<TransactionHistoryEntry> entries, long sequence, int count) {
+        var low = 0;
+        var high = entries.size();
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (entries.get(middle).sequence() <= sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return entries.drop(low).take(count).toList();
+    }
+
+    private static List<TransactionHistoryEntry> merge(List<TransactionHistoryEntry> left, List<TransactionHistoryEntry> right) {
+        return left.appendAll(right).sortBy(TransactionHistoryEntry::sequence);
+    }
+
+    record Kind(TransactionHistoryEntry.Outcome outcome, TransactionHistoryEntry.Type type) {
+        static final List<Kind> ALL = List.of(TransactionHistoryEntry.Outcome.values())
+                .flatMap(outcome -> List.of(TransactionHistoryEntry.Type.values()).map(type -> new Kind(outcome, type)));
+
+        static Kind of(TransactionHistoryEntry entry) {
+            return new Kind(entry.outcome(), entry.type());
+        }
+
+        boolean matches(TransactionHistoryQuery query) {
+            return query.outcome().forAll(outcome::equals) && query.type().forAll(type::equals);
+        }
+    }
+}
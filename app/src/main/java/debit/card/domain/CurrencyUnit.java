@@ -0,0 +1,25 @@
+package debit.card.domain;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * Currency of the amounts accepted by the API together with the number of decimal places they are stored with.
+ */
+record CurrencyUnit(String currencyCode, int scale) {
+
+    static CurrencyUnit of(String currencyCode) {
+        var currency = Currency.getInstance(currencyCode);
+        return new CurrencyUnit(currency.getCurrencyCode(), currency.getDefaultFractionDigits());
+    }
+
+    CurrencyUnit {
+        if (scale < 0) {
+            throw new IllegalArgumentException("Currency %s needs an explicit money scale".formatted(currencyCode));
+        }
+    }
+
+    Money toMoney(BigDecimal amount) {
+        return Money.of(amount, scale);
+    }
+}
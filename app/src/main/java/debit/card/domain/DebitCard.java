@@ -4,35 +4,43 @@ import debit.card.view.DebitCardSummary;
 import io.vavr.collection.List;
 import io.vavr.control.Option;
 
-import java.math.BigDecimal;
 import java.util.UUID;
 
+import static debit.card.domain.Money.ZERO;
 import static io.vavr.control.Option.none;
 import static io.vavr.control.Option.some;
-import static java.math.BigDecimal.ZERO;
 
 class DebitCard {
     private final UUID cardUUID;
     private final Long version;
+    private final long sequence;
+    private final long rejections;
     private final List<DebitCardEvent> pendingChanges;
-    private final Option<BigDecimal> debitLimit;
-    private final BigDecimal balance;
+    private final Option<Money> debitLimit;
+    private final Money balance;
     private final boolean blocked;
+    private final TransactionIndex transactions;
 
     private DebitCard(
             UUID cardUUID,
             Long version,
+            long sequence,
+            long rejections,
             List<DebitCardEvent> events,
-            Option<BigDecimal> debitLimit,
-            BigDecimal balance,
-            boolean blocked
+            Option<Money> debitLimit,
+            Money balance,
+            boolean blocked,
+            TransactionIndex transactions
     ) {
         this.cardUUID = cardUUID;
         this.version = version;
+        this.sequence = sequence;
+        this.rejections = rejections;
         this.pendingChanges = events;
         this.debitLimit = debitLimit;
         this.balance = balance;
         this.blocked = blocked;
+        this.transactions = transactions;
     }
 
     DebitCard applyTransaction(TransactionCommand transaction) {
@@ -43,7 +51,10 @@ class DebitCard {
     }
 
     private DebitCard payOffCard(PayOff transaction) {
-        return applyWithAppend(new DebitCardEvent.TransactionAccepted(transaction.transactionId(), transaction.value()));
+        if (balanceFor(transaction.value()).canAdd(transaction.value())) {
+            return applyWithAppend(new DebitCardEvent.TransactionAccepted(transaction.transactionId(), transaction.value()));
+        }
+        return applyWithAppend(new DebitCardEvent.TransactionRejected(transaction.transactionId(), transaction.value()));
     }
 
     private DebitCard chargeCard(ChargeCommand transaction) {
@@ -53,9 +64,17 @@ class DebitCard {
         return applyWithAppend(new DebitCardEvent.TransactionRejected(transaction.transactionId(), transaction.value()));
     }
 
-    private boolean hasEnoughMoney(BigDecimal value) {
-        var balanceAfterTransaction = balance.add(value);
-        return balanceAfterTransaction.compareTo(debitLimit.get()) >= 0;
+    private boolean hasEnoughMoney(Money value) {
+        var current = balanceFor(value);
+        return current.canAdd(value) && current.plus(value).isAtLeast(debitLimit.get());
+    }
+
+    /**
+     * Balance that the value is added to. A card without a limit starts with {@link Money#ZERO}, which takes the
+     * scale of the first amount paid into it; every other balance is at the scale of the limit.
+     */
+    private Money balanceFor(Money value) {
+        return debitLimit.isEmpty() && balance.minorUnits() == 0 ? Money.zero(value.scale()) : balance;
     }
 
 
@@ -72,7 +91,7 @@ class DebitCard {
 
 
     private DebitCard cardBlocked(DebitCardEvent.CardBlocked cardBlocked) {
-        return new DebitCard(cardUUID, version, registerChange(cardBlocked), debitLimit, balance, true);
+        return new DebitCard(cardUUID, version, sequence, rejections, registerChange(cardBlocked), debitLimit, balance, true, transactions);
     }
 
     private DebitCard cardBlockedRejected(DebitCardEvent.CardBlockedRejected cardBlockedRejected) {
@@ -80,19 +99,39 @@ class DebitCard {
     }
 
     private DebitCard cardUnblocked(DebitCardEvent.CardUnblocked cardUnblocked) {
-        return new DebitCard(cardUUID, version, registerChange(cardUnblocked), debitLimit, balance, false);
+        return new DebitCard(cardUUID, version, sequence, rejections, registerChange(cardUnblocked), debitLimit, balance, false, transactions);
     }
 
     private DebitCard transactionAccepted(DebitCardEvent.TransactionAccepted transactionAccepted) {
-        return new DebitCard(cardUUID, version, registerChange(transactionAccepted), debitLimit, balance.add(transactionAccepted.value()), blocked);
+        return new DebitCard(
+                cardUUID,
+                version,
+                sequence,
+                rejections,
+                registerChange(transactionAccepted),
+                debitLimit,
+                balanceFor(transactionAccepted.value()).plus(transactionAccepted.value()),
+                blocked,
+                transactions.record(transactionAccepted.uuid(), true)
+        );
     }
 
     private DebitCard transactionRejected(DebitCardEvent.TransactionRejected transactionRejected) {
-        return rejectOperation(transactionRejected);
+        return new DebitCard(
+                cardUUID,
+                version,
+                sequence,
+                rejections,
+                registerChange(transactionRejected),
+                debitLimit,
+                balance,
+                blocked,
+                transactions.record(transactionRejected.uuid(), false)
+        );
     }
 
     private DebitCard limitAssigned(DebitCardEvent.LimitAssigned created) {
-        return new DebitCard(cardUUID, version, registerChange(created), some(created.limit()), ZERO, blocked);
+        return new DebitCard(cardUUID, version, sequence, rejections, registerChange(created), some(created.limit()), Money.zero(created.limit().scale()), blocked, transactions);
     }
 
     private List<DebitCardEvent> registerChange(DebitCardEvent debitCardEvent) {
@@ -100,11 +139,11 @@ class DebitCard {
     }
 
     private DebitCard rejectOperation(DebitCardEvent rejectionEvent) {
-        return new DebitCard(cardUUID, version, registerChange(rejectionEvent), debitLimit, balance, blocked);
+        return new DebitCard(cardUUID, version, sequence, rejections, registerChange(rejectionEvent), debitLimit, balance, blocked, transactions);
     }
 
     DebitCard flushChanges() {
-        return new DebitCard(cardUUID, version, List.empty(), debitLimit, balance, blocked);
+        return new DebitCard(cardUUID, version, sequenceAfterSave(), rejectionsAfterSave(), List.empty(), debitLimit, balance, blocked, transactions);
     }
 
     static DebitCard createNew() {
@@ -115,20 +154,112 @@ class DebitCard {
         return createNew(cardUUID, null);
     }
     static DebitCard createNew(UUID cardUUID, Long version) {
-        return new DebitCard(cardUUID, version, List.empty(), none(), ZERO, false);
+        return new DebitCard(cardUUID, version, 0, 0, List.empty(), none(), ZERO, false, TransactionIndex.empty());
+    }
+
+    static DebitCard fromEvents(UUID cardUUID, Long version, Iterable<DebitCardEvent> events) {
+        return fromEvents(cardUUID, version, events, 0);
+    }
+
+    /**
+     * Replays the events of the card. Rejections are stored apart and never replayed: their number only tells the
+     * position of the next change, and transactions rejected by other writers are left to be looked up.
+     */
+    static DebitCard fromEvents(UUID cardUUID, Long version, Iterable<DebitCardEvent> events, long storedRejections) {
+        return Replay.fromScratch()
+                .applyAll(events)
+                .toDebitCard(cardUUID, version, storedRejections);
+    }
+
+    static DebitCard fromSnapshot(UUID cardUUID, Long version, DebitCardSnapshot snapshot, Iterable<DebitCardEvent> eventsAfterSnapshot) {
+        return fromSnapshot(cardUUID, version, snapshot, eventsAfterSnapshot, snapshot.rejections());
+    }
+
+    static DebitCard fromSnapshot(
+            UUID cardUUID,
+            Long version,
+            DebitCardSnapshot snapshot,
+            Iterable<DebitCardEvent> eventsAfterSnapshot,
+            long storedRejections
+    ) {
+        return Replay.from(snapshot.sequence(), snapshot.rejections(), snapshot.limit(), snapshot.balance(), snapshot.blocked(), snapshot.transactions())
+                .applyAll(eventsAfterSnapshot)
+                .toDebitCard(cardUUID, version, storedRejections);
+    }
+
+    DebitCard catchUp(Long storedVersion, Iterable<DebitCardEvent> eventsAfterSequence, long storedRejections) {
+        return Replay.from(sequenceAfterSave(), rejectionsAfterSave(), debitLimit, balance, blocked, transactions)
+                .applyAll(eventsAfterSequence)
+                .toDebitCard(cardUUID, storedVersion, storedRejections);
     }
 
-    static DebitCard fromEvents(UUID cardUUID, Long version, List<DebitCardEvent> events) {
-        var cardWithChanges = events.foldLeft(createNew(cardUUID, version), DebitCard::applyWithAppend);
-        return cardWithChanges.flushChanges();
+    DebitCard saved() {
+        return new DebitCard(cardUUID, versionAfterSave(), sequenceAfterSave(), rejectionsAfterSave(), List.empty(), debitLimit, balance, blocked, transactions);
     }
 
+    DebitCardSnapshot snapshot() {
+        return new DebitCardSnapshot(sequence, rejections, version, debitLimit, balance, blocked, transactions);
+    }
+
+    DebitCardSnapshot snapshotAfterSave() {
+        return new DebitCardSnapshot(sequenceAfterSave(), rejectionsAfterSave(), versionAfterSave(), debitLimit, balance, blocked, transactions);
+    }
+
+    /**
+     * Whether the snapshot policy asks for a snapshot once the pending changes are saved. Rejections are counted
+     * together with events: a snapshot indexes the transactions they rejected.
+     */
+    boolean isSnapshotDueAfterSave(SnapshotPolicy snapshotPolicy) {
+        return snapshotPolicy.isSnapshotDue(position(), positionAfterSave());
+    }
+
+
+    /**
+     * Outcome of an already applied transaction: {@code true} if it was accepted, {@code false} if rejected.
+     */
+    Option<Boolean> transactionOutcome(UUID transactionId) {
+        return transactions.outcomeOf(transactionId);
+    }
+
+    /**
+     * Whether a transaction with no known {@link #transactionOutcome outcome} may still have been applied, so its
+     * outcome has to be looked up with {@link DebitCardRepository#findTransactionOutcomes}.
+     */
+    boolean mightHaveSeenTransaction(UUID transactionId) {
+        return transactions.mightHaveSeen(transactionId);
+    }
 
     List<DebitCardEvent> pendingChanges() {
         return pendingChanges;
     }
 
-    public DebitCard assignLimit(BigDecimal limit) {
+    /**
+     * Pending changes that alter the state of the card. Only these are appended to the event stream replayed on load.
+     */
+    List<DebitCardEvent> replayableChanges() {
+        return pendingChanges.filter(DebitCardEvent.Success.class::isInstance);
+    }
+
+    /**
+     * Pending rejections, stored by repositories with the same write as the events but in a stream of their own
+     * that loads never read.
+     */
+    List<DebitCardEvent.Failure> failedChanges() {
+        return pendingChanges
+                .filter(DebitCardEvent.Failure.class::isInstance)
+                .map(DebitCardEvent.Failure.class::cast);
+    }
+
+    /**
+     * Pending rejections with their positions among all events and rejections of the card.
+     */
+    List<Rejection> pendingRejections() {
+        return pendingChanges.zipWithIndex()
+                .filter(change -> change._1 instanceof DebitCardEvent.Failure)
+                .map(change -> new Rejection(position() + change._2, (DebitCardEvent.Failure) change._1));
+    }
+
+    public DebitCard assignLimit(Money limit) {
         if (debitLimit.isEmpty()) {
             return applyWithAppend(new DebitCardEvent.LimitAssigned(limit));
         }
@@ -152,8 +283,8 @@ class DebitCard {
     DebitCardSummary toSummary() {
         return new DebitCardSummary(
                 cardUUID,
-                balance,
-                debitLimit,
+                balance.toBigDecimal(),
+                debitLimit.map(Money::toBigDecimal),
                 blocked
         );
     }
@@ -161,6 +292,125 @@ class DebitCard {
     Long version() {
         return this.version;
     }
+
+    long sequence() {
+        return this.sequence;
+    }
+
+    long sequenceAfterSave() {
+        return this.sequence + replayableChanges().size();
+    }
+
+    long rejections() {
+        return this.rejections;
+    }
+
+    long rejectionsAfterSave() {
+        return this.rejections + failedChanges().size();
+    }
+
+    /**
+     * Number of events and rejections stored for the card, which is also the position of its next change.
+     */
+    long position() {
+        return sequence + rejections;
+    }
+
+    long positionAfterSave() {
+        return position() + pendingChanges.size();
+    }
+
+    private Long versionAfterSave() {
+        return version == null ? 0L : version + 1;
+    }
+
+    /**
+     * Folds stored events into a single mutable state and builds one card at the end.
+     * Unlike the command path it neither creates an intermediate card nor records pending changes per event.
+     */
+    private static final class Replay {
+        private long sequence;
+        private long rejections;
+        private Option<Money> debitLimit;
+        private long balanceMinorUnits;
+        private int balanceScale;
+        private boolean blocked;
+        private final TransactionIndex.Builder transactions;
+
+        private Replay(long sequence, long rejections, Option<Money> debitLimit, Money balance, boolean blocked, TransactionIndex transactions) {
+            this.sequence = sequence;
+            this.rejections = rejections;
+            this.debitLimit = debitLimit;
+            this.balanceMinorUnits = balance.minorUnits();
+            this.balanceScale = balance.scale();
+            this.blocked = blocked;
+            this.transactions = transactions.toBuilder();
+        }
+
+        static Replay fromScratch() {
+            return new Replay(0, 0, none(), ZERO, false, TransactionIndex.empty());
+        }
+
+        static Replay from(long sequence, long rejections, Option<Money> debitLimit, Money balance, boolean blocked, TransactionIndex transactions) {
+            return new Replay(sequence, rejections, debitLimit, balance, blocked, transactions);
+        }
+
+        Replay applyAll(Iterable<DebitCardEvent> events) {
+            for (var event : events) {
+                apply(event);
+            }
+            return this;
+        }
+
+        private void apply(DebitCardEvent event) {
+            switch (event) {
+                case DebitCardEvent.LimitAssigned limitAssigned -> {
+                    debitLimit = some(limitAssigned.limit());
+                    balanceMinorUnits = 0;
+                    balanceScale = limitAssigned.limit().scale();
+                }
+                case DebitCardEvent.TransactionAccepted transactionAccepted -> {
+                    addToBalance(transactionAccepted.value());
+                    transactions.record(transactionAccepted.uuid(), true);
+                }
+                case DebitCardEvent.TransactionRejected transactionRejected ->
+                        transactions.record(transactionRejected.uuid(), false);
+                case DebitCardEvent.CardBlocked cardBlocked -> blocked = true;
+                case DebitCardEvent.CardBlockedRejected cardBlockedRejected -> {
+                }
+                case DebitCardEvent.CardUnblocked cardUnblocked -> blocked = false;
+            }
+            sequence++;
+        }
+
+        private void addToBalance(Money value) {
+            if (debitLimit.isEmpty() && balanceMinorUnits == 0) {
+                balanceScale = value.scale();
+            } else if (value.scale() != balanceScale) {
+                throw new IllegalArgumentException("Amount of scale %d cannot be added to balance of scale %d".formatted(value.scale(), balanceScale));
+            }
+            balanceMinorUnits = Math.addExact(balanceMinorUnits, value.minorUnits());
+        }
+
+        /**
+         * Rejections stored after the replayed state are counted but their transactions are not known: the index
+         * is marked as missing outcomes, so transactions it does not know are looked up.
+         */
+        DebitCard toDebitCard(UUID cardUUID, Long version, long storedRejections) {
+            var index = transactions.build();
+            return new DebitCard(
+                    cardUUID,
+                    version,
+                    sequence,
+                    Math.max(rejections, storedRejections),
+                    List.empty(),
+                    debitLimit,
+                    new Money(balanceMinorUnits, balanceScale),
+                    blocked,
+                    storedRejections > rejections ? index.withMissingOutcomes() : index
+            );
+        }
+    }
 }
 
 
@@ -180,14 +430,14 @@ sealed interface DebitCardEvent permits
             DebitCardEvent.CardBlockedRejected {
     }
 
-    record LimitAssigned(BigDecimal limit) implements DebitCardEvent.Success {
+    record LimitAssigned(Money limit) implements DebitCardEvent.Success {
     }
 
-    record TransactionAccepted(UUID uuid, BigDecimal value) implements DebitCardEvent.Success {
+    record TransactionAccepted(UUID uuid, Money value) implements DebitCardEvent.Success {
 
     }
 
-    record TransactionRejected(UUID uuid, BigDecimal value) implements DebitCardEvent.Failure {
+    record TransactionRejected(UUID uuid, Money value) implements DebitCardEvent.Failure {
     }
 
     record CardBlockedRejected() implements DebitCardEvent.Failure {
@@ -198,4 +448,11 @@ sealed interface DebitCardEvent permits
 
     record CardUnblocked() implements DebitCardEvent.Success {
     }
-}
\ No newline at end of file
+}
+
+/**
+ * A stored rejection together with its position among all events and rejections of the card, so layouts that keep
+ * rejections apart from events can still tell their order.
+ */
+record Rejection(long position, DebitCardEvent.Failure failure) {
+}
@@ -1,40 +1,302 @@
 package debit.card.domain;
 
+import debit.card.view.DebitCardSummary;
+import debit.card.view.TransactionHistoryEntry;
+import io.vavr.control.Option;
 import org.bson.types.Decimal128;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.query.Update;
 
-import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+/**
+ * Card stored in one document. Rejections are kept in their own array, pushed by the same update as the events
+ * of a save, so they are never replayed as events but are lost or written together with them. Loads leave the
+ * array out and read only {@code rejectionCount}, the number of rejections stored. The outcome of every transaction
+ * is kept under its UUID in {@code outcomes}, so an outcome lookup projects just the transactions it asks for.
+ */
 @Document
 record DebitCardEntity(
         @Id
         UUID debitCardId,
         @Version
         Long version,
-        java.util.List<DebitCardEventEntity> events
+        List<DebitCardEventEntity> events,
+        List<DebitCardRejectionEntity> rejections,
+        long rejectionCount,
+        Map<String, DebitCardHistoryChunkEntity> history,
+        Map<String, Boolean> outcomes,
+        DebitCardSnapshotEntity snapshot,
+        DebitCardSummaryEntity summary
 ) {
+
+    /**
+     * Outcomes of the transactions among the entries, keyed by transaction UUID: a transaction is accepted when any
+     * of its entries is. Stored with {@code $max}, so an accepted outcome is never overwritten by a rejected one.
+     */
+    static Map<String, Boolean> outcomesOf(Iterable<TransactionHistoryEntry> entries) {
+        var outcomes = new HashMap<String, Boolean>();
+        for (var entry : entries) {
+            outcomes.merge(entry.transactionUUID().toString(), entry.outcome() == TransactionHistoryEntry.Outcome.ACCEPTED, Boolean::logicalOr);
+        }
+        return outcomes;
+    }
+
+    DebitCardEntity withCounts(Map<String, DebitCardHistoryChunkEntity> history, Map<String, Boolean> outcomes) {
+        return new DebitCardEntity(debitCardId, version, events, rejections, rejectionCount, history, outcomes, snapshot, summary);
+    }
+}
+
+/**
+ * Counts of the changes stored at the positions of one chunk of the transaction history: all of them, the
+ * rejections among them and the transactions of every kind. Kept per chunk number in the card and incremented by
+ * the save storing the changes, so a page finds the events and rejections of a chunk by position and skips chunks
+ * without transactions of the requested kinds.
+ */
+record DebitCardHistoryChunkEntity(
+        int changes,
+        int rejections,
+        int acceptedCharges,
+        int acceptedPayOffs,
+        int rejectedCharges,
+        int rejectedPayOffs
+) {
+    private static final DebitCardHistoryChunkEntity EMPTY = new DebitCardHistoryChunkEntity(0, 0, 0, 0, 0, 0);
+
+    static DebitCardHistoryChunkEntity of(boolean storedAsRejection, Option<CardTransactionHistory.Kind> kind) {
+        var rejection = storedAsRejection ? 1 : 0;
+        return kind.map(transaction -> switch (transaction.outcome()) {
+            case ACCEPTED -> transaction.type() == TransactionHistoryEntry.Type.CHARGE
+                    ? new DebitCardHistoryChunkEntity(1, rejection, 1, 0, 0, 0)
+                    : new DebitCardHistoryChunkEntity(1, rejection, 0, 1, 0, 0);
+            case REJECTED -> transaction.type() == TransactionHistoryEntry.Type.CHARGE
+                    ? new DebitCardHistoryChunkEntity(1, rejection, 0, 0, 1, 0)
+                    : new DebitCardHistoryChunkEntity(1, rejection, 0, 0, 0, 1);
+        }).getOrElse(() -> new DebitCardHistoryChunkEntity(1, rejection, 0, 0, 0, 0));
+    }
+
+    /**
+     * Counts of the changes of a save stored from the given position on, keyed by the number of the chunk they
+     * fall in. Failures are stored as rejections.
+     */
+    static Map<String, DebitCardHistoryChunkEntity> chunksOf(int chunkSize, long firstPosition, Iterable<DebitCardEvent> changes) {
+        var chunks = new HashMap<String, DebitCardHistoryChunkEntity>();
+        var position = firstPosition;
+        for (var change : changes) {
+            chunks.merge(chunkOf(chunkSize, position), of(change instanceof DebitCardEvent.Failure, TransactionHistory.kindOf(change)), DebitCardHistoryChunkEntity::plus);
+            position++;
+        }
+        return chunks;
+    }
+
+    /**
+     * Counts of all stored events and rejections of a card. Events take the positions left between the rejections;
+     * cards stored before rejections had an array of their own keep their failures among the events.
+     */
+    static Map<String, DebitCardHistoryChunkEntity> chunksOf(int chunkSize, Iterable<DebitCardEvent> events, Iterable<Rejection> rejections) {
+        var chunks = new HashMap<String, DebitCardHistoryChunkEntity>();
+        var rejectionPositions = new HashSet<Long>();
+        for (var rejection : rejections) {
+            rejectionPositions.add(rejection.position());
+            chunks.merge(chunkOf(chunkSize, rejection.position()), of(true, TransactionHistory.kindOf(rejection.failure())), DebitCardHistoryChunkEntity::plus);
+        }
+        var position = 0L;
+        for (var event : events) {
+            while (rejectionPositions.contains(position)) {
+                position++;
+            }
+            chunks.merge(chunkOf(chunkSize, position), of(false, TransactionHistory.kindOf(event)), DebitCardHistoryChunkEntity::plus);
+            position++;
+        }
+        return chunks;
+    }
+
+    private static String chunkOf(int chunkSize, long position) {
+        return String.valueOf(position / chunkSize);
+    }
+
+    /**
+     * Increments the counts under the given field by those of the chunks.
+     */
+    static Update increment(Update update, String field, Map<String, DebitCardHistoryChunkEntity> chunks) {
+        chunks.forEach((chunk, counts) -> {
+            var prefix = field + "." + chunk + ".";
+            update.inc(prefix + "changes", counts.changes())
+                    .inc(prefix + "rejections", counts.rejections())
+                    .inc(prefix + "acceptedCharges", counts.acceptedCharges())
+                    .inc(prefix + "acceptedPayOffs", counts.acceptedPayOffs())
+                    .inc(prefix + "rejectedCharges", counts.rejectedCharges())
+                    .inc(prefix + "rejectedPayOffs", counts.rejectedPayOffs());
+        });
+        return update;
+    }
+
+    static DebitCardHistoryChunkEntity of(Map<String, DebitCardHistoryChunkEntity> chunks, int chunk) {
+        return Option.of(chunks.get(String.valueOf(chunk))).getOrElse(EMPTY);
+    }
+
+    DebitCardHistoryChunkEntity plus(DebitCardHistoryChunkEntity other) {
+        return new DebitCardHistoryChunkEntity(
+                changes + other.changes,
+                rejections + other.rejections,
+                acceptedCharges + other.acceptedCharges,
+                acceptedPayOffs + other.acceptedPayOffs,
+                rejectedCharges + other.rejectedCharges,
+                rejectedPayOffs + other.rejectedPayOffs
+        );
+    }
+
+    int transactions(CardTransactionHistory.Kind kind) {
+        return switch (kind.outcome()) {
+            case ACCEPTED -> kind.type() == TransactionHistoryEntry.Type.CHARGE ? acceptedCharges : acceptedPayOffs;
+            case REJECTED -> kind.type() == TransactionHistoryEntry.Type.CHARGE ? rejectedCharges : rejectedPayOffs;
+        };
+    }
+}
+
+/**
+ * Stored rejection with its position among all events and rejections of the card.
+ */
+record DebitCardRejectionEntity(
+        @Field("p")
+        long position,
+        @Field("e")
+        byte[] encoded
+) {
+
+    static DebitCardRejectionEntity from(Rejection rejection) {
+        return new DebitCardRejectionEntity(rejection.position(), DebitCardEventCodec.encode(rejection.failure()));
+    }
+
+    DebitCardEvent.Failure toFailure() {
+        return (DebitCardEvent.Failure) DebitCardEventCodec.decode(encoded);
+    }
+
+    Rejection toRejection() {
+        return new Rejection(position, toFailure());
+    }
+}
+
+/**
+ * State shown in the card summary, written together with the events it results from so it can be read
+ * without replaying them.
+ */
+record DebitCardSummaryEntity(
+        Decimal128 balance,
+        Decimal128 limit,
+        boolean blocked
+) {
+
+    static DebitCardSummaryEntity from(DebitCardSummary summary) {
+        return new DebitCardSummaryEntity(
+                new Decimal128(summary.balance()),
+                summary.limit().map(Decimal128::new).getOrNull(),
+                summary.blocked()
+        );
+    }
+
+    DebitCardSummary toSummary(UUID cardUUID) {
+        return new DebitCardSummary(
+                cardUUID,
+                balance.bigDecimalValue(),
+                Option.of(limit).map(Decimal128::bigDecimalValue),
+                blocked
+        );
+    }
 }
 
+/**
+ * Snapshot of a card. The transaction index is kept in its {@link TransactionIndex#encode() binary form}, bounded
+ * in size however many transactions the card has.
+ */
+record DebitCardSnapshotEntity(
+        long sequence,
+        long rejections,
+        Long version,
+        Decimal128 limit,
+        Decimal128 balance,
+        boolean blocked,
+        @Field("t")
+        byte[] transactionIndex
+) {
+
+    static DebitCardSnapshotEntity from(DebitCardSnapshot snapshot) {
+        return new DebitCardSnapshotEntity(
+                snapshot.sequence(),
+                snapshot.rejections(),
+                snapshot.version(),
+                snapshot.limit().map(Money::toBigDecimal).map(Decimal128::new).getOrNull(),
+                new Decimal128(snapshot.balance().toBigDecimal()),
+                snapshot.blocked(),
+                snapshot.transactions().encode()
+        );
+    }
+
+    /**
+     * Snapshots written before the index was bounded, which listed every transaction of the card, have no
+     * encoded index and are skipped in favour of a full replay.
+     */
+    boolean hasTransactionIndex() {
+        return transactionIndex != null;
+    }
+
+    /**
+     * Amounts are brought to the scale of the currency, a card without a limit keeps {@link Money#ZERO} until
+     * something is paid into it.
+     */
+    DebitCardSnapshot toSnapshot(CurrencyUnit currencyUnit) {
+        var debitLimit = Option.of(limit).map(Decimal128::bigDecimalValue).map(currencyUnit::toMoney);
+        var amount = balance.bigDecimalValue();
+        return new DebitCardSnapshot(
+                sequence,
+                rejections,
+                version,
+                debitLimit,
+                debitLimit.isEmpty() && amount.signum() == 0 ? Money.ZERO : currencyUnit.toMoney(amount),
+                blocked,
+                TransactionIndex.decode(transactionIndex)
+        );
+    }
+}
+
+/**
+ * Stored event. New events are kept only as {@link DebitCardEventCodec} bytes under a one letter field;
+ * {@code type} and {@code body} are read from events written before the binary form was introduced.
+ */
 record DebitCardEventEntity(
         DebitCardEventType type,
-        org.bson.Document body
+        org.bson.Document body,
+        @Field("e")
+        byte[] encoded
 ) {
 
     static DebitCardEventEntity from(DebitCardEvent event) {
-        return new DebitCardEventEntity(getType(event), bson(event));
+        return new DebitCardEventEntity(null, null, DebitCardEventCodec.encode(event));
+    }
+
+    static DebitCardEventEntity legacy(DebitCardEvent event) {
+        return new DebitCardEventEntity(getType(event), bson(event), null);
     }
 
-    DebitCardEvent toEvent() {
+    /**
+     * Legacy amounts were stored with whatever scale they were sent with and are brought to the scale of the currency.
+     */
+    DebitCardEvent toEvent(CurrencyUnit currencyUnit) {
+        if (encoded != null) {
+            return DebitCardEventCodec.decode(encoded);
+        }
         return switch (type) {
-            case LimitAssigned -> new DebitCardEvent.LimitAssigned(getBigDecimal("limit"));
-            case TransactionAccepted -> new DebitCardEvent.TransactionAccepted(uuid(), getBigDecimal("value"));
-            case TransactionRejected -> new DebitCardEvent.TransactionRejected(uuid(), getBigDecimal("value"));
+            case LimitAssigned -> new DebitCardEvent.LimitAssigned(getMoney("limit", currencyUnit));
+            case TransactionAccepted -> new DebitCardEvent.TransactionAccepted(uuid(), getMoney("value", currencyUnit));
+            case TransactionRejected -> new DebitCardEvent.TransactionRejected(uuid(), getMoney("value", currencyUnit));
             case CardBlockedRejected -> new DebitCardEvent.CardBlockedRejected();
             case CardBlocked -> new DebitCardEvent.CardBlocked();
             case CardUnblocked -> new DebitCardEvent.CardUnblocked();
@@ -45,9 +307,9 @@ record DebitCardEventEntity(
         return body.get("uuid", UUID.class);
     }
 
-    private BigDecimal getBigDecimal(String fieldName) {
+    private Money getMoney(String fieldName, CurrencyUnit currencyUnit) {
         var bsonDecimal = body.get(fieldName, Decimal128.class);
-        return bsonDecimal.bigDecimalValue();
+        return currencyUnit.toMoney(bsonDecimal.bigDecimalValue());
     }
 
     @NotNull
@@ -64,9 +326,9 @@ record DebitCardEventEntity(
 
     private static org.bson.Document bson(DebitCardEvent event) {
         return switch (event) {
-            case DebitCardEvent.LimitAssigned la -> bson(Map.of("limit", la.limit()));
-            case DebitCardEvent.TransactionAccepted ta -> bson(Map.of("uuid", ta.uuid(), "value", ta.value()));
-            case DebitCardEvent.TransactionRejected tr -> bson(Map.of("uuid", tr.uuid(), "value", tr.value()));
+            case DebitCardEvent.LimitAssigned la -> bson(Map.of("limit", la.limit().toBigDecimal()));
+            case DebitCardEvent.TransactionAccepted ta -> bson(Map.of("uuid", ta.uuid(), "value", ta.value().toBigDecimal()));
+            case DebitCardEvent.TransactionRejected tr -> bson(Map.of("uuid", tr.uuid(), "value", tr.value().toBigDecimal()));
             default -> bson(Map.of());
         };
     }
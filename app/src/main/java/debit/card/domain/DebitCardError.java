@@ -5,7 +5,10 @@ public sealed interface DebitCardError permits
         DebitCardError.LimitAssignError,
         DebitCardError.CannotChargeError,
         DebitCardError.CannotBlockCardError,
-        DebitCardError.CannotPayOffError {
+        DebitCardError.CannotPayOffError,
+        DebitCardError.InvalidAmountError,
+        DebitCardError.ConcurrentModificationError,
+        DebitCardError.CardBusyError {
     record CardNotFoundError() implements DebitCardError {
     }
 
@@ -24,4 +27,13 @@ public sealed interface DebitCardError permits
     record CannotPayOffError() implements DebitCardError {
     }
 
+    record InvalidAmountError() implements DebitCardError {
+    }
+
+    record ConcurrentModificationError() implements DebitCardError {
+    }
+
+    record CardBusyError() implements DebitCardError {
+    }
+
 }
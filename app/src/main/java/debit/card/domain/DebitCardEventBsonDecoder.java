@@ -0,0 +1,64 @@
+package debit.card.domain;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Reads an element of the {@code events} or {@code rejections} array straight from BSON, in the same way as
+ * {@link DebitCardEventEntity#toEvent(CurrencyUnit)}. Binary events are decoded from their bytes, events stored in the legacy
+ * form fall back to a {@link Document} body, which is skipped for events without fields. Other fields, like the
+ * position of a rejection, are skipped.
+ * <p>
+ * Only {@link RawDebitCardDocument} uses it, on a reader already positioned inside the array, for both reads of
+ * events: loads and catch-ups. It is not registered with the driver: a driver codec has to encode too, while events
+ * are written through {@link DebitCardEventEntity} and the Spring Data converter.
+ */
+final class DebitCardEventBsonDecoder implements Decoder<DebitCardEvent> {
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private final Codec<Document> documentCodec;
+    private final CurrencyUnit currencyUnit;
+
+    DebitCardEventBsonDecoder(CodecRegistry codecRegistry, CurrencyUnit currencyUnit) {
+        this.documentCodec = codecRegistry.get(Document.class);
+        this.currencyUnit = currencyUnit;
+    }
+
+    @Override
+    public DebitCardEvent decode(BsonReader reader, DecoderContext decoderContext) {
+        byte[] encoded = null;
+        DebitCardEventType type = null;
+        Document body = null;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "e" -> encoded = reader.readBinaryData().getData();
+                case "type" -> type = DebitCardEventType.valueOf(reader.readString());
+                case "body" -> {
+                    if (type == null || hasFields(type)) {
+                        body = documentCodec.decode(reader, DECODER_CONTEXT);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return encoded != null
+                ? DebitCardEventCodec.decode(encoded)
+                : new DebitCardEventEntity(type, body, null).toEvent(currencyUnit);
+    }
+
+    private static boolean hasFields(DebitCardEventType type) {
+        return switch (type) {
+            case LimitAssigned, TransactionAccepted, TransactionRejected -> true;
+            case CardBlockedRejected, CardBlocked, CardUnblocked -> false;
+        };
+    }
+}
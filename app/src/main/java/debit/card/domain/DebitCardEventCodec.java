@@ -0,0 +1,167 @@
+package debit.card.domain;
+
+import io.vavr.control.Option;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Compact binary form of events shared by the repositories: a one byte type tag followed by the event fields.
+ * A UUID is two longs, an amount is its scale, the length of its unscaled value and the unscaled value itself
+ * in as few big-endian bytes as it needs.
+ * <p>
+ * Standalone encoded events start with {@link #SCHEMA_VERSION}. Tags are part of the format and must never be
+ * reused; a change of field layout needs a new schema version.
+ */
+final class DebitCardEventCodec {
+    static final byte SCHEMA_VERSION = 1;
+
+    private static final byte LIMIT_ASSIGNED = 1;
+    private static final byte TRANSACTION_ACCEPTED = 2;
+    private static final byte TRANSACTION_REJECTED = 3;
+    private static final byte CARD_BLOCKED = 4;
+    private static final byte CARD_BLOCKED_REJECTED = 5;
+    private static final byte CARD_UNBLOCKED = 6;
+
+    private static final int UUID_SIZE = 2 * Long.BYTES;
+
+    private DebitCardEventCodec() {
+    }
+
+    static byte[] encode(DebitCardEvent event) {
+        var buffer = ByteBuffer.allocate(1 + sizeOf(event));
+        buffer.put(SCHEMA_VERSION);
+        write(buffer, event);
+        return buffer.array();
+    }
+
+    static DebitCardEvent decode(byte[] encoded) {
+        var buffer = ByteBuffer.wrap(encoded);
+        var schemaVersion = buffer.get();
+        if (schemaVersion != SCHEMA_VERSION) {
+            throw new IllegalStateException("Unsupported event schema version " + schemaVersion);
+        }
+        return read(buffer);
+    }
+
+    /**
+     * Size of the event written by {@link #write(ByteBuffer, DebitCardEvent)}, without the schema version.
+     */
+    static int sizeOf(DebitCardEvent event) {
+        return 1 + switch (event) {
+            case DebitCardEvent.LimitAssigned limitAssigned -> sizeOf(limitAssigned.limit());
+            case DebitCardEvent.TransactionAccepted transactionAccepted -> UUID_SIZE + sizeOf(transactionAccepted.value());
+            case DebitCardEvent.TransactionRejected transactionRejected -> UUID_SIZE + sizeOf(transactionRejected.value());
+            case DebitCardEvent.CardBlocked cardBlocked -> 0;
+            case DebitCardEvent.CardBlockedRejected cardBlockedRejected -> 0;
+            case DebitCardEvent.CardUnblocked cardUnblocked -> 0;
+        };
+    }
+
+    static void write(ByteBuffer buffer, DebitCardEvent event) {
+        switch (event) {
+            case DebitCardEvent.LimitAssigned limitAssigned -> {
+                buffer.put(LIMIT_ASSIGNED);
+                writeMoney(buffer, limitAssigned.limit());
+            }
+            case DebitCardEvent.TransactionAccepted transactionAccepted -> {
+                buffer.put(TRANSACTION_ACCEPTED);
+                writeUUID(buffer, transactionAccepted.uuid());
+                writeMoney(buffer, transactionAccepted.value());
+            }
+            case DebitCardEvent.TransactionRejected transactionRejected -> {
+                buffer.put(TRANSACTION_REJECTED);
+                writeUUID(buffer, transactionRejected.uuid());
+                writeMoney(buffer, transactionRejected.value());
+            }
+            case DebitCardEvent.CardBlocked cardBlocked -> buffer.put(CARD_BLOCKED);
+            case DebitCardEvent.CardBlockedRejected cardBlockedRejected -> buffer.put(CARD_BLOCKED_REJECTED);
+            case DebitCardEvent.CardUnblocked cardUnblocked -> buffer.put(CARD_UNBLOCKED);
+        }
+    }
+
+    static DebitCardEvent read(ByteBuffer buffer) {
+        var tag = buffer.get();
+        return switch (tag) {
+            case LIMIT_ASSIGNED -> new DebitCardEvent.LimitAssigned(readMoney(buffer));
+            case TRANSACTION_ACCEPTED -> new DebitCardEvent.TransactionAccepted(readUUID(buffer), readMoney(buffer));
+            case TRANSACTION_REJECTED -> new DebitCardEvent.TransactionRejected(readUUID(buffer), readMoney(buffer));
+            case CARD_BLOCKED -> new DebitCardEvent.CardBlocked();
+            case CARD_BLOCKED_REJECTED -> new DebitCardEvent.CardBlockedRejected();
+            case CARD_UNBLOCKED -> new DebitCardEvent.CardUnblocked();
+            default -> throw new IllegalStateException("Unknown event type " + tag);
+        };
+    }
+
+    /**
+     * Snapshot written to the journal: sequence, rejections and version, the limit if assigned, the balance,
+     * the blocked flag and the {@link TransactionIndex#encode() encoded transaction index}.
+     */
+    static byte[] encodeSnapshot(DebitCardSnapshot snapshot) {
+        var transactions = snapshot.transactions().encode();
+        var buffer = ByteBuffer.allocate(3 * Long.BYTES + 1 + snapshot.limit().map(DebitCardEventCodec::sizeOf).getOrElse(0)
+                + sizeOf(snapshot.balance()) + 1 + Integer.BYTES + transactions.length);
+        buffer.putLong(snapshot.sequence())
+                .putLong(snapshot.rejections())
+                .putLong(snapshot.version())
+                .put((byte) (snapshot.limit().isDefined() ? 1 : 0));
+        snapshot.limit().forEach(limit -> writeMoney(buffer, limit));
+        writeMoney(buffer, snapshot.balance());
+        buffer.put((byte) (snapshot.blocked() ? 1 : 0))
+                .putInt(transactions.length)
+                .put(transactions);
+        return buffer.array();
+    }
+
+    static DebitCardSnapshot readSnapshot(ByteBuffer buffer) {
+        var sequence = buffer.getLong();
+        var rejections = buffer.getLong();
+        var version = buffer.getLong();
+        var limit = buffer.get() == 1 ? Option.some(readMoney(buffer)) : Option.<Money>none();
+        var balance = readMoney(buffer);
+        var blocked = buffer.get() == 1;
+        var transactions = new byte[buffer.getInt()];
+        buffer.get(transactions);
+        return new DebitCardSnapshot(sequence, rejections, version, limit, balance, blocked, TransactionIndex.decode(transactions));
+    }
+
+    static void writeUUID(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    static UUID readUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static int sizeOf(Money money) {
+        return 2 + unscaledLength(money.minorUnits());
+    }
+
+    private static int unscaledLength(long minorUnits) {
+        var significantBits = Long.SIZE - Long.numberOfLeadingZeros(minorUnits ^ (minorUnits >> (Long.SIZE - 1))) + 1;
+        return (significantBits + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    private static void writeMoney(ByteBuffer buffer, Money money) {
+        var length = unscaledLength(money.minorUnits());
+        buffer.put((byte) money.scale());
+        buffer.put((byte) length);
+        for (int shift = (length - 1) * Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+            buffer.put((byte) (money.minorUnits() >> shift));
+        }
+    }
+
+    private static Money readMoney(ByteBuffer buffer) {
+        var scale = buffer.get();
+        var length = buffer.get();
+        if (length < 1 || length > Long.BYTES) {
+            throw new IllegalStateException("Invalid amount length " + length);
+        }
+        long minorUnits = buffer.get();
+        for (int i = 1; i < length; i++) {
+            minorUnits = (minorUnits << Byte.SIZE) | (buffer.get() & 0xFF);
+        }
+        return new Money(minorUnits, scale);
+    }
+}
@@ -2,93 +2,391 @@ package debit.card.domain;
 
 import debit.card.domain.commands.*;
 import debit.card.view.DebitCardSummary;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import debit.card.view.VersionedDebitCardSummary;
+import io.vavr.Function2;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
 import io.vavr.control.Option;
+import io.vavr.control.Try;
 
+import java.math.BigDecimal;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static debit.card.domain.DebitCardError.*;
 
 public class DebitCardFacade {
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
     private final DebitCardRepository debitCardRepository;
+    private final CurrencyUnit currencyUnit;
+    private final CardLanes cardLanes;
+    private final DebitCardMetrics metrics;
+    private final DebitCardMetrics.Stage decideStage;
 
-    DebitCardFacade(DebitCardRepository debitCardRepository) {
+    DebitCardFacade(DebitCardRepository debitCardRepository, CurrencyUnit currencyUnit, CardLanes cardLanes, DebitCardMetrics metrics) {
         this.debitCardRepository = debitCardRepository;
+        this.currencyUnit = currencyUnit;
+        this.cardLanes = cardLanes;
+        this.metrics = metrics;
+        this.decideStage = metrics.stage(DebitCardMetrics.DECIDE);
     }
 
     public Option<DebitCardSummary> getSummary(UUID debitCardUUID) {
-        return debitCardRepository.getSummaryByUUID(debitCardUUID);
+        return metrics.record(
+                "get-summary",
+                () -> debitCardRepository.getSummaryByUUID(debitCardUUID),
+                DebitCardFacade::notFoundError
+        );
+    }
+
+    public Option<VersionedDebitCardSummary> getVersionedSummary(UUID debitCardUUID) {
+        return metrics.record(
+                "get-versioned-summary",
+                () -> debitCardRepository.getVersionedSummaryByUUID(debitCardUUID),
+                DebitCardFacade::notFoundError
+        );
+    }
+
+    /**
+     * Current version of the card, looked up without replaying or reading its summary.
+     */
+    public Option<Long> getVersion(UUID debitCardUUID) {
+        return metrics.record(
+                "get-version",
+                () -> debitCardRepository.getVersion(debitCardUUID),
+                DebitCardFacade::notFoundError
+        );
+    }
+
+    /**
+     * A page of the card's transactions, empty when there is no such card.
+     */
+    public Option<TransactionHistoryPage> getTransactions(UUID debitCardUUID, TransactionHistoryQuery query) {
+        return metrics.record(
+                "get-transactions",
+                () -> debitCardRepository.getVersion(debitCardUUID)
+                        .map(version -> debitCardRepository.getTransactions(debitCardUUID, query)),
+                DebitCardFacade::notFoundError
+        );
+    }
+
+    public boolean takeSnapshot(UUID debitCardUUID) {
+        return metrics.record(
+                "take-snapshot",
+                () -> debitCardRepository.takeSnapshot(debitCardUUID),
+                DebitCardFacade::notFoundError
+        ).isDefined();
     }
 
     public UUID createNewCard() {
-        var card = DebitCard.createNew();
-        debitCardRepository.save(card);
-        return card.toSummary().cardUUID();
+        return metrics.record(
+                "create-card",
+                () -> {
+                    var card = DebitCard.createNew();
+                    debitCardRepository.save(card);
+                    return card.toSummary().cardUUID();
+                },
+                uuid -> List.empty()
+        );
     }
 
     public DebitCardOperationResult<AssignLimitCommand> assignLimitToCard(AssignLimitCommand assignLimitCommand) {
-        return runOperationOnCardWithUuid(assignLimitCommand, card -> handleAssignLimitToCard(card, assignLimitCommand));
+        return metrics.record(
+                "assign-limit",
+                () -> runOperationWithAmount(
+                        assignLimitCommand,
+                        assignLimitCommand.limit(),
+                        (card, limit) -> handleAssignLimitToCard(card, assignLimitCommand, limit)
+                ),
+                DebitCardFacade::errorOf
+        );
     }
 
-    private DebitCardOperationResult<AssignLimitCommand> handleAssignLimitToCard(DebitCard card, AssignLimitCommand assignLimitCommand) {
+    private DebitCardOperationResult<AssignLimitCommand> handleAssignLimitToCard(DebitCard card, AssignLimitCommand assignLimitCommand, Money limit) {
         return handleCardOperationThatMayFail(
-                () -> card.assignLimit(assignLimitCommand.limit()),
+                () -> card.assignLimit(limit),
                 assignLimitCommand,
                 LimitAlreadyAssigned::new
         );
     }
 
     public DebitCardOperationResult<ChargeCardCommand> chargeCard(ChargeCardCommand chargeCardCommand) {
-        return runOperationOnCardWithUuid(chargeCardCommand, card -> handleCardCharge(card, chargeCardCommand));
+        return metrics.record(
+                "charge",
+                () -> runOperationWithAmount(
+                        chargeCardCommand,
+                        chargeCardCommand.amount(),
+                        (card, amount) -> handleCardCharge(card, chargeCardCommand, amount)
+                ),
+                DebitCardFacade::errorOf
+        );
     }
 
-    private DebitCardOperationResult<ChargeCardCommand> handleCardCharge(DebitCard card, ChargeCardCommand command) {
-        return handleCardOperationThatMayFail(
-                () -> card.applyTransaction(TransactionCommand.charge(command.transactionUUID(), command.amount())),
+    private DebitCardOperationResult<ChargeCardCommand> handleCardCharge(DebitCard card, ChargeCardCommand command, Money amount) {
+        return handleTransactionOnce(
+                card,
+                command.transactionUUID(),
+                () -> card.applyTransaction(TransactionCommand.charge(command.transactionUUID(), amount)),
                 command,
                 CannotChargeError::new
         );
     }
 
     public DebitCardOperationResult<PayOffCardCommand> payOffCard(PayOffCardCommand chargeCardCommand) {
-        return runOperationOnCardWithUuid(
-                chargeCardCommand,
-                (card) -> handlePayOffCard(card, chargeCardCommand)
+        return metrics.record(
+                "pay-off",
+                () -> runOperationWithAmount(
+                        chargeCardCommand,
+                        chargeCardCommand.amount(),
+                        (card, amount) -> handlePayOffCard(card, chargeCardCommand, amount)
+                ),
+                DebitCardFacade::errorOf
         );
     }
 
-    private DebitCardOperationResult<PayOffCardCommand> handlePayOffCard(DebitCard card, PayOffCardCommand command) {
-        return handleCardOperationThatMayFail(
-                () -> card.applyTransaction(TransactionCommand.payOff(command.transactionUUID(), command.amount())),
+    private DebitCardOperationResult<PayOffCardCommand> handlePayOffCard(DebitCard card, PayOffCardCommand command, Money amount) {
+        return handleTransactionOnce(
+                card,
+                command.transactionUUID(),
+                () -> card.applyTransaction(TransactionCommand.payOff(command.transactionUUID(), amount)),
                 command,
                 CannotPayOffError::new
         );
     }
 
+    /**
+     * Applies charges and pay-offs of many cards. Commands of one card are applied in the given order on a single
+     * load of the card and stored with a single save; different cards are processed in parallel on their lanes.
+     * Results are returned in the order of the commands.
+     */
+    public List<DebitCardOperationResult<TransactionCardCommand>> applyTransactions(List<TransactionCardCommand> commands) {
+        return metrics.record(
+                "apply-transactions",
+                () -> applyTransactionsOnLanes(commands),
+                results -> results.flatMap(DebitCardFacade::errorOf)
+        );
+    }
+
+    private List<DebitCardOperationResult<TransactionCardCommand>> applyTransactionsOnLanes(List<TransactionCardCommand> commands) {
+        var commandsByCard = commands.zipWithIndex().groupBy(command -> command._1.cardUUID());
+        var pendingResults = commandsByCard.map((cardUUID, group) -> Tuple.of(
+                cardUUID,
+                whenBusy(
+                        cardLanes.submit(cardUUID, () -> group.map(Tuple2::_2).zip(runTransactionsWithRetries(cardUUID, group.map(Tuple2::_1)))),
+                        () -> group.map(command -> Tuple.of(command._2, DebitCardOperationResult.failed(command._1, new CardBusyError())))
+                )
+        ));
+        var results = new DebitCardOperationResult<?>[commands.size()];
+        pendingResults.forEach((cardUUID, pending) -> cardLanes.await(cardUUID, pending)
+                .forEach(result -> results[result._1] = result._2));
+        return List.of(results).map(DebitCardFacade::narrowTransactionResult);
+    }
+
+    /**
+     * Queues a charge or pay-off on the lane of its card without waiting for it. Without lanes the transaction
+     * is applied on the calling thread and the returned future is already completed.
+     */
+    public CompletableFuture<DebitCardOperationResult<TransactionCardCommand>> submitTransaction(TransactionCardCommand command) {
+        return metrics.recordAsync(
+                "submit-transaction",
+                () -> whenBusy(
+                        cardLanes.submit(command.cardUUID(), () -> runTransactionsWithRetries(command.cardUUID(), List.of(command)).head()),
+                        () -> DebitCardOperationResult.failed(command, new CardBusyError())
+                ),
+                DebitCardFacade::errorOf
+        );
+    }
+
+    /**
+     * Completes with the result of a busy card when the lane of the card stayed full or was closed; any other
+     * failure of the command is left as it is.
+     */
+    private static <T> CompletableFuture<T> whenBusy(CompletableFuture<T> pending, Supplier<T> busy) {
+        return pending.exceptionallyCompose(failure -> failure instanceof RejectedExecutionException
+                ? CompletableFuture.completedFuture(busy.get())
+                : CompletableFuture.failedFuture(failure));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DebitCardOperationResult<TransactionCardCommand> narrowTransactionResult(DebitCardOperationResult<?> result) {
+        return (DebitCardOperationResult<TransactionCardCommand>) result;
+    }
+
+    private List<DebitCardOperationResult<TransactionCardCommand>> runTransactionsWithRetries(
+            UUID cardUUID,
+            List<TransactionCardCommand> commands) {
+        var attempt = 1;
+        var results = runTransactionsOnLatestCard(cardUUID, commands);
+        while (results.exists(DebitCardFacade::isConcurrentModification) && attempt < MAX_SAVE_ATTEMPTS) {
+            results = runTransactionsOnLatestCard(cardUUID, commands);
+            attempt++;
+        }
+        return results;
+    }
+
+    private List<DebitCardOperationResult<TransactionCardCommand>> runTransactionsOnLatestCard(
+            UUID cardUUID,
+            List<TransactionCardCommand> commands) {
+        return debitCardRepository.getByUUID(cardUUID)
+                .fold(
+                        () -> commands.map(command -> DebitCardOperationResult.failed(command, new CardNotFoundError())),
+                        card -> handleTransactions(cardUUID, card, commands)
+                );
+    }
+
+    private List<DebitCardOperationResult<TransactionCardCommand>> handleTransactions(
+            UUID cardUUID,
+            DebitCard card,
+            List<TransactionCardCommand> commands) {
+        var storedOutcomes = forgottenOutcomes(cardUUID, card, commands.map(TransactionCardCommand::transactionUUID));
+        var decision = decideStage.start();
+        var cardAfterTransactions = card;
+        var results = List.<DebitCardOperationResult<TransactionCardCommand>>empty();
+        for (var command : commands) {
+            var applied = applyTransactionOnce(cardAfterTransactions, command, storedOutcomes);
+            cardAfterTransactions = applied._1;
+            results = results.append(applied._2);
+        }
+        decideStage.stop(decision);
+        if (cardAfterTransactions.pendingChanges().nonEmpty()
+                && debitCardRepository.save(cardAfterTransactions) instanceof SaveResult.VersionConflict) {
+            return commands.map(command -> DebitCardOperationResult.failed(command, new ConcurrentModificationError()));
+        }
+        return results;
+    }
+
+    private Tuple2<DebitCard, DebitCardOperationResult<TransactionCardCommand>> applyTransactionOnce(
+            DebitCard card,
+            TransactionCardCommand command,
+            Map<UUID, Boolean> storedOutcomes) {
+        var amount = Try.of(() -> currencyUnit.toMoney(command.amount()));
+        if (amount.isFailure()) {
+            return Tuple.of(card, DebitCardOperationResult.failed(command, new InvalidAmountError()));
+        }
+        var knownOutcome = card.transactionOutcome(command.transactionUUID())
+                .orElse(() -> storedOutcomes.get(command.transactionUUID()));
+        if (knownOutcome.isDefined()) {
+            return Tuple.of(card, transactionResult(command, knownOutcome.get()));
+        }
+        var cardAfterTransaction = card.applyTransaction(transactionOf(command, amount.get()));
+        var accepted = cardAfterTransaction.pendingChanges().last() instanceof DebitCardEvent.Success;
+        return Tuple.of(cardAfterTransaction, transactionResult(command, accepted));
+    }
+
+    /**
+     * Outcomes of transactions the card might have seen too long ago to remember, read from the stored events
+     * with one lookup for all of them. Nothing is read when the card has surely not seen any of them.
+     */
+    private Map<UUID, Boolean> forgottenOutcomes(UUID cardUUID, DebitCard card, List<UUID> transactionUUIDs) {
+        var forgotten = transactionUUIDs
+                .filter(transactionUUID -> card.transactionOutcome(transactionUUID).isEmpty())
+                .filter(card::mightHaveSeenTransaction)
+                .toSet();
+        return forgotten.isEmpty()
+                ? HashMap.empty()
+                : debitCardRepository.findTransactionOutcomes(cardUUID, forgotten);
+    }
+
+    private static DebitCardOperationResult<TransactionCardCommand> transactionResult(TransactionCardCommand command, boolean accepted) {
+        return accepted
+                ? DebitCardOperationResult.success(command)
+                : DebitCardOperationResult.failed(command, rejectionOf(command));
+    }
+
+    private static TransactionCommand transactionOf(TransactionCardCommand command, Money amount) {
+        return switch (command) {
+            case ChargeCardCommand charge -> TransactionCommand.charge(charge.transactionUUID(), amount);
+            case PayOffCardCommand payOff -> TransactionCommand.payOff(payOff.transactionUUID(), amount);
+        };
+    }
+
+    private static DebitCardError rejectionOf(TransactionCardCommand command) {
+        return switch (command) {
+            case ChargeCardCommand charge -> new CannotChargeError();
+            case PayOffCardCommand payOff -> new CannotPayOffError();
+        };
+    }
+
     public DebitCardOperationResult<BlockCardCommand> blockCard(BlockCardCommand blockCardCommand) {
-        return runOperationOnCardWithUuid(
-                blockCardCommand,
-                (card) -> handleCardOperationThatMayFail(card::block, blockCardCommand, CannotBlockCardError::new)
+        return metrics.record(
+                "block",
+                () -> runOperationOnCardWithUuid(
+                        blockCardCommand,
+                        (card) -> handleCardOperationThatMayFail(card::block, blockCardCommand, CannotBlockCardError::new)
+                ),
+                DebitCardFacade::errorOf
         );
     }
 
     public DebitCardOperationResult<UnblockCardCommand> unblockCard(UnblockCardCommand unblockCardCommand) {
-        return runOperationOnCardWithUuid(
-                unblockCardCommand,
-                (card) -> handleUnblockCard(card, unblockCardCommand)
+        return metrics.record(
+                "unblock",
+                () -> runOperationOnCardWithUuid(
+                        unblockCardCommand,
+                        (card) -> handleUnblockCard(card, unblockCardCommand)
+                ),
+                DebitCardFacade::errorOf
         );
     }
 
     private DebitCardOperationResult<UnblockCardCommand> handleUnblockCard(DebitCard card, UnblockCardCommand unblockCardCommand) {
-        var cardAfterBlock = card.unblock();
-        debitCardRepository.save(cardAfterBlock);
-        return DebitCardOperationResult.success(unblockCardCommand);
+        var cardAfterBlock = decideStage.record(card::unblock);
+        return switch (debitCardRepository.save(cardAfterBlock)) {
+            case SaveResult.Saved saved -> DebitCardOperationResult.success(unblockCardCommand);
+            case SaveResult.VersionConflict conflict ->
+                    DebitCardOperationResult.failed(unblockCardCommand, new ConcurrentModificationError());
+        };
+    }
+
+    private <T extends CardCommand> DebitCardOperationResult<T> runOperationWithAmount(
+            T cardCommand,
+            BigDecimal amount,
+            Function2<DebitCard, Money, DebitCardOperationResult<T>> operation) {
+        return Try.of(() -> currencyUnit.toMoney(amount))
+                .fold(
+                        invalidAmount -> DebitCardOperationResult.failed(cardCommand, new InvalidAmountError()),
+                        money -> runOperationOnCardWithUuid(cardCommand, card -> operation.apply(card, money))
+                );
     }
 
     private <T extends CardCommand> DebitCardOperationResult<T> runOperationOnCardWithUuid(
             T cardCommand,
             Function<DebitCard, DebitCardOperationResult<T>> operation) {
+        try {
+            return cardLanes.execute(cardCommand.cardUUID(), () -> runOperationWithRetries(cardCommand, operation));
+        } catch (RejectedExecutionException e) {
+            return DebitCardOperationResult.failed(cardCommand, new CardBusyError());
+        }
+    }
+
+    /**
+     * Decides on the latest state of the card. When someone else saved the card in the meantime, the decision
+     * is made again on a freshly loaded card, up to {@link #MAX_SAVE_ATTEMPTS} times.
+     */
+    private <T extends CardCommand> DebitCardOperationResult<T> runOperationWithRetries(
+            T cardCommand,
+            Function<DebitCard, DebitCardOperationResult<T>> operation) {
+        var attempt = 1;
+        var result = runOperationOnLatestCard(cardCommand, operation);
+        while (isConcurrentModification(result) && attempt < MAX_SAVE_ATTEMPTS) {
+            result = runOperationOnLatestCard(cardCommand, operation);
+            attempt++;
+        }
+        return result;
+    }
+
+    private <T extends CardCommand> DebitCardOperationResult<T> runOperationOnLatestCard(
+            T cardCommand,
+            Function<DebitCard, DebitCardOperationResult<T>> operation) {
         return debitCardRepository.getByUUID(cardCommand.cardUUID())
                 .fold(
                         handleNotFoundCard(cardCommand),
@@ -96,13 +394,36 @@ public class DebitCardFacade {
                 );
     }
 
+    private static boolean isConcurrentModification(DebitCardOperationResult<?> result) {
+        return !result.isSuccess() && result.error() instanceof ConcurrentModificationError;
+    }
+
+    private <T extends CardCommand> DebitCardOperationResult<T> handleTransactionOnce(
+            DebitCard card,
+            UUID transactionUUID,
+            Supplier<DebitCard> transaction,
+            T cardCommand,
+            Supplier<DebitCardError> debitCardError
+    ) {
+        return card.transactionOutcome(transactionUUID)
+                .orElse(() -> forgottenOutcomes(cardCommand.cardUUID(), card, List.of(transactionUUID)).get(transactionUUID))
+                .fold(
+                        () -> handleCardOperationThatMayFail(transaction, cardCommand, debitCardError),
+                        accepted -> accepted
+                                ? DebitCardOperationResult.success(cardCommand)
+                                : DebitCardOperationResult.failed(cardCommand, debitCardError.get())
+                );
+    }
+
     private <T extends CardCommand> DebitCardOperationResult<T> handleCardOperationThatMayFail(
             Supplier<DebitCard> cardOperationResult,
             T cardCommand,
             Supplier<DebitCardError> debitCardError
     ) {
-        var cardAfterOperation = cardOperationResult.get();
-        debitCardRepository.save(cardAfterOperation);
+        var cardAfterOperation = decideStage.record(cardOperationResult);
+        if (debitCardRepository.save(cardAfterOperation) instanceof SaveResult.VersionConflict) {
+            return DebitCardOperationResult.failed(cardCommand, new ConcurrentModificationError());
+        }
         return cardAfterOperation.pendingChanges().singleOption()
                 .fold(
                         () -> DebitCardOperationResult.failed(cardCommand, debitCardError.get()),
@@ -117,6 +438,14 @@ public class DebitCardFacade {
     }
 
 
+    private static List<DebitCardError> errorOf(DebitCardOperationResult<?> result) {
+        return result.isSuccess() ? List.empty() : List.of(result.error());
+    }
+
+    private static List<DebitCardError> notFoundError(Option<?> result) {
+        return result.isEmpty() ? List.of(new CardNotFoundError()) : List.empty();
+    }
+
     private static <T extends CardCommand> Supplier<DebitCardOperationResult<T>> handleNotFoundCard(T assignLimitCommand) {
         return () -> DebitCardOperationResult.failed(assignLimitCommand, new CardNotFoundError());
     }
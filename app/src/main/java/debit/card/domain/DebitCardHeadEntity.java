@@ -0,0 +1,98 @@
+package debit.card.domain;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Head of a card stored in the bucketed layout. Events and rejections are two streams of buckets: those after the
+ * last full bucket of a stream are kept inline in {@code latestEvents} or {@code latestRejections} until it fills
+ * up, all entries before it are in sealed buckets, numbered from zero per stream. The history counts are kept per
+ * chunk of one bucket size of positions.
+ */
+@Document("debitCardHeads")
+record DebitCardHeadEntity(
+        @Id
+        UUID debitCardId,
+        Long version,
+        long sequence,
+        long rejections,
+        List<DebitCardEventEntity> latestEvents,
+        List<DebitCardRejectionEntity> latestRejections,
+        Map<String, DebitCardHistoryChunkEntity> history,
+        DebitCardSnapshotEntity snapshot,
+        DebitCardSummaryEntity summary
+) {
+
+    DebitCardHeadEntity withHistory(Map<String, DebitCardHistoryChunkEntity> history) {
+        return new DebitCardHeadEntity(debitCardId, version, sequence, rejections, latestEvents, latestRejections, history, snapshot, summary);
+    }
+}
+
+/**
+ * Immutable, full bucket of one stream of a card, unique per card and bucket number. Buckets are written before
+ * the head counts them as sealed, so a bucket left by a writer that lost the race on the head is never read. The
+ * version is the one the head gets when it seals the bucket: a bucket beyond the sealed ones written for a version
+ * the head has reached already was left by a writer that lost, and can be replaced. The UUIDs of the transactions
+ * in a bucket are indexed with the card, so an outcome lookup reads only the buckets holding them.
+ */
+interface DebitCardBucket<T> {
+
+    ObjectId id();
+
+    UUID debitCardId();
+
+    int bucket();
+
+    long version();
+
+    List<UUID> transactions();
+
+    List<T> entries();
+
+    @FunctionalInterface
+    interface Factory<T, B extends DebitCardBucket<T>> {
+        B create(ObjectId id, UUID debitCardId, int bucket, long version, List<UUID> transactions, List<T> entries);
+    }
+}
+
+@Document("debitCardEventBuckets")
+record DebitCardEventBucketEntity(
+        @Id
+        ObjectId id,
+        UUID debitCardId,
+        int bucket,
+        long version,
+        List<UUID> transactions,
+        List<DebitCardEventEntity> events
+) implements DebitCardBucket<DebitCardEventEntity> {
+
+    @Override
+    public List<DebitCardEventEntity> entries() {
+        return events;
+    }
+}
+
+/**
+ * Bucket of rejections, numbered by the count of rejections before it. Only history and outcome lookups read it.
+ */
+@Document("debitCardRejectionBuckets")
+record DebitCardRejectionBucketEntity(
+        @Id
+        ObjectId id,
+        UUID debitCardId,
+        int bucket,
+        long version,
+        List<UUID> transactions,
+        List<DebitCardRejectionEntity> rejections
+) implements DebitCardBucket<DebitCardRejectionEntity> {
+
+    @Override
+    public List<DebitCardRejectionEntity> entries() {
+        return rejections;
+    }
+}
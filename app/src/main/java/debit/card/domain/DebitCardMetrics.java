@@ -0,0 +1,173 @@
+package debit.card.domain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vavr.collection.List;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Meters of the facade and the repository under it, all tagged with the repository mode. Every facade operation
+ * is timed by outcome and its errors are counted by type; stages of a command (load, decide, persist and the
+ * other repository calls) are timed on their own. Timers publish percentile histograms. Operations and stages
+ * are also added to the trace of the request through {@link RequestTracing}, when it is traced.
+ */
+class DebitCardMetrics {
+    static final String LOAD = "load";
+    static final String DECIDE = "decide";
+    static final String PERSIST = "persist";
+
+    private final MeterRegistry meterRegistry;
+    private final String repository;
+    private final ConcurrentHashMap<String, OperationMeters> operations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Stage> stages = new ConcurrentHashMap<>();
+    private final Counter versionConflicts;
+    private final RequestTracing requestTracing;
+
+    DebitCardMetrics(MeterRegistry meterRegistry, String repository) {
+        this(meterRegistry, repository, RequestTracing.NONE);
+    }
+
+    DebitCardMetrics(MeterRegistry meterRegistry, String repository, RequestTracing requestTracing) {
+        this.meterRegistry = meterRegistry;
+        this.repository = repository;
+        this.requestTracing = requestTracing;
+        this.versionConflicts = Counter.builder("debit.card.version.conflicts")
+                .description("Saves rejected because the card was saved by someone else since it was loaded")
+                .tag("repository", repository)
+                .register(meterRegistry);
+    }
+
+    static DebitCardMetrics unregistered() {
+        return new DebitCardMetrics(new SimpleMeterRegistry(), "none");
+    }
+
+    Stage stage(String stage) {
+        return stages.computeIfAbsent(stage, name -> new Stage(name, Timer.builder("debit.card.stage")
+                .description("Time spent in a single stage of a debit card operation")
+                .tag("stage", name)
+                .tag("repository", repository)
+                .publishPercentileHistogram()
+                .register(meterRegistry), requestTracing));
+    }
+
+    void recordVersionConflict() {
+        versionConflicts.increment();
+    }
+
+    /**
+     * Times the operation and counts the errors {@code errorsOf} finds in its result.
+     */
+    <R> R record(String operation, Supplier<R> call, Function<R, List<DebitCardError>> errorsOf) {
+        var meters = operation(operation);
+        var sample = Timer.start(meterRegistry);
+        try {
+            var result = requestTracing.stage(operation, call);
+            meters.record(sample, errorsOf.apply(result));
+            return result;
+        } catch (RuntimeException e) {
+            sample.stop(meters.exception);
+            throw e;
+        }
+    }
+
+    /**
+     * Times the operation until the returned future completes.
+     */
+    <R> CompletableFuture<R> recordAsync(String operation, Supplier<CompletableFuture<R>> call, Function<R, List<DebitCardError>> errorsOf) {
+        var meters = operation(operation);
+        var sample = Timer.start(meterRegistry);
+        var traced = requestTracing.startStage(operation);
+        return call.get().whenComplete((result, failure) -> {
+            traced.run();
+            if (failure == null) {
+                meters.record(sample, errorsOf.apply(result));
+            } else {
+                sample.stop(meters.exception);
+            }
+        });
+    }
+
+    private OperationMeters operation(String operation) {
+        return operations.computeIfAbsent(operation, OperationMeters::new);
+    }
+
+    /**
+     * Timer of a stage that also adds a span to the trace of the request.
+     */
+    static final class Stage {
+        private final String name;
+        private final Timer timer;
+        private final RequestTracing requestTracing;
+
+        private Stage(String name, Timer timer, RequestTracing requestTracing) {
+            this.name = name;
+            this.timer = timer;
+            this.requestTracing = requestTracing;
+        }
+
+        <T> T record(Supplier<T> call) {
+            var startedAt = start();
+            try {
+                return call.get();
+            } finally {
+                stop(startedAt);
+            }
+        }
+
+        long start() {
+            return System.nanoTime();
+        }
+
+        void stop(long startedAt) {
+            var duration = System.nanoTime() - startedAt;
+            timer.record(duration, TimeUnit.NANOSECONDS);
+            requestTracing.recordStage(name, startedAt, duration);
+        }
+    }
+
+    private final class OperationMeters {
+        private final String operation;
+        private final Timer success;
+        private final Timer failure;
+        private final Timer exception;
+        private final ConcurrentHashMap<Class<? extends DebitCardError>, Counter> errors = new ConcurrentHashMap<>();
+
+        private OperationMeters(String operation) {
+            this.operation = operation;
+            this.success = timer("success");
+            this.failure = timer("failure");
+            this.exception = timer("exception");
+        }
+
+        private Timer timer(String outcome) {
+            return Timer.builder("debit.card.operation")
+                    .description("Time of a debit card facade operation, failures are operations that ended with an error")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .tag("repository", repository)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+
+        void record(Timer.Sample sample, List<DebitCardError> operationErrors) {
+            sample.stop(operationErrors.isEmpty() ? success : failure);
+            operationErrors.forEach(error -> errors.computeIfAbsent(error.getClass(), this::errorCounter).increment());
+        }
+
+        private Counter errorCounter(Class<? extends DebitCardError> error) {
+            return Counter.builder("debit.card.errors")
+                    .description("Debit card operations that ended with the given error")
+                    .tag("operation", operation)
+                    .tag("error", error.getSimpleName())
+                    .tag("repository", repository)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -1,29 +1,169 @@
 package debit.card.domain;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.nio.file.Path;
+import java.time.Duration;
 
 @Configuration
 class DebitCardModule {
+    private static final Logger log = LoggerFactory.getLogger(DebitCardModule.class);
 
     static final String DEBIT_CARD_REPOSITORY = "debit.card.repository";
+    static final String DEBIT_CARD_SNAPSHOT_INTERVAL = "debit.card.snapshot.interval";
+    static final String DEBIT_CARD_MONEY_CURRENCY = "debit.card.money.currency";
+    static final String DEBIT_CARD_MONEY_SCALE = "debit.card.money.scale";
+    static final String DEBIT_CARD_CACHE_ENABLED = "debit.card.cache.enabled";
+    static final String DEBIT_CARD_CACHE_MAXIMUM_SIZE = "debit.card.cache.maximum-size";
+    static final String DEBIT_CARD_CACHE_EXPIRE_AFTER_WRITE = "debit.card.cache.expire-after-write";
+    static final String DEBIT_CARD_SUMMARY_CACHE_ENABLED = "debit.card.summary.cache.enabled";
+    static final String DEBIT_CARD_SUMMARY_CACHE_MAXIMUM_SIZE = "debit.card.summary.cache.maximum-size";
+    static final String DEBIT_CARD_SUMMARY_CACHE_EXPIRE_AFTER_WRITE = "debit.card.summary.cache.expire-after-write";
+    static final String DEBIT_CARD_FACADE_LANES = "debit.card.facade.lanes";
+    static final String DEBIT_CARD_FACADE_LANE_QUEUE_CAPACITY = "debit.card.facade.lane-queue-capacity";
+    static final String DEBIT_CARD_FACADE_LANE_OFFER_TIMEOUT = "debit.card.facade.lane-offer-timeout";
+    static final String DEBIT_CARD_MONGO_BUCKET_SIZE = "debit.card.mongo.bucket-size";
+    static final String DEBIT_CARD_MONGO_MIGRATE_ON_STARTUP = "debit.card.mongo.migrate-on-startup";
+    static final String DEBIT_CARD_JOURNAL_DIRECTORY = "debit.card.journal.directory";
+    static final String DEBIT_CARD_JOURNAL_SEGMENT_SIZE = "debit.card.journal.segment-size";
 
     @Bean
-    DebitCardFacade facade(DebitCardRepository debitCardRepository) {
-        return new DebitCardFacade(debitCardRepository);
+    DebitCardFacade facade(
+            DebitCardRepository debitCardRepository,
+            CurrencyUnit currencyUnit,
+            AggregateCachePolicy aggregateCachePolicy,
+            SummaryCachePolicy summaryCachePolicy,
+            MeterRegistry meterRegistry,
+            CardLanes cardLanes,
+            RequestTracing requestTracing,
+            @Value("${" + DEBIT_CARD_REPOSITORY + ":stub}") String repositoryMode
+    ) {
+        var metrics = new DebitCardMetrics(meterRegistry, repositoryMode, requestTracing);
+        return new DebitCardFacade(
+                new MeteredDebitCardRepository(
+                        SummaryCachingDebitCardRepository.decorate(
+                                CachingDebitCardRepository.decorate(debitCardRepository, aggregateCachePolicy, meterRegistry),
+                                summaryCachePolicy,
+                                meterRegistry
+                        ),
+                        metrics
+                ),
+                currencyUnit,
+                cardLanes,
+                metrics
+        );
+    }
+
+    @Bean(destroyMethod = "close")
+    CardLanes cardLanes(
+            @Value("${" + DEBIT_CARD_FACADE_LANES + ":0}") int lanes,
+            @Value("${" + DEBIT_CARD_FACADE_LANE_QUEUE_CAPACITY + ":256}") int queueCapacity,
+            @Value("${" + DEBIT_CARD_FACADE_LANE_OFFER_TIMEOUT + ":1s}") Duration offerTimeout,
+            RequestTracing requestTracing
+    ) {
+        return lanes > 0 ? CardLanes.of(lanes, queueCapacity, offerTimeout, requestTracing) : CardLanes.inline();
     }
 
     @Bean
     @ConditionalOnProperty(name = DEBIT_CARD_REPOSITORY, havingValue = "stub", matchIfMissing = true)
-    DebitCardRepository repository() {
-        return new InMemoryDebitCardRepository();
+    DebitCardRepository repository(SnapshotPolicy snapshotPolicy, MeterRegistry meterRegistry, RequestTracing requestTracing) {
+        return new InMemoryDebitCardRepository(snapshotPolicy, new ReplayMetrics(meterRegistry, "stub", requestTracing));
     }
 
     @Bean
     @ConditionalOnProperty(name = DEBIT_CARD_REPOSITORY, havingValue = "mongo")
-    DebitCardRepository debitCardRepository(MongoDebitCardCrudRepository crudRepository) {
-        return new MongoDebitCardRepository(crudRepository);
+    DebitCardRepository debitCardRepository(
+            MongoOperations mongoOperations,
+            SnapshotPolicy snapshotPolicy,
+            MeterRegistry meterRegistry,
+            RequestTracing requestTracing,
+            CurrencyUnit currencyUnit
+    ) {
+        return new MongoDebitCardRepository(
+                mongoOperations,
+                snapshotPolicy,
+                new ReplayMetrics(meterRegistry, "mongo", requestTracing),
+                currencyUnit
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = DEBIT_CARD_REPOSITORY, havingValue = "mongo-bucketed")
+    BucketedMongoDebitCardRepository bucketedDebitCardRepository(
+            MongoOperations mongoOperations,
+            @Value("${" + DEBIT_CARD_MONGO_BUCKET_SIZE + ":" + BucketedMongoDebitCardRepository.DEFAULT_BUCKET_SIZE + "}") int bucketSize,
+            SnapshotPolicy snapshotPolicy,
+            MeterRegistry meterRegistry,
+            RequestTracing requestTracing,
+            CurrencyUnit currencyUnit
+    ) {
+        return BucketedMongoDebitCardRepository.create(
+                mongoOperations,
+                bucketSize,
+                snapshotPolicy,
+                new ReplayMetrics(meterRegistry, "mongo-bucketed", requestTracing),
+                currencyUnit
+        );
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = DEBIT_CARD_REPOSITORY, havingValue = "journal")
+    JournalDebitCardRepository journalDebitCardRepository(
+            @Value("${" + DEBIT_CARD_JOURNAL_DIRECTORY + ":journal}") Path directory,
+            @Value("${" + DEBIT_CARD_JOURNAL_SEGMENT_SIZE + ":" + JournalDebitCardRepository.DEFAULT_SEGMENT_SIZE + "}") int segmentSize,
+            SnapshotPolicy snapshotPolicy,
+            MeterRegistry meterRegistry,
+            RequestTracing requestTracing
+    ) {
+        return JournalDebitCardRepository.open(directory, segmentSize, snapshotPolicy, new ReplayMetrics(meterRegistry, "journal", requestTracing));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = DEBIT_CARD_MONGO_MIGRATE_ON_STARTUP, havingValue = "true")
+    ApplicationRunner bucketedLayoutMigration(BucketedMongoDebitCardRepository repository) {
+        return arguments -> log.info("Migrated {} debit cards to bucketed layout", repository.migrateAll());
+    }
+
+    @Bean
+    CurrencyUnit currencyUnit(
+            @Value("${" + DEBIT_CARD_MONEY_CURRENCY + ":PLN}") String currencyCode,
+            @Value("${" + DEBIT_CARD_MONEY_SCALE + ":#{null}}") Integer scale
+    ) {
+        return Option.of(scale)
+                .map(explicitScale -> new CurrencyUnit(currencyCode, explicitScale))
+                .getOrElse(() -> CurrencyUnit.of(currencyCode));
+    }
+
+    @Bean
+    AggregateCachePolicy aggregateCachePolicy(
+            @Value("${" + DEBIT_CARD_CACHE_ENABLED + ":true}") boolean enabled,
+            @Value("${" + DEBIT_CARD_CACHE_MAXIMUM_SIZE + ":10000}") long maximumSize,
+            @Value("${" + DEBIT_CARD_CACHE_EXPIRE_AFTER_WRITE + ":10m}") Duration expireAfterWrite
+    ) {
+        return new AggregateCachePolicy(enabled, maximumSize, expireAfterWrite);
+    }
+
+    @Bean
+    SummaryCachePolicy summaryCachePolicy(
+            @Value("${" + DEBIT_CARD_SUMMARY_CACHE_ENABLED + ":true}") boolean enabled,
+            @Value("${" + DEBIT_CARD_SUMMARY_CACHE_MAXIMUM_SIZE + ":10000}") long maximumSize,
+            @Value("${" + DEBIT_CARD_SUMMARY_CACHE_EXPIRE_AFTER_WRITE + ":5s}") Duration expireAfterWrite
+    ) {
+        return new SummaryCachePolicy(enabled, maximumSize, expireAfterWrite);
+    }
+
+    @Bean
+    SnapshotPolicy snapshotPolicy(@Value("${" + DEBIT_CARD_SNAPSHOT_INTERVAL + ":" + SnapshotPolicy.DEFAULT_INTERVAL + "}") int interval) {
+        return new SnapshotPolicy(interval);
     }
 
 }
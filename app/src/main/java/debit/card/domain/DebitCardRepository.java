@@ -1,26 +1,80 @@
 package debit.card.domain;
 
 import debit.card.view.DebitCardSummary;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import debit.card.view.VersionedDebitCardSummary;
+import io.vavr.collection.HashMap;
 import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.collection.Vector;
 import io.vavr.control.Option;
 
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 interface DebitCardRepository {
     Option<DebitCard> getByUUID(UUID cardUUID);
 
-    Option<DebitCardSummary> getSummaryByUUID(UUID cardUUID);
+    Option<VersionedDebitCardSummary> getVersionedSummaryByUUID(UUID cardUUID);
 
-    void save(DebitCard card);
+    default Option<DebitCardSummary> getSummaryByUUID(UUID cardUUID) {
+        return getVersionedSummaryByUUID(cardUUID).map(VersionedDebitCardSummary::summary);
+    }
+
+    /**
+     * Current version of the card, read without loading its events or summary.
+     */
+    Option<Long> getVersion(UUID cardUUID);
+
+    /**
+     * Events stored after the first {@code sequence} ones, together with the number of stored rejections, so a
+     * cached card can be caught up without reading the rejections.
+     */
+    Option<EventsAfter> getEventsAfter(UUID cardUUID, long sequence);
+
+    SaveResult save(DebitCard card);
+
+    Option<DebitCardSnapshot> takeSnapshot(UUID cardUUID);
+
+    /**
+     * Rejections of the card in the order they were saved. They are stored with the same write as the events
+     * of the save, in a stream of their own that loads never read.
+     */
+    List<DebitCardEvent.Failure> getRejections(UUID cardUUID);
+
+    /**
+     * Outcomes of the given transactions among the stored events and rejections of the card, for transactions the
+     * {@link TransactionIndex} of a loaded card might have seen but does not know the outcome of. Stores look them
+     * up by transaction instead of reading all changes of the card; a transaction is accepted when any of its
+     * changes is.
+     */
+    Map<UUID, Boolean> findTransactionOutcomes(UUID cardUUID, Set<UUID> transactionIds);
+
+    /**
+     * A page of charges and pay-offs of the card, accepted and rejected, in the order of their sequence, which is
+     * their position among the stored events and rejections.
+     */
+    TransactionHistoryPage getTransactions(UUID cardUUID, TransactionHistoryQuery query);
 }
 
 class InMemoryDebitCardRepository implements DebitCardRepository {
-    private final ConcurrentHashMap<UUID, VersionedEvents> inMemoryEventStore;
+    private final ConcurrentHashMap<UUID, CardEventStream> inMemoryEventStore;
+    private final SnapshotPolicy snapshotPolicy;
+    private final ReplayMetrics replayMetrics;
 
     InMemoryDebitCardRepository() {
+        this(SnapshotPolicy.defaultPolicy(), ReplayMetrics.unregistered());
+    }
+
+    InMemoryDebitCardRepository(SnapshotPolicy snapshotPolicy, ReplayMetrics replayMetrics) {
         this.inMemoryEventStore = new ConcurrentHashMap<>();
+        this.snapshotPolicy = snapshotPolicy;
+        this.replayMetrics = replayMetrics;
     }
 
     void clean() {
@@ -30,33 +84,175 @@ class InMemoryDebitCardRepository implements DebitCardRepository {
     @Override
     public Option<DebitCard> getByUUID(UUID cardUUID) {
         return Option.of(inMemoryEventStore.get(cardUUID))
-                .map(versionedEvents -> DebitCard.fromEvents(cardUUID, versionedEvents.version(), versionedEvents.events()));
+                .map(stream -> replayMetrics.timeReplay(() -> toDebitCard(cardUUID, stream.current())));
+    }
+
+    private DebitCard toDebitCard(UUID cardUUID, VersionedEvents versionedEvents) {
+        var snapshotSequence = versionedEvents.snapshot().map(DebitCardSnapshot::sequence).getOrElse(0L);
+        var eventsAfterSnapshot = versionedEvents.events().from(snapshotSequence);
+        var storedRejections = versionedEvents.rejections().size();
+        replayMetrics.recordReplay((int) (versionedEvents.events().size() - snapshotSequence));
+        return versionedEvents.snapshot()
+                .map(snapshot -> DebitCard.fromSnapshot(cardUUID, versionedEvents.version(), snapshot, eventsAfterSnapshot, storedRejections))
+                .getOrElse(() -> DebitCard.fromEvents(cardUUID, versionedEvents.version(), eventsAfterSnapshot, storedRejections));
+    }
+
+    @Override
+    public Option<VersionedDebitCardSummary> getVersionedSummaryByUUID(UUID cardUUID) {
+        return Option.of(inMemoryEventStore.get(cardUUID))
+                .map(CardEventStream::current)
+                .map(current -> new VersionedDebitCardSummary(current.version(), current.summary()));
     }
 
     @Override
-    public Option<DebitCardSummary> getSummaryByUUID(UUID cardUUID) {
-        return getByUUID(cardUUID).map(DebitCard::toSummary);
+    public Option<Long> getVersion(UUID cardUUID) {
+        return Option.of(inMemoryEventStore.get(cardUUID))
+                .map(stream -> stream.current().version());
+    }
+
+    @Override
+    public Option<EventsAfter> getEventsAfter(UUID cardUUID, long sequence) {
+        return Option.of(inMemoryEventStore.get(cardUUID))
+                .map(CardEventStream::current)
+                .map(versionedEvents -> new EventsAfter(
+                        versionedEvents.version(),
+                        List.ofAll(versionedEvents.events().from(sequence)),
+                        versionedEvents.rejections().size()
+                ));
     }
 
     @Override
-    public void save(DebitCard card) {
+    public SaveResult save(DebitCard card) {
         var uuid = card.toSummary().cardUUID();
-        inMemoryEventStore.computeIfPresent(uuid, (key, events) -> events.appendAll(card.version(), card.pendingChanges()));
-        inMemoryEventStore.putIfAbsent(uuid, new VersionedEvents(0L, card.pendingChanges()));
-        card.flushChanges();
+        if (card.version() == null) {
+            var created = inMemoryEventStore.putIfAbsent(uuid, new CardEventStream(VersionedEvents.initial(card, snapshotPolicy)));
+            return created == null
+                    ? new SaveResult.Saved(0L)
+                    : new SaveResult.VersionConflict(uuid, null);
+        }
+        return Option.of(inMemoryEventStore.get(uuid))
+                .map(stream -> stream.append(uuid, card, snapshotPolicy))
+                .getOrElse(() -> new SaveResult.VersionConflict(uuid, card.version()));
+    }
+
+    @Override
+    public Option<DebitCardSnapshot> takeSnapshot(UUID cardUUID) {
+        return Option.of(inMemoryEventStore.get(cardUUID))
+                .flatMap(stream -> stream.takeSnapshot(versionedEvents -> toDebitCard(cardUUID, versionedEvents)));
+    }
+
+    @Override
+    public List<DebitCardEvent.Failure> getRejections(UUID cardUUID) {
+        return Option.of(inMemoryEventStore.get(cardUUID))
+                .map(stream -> stream.current().rejections().toList())
+                .getOrElse(List.empty());
+    }
+
+    @Override
+    public Map<UUID, Boolean> findTransactionOutcomes(UUID cardUUID, Set<UUID> transactionIds) {
+        return Option.of(inMemoryEventStore.get(cardUUID))
+                .map(stream -> stream.current().transactions().outcomesOf(transactionIds))
+                .getOrElse(HashMap::empty);
+    }
+
+    @Override
+    public TransactionHistoryPage getTransactions(UUID cardUUID, TransactionHistoryQuery query) {
+        return Option.of(inMemoryEventStore.get(cardUUID))
+                .map(stream -> stream.current().transactions().page(query))
+                .getOrElse(() -> TransactionHistoryPage.of(List.empty(), query.limit()));
+    }
+}
+
+/**
+ * Event stream of a single card. Writers never block each other: an append prepares the next immutable state
+ * and publishes it with a compare-and-set, which fails only if the card was modified in the meantime.
+ */
+final class CardEventStream {
+    private final AtomicReference<VersionedEvents> state;
+
+    CardEventStream(VersionedEvents initialState) {
+        this.state = new AtomicReference<>(initialState);
+    }
+
+    VersionedEvents current() {
+        return state.get();
+    }
+
+    SaveResult append(UUID cardUUID, DebitCard card, SnapshotPolicy snapshotPolicy) {
+        while (true) {
+            var current = state.get();
+            if (!Objects.equals(card.version(), current.version())) {
+                return new SaveResult.VersionConflict(cardUUID, card.version());
+            }
+            var next = current.appendAll(card, snapshotPolicy);
+            if (state.compareAndSet(current, next)) {
+                return new SaveResult.Saved(next.version());
+            }
+        }
+    }
+
+    Option<DebitCardSnapshot> takeSnapshot(Function<VersionedEvents, DebitCard> replay) {
+        while (true) {
+            var current = state.get();
+            var next = current.withSnapshot(replay.apply(current).snapshot());
+            if (state.compareAndSet(current, next)) {
+                return next.snapshot();
+            }
+        }
+    }
+}
+
+/**
+ * Current version of a card together with the events stored after a given sequence and the number of stored
+ * rejections.
+ */
+record EventsAfter(
+        Long version,
+        List<DebitCardEvent> events,
+        long rejections
+) {
+
+    int size() {
+        return events.size();
     }
 }
 
+/**
+ * Stored state of a card. Events and rejections are kept in streams of their own, together with the transaction
+ * history of both, and all are published by the same compare-and-set.
+ */
 record VersionedEvents(
         Long version,
-        List<DebitCardEvent> events
+        EventChunks events,
+        Vector<DebitCardEvent.Failure> rejections,
+        CardTransactionHistory transactions,
+        Option<DebitCardSnapshot> snapshot,
+        DebitCardSummary summary
 ) {
 
-    public VersionedEvents appendAll(Long version, List<DebitCardEvent> debitCardEvents) {
-        if (Objects.equals(version, this.version)) {
-            return new VersionedEvents(this.version + 1, events.appendAll(debitCardEvents));
-        } else {
-            throw new RuntimeException("Optimistic locking exception");
-        }
+    static VersionedEvents initial(DebitCard card, SnapshotPolicy snapshotPolicy) {
+        return new VersionedEvents(null, EventChunks.empty(), Vector.empty(), CardTransactionHistory.empty(), Option.none(), card.toSummary())
+                .appendAll(card, snapshotPolicy);
+    }
+
+    VersionedEvents appendAll(DebitCard card, SnapshotPolicy snapshotPolicy) {
+        return new VersionedEvents(
+                version == null ? 0L : version + 1,
+                events.appendAll(card.replayableChanges()),
+                rejections.appendAll(card.failedChanges()),
+                transactions.appendAll(TransactionHistory.entriesOf(card.position(), card.pendingChanges())),
+                snapshot,
+                card.toSummary()
+        ).snapshotIfDue(card, snapshotPolicy);
+    }
+
+    VersionedEvents withSnapshot(DebitCardSnapshot snapshot) {
+        return new VersionedEvents(version, events, rejections, transactions, Option.some(snapshot), summary);
+    }
+
+    private VersionedEvents snapshotIfDue(DebitCard card, SnapshotPolicy snapshotPolicy) {
+        return card.isSnapshotDueAfterSave(snapshotPolicy)
+                ? withSnapshot(card.snapshotAfterSave())
+                : this;
     }
-}
\ No newline at end of file
+}
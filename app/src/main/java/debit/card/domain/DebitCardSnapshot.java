@@ -0,0 +1,43 @@
+package debit.card.domain;
+
+import io.vavr.control.Option;
+
+/**
+ * State of a card after the first {@code sequence} events and {@code rejections} rejections of its history.
+ * Loading a card starts from the latest snapshot and replays only the events and rejections stored after it.
+ */
+record DebitCardSnapshot(
+        long sequence,
+        long rejections,
+        Long version,
+        Option<Money> limit,
+        Money balance,
+        boolean blocked,
+        TransactionIndex transactions
+) {
+
+    long position() {
+        return sequence + rejections;
+    }
+}
+
+record SnapshotPolicy(int interval) {
+    static final int DEFAULT_INTERVAL = 100;
+
+    static SnapshotPolicy defaultPolicy() {
+        return new SnapshotPolicy(DEFAULT_INTERVAL);
+    }
+
+    SnapshotPolicy {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be positive, got " + interval);
+        }
+    }
+
+    /**
+     * Positions count events and rejections of the card, so a card that keeps rejecting is snapshotted too.
+     */
+    boolean isSnapshotDue(long positionBefore, long positionAfter) {
+        return positionAfter / interval > positionBefore / interval;
+    }
+}
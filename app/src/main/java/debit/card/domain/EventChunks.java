@@ -0,0 +1,98 @@
+package debit.card.domain;
+
+import io.vavr.collection.Vector;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, append-friendly sequence of events split into fixed-size chunks.
+ * Full chunks are shared between versions; an append copies at most one partially filled chunk.
+ */
+final class EventChunks {
+    static final int CHUNK_SIZE = 64;
+    private static final EventChunks EMPTY = new EventChunks(Vector.empty(), new DebitCardEvent[0]);
+
+    private final Vector<DebitCardEvent[]> fullChunks;
+    private final DebitCardEvent[] tail;
+
+    private EventChunks(Vector<DebitCardEvent[]> fullChunks, DebitCardEvent[] tail) {
+        this.fullChunks = fullChunks;
+        this.tail = tail;
+    }
+
+    static EventChunks empty() {
+        return EMPTY;
+    }
+
+    long size() {
+        return (long) fullChunks.size() * CHUNK_SIZE + tail.length;
+    }
+
+    EventChunks appendAll(Iterable<DebitCardEvent> events) {
+        var chunks = fullChunks;
+        var current = tail;
+        var currentSize = tail.length;
+        var iterator = events.iterator();
+        if (!iterator.hasNext()) {
+            return this;
+        }
+        while (iterator.hasNext()) {
+            if (currentSize == CHUNK_SIZE) {
+                chunks = chunks.append(current);
+                current = new DebitCardEvent[CHUNK_SIZE];
+                currentSize = 0;
+            } else if (current == tail) {
+                current = Arrays.copyOf(current, CHUNK_SIZE);
+            }
+            current[currentSize++] = iterator.next();
+        }
+        return new EventChunks(chunks, current.length == currentSize ? current : Arrays.copyOf(current, currentSize));
+    }
+
+    /**
+     * Events stored after the first {@code sequence} ones, without copying them.
+     */
+    Iterable<DebitCardEvent> from(long sequence) {
+        return () -> new ChunkIterator(sequence);
+    }
+
+    private final class ChunkIterator implements Iterator<DebitCardEvent> {
+        private int chunkIndex;
+        private int offset;
+        private DebitCardEvent[] chunk;
+
+        private ChunkIterator(long sequence) {
+            var start = Math.min(Math.max(sequence, 0), size());
+            this.chunkIndex = (int) Math.min(start / CHUNK_SIZE, fullChunks.size());
+            this.offset = (int) (start - (long) chunkIndex * CHUNK_SIZE);
+            this.chunk = chunkAt(chunkIndex);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (offset < chunk.length) {
+                return true;
+            }
+            if (chunkIndex >= fullChunks.size()) {
+                return false;
+            }
+            chunk = chunkAt(++chunkIndex);
+            offset = 0;
+            return offset < chunk.length;
+        }
+
+        @Override
+        public DebitCardEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk[offset++];
+        }
+
+        private DebitCardEvent[] chunkAt(int index) {
+            return index < fullChunks.size() ? fullChunks.get(index) : tail;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package debit.card.domain;
+
+import io.vavr.collection.List;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only log of saves and snapshots kept in memory-mapped segment files of equal size.
+ * <p>
+ * Each record is {@code [length][crc32c][payload]}, where the payload holds the event schema version, the kind of
+ * the record, the card, its version and the number of events stored before it or in its snapshot. A record of a save
+ * goes on with the positions of the previous records of the same card with events and with rejections, the number of
+ * rejections stored before it and the counts of its events and rejections, then the events followed by the
+ * rejections with their positions, encoded with {@link DebitCardEventCodec}; a snapshot record with
+ * the encoded snapshot.
+ * Saves of one card form two chains going backwards, one through the records with events and one through those with
+ * rejections, so a card is loaded without scanning other cards or its rejections; snapshots are not part of either.
+ * A segment ends at the first zero length; a record with a wrong checksum is a torn write and ends the journal.
+ * The journal holds a lock on a lock file in its directory while open, so a second process, or a second journal
+ * in the same process, cannot append to the same segments.
+ */
+final class Journal implements AutoCloseable {
+    static final long NO_RECORD = -1;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final byte CHANGES = 0;
+    private static final byte SNAPSHOT = 1;
+    private static final int PAYLOAD_HEADER_SIZE = 2 + 2 * Long.BYTES + 2 * Long.BYTES;
+    private static final int CHANGES_HEADER_SIZE = PAYLOAD_HEADER_SIZE + 3 * Long.BYTES + 2 * Integer.BYTES;
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    private final Path directory;
+    private final FileLock lock;
+    private final int segmentSize;
+    private final CopyOnWriteArrayList<Segment> segments;
+    private volatile long writePosition;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushed = flushLock.newCondition();
+    private long durablePosition;
+    private boolean flushing;
+    private volatile RuntimeException forceFailure;
+
+    private Journal(Path directory, FileLock lock, int segmentSize, Collection<Segment> segments, long writePosition) {
+        this.directory = directory;
+        this.lock = lock;
+        this.segmentSize = segmentSize;
+        this.segments = new CopyOnWriteArrayList<>(segments);
+        this.writePosition = writePosition;
+        this.durablePosition = writePosition;
+    }
+
+    /**
+     * Opens the journal in the directory and passes every stored record to {@code recovered} in order.
+     * A torn record at the end is erased together with everything written after it. Fails when the journal is
+     * already open.
+     */
+    static Journal open(Path directory, int segmentSize, Consumer<Entry> recovered) {
+        FileLock lock = null;
+        try {
+            Files.createDirectories(directory);
+            lock = lock(directory);
+            var files = List.ofAll(Files.list(directory).toList())
+                    .filter(file -> file.getFileName().toString().matches("segment-\\d{8}\\.journal"))
+                    .sorted();
+            var segments = new ArrayList<Segment>();
+            var writePosition = 0L;
+            for (var file : files) {
+                var segment = Segment.open(file, segmentSize);
+                var recoveredSegment = recover(segments.size(), segment, segmentSize, recovered);
+                segments.add(segment);
+                writePosition = (long) (segments.size() - 1) * segmentSize + recoveredSegment.end();
+                if (recoveredSegment.torn()) {
+                    files.drop(segments.size()).forEach(Journal::delete);
+                    break;
+                }
+            }
+            if (segments.isEmpty()) {
+                segments.add(Segment.create(segmentPath(directory, 0), segmentSize));
+            }
+            return new Journal(directory, lock, segmentSize, segments, writePosition);
+        } catch (IOException e) {
+            release(lock);
+            throw new UncheckedIOException("Cannot open journal in " + directory, e);
+        } catch (RuntimeException e) {
+            release(lock);
+            throw e;
+        }
+    }
+
+    private static FileLock lock(Path directory) throws IOException {
+        var channel = FileChannel.open(directory.resolve("journal.lock"), CREATE, WRITE);
+        try {
+            var lock = channel.tryLock();
+            if (lock == null) {
+                throw new IllegalStateException("Journal in " + directory + " is already open in another process");
+            }
+            return lock;
+        } catch (OverlappingFileLockException e) {
+            channel.close();
+            throw new IllegalStateException("Journal in " + directory + " is already open", e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void release(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.channel().close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot release journal lock", e);
+        }
+    }
+
+    private static RecoveredSegment recover(int segmentIndex, Segment segment, int segmentSize, Consumer<Entry> recovered) {
+        var offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= segmentSize) {
+            var length = segment.buffer().getInt(offset);
+            if (length == 0) {
+                return new RecoveredSegment(offset, false);
+            }
+            if (length < PAYLOAD_HEADER_SIZE || offset + RECORD_HEADER_SIZE + length > segmentSize
+                    || segment.buffer().getInt(offset + Integer.BYTES) != checksum(segment.buffer(), offset + RECORD_HEADER_SIZE, length)) {
+                segment.erase(offset);
+                return new RecoveredSegment(offset, true);
+            }
+            recovered.accept(segment.read((long) segmentIndex * segmentSize + offset, offset, true));
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        return new RecoveredSegment(offset, false);
+    }
+
+    /**
+     * Offset after the last valid record of a segment and whether a torn record was erased after it.
+     */
+    private record RecoveredSegment(int end, boolean torn) {
+    }
+
+    /**
+     * Writes the record and returns its position. Callers serialize appends; the record is durable only
+     * after {@link #awaitDurable(long)} with {@link #writePosition()} returns.
+     */
+    long append(
+            UUID cardUUID,
+            long version,
+            long sequence,
+            long rejectionsBefore,
+            long previousEvents,
+            long previousRejections,
+            List<DebitCardEvent> events,
+            List<Rejection> rejections
+    ) {
+        var payloadSize = CHANGES_HEADER_SIZE
+                + events.map(DebitCardEventCodec::sizeOf).sum().intValue()
+                + rejections.map(rejection -> Long.BYTES + DebitCardEventCodec.sizeOf(rejection.failure())).sum().intValue();
+        if (RECORD_HEADER_SIZE + payloadSize > segmentSize) {
+            throw new IllegalArgumentException("Record of %d bytes does not fit in a journal segment".formatted(RECORD_HEADER_SIZE + payloadSize));
+        }
+        var payload = header(payloadSize, CHANGES, cardUUID, version, sequence)
+                .putLong(previousEvents)
+                .putLong(previousRejections)
+                .putLong(rejectionsBefore)
+                .putInt(events.size())
+                .putInt(rejections.size());
+        events.forEach(event -> DebitCardEventCodec.write(payload, event));
+        rejections.forEach(rejection -> DebitCardEventCodec.write(payload.putLong(rejection.position()), rejection.failure()));
+        return write(payload);
+    }
+
+    /**
+     * Writes a snapshot record and returns its position, or {@link #NO_RECORD} when the snapshot does not fit
+     * in a segment and is left out. Callers serialize appends.
+     */
+    long appendSnapshot(UUID cardUUID, DebitCardSnapshot snapshot) {
+        var encoded = DebitCardEventCodec.encodeSnapshot(snapshot);
+        var payloadSize = PAYLOAD_HEADER_SIZE + encoded.length;
+        if (RECORD_HEADER_SIZE + payloadSize > segmentSize) {
+            return NO_RECORD;
+        }
+        return write(header(payloadSize, SNAPSHOT, cardUUID, snapshot.version(), snapshot.sequence()).put(encoded));
+    }
+
+    private static ByteBuffer header(int payloadSize, byte kind, UUID cardUUID, long version, long sequence) {
+        var payload = ByteBuffer.allocate(payloadSize);
+        payload.put(DebitCardEventCodec.SCHEMA_VERSION).put(kind);
+        DebitCardEventCodec.writeUUID(payload, cardUUID);
+        return payload.putLong(version).putLong(sequence);
+    }
+
+    private long write(ByteBuffer payload) {
+        failIfForceFailed();
+        var payloadSize = payload.capacity();
+        var recordSize = RECORD_HEADER_SIZE + payloadSize;
+        var position = writePosition;
+        if (segmentOf(position) == segments.size() || offsetOf(position) + recordSize > segmentSize) {
+            position = rollSegment();
+        }
+        var buffer = segments.get(segmentOf(position)).buffer();
+        var offset = offsetOf(position);
+        buffer.put(offset + RECORD_HEADER_SIZE, payload.array());
+        buffer.putInt(offset + Integer.BYTES, checksum(buffer, offset + RECORD_HEADER_SIZE, payloadSize));
+        buffer.putInt(offset, payloadSize);
+        writePosition = position + recordSize;
+        return position;
+    }
+
+    private long rollSegment() {
+        segments.get(segments.size() - 1).buffer().force();
+        segments.add(Segment.create(segmentPath(directory, segments.size()), segmentSize));
+        return (long) (segments.size() - 1) * segmentSize;
+    }
+
+    /**
+     * Reads the record with its events only, as loads do; its rejections are left undecoded.
+     */
+    Record read(long position) {
+        return (Record) segments.get(segmentOf(position)).read(position, offsetOf(position), false);
+    }
+
+    Record readWithRejections(long position) {
+        return (Record) segments.get(segmentOf(position)).read(position, offsetOf(position), true);
+    }
+
+    DebitCardSnapshot readSnapshot(long position) {
+        return segments.get(segmentOf(position)).readSnapshot(offsetOf(position));
+    }
+
+    long writePosition() {
+        return writePosition;
+    }
+
+    /**
+     * Group commit: the first waiter forces everything written so far, waiters arriving meanwhile wait for it
+     * and are usually covered by the same force. A failed force leaves it unknown what reached the disk, so from
+     * then on every wait for a record not yet durable and every append fail.
+     */
+    void awaitDurable(long position) {
+        flushLock.lock();
+        try {
+            while (durablePosition < position) {
+                failIfForceFailed();
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                var target = writePosition;
+                flushLock.unlock();
+                try {
+                    segments.get(segmentOf(Math.max(target - 1, 0))).buffer().force();
+                } catch (RuntimeException e) {
+                    forceFailure = e;
+                    throw e;
+                } finally {
+                    flushLock.lock();
+                    flushing = false;
+                    flushed.signalAll();
+                }
+                durablePosition = Math.max(durablePosition, target);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    long durablePosition() {
+        flushLock.lock();
+        try {
+            return durablePosition;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void failIfForceFailed() {
+        if (forceFailure != null) {
+            throw new IllegalStateException("Journal in " + directory + " failed to force its records", forceFailure);
+        }
+    }
+
+    private int segmentOf(long position) {
+        return (int) (position / segmentSize);
+    }
+
+    private int offsetOf(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    @Override
+    public void close() {
+        segments.forEach(Segment::close);
+        release(lock);
+    }
+
+    private static int checksum(MappedByteBuffer buffer, int offset, int length) {
+        var crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private static Path segmentPath(Path directory, int index) {
+        return directory.resolve("segment-%08d.journal".formatted(index));
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete journal segment " + file, e);
+        }
+    }
+
+    sealed interface Entry permits Record, SnapshotRecord {
+        long position();
+
+        UUID cardUUID();
+    }
+
+    /**
+     * Record of a save. Its rejections are decoded on recovery and by {@link #readWithRejections(long)} only, the
+     * list is empty in records read for a load.
+     */
+    record Record(
+            long position,
+            UUID cardUUID,
+            long version,
+            long sequence,
+            long rejectionsBefore,
+            long previousEvents,
+            long previousRejections,
+            List<DebitCardEvent> events,
+            List<Rejection> rejections
+    ) implements Entry {
+        long sequenceAfter() {
+            return sequence + events.size();
+        }
+
+        /**
+         * Position of the first change of the record among all events and rejections of the card.
+         */
+        long firstPosition() {
+            return sequence + rejectionsBefore;
+        }
+    }
+
+    /**
+     * Snapshot of a card taken after its first {@code sequence} events. The snapshot itself is decoded on demand
+     * with {@link #readSnapshot(long)}.
+     */
+    record SnapshotRecord(long position, UUID cardUUID, long version, long sequence) implements Entry {
+    }
+
+    private record Segment(FileChannel channel, MappedByteBuffer buffer) {
+
+        static Segment create(Path file, int segmentSize) {
+            try {
+                return map(FileChannel.open(file, CREATE_NEW, READ, WRITE), segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create journal segment " + file, e);
+            }
+        }
+
+        static Segment open(Path file, int segmentSize) throws IOException {
+            return map(FileChannel.open(file, READ, WRITE), segmentSize);
+        }
+
+        private static Segment map(FileChannel channel, int segmentSize) throws IOException {
+            return new Segment(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+
+        Entry read(long position, int offset, boolean withRejections) {
+            var payload = payload(offset);
+            var kind = payload.get();
+            var cardUUID = DebitCardEventCodec.readUUID(payload);
+            var version = payload.getLong();
+            var sequence = payload.getLong();
+            if (kind == SNAPSHOT) {
+                return new SnapshotRecord(position, cardUUID, version, sequence);
+            }
+            if (kind != CHANGES) {
+                throw new IllegalStateException("Unknown journal record kind " + kind);
+            }
+            var previousEvents = payload.getLong();
+            var previousRejections = payload.getLong();
+            var rejectionsBefore = payload.getLong();
+            var eventCount = payload.getInt();
+            var rejectionCount = payload.getInt();
+            var events = new DebitCardEvent[eventCount];
+            for (int i = 0; i < eventCount; i++) {
+                events[i] = DebitCardEventCodec.read(payload);
+            }
+            var rejections = new Rejection[withRejections ? rejectionCount : 0];
+            for (int i = 0; i < rejections.length; i++) {
+                rejections[i] = new Rejection(payload.getLong(), (DebitCardEvent.Failure) DebitCardEventCodec.read(payload));
+            }
+            return new Record(position, cardUUID, version, sequence, rejectionsBefore, previousEvents, previousRejections, List.of(events), List.of(rejections));
+        }
+
+        DebitCardSnapshot readSnapshot(int offset) {
+            var payload = payload(offset);
+            var kind = payload.get();
+            if (kind != SNAPSHOT) {
+                throw new IllegalStateException("Journal record at offset %d is not a snapshot".formatted(offset));
+            }
+            return DebitCardEventCodec.readSnapshot(payload.position(PAYLOAD_HEADER_SIZE));
+        }
+
+        private ByteBuffer payload(int offset) {
+            var length = buffer.getInt(offset);
+            var payload = buffer.slice(offset + RECORD_HEADER_SIZE, length);
+            var schemaVersion = payload.get();
+            if (schemaVersion != DebitCardEventCodec.SCHEMA_VERSION) {
+                throw new IllegalStateException("Unsupported journal schema version " + schemaVersion);
+            }
+            return payload;
+        }
+
+        void erase(int offset) {
+            for (var position = offset; position < buffer.capacity(); position += ZEROS.length) {
+                buffer.put(position, ZEROS, 0, Math.min(ZEROS.length, buffer.capacity() - position));
+            }
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
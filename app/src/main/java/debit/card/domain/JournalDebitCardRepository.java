@@ -0,0 +1,335 @@
+package debit.card.domain;
+
+import debit.card.view.DebitCardSummary;
+import debit.card.view.TransactionHistoryEntry;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import debit.card.view.VersionedDebitCardSummary;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Durable local repository backed by a {@link Journal}. An in-memory index points at the latest record of every
+ * card, so a load reads only the records of that card after its snapshot. Saves are serialized on one append lock
+ * and wait for a group-committed fsync outside of it. A save is published to the index and the history only once
+ * its record is durable, in the order of the journal; until then later saves of the same card chain on the appended
+ * entry. When the fsync fails, saves not yet durable are dropped and the journal refuses further appends.
+ * Rejections are appended in the same record as the events of their save but are chained apart from them, so a
+ * load walks only the records with events and never decodes a rejection.
+ * The transaction history keeps only the offsets of the transactions in the journal, published with their saves and
+ * rebuilt on open, and decodes a page from the records it points at; its sequences are the positions of the changes,
+ * as stored in the record headers.
+ * Snapshots are appended to the journal as records of their own and the index keeps the position of the latest one,
+ * so after a restart a card is replayed from its latest snapshot. Snapshots are decoded and summaries computed on
+ * the first read after a restart and cached in the index.
+ */
+class JournalDebitCardRepository implements DebitCardRepository, AutoCloseable {
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Journal journal;
+    private final ConcurrentHashMap<UUID, JournalEntry> index;
+    private final JournalTransactionHistory transactionHistory;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ConcurrentHashMap<UUID, JournalEntry> appended = new ConcurrentHashMap<>();
+    private final ArrayDeque<PendingSave> pendingSaves = new ArrayDeque<>();
+    private final SnapshotPolicy snapshotPolicy;
+    private final ReplayMetrics replayMetrics;
+
+    private JournalDebitCardRepository(
+            Journal journal,
+            ConcurrentHashMap<UUID, JournalEntry> index,
+            JournalTransactionHistory transactionHistory,
+            SnapshotPolicy snapshotPolicy,
+            ReplayMetrics replayMetrics
+    ) {
+        this.journal = journal;
+        this.index = index;
+        this.transactionHistory = transactionHistory;
+        this.snapshotPolicy = snapshotPolicy;
+        this.replayMetrics = replayMetrics;
+    }
+
+    static JournalDebitCardRepository open(Path directory, int segmentSize, SnapshotPolicy snapshotPolicy, ReplayMetrics replayMetrics) {
+        var index = new ConcurrentHashMap<UUID, JournalEntry>();
+        var transactionHistory = new JournalTransactionHistory();
+        var journal = Journal.open(directory, segmentSize, recovered -> {
+            switch (recovered) {
+                case Journal.Record record -> {
+                    index.put(record.cardUUID(), JournalEntry.recovered(record, Option.of(index.get(record.cardUUID()))));
+                    transactionHistory.append(record.cardUUID(), record.position(), JournalTransactionHistory.entriesOf(record));
+                }
+                case Journal.SnapshotRecord snapshotRecord -> index.computeIfPresent(
+                        snapshotRecord.cardUUID(),
+                        (uuid, entry) -> entry.withSnapshotRecord(snapshotRecord.position())
+                );
+            }
+        });
+        return new JournalDebitCardRepository(journal, index, transactionHistory, snapshotPolicy, replayMetrics);
+    }
+
+    @Override
+    public Option<DebitCard> getByUUID(UUID cardUUID) {
+        return Option.of(index.get(cardUUID)).map(entry -> replayMetrics.timeReplay(() -> toDebitCard(cardUUID, entry)));
+    }
+
+    private DebitCard toDebitCard(UUID cardUUID, JournalEntry entry) {
+        var snapshot = snapshotOf(cardUUID, entry);
+        var eventsAfterSnapshot = eventsAfter(entry, snapshot.map(DebitCardSnapshot::sequence).getOrElse(0L));
+        replayMetrics.recordReplay(eventsAfterSnapshot.size());
+        return snapshot
+                .map(stored -> DebitCard.fromSnapshot(cardUUID, entry.version(), stored, eventsAfterSnapshot, entry.rejections()))
+                .getOrElse(() -> DebitCard.fromEvents(cardUUID, entry.version(), eventsAfterSnapshot, entry.rejections()));
+    }
+
+    /**
+     * Snapshot of the entry, decoded from its journal record and cached in the index on the first read
+     * after a restart.
+     */
+    private Option<DebitCardSnapshot> snapshotOf(UUID cardUUID, JournalEntry entry) {
+        if (entry.snapshot().isDefined() || entry.snapshotRecord() == Journal.NO_RECORD) {
+            return entry.snapshot();
+        }
+        var snapshot = journal.readSnapshot(entry.snapshotRecord());
+        index.computeIfPresent(cardUUID, (uuid, current) -> current.snapshot().isEmpty() && current.snapshotRecord() == entry.snapshotRecord()
+                ? current.withSnapshot(current.snapshotRecord(), snapshot)
+                : current);
+        return Option.some(snapshot);
+    }
+
+    /**
+     * Events stored after the given sequence, read by walking back the chain of records with events.
+     */
+    private List<DebitCardEvent> eventsAfter(JournalEntry entry, long sequence) {
+        var records = List.<Journal.Record>empty();
+        var position = entry.latestEvents();
+        while (position != Journal.NO_RECORD) {
+            var record = journal.read(position);
+            if (record.sequenceAfter() <= sequence) {
+                break;
+            }
+            records = records.prepend(record);
+            position = record.previousEvents();
+        }
+        var firstSequence = records.headOption().map(Journal.Record::sequence).getOrElse(sequence);
+        return records.flatMap(Journal.Record::events)
+                .drop((int) Math.max(sequence - firstSequence, 0));
+    }
+
+    @Override
+    public Option<VersionedDebitCardSummary> getVersionedSummaryByUUID(UUID cardUUID) {
+        return Option.of(index.get(cardUUID))
+                .map(entry -> new VersionedDebitCardSummary(
+                        entry.version(),
+                        entry.summary().getOrElse(() -> summaryOf(cardUUID, entry))
+                ));
+    }
+
+    /**
+     * Summary replayed for an entry recovered without one, cached in the index unless the card was saved meanwhile.
+     */
+    private DebitCardSummary summaryOf(UUID cardUUID, JournalEntry entry) {
+        var summary = toDebitCard(cardUUID, entry).toSummary();
+        index.computeIfPresent(cardUUID, (uuid, current) -> current.summary().isEmpty() && current.version().equals(entry.version())
+                ? current.withSummary(summary)
+                : current);
+        return summary;
+    }
+
+    @Override
+    public Option<Long> getVersion(UUID cardUUID) {
+        return Option.of(index.get(cardUUID)).map(JournalEntry::version);
+    }
+
+    @Override
+    public Option<EventsAfter> getEventsAfter(UUID cardUUID, long sequence) {
+        return Option.of(index.get(cardUUID))
+                .map(entry -> new EventsAfter(entry.version(), eventsAfter(entry, sequence), entry.rejections()));
+    }
+
+    @Override
+    public SaveResult save(DebitCard card) {
+        var cardUUID = card.toSummary().cardUUID();
+        long version;
+        long end;
+        appendLock.lock();
+        try {
+            var current = Option.of(appended.get(cardUUID)).orElse(() -> Option.of(index.get(cardUUID)));
+            if (card.version() == null ? current.isDefined() : !current.exists(entry -> entry.version().equals(card.version()))) {
+                return new SaveResult.VersionConflict(cardUUID, card.version());
+            }
+            version = card.version() == null ? 0L : card.version() + 1;
+            var previousEvents = current.map(JournalEntry::latestEvents).getOrElse(Journal.NO_RECORD);
+            var previousRejections = current.map(JournalEntry::latestRejections).getOrElse(Journal.NO_RECORD);
+            var position = journal.append(
+                    cardUUID,
+                    version,
+                    card.sequence(),
+                    card.rejections(),
+                    previousEvents,
+                    previousRejections,
+                    card.replayableChanges(),
+                    card.pendingRejections()
+            );
+            var entry = new JournalEntry(
+                    version,
+                    card.replayableChanges().isEmpty() ? previousEvents : position,
+                    card.failedChanges().isEmpty() ? previousRejections : position,
+                    card.rejectionsAfterSave(),
+                    current.map(JournalEntry::snapshotRecord).getOrElse(Journal.NO_RECORD),
+                    current.flatMap(JournalEntry::snapshot),
+                    Option.some(card.toSummary())
+            );
+            if (card.isSnapshotDueAfterSave(snapshotPolicy)) {
+                entry = withAppendedSnapshot(cardUUID, entry, card.snapshotAfterSave());
+            }
+            end = journal.writePosition();
+            appended.put(cardUUID, entry);
+            pendingSaves.add(new PendingSave(cardUUID, entry, position, TransactionHistory.entriesOf(card.position(), card.pendingChanges()), end));
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            journal.awaitDurable(end);
+        } catch (RuntimeException e) {
+            publishDurableSaves(true);
+            throw e;
+        }
+        publishDurableSaves(false);
+        return new SaveResult.Saved(version);
+    }
+
+    /**
+     * Publishes the pending saves already durable, in the order they were appended, and drops the rest when the
+     * fsync failed. Whichever waiter gets here first publishes the saves of the others covered by its fsync.
+     */
+    private void publishDurableSaves(boolean dropRest) {
+        appendLock.lock();
+        try {
+            var durablePosition = journal.durablePosition();
+            while (!pendingSaves.isEmpty() && (pendingSaves.peek().end() <= durablePosition || dropRest)) {
+                var pending = pendingSaves.poll();
+                if (pending.end() <= durablePosition) {
+                    index.put(pending.cardUUID(), pending.entry());
+                    transactionHistory.append(pending.cardUUID(), pending.record(), pending.transactions());
+                }
+                appended.remove(pending.cardUUID(), pending.entry());
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public List<DebitCardEvent.Failure> getRejections(UUID cardUUID) {
+        var rejections = List.<DebitCardEvent.Failure>empty();
+        var position = Option.of(index.get(cardUUID)).map(JournalEntry::latestRejections).getOrElse(Journal.NO_RECORD);
+        while (position != Journal.NO_RECORD) {
+            var record = journal.readWithRejections(position);
+            rejections = record.rejections().map(Rejection::failure).appendAll(rejections);
+            position = record.previousRejections();
+        }
+        return rejections;
+    }
+
+    @Override
+    public Map<UUID, Boolean> findTransactionOutcomes(UUID cardUUID, Set<UUID> transactionIds) {
+        return transactionHistory.outcomes(cardUUID, transactionIds);
+    }
+
+    @Override
+    public TransactionHistoryPage getTransactions(UUID cardUUID, TransactionHistoryQuery query) {
+        return transactionHistory.page(cardUUID, query, journal::readWithRejections);
+    }
+
+    @Override
+    public Option<DebitCardSnapshot> takeSnapshot(UUID cardUUID) {
+        return getByUUID(cardUUID)
+                .map(DebitCard::snapshot)
+                .filter(snapshot -> storeSnapshot(cardUUID, snapshot));
+    }
+
+    /**
+     * Appends the snapshot unless the card was saved since it was taken. The snapshot is not awaited to be durable:
+     * a lost one only makes the next recovery replay more.
+     */
+    private boolean storeSnapshot(UUID cardUUID, DebitCardSnapshot snapshot) {
+        appendLock.lock();
+        try {
+            var current = index.get(cardUUID);
+            if (current == null || appended.containsKey(cardUUID) || !current.version().equals(snapshot.version())) {
+                return false;
+            }
+            index.put(cardUUID, withAppendedSnapshot(cardUUID, current, snapshot));
+            return true;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Called under the append lock. A snapshot too large for a journal segment is kept in the index only and
+     * the entry goes on pointing at the previous snapshot record.
+     */
+    private JournalEntry withAppendedSnapshot(UUID cardUUID, JournalEntry entry, DebitCardSnapshot snapshot) {
+        var snapshotRecord = journal.appendSnapshot(cardUUID, snapshot);
+        return entry.withSnapshot(snapshotRecord == Journal.NO_RECORD ? entry.snapshotRecord() : snapshotRecord, snapshot);
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    /**
+     * Save appended to the journal but not yet published, with the positions its record starts and ends at.
+     */
+    private record PendingSave(UUID cardUUID, JournalEntry entry, long record, List<TransactionHistoryEntry> transactions, long end) {
+    }
+
+    /**
+     * Latest state of a card known without reading the journal: the positions of its latest records with events and
+     * with rejections and of its latest snapshot record, the number of its rejections, and the snapshot and summary
+     * once decoded or computed.
+     */
+    private record JournalEntry(
+            Long version,
+            long latestEvents,
+            long latestRejections,
+            long rejections,
+            long snapshotRecord,
+            Option<DebitCardSnapshot> snapshot,
+            Option<DebitCardSummary> summary
+    ) {
+        static JournalEntry recovered(Journal.Record record, Option<JournalEntry> previous) {
+            return new JournalEntry(
+                    record.version(),
+                    record.events().isEmpty() ? previous.map(JournalEntry::latestEvents).getOrElse(Journal.NO_RECORD) : record.position(),
+                    record.rejections().isEmpty() ? previous.map(JournalEntry::latestRejections).getOrElse(Journal.NO_RECORD) : record.position(),
+                    record.rejectionsBefore() + record.rejections().size(),
+                    previous.map(JournalEntry::snapshotRecord).getOrElse(Journal.NO_RECORD),
+                    Option.none(),
+                    Option.none()
+            );
+        }
+
+        JournalEntry withSnapshotRecord(long snapshotRecord) {
+            return new JournalEntry(version, latestEvents, latestRejections, rejections, snapshotRecord, Option.none(), summary);
+        }
+
+        JournalEntry withSnapshot(long snapshotRecord, DebitCardSnapshot snapshot) {
+            return new JournalEntry(version, latestEvents, latestRejections, rejections, snapshotRecord, Option.some(snapshot), summary);
+        }
+
+        JournalEntry withSummary(DebitCardSummary summary) {
+            return new JournalEntry(version, latestEvents, latestRejections, rejections, snapshotRecord, snapshot, Option.some(summary));
+        }
+    }
+}
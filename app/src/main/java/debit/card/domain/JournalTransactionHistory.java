@@ -0,0 +1,171 @@
+package debit.card.domain;
+
+import debit.card.view.TransactionHistoryEntry;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+/**
+ * Transaction history of the cards stored in a {@link Journal}, kept as offsets only: for every card and kind of
+ * transaction, the sequences of its transactions and the positions of the records holding them. A page is found
+ * with a binary search in the offsets of the requested kinds and its entries are decoded from those records only.
+ * The outcome of every transaction of a card is kept by its UUID, so outcome lookups read no records at all.
+ * Saves of one card must be appended in the order they were stored, by one writer at a time: the offsets of a card
+ * grow in place beyond the size published to readers.
+ */
+final class JournalTransactionHistory {
+    private final ConcurrentHashMap<UUID, CardOffsets> offsets = new ConcurrentHashMap<>();
+
+    static List<TransactionHistoryEntry> entriesOf(Journal.Record record) {
+        return TransactionHistory.entriesOf(
+                record.firstPosition(),
+                TransactionHistory.interleave(record.firstPosition(), record.events(), record.rejections())
+        );
+    }
+
+    void append(UUID cardUUID, long record, List<TransactionHistoryEntry> entries) {
+        if (entries.nonEmpty()) {
+            offsets.compute(cardUUID, (uuid, current) -> entries.foldLeft(
+                    current == null ? CardOffsets.EMPTY : current,
+                    (card, entry) -> card.append(entry, record)
+            ));
+        }
+    }
+
+    Map<UUID, Boolean> outcomes(UUID cardUUID, Set<UUID> transactionIds) {
+        var card = offsets.get(cardUUID);
+        var found = HashMap.<UUID, Boolean>empty();
+        if (card != null) {
+            for (var transactionId : transactionIds) {
+                var outcome = card.outcomes().get(transactionId);
+                if (outcome.isDefined()) {
+                    found = found.put(transactionId, outcome.get());
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * A page read from the records the offsets of its transactions point at, each record decoded once.
+     */
+    TransactionHistoryPage page(UUID cardUUID, TransactionHistoryQuery query, LongFunction<Journal.Record> readRecord) {
+        var card = offsets.get(cardUUID);
+        if (card == null) {
+            return TransactionHistoryPage.of(List.empty(), query.limit());
+        }
+        var cursors = card.byKind()
+                .filterKeys(kind -> kind.matches(query))
+                .values()
+                .map(kindOffsets -> new Cursor(kindOffsets, kindOffsets.firstAfter(query.after())))
+                .toJavaList();
+        var found = List.<Offset>empty();
+        for (var i = 0; i <= query.limit(); i++) {
+            Cursor next = null;
+            for (var cursor : cursors) {
+                if (cursor.hasNext() && (next == null || cursor.sequence() < next.sequence())) {
+                    next = cursor;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            found = found.prepend(new Offset(next.sequence(), next.record()));
+            next.advance();
+        }
+        var pageOffsets = found.reverse();
+        var entriesByRecord = pageOffsets
+                .map(Offset::record)
+                .distinct()
+                .toMap(record -> record, record -> entriesOf(readRecord.apply(record)).toMap(TransactionHistoryEntry::sequence, entry -> entry));
+        return TransactionHistoryPage.of(
+                pageOffsets.map(offset -> entriesByRecord.get(offset.record()).flatMap(entries -> entries.get(offset.sequence())).get()),
+                query.limit()
+        );
+    }
+
+    private record Offset(long sequence, long record) {
+    }
+
+    /**
+     * Offsets of the transactions of one card by kind, and their outcomes: a transaction is accepted when any of its
+     * entries is.
+     */
+    private record CardOffsets(Map<CardTransactionHistory.Kind, Offsets> byKind, Map<UUID, Boolean> outcomes) {
+        static final CardOffsets EMPTY = new CardOffsets(HashMap.empty(), HashMap.empty());
+
+        CardOffsets append(TransactionHistoryEntry entry, long record) {
+            var kind = CardTransactionHistory.Kind.of(entry);
+            return new CardOffsets(
+                    byKind.put(kind, byKind.get(kind).getOrElse(Offsets.EMPTY).append(entry.sequence(), record)),
+                    outcomes.put(entry.transactionUUID(), entry.outcome() == TransactionHistoryEntry.Outcome.ACCEPTED, Boolean::logicalOr)
+            );
+        }
+    }
+
+    /**
+     * Offsets of the transactions of one kind in the order of their sequence. Appends fill the arrays past
+     * {@code size} and return a new view, so a view already published never changes.
+     */
+    private record Offsets(long[] sequences, long[] records, int size) {
+        static final Offsets EMPTY = new Offsets(new long[0], new long[0], 0);
+
+        Offsets append(long sequence, long record) {
+            var grown = size == sequences.length;
+            var capacity = Math.max(8, 2 * size);
+            var appendedSequences = grown ? Arrays.copyOf(sequences, capacity) : sequences;
+            var appendedRecords = grown ? Arrays.copyOf(records, capacity) : records;
+            appendedSequences[size] = sequence;
+            appendedRecords[size] = record;
+            return new Offsets(appendedSequences, appendedRecords, size + 1);
+        }
+
+        int firstAfter(long sequence) {
+            var low = 0;
+            var high = size;
+            while (low < high) {
+                var middle = (low + high) >>> 1;
+                if (sequences[middle] <= sequence) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static final class Cursor {
+        private final Offsets offsets;
+        private int index;
+
+        private Cursor(Offsets offsets, int index) {
+            this.offsets = offsets;
+            this.index = index;
+        }
+
+        boolean hasNext() {
+            return index < offsets.size();
+        }
+
+        long sequence() {
+            return offsets.sequences()[index];
+        }
+
+        long record() {
+            return offsets.records()[index];
+        }
+
+        void advance() {
+            index++;
+        }
+    }
+}
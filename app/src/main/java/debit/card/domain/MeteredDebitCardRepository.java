@@ -0,0 +1,92 @@
+package debit.card.domain;
+
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import debit.card.view.VersionedDebitCardSummary;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+
+import java.util.UUID;
+
+/**
+ * Times every call made to the repository as a stage of {@link DebitCardMetrics} and counts version conflicts.
+ * It wraps the caches, so a load is timed as the facade sees it, whether the card came from memory or the store.
+ */
+class MeteredDebitCardRepository implements DebitCardRepository {
+    private final DebitCardRepository debitCardRepository;
+    private final DebitCardMetrics metrics;
+    private final DebitCardMetrics.Stage load;
+    private final DebitCardMetrics.Stage persist;
+    private final DebitCardMetrics.Stage summary;
+    private final DebitCardMetrics.Stage version;
+    private final DebitCardMetrics.Stage eventsAfter;
+    private final DebitCardMetrics.Stage snapshot;
+    private final DebitCardMetrics.Stage rejections;
+    private final DebitCardMetrics.Stage transactionOutcomes;
+    private final DebitCardMetrics.Stage transactions;
+
+    MeteredDebitCardRepository(DebitCardRepository debitCardRepository, DebitCardMetrics metrics) {
+        this.debitCardRepository = debitCardRepository;
+        this.metrics = metrics;
+        this.load = metrics.stage(DebitCardMetrics.LOAD);
+        this.persist = metrics.stage(DebitCardMetrics.PERSIST);
+        this.summary = metrics.stage("summary");
+        this.version = metrics.stage("version");
+        this.eventsAfter = metrics.stage("events-after");
+        this.snapshot = metrics.stage("snapshot");
+        this.rejections = metrics.stage("rejections");
+        this.transactionOutcomes = metrics.stage("transaction-outcomes");
+        this.transactions = metrics.stage("transactions");
+    }
+
+    @Override
+    public Option<DebitCard> getByUUID(UUID cardUUID) {
+        return load.record(() -> debitCardRepository.getByUUID(cardUUID));
+    }
+
+    @Override
+    public Option<VersionedDebitCardSummary> getVersionedSummaryByUUID(UUID cardUUID) {
+        return summary.record(() -> debitCardRepository.getVersionedSummaryByUUID(cardUUID));
+    }
+
+    @Override
+    public Option<Long> getVersion(UUID cardUUID) {
+        return version.record(() -> debitCardRepository.getVersion(cardUUID));
+    }
+
+    @Override
+    public Option<EventsAfter> getEventsAfter(UUID cardUUID, long sequence) {
+        return eventsAfter.record(() -> debitCardRepository.getEventsAfter(cardUUID, sequence));
+    }
+
+    @Override
+    public SaveResult save(DebitCard card) {
+        var result = persist.record(() -> debitCardRepository.save(card));
+        if (result instanceof SaveResult.VersionConflict) {
+            metrics.recordVersionConflict();
+        }
+        return result;
+    }
+
+    @Override
+    public Option<DebitCardSnapshot> takeSnapshot(UUID cardUUID) {
+        return snapshot.record(() -> debitCardRepository.takeSnapshot(cardUUID));
+    }
+
+    @Override
+    public List<DebitCardEvent.Failure> getRejections(UUID cardUUID) {
+        return rejections.record(() -> debitCardRepository.getRejections(cardUUID));
+    }
+
+    @Override
+    public Map<UUID, Boolean> findTransactionOutcomes(UUID cardUUID, Set<UUID> transactionIds) {
+        return transactionOutcomes.record(() -> debitCardRepository.findTransactionOutcomes(cardUUID, transactionIds));
+    }
+
+    @Override
+    public TransactionHistoryPage getTransactions(UUID cardUUID, TransactionHistoryQuery query) {
+        return transactions.record(() -> debitCardRepository.getTransactions(cardUUID, query));
+    }
+}
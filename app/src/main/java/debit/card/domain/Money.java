@@ -0,0 +1,72 @@
+package debit.card.domain;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point amount stored as a number of minor units (e.g. cents for scale 2).
+ * Amounts are created at the scale of their {@link CurrencyUnit}, so arithmetic and comparison are only defined
+ * between amounts of the same scale and reject any other with {@link IllegalArgumentException}.
+ * Arithmetic is exact: any overflow or loss of precision raises {@link ArithmeticException}.
+ */
+public record Money(long minorUnits, int scale) implements Comparable<Money> {
+    private static final int MAX_SCALE = 18;
+
+    /**
+     * Balance of a card that has no limit yet; it is replaced by {@link #zero(int)} at the scale of the limit.
+     */
+    public static final Money ZERO = new Money(0L, 0);
+
+    public Money {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Unsupported money scale " + scale);
+        }
+    }
+
+    public static Money zero(int scale) {
+        return new Money(0L, scale);
+    }
+
+    public static Money of(BigDecimal amount, int scale) {
+        try {
+            return new Money(amount.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact(), scale);
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Amount %s cannot be represented with %d decimal places".formatted(amount, scale));
+        }
+    }
+
+    public Money plus(Money other) {
+        requireSameScale(other);
+        return new Money(Math.addExact(minorUnits, other.minorUnits), scale);
+    }
+
+    public boolean canAdd(Money other) {
+        requireSameScale(other);
+        var sum = minorUnits + other.minorUnits;
+        return ((minorUnits ^ sum) & (other.minorUnits ^ sum)) >= 0;
+    }
+
+    public Money negate() {
+        return new Money(Math.negateExact(minorUnits), scale);
+    }
+
+    public boolean isAtLeast(Money other) {
+        return compareTo(other) >= 0;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        requireSameScale(other);
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, scale);
+    }
+
+    private void requireSameScale(Money other) {
+        if (scale != other.scale) {
+            throw new IllegalArgumentException("Amounts of scale %d and %d cannot be combined".formatted(scale, other.scale));
+        }
+    }
+}
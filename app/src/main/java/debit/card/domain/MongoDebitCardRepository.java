@@ -1,51 +1,309 @@
 package debit.card.domain;
 
-import debit.card.view.DebitCardSummary;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import debit.card.view.VersionedDebitCardSummary;
+import io.vavr.collection.HashMap;
 import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import io.vavr.control.Option;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.Collections;
 import java.util.UUID;
 
 import static debit.card.domain.DebitCardModule.DEBIT_CARD_REPOSITORY;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 class MongoDebitCardRepository implements DebitCardRepository {
-    private final MongoDebitCardCrudRepository crudRepository;
+    private static final int HISTORY_CHUNK = 256;
 
-    MongoDebitCardRepository(MongoDebitCardCrudRepository crudRepository) {
-        this.crudRepository = crudRepository;
+    private final MongoOperations mongoOperations;
+    private final SnapshotPolicy snapshotPolicy;
+    private final ReplayMetrics replayMetrics;
+    private final CurrencyUnit currencyUnit;
+
+    MongoDebitCardRepository(
+            MongoOperations mongoOperations,
+            SnapshotPolicy snapshotPolicy,
+            ReplayMetrics replayMetrics,
+            CurrencyUnit currencyUnit
+    ) {
+        this.mongoOperations = mongoOperations;
+        this.snapshotPolicy = snapshotPolicy;
+        this.replayMetrics = replayMetrics;
+        this.currencyUnit = currencyUnit;
     }
 
     @Override
     public Option<DebitCard> getByUUID(UUID cardUUID) {
-        return Option.ofOptional(crudRepository.findById(cardUUID))
-                .map(this::toDebitCard);
+        return replayMetrics.traceStage("mongo-find", () -> findRaw(cardUUID, Projections.exclude("rejections", "history", "outcomes")))
+                .map(document -> replayMetrics.timeReplay(() -> toDebitCard(cardUUID, document)));
+    }
+
+    /**
+     * Reads the card as raw BSON, so its events are decoded by {@link DebitCardEventBsonDecoder} while they are
+     * iterated instead of being mapped to entities first.
+     */
+    private Option<RawDebitCardDocument> findRaw(UUID cardUUID, Bson projection) {
+        return mongoOperations.execute(DebitCardEntity.class, collection -> Option.of(collection
+                        .withDocumentClass(RawBsonDocument.class)
+                        .find(Filters.eq("_id", cardUUID))
+                        .projection(projection)
+                        .first())
+                .map(document -> new RawDebitCardDocument(document, collection.getCodecRegistry(), currencyUnit)));
+    }
+
+    /**
+     * Replays events straight from raw BSON, without mapping the document to {@link DebitCardEntity}. The rejections
+     * array, the history counts and the outcomes are left out of the read, only the number of rejections is.
+     */
+    private DebitCard toDebitCard(UUID cardUUID, RawDebitCardDocument document) {
+        var snapshot = document.snapshot()
+                .map(snapshotDocument -> mongoOperations.getConverter().read(DebitCardSnapshotEntity.class, snapshotDocument))
+                .filter(DebitCardSnapshotEntity::hasTransactionIndex)
+                .map(snapshot -> snapshot.toSnapshot(currencyUnit));
+        var eventsAfterSnapshot = document.eventsAfter(snapshot.map(DebitCardSnapshot::sequence).getOrElse(0L));
+        var card = snapshot
+                .map(latest -> DebitCard.fromSnapshot(cardUUID, document.version(), latest, eventsAfterSnapshot, document.rejectionCount()))
+                .getOrElse(() -> DebitCard.fromEvents(cardUUID, document.version(), eventsAfterSnapshot, document.rejectionCount()));
+        replayMetrics.recordReplay(eventsAfterSnapshot.decoded());
+        replayMetrics.recordDocumentSize(document.size());
+        return card;
+    }
+
+    /**
+     * Documents written before rejections were stored with the card have no rejections array.
+     */
+    private static List<DebitCardEvent.Failure> rejectionsOf(DebitCardEntity debitCardEntity) {
+        return Option.of(debitCardEntity.rejections())
+                .map(List::ofAll)
+                .getOrElse(List.empty())
+                .map(DebitCardRejectionEntity::toFailure);
     }
 
-    private DebitCard toDebitCard(DebitCardEntity debitCardEntity) {
-        var events = List.ofAll(debitCardEntity.events()).map(DebitCardEventEntity::toEvent);
-        return DebitCard.fromEvents(debitCardEntity.debitCardId(), debitCardEntity.version(), events);
+    @Override
+    public Option<VersionedDebitCardSummary> getVersionedSummaryByUUID(UUID cardUUID) {
+        var query = query(where("debitCardId").is(cardUUID));
+        query.fields().include("version").include("summary");
+        return Option.of(mongoOperations.findOne(query, DebitCardEntity.class))
+                .flatMap(entity -> Option.of(entity.summary())
+                        .map(summary -> new VersionedDebitCardSummary(entity.version(), summary.toSummary(cardUUID)))
+                        .orElse(() -> getByUUID(cardUUID).map(card -> new VersionedDebitCardSummary(card.version(), card.toSummary()))));
     }
 
     @Override
-    public Option<DebitCardSummary> getSummaryByUUID(UUID cardUUID) {
-        return getByUUID(cardUUID).map(DebitCard::toSummary);
+    public Option<Long> getVersion(UUID cardUUID) {
+        var query = query(where("debitCardId").is(cardUUID));
+        query.fields().include("version");
+        return Option.of(mongoOperations.findOne(query, DebitCardEntity.class))
+                .map(DebitCardEntity::version);
     }
 
     @Override
-    public void save(DebitCard card) {
+    public Option<EventsAfter> getEventsAfter(UUID cardUUID, long sequence) {
+        var projection = Projections.fields(
+                Projections.include("version", "rejectionCount"),
+                Projections.slice("events", (int) sequence, Integer.MAX_VALUE)
+        );
+        return findRaw(cardUUID, projection)
+                .map(document -> new EventsAfter(document.version(), List.ofAll(document.eventsAfter(0)), document.rejectionCount()));
+    }
+
+    @Override
+    public SaveResult save(DebitCard card) {
+        return replayMetrics.traceStage("mongo-write", () -> card.version() == null
+                ? insertNew(card)
+                : appendPendingChanges(card));
+    }
+
+    private SaveResult insertNew(DebitCard card) {
         var cardUUID = card.toSummary().cardUUID();
-        var currentEvents = crudRepository.findById(cardUUID)
-                .map(DebitCardEntity::events)
-                .map(List::ofAll)
-                .orElseGet(List::empty);
+        var events = card.replayableChanges().map(DebitCardEventEntity::from).toJavaList();
+        var rejections = card.pendingRejections().map(DebitCardRejectionEntity::from).toJavaList();
+        try {
+            mongoOperations.insert(new DebitCardEntity(
+                    cardUUID,
+                    null,
+                    events,
+                    rejections,
+                    card.rejectionsAfterSave(),
+                    DebitCardHistoryChunkEntity.chunksOf(HISTORY_CHUNK, card.position(), card.pendingChanges()),
+                    DebitCardEntity.outcomesOf(TransactionHistory.entriesOf(card.position(), card.pendingChanges())),
+                    snapshotIfDue(card),
+                    summaryOf(card)
+            ));
+        } catch (DuplicateKeyException e) {
+            return new SaveResult.VersionConflict(cardUUID, null);
+        }
+        return new SaveResult.Saved(0L);
+    }
 
-        var pendingChanges = card.pendingChanges().map(DebitCardEventEntity::from);
-        var entity = new DebitCardEntity(
-                cardUUID, card.version(), currentEvents.appendAll(pendingChanges).toJavaList()
+    /**
+     * Appends with a condition on the history counts and outcomes too: a card stored before they were kept gets them
+     * computed first, then the append is retried once.
+     */
+    private SaveResult appendPendingChanges(DebitCard card) {
+        var cardUUID = card.toSummary().cardUUID();
+        var result = updatePendingChanges(card);
+        if (result instanceof SaveResult.VersionConflict && withoutCounts(cardUUID).isDefined()) {
+            return updatePendingChanges(card);
+        }
+        return result;
+    }
+
+    private SaveResult updatePendingChanges(DebitCard card) {
+        var cardUUID = card.toSummary().cardUUID();
+        var update = new Update()
+                .push("events").each(card.replayableChanges().map(DebitCardEventEntity::from).toJavaArray())
+                .inc("version", 1)
+                .set("summary", summaryOf(card));
+        if (card.failedChanges().nonEmpty()) {
+            update.push("rejections").each(card.pendingRejections().map(DebitCardRejectionEntity::from).toJavaArray())
+                    .inc("rejectionCount", card.failedChanges().size());
+        }
+        Option.of(snapshotIfDue(card)).forEach(snapshot -> update.set("snapshot", snapshot));
+        DebitCardHistoryChunkEntity.increment(update, "history", DebitCardHistoryChunkEntity.chunksOf(HISTORY_CHUNK, card.position(), card.pendingChanges()));
+        DebitCardEntity.outcomesOf(TransactionHistory.entriesOf(card.position(), card.pendingChanges()))
+                .forEach((transactionId, accepted) -> update.max("outcomes." + transactionId, accepted));
+
+        var result = mongoOperations.updateFirst(
+                query(where("debitCardId").is(cardUUID).and("version").is(card.version()).and("history").exists(true).and("outcomes").exists(true)),
+                update,
+                DebitCardEntity.class
         );
-        crudRepository.save(entity);
+        return result.getMatchedCount() == 0
+                ? new SaveResult.VersionConflict(cardUUID, card.version())
+                : new SaveResult.Saved(card.version() + 1);
+    }
+
+    private static DebitCardSummaryEntity summaryOf(DebitCard card) {
+        return DebitCardSummaryEntity.from(card.toSummary());
+    }
+
+    private DebitCardSnapshotEntity snapshotIfDue(DebitCard card) {
+        return card.isSnapshotDueAfterSave(snapshotPolicy)
+                ? DebitCardSnapshotEntity.from(card.snapshotAfterSave())
+                : null;
+    }
+
+    @Override
+    public Option<DebitCardSnapshot> takeSnapshot(UUID cardUUID) {
+        return getByUUID(cardUUID)
+                .map(DebitCard::snapshot)
+                .filter(snapshot -> storeSnapshot(cardUUID, snapshot));
+    }
+
+    /**
+     * Setting the version explicitly keeps {@code updateFirst} from bumping it: a snapshot is not a change, and a bump
+     * would fail the next save of every card loaded before it.
+     */
+    private boolean storeSnapshot(UUID cardUUID, DebitCardSnapshot snapshot) {
+        var result = mongoOperations.updateFirst(
+                query(where("debitCardId").is(cardUUID).and("version").is(snapshot.version())),
+                new Update()
+                        .set("snapshot", DebitCardSnapshotEntity.from(snapshot))
+                        .set("version", snapshot.version()),
+                DebitCardEntity.class
+        );
+        return result.getMatchedCount() == 1;
+    }
+
+    @Override
+    public List<DebitCardEvent.Failure> getRejections(UUID cardUUID) {
+        var query = query(where("debitCardId").is(cardUUID));
+        query.fields().include("rejections");
+        return Option.of(mongoOperations.findOne(query, DebitCardEntity.class))
+                .map(MongoDebitCardRepository::rejectionsOf)
+                .getOrElse(List.empty());
+    }
+
+    /**
+     * Projects the outcomes of the given transactions only. A card stored before outcomes were kept gets them
+     * computed first.
+     */
+    @Override
+    public Map<UUID, Boolean> findTransactionOutcomes(UUID cardUUID, Set<UUID> transactionIds) {
+        var query = query(where("debitCardId").is(cardUUID).and("outcomes").exists(true));
+        query.fields().include("version");
+        transactionIds.forEach(transactionId -> query.fields().include("outcomes." + transactionId));
+        return Option.of(mongoOperations.findOne(query, DebitCardEntity.class))
+                .orElse(() -> withoutCounts(cardUUID))
+                .flatMap(entity -> Option.of(entity.outcomes()))
+                .map(outcomes -> transactionIds
+                        .filter(transactionId -> outcomes.containsKey(transactionId.toString()))
+                        .toMap(transactionId -> transactionId, transactionId -> outcomes.get(transactionId.toString())))
+                .getOrElse(HashMap::empty);
+    }
+
+    /**
+     * Pages through the stored events and rejections by position, {@value #HISTORY_CHUNK} positions per chunk. Only
+     * the counts of the chunks are read up front; a chunk is read with one slice of both arrays.
+     */
+    @Override
+    public TransactionHistoryPage getTransactions(UUID cardUUID, TransactionHistoryQuery query) {
+        var historyQuery = query(where("debitCardId").is(cardUUID));
+        historyQuery.fields().include("history");
+        return Option.of(mongoOperations.findOne(historyQuery, DebitCardEntity.class))
+                .map(entity -> Option.of(entity.history()).getOrElse(() -> withoutCounts(cardUUID).map(DebitCardEntity::history).getOrElse(Collections::emptyMap)))
+                .map(history -> TransactionHistory.page(query, HISTORY_CHUNK, history, (firstPosition, firstEvent, events, firstRejection, rejections) ->
+                        historyChunk(cardUUID, firstPosition, firstEvent, events, firstRejection, rejections)))
+                .getOrElse(() -> TransactionHistoryPage.of(List.empty(), query.limit()));
+    }
+
+    private List<DebitCardEvent> historyChunk(UUID cardUUID, long firstPosition, long firstEvent, int events, long firstRejection, int rejections) {
+        var query = query(where("debitCardId").is(cardUUID));
+        query.fields()
+                .exclude("history")
+                .exclude("outcomes")
+                .slice("events", (int) firstEvent, Math.max(events, 1))
+                .slice("rejections", (int) firstRejection, Math.max(rejections, 1));
+        return Option.of(mongoOperations.findOne(query, DebitCardEntity.class))
+                .map(entity -> TransactionHistory.interleave(
+                        firstPosition,
+                        List.ofAll(entity.events()).take(events).map(event -> event.toEvent(currencyUnit)),
+                        Option.of(entity.rejections()).map(List::ofAll).getOrElse(List.empty()).take(rejections).map(DebitCardRejectionEntity::toRejection)
+                ))
+                .getOrElse(List.empty());
+    }
+
+    /**
+     * Computes and stores the history counts and outcomes of a card stored before they were kept, from all its events
+     * and rejections, unless the card was saved in the meantime. Returns the card with them, empty when the card
+     * keeps them already.
+     */
+    private Option<DebitCardEntity> withoutCounts(UUID cardUUID) {
+        var withoutCounts = where("debitCardId").is(cardUUID)
+                .orOperator(where("history").exists(false), where("outcomes").exists(false));
+        return Option.of(mongoOperations.findOne(query(withoutCounts), DebitCardEntity.class))
+                .map(entity -> {
+                    var events = List.ofAll(entity.events()).map(event -> event.toEvent(currencyUnit));
+                    var rejections = Option.of(entity.rejections()).map(List::ofAll).getOrElse(List.empty()).map(DebitCardRejectionEntity::toRejection);
+                    var counted = entity.withCounts(
+                            DebitCardHistoryChunkEntity.chunksOf(HISTORY_CHUNK, events, rejections),
+                            DebitCardEntity.outcomesOf(TransactionHistory.entriesOf(0, events.appendAll(rejections.map(Rejection::failure))))
+                    );
+                    mongoOperations.updateFirst(
+                            query(where("debitCardId").is(cardUUID).and("version").is(entity.version())
+                                    .orOperator(where("history").exists(false), where("outcomes").exists(false))),
+                            new Update()
+                                    .set("history", counted.history())
+                                    .set("outcomes", counted.outcomes())
+                                    .set("version", entity.version()),
+                            DebitCardEntity.class
+                    );
+                    return counted;
+                });
     }
 }
 
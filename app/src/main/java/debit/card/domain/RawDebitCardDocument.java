@@ -0,0 +1,138 @@
+package debit.card.domain;
+
+import io.vavr.control.Option;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Stored card read as raw BSON. Events are decoded one by one while the card is replayed or caught up, those before
+ * the snapshot are skipped without being decoded and no intermediate entity or list is built. Rejections are only
+ * counted.
+ */
+final class RawDebitCardDocument {
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private final RawBsonDocument document;
+    private final DebitCardEventBsonDecoder eventCodec;
+    private final Codec<Document> documentCodec;
+
+    RawDebitCardDocument(RawBsonDocument document, CodecRegistry codecRegistry, CurrencyUnit currencyUnit) {
+        this.document = document;
+        this.eventCodec = new DebitCardEventBsonDecoder(codecRegistry, currencyUnit);
+        this.documentCodec = codecRegistry.get(Document.class);
+    }
+
+    int size() {
+        return document.getByteBuffer().remaining();
+    }
+
+    Long version() {
+        return Option.of(document.get("version"))
+                .map(version -> version.asNumber().longValue())
+                .getOrNull();
+    }
+
+    /**
+     * Number of stored rejections, kept next to the rejections array so a load does not have to read it.
+     */
+    long rejectionCount() {
+        return Option.of(document.get("rejectionCount"))
+                .map(count -> count.asNumber().longValue())
+                .getOrElse(0L);
+    }
+
+    Option<Document> snapshot() {
+        return Option.of(document.get("snapshot"))
+                .filter(snapshot -> snapshot instanceof RawBsonDocument)
+                .map(snapshot -> ((RawBsonDocument) snapshot).decode(documentCodec));
+    }
+
+    /**
+     * Events stored after the first {@code sequence} ones. The returned events can be iterated once.
+     */
+    Events eventsAfter(long sequence) {
+        return new Events(sequence);
+    }
+
+    final class Events implements Iterable<DebitCardEvent> {
+        private final long skipped;
+        private int decoded;
+
+        private Events(long skipped) {
+            this.skipped = skipped;
+        }
+
+        int decoded() {
+            return decoded;
+        }
+
+        @Override
+        public Iterator<DebitCardEvent> iterator() {
+            var reader = new BsonBinaryReader(document.getByteBuffer().asNIO());
+            if (!moveToArray(reader, "events")) {
+                reader.close();
+                return Collections.emptyIterator();
+            }
+            return new EventIterator(reader, skipped);
+        }
+
+        private final class EventIterator implements Iterator<DebitCardEvent> {
+            private final BsonBinaryReader reader;
+            private boolean hasNext;
+
+            private EventIterator(BsonBinaryReader reader, long skipped) {
+                this.reader = reader;
+                this.hasNext = reader.readBsonType() != BsonType.END_OF_DOCUMENT;
+                for (long i = 0; i < skipped && hasNext; i++) {
+                    reader.skipValue();
+                    hasNext = reader.readBsonType() != BsonType.END_OF_DOCUMENT;
+                }
+                closeIfDone();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public DebitCardEvent next() {
+                if (!hasNext) {
+                    throw new NoSuchElementException();
+                }
+                var event = eventCodec.decode(reader, DECODER_CONTEXT);
+                decoded++;
+                hasNext = reader.readBsonType() != BsonType.END_OF_DOCUMENT;
+                closeIfDone();
+                return event;
+            }
+
+            private void closeIfDone() {
+                if (!hasNext) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private static boolean moveToArray(BsonBinaryReader reader, String array) {
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (reader.readName().equals(array) && reader.getCurrentBsonType() == BsonType.ARRAY) {
+                reader.readStartArray();
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package debit.card.domain;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+class ReplayMetrics {
+    private final DistributionSummary replayLength;
+    private final DistributionSummary documentSize;
+    private final Timer replayTime;
+    private final RequestTracing requestTracing;
+
+    ReplayMetrics(MeterRegistry meterRegistry, String repository) {
+        this(meterRegistry, repository, RequestTracing.NONE);
+    }
+
+    ReplayMetrics(MeterRegistry meterRegistry, String repository, RequestTracing requestTracing) {
+        this.replayLength = DistributionSummary.builder("debit.card.replay.length")
+                .description("Number of events replayed on top of the latest snapshot when a card is loaded")
+                .baseUnit("events")
+                .tag("repository", repository)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.documentSize = DistributionSummary.builder("debit.card.document.size")
+                .description("Size of the stored card document read when a card is loaded")
+                .baseUnit("bytes")
+                .tag("repository", repository)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.replayTime = Timer.builder("debit.card.stage")
+                .description("Time spent in a single stage of a debit card operation")
+                .tag("stage", "replay")
+                .tag("repository", repository)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.requestTracing = requestTracing;
+    }
+
+    static ReplayMetrics unregistered() {
+        return new ReplayMetrics(new SimpleMeterRegistry(), "none");
+    }
+
+    void recordReplay(int replayedEvents) {
+        replayLength.record(replayedEvents);
+    }
+
+    /**
+     * Times the replay of a loaded card as the {@code replay} stage, also added to the trace of the request.
+     */
+    <T> T timeReplay(Supplier<T> replay) {
+        var startedAt = System.nanoTime();
+        try {
+            return replay.get();
+        } finally {
+            var duration = System.nanoTime() - startedAt;
+            replayTime.record(duration, TimeUnit.NANOSECONDS);
+            requestTracing.recordStage("replay", startedAt, duration);
+        }
+    }
+
+    /**
+     * Adds a call of the repository to the trace of the request as the given stage, without timing it.
+     */
+    <T> T traceStage(String stage, Supplier<T> call) {
+        return requestTracing.stage(stage, call);
+    }
+
+    void recordDocumentSize(int bytes) {
+        documentSize.record(bytes);
+    }
+}
@@ -0,0 +1,38 @@
+package debit.card.domain;
+
+import java.util.function.Supplier;
+
+/**
+ * Adds stages of card operations to the trace of the request being handled. Traces are kept by the web layer; the
+ * default methods, and so {@link #NONE}, record nothing.
+ */
+public interface RequestTracing {
+    RequestTracing NONE = new RequestTracing() {
+    };
+
+    default <T> T stage(String stage, Supplier<T> call) {
+        return call.get();
+    }
+
+    /**
+     * Adds a span of the stage that started at {@code startedAt}, a {@link System#nanoTime()} reading.
+     */
+    default void recordStage(String stage, long startedAt, long durationNanos) {
+    }
+
+    /**
+     * Starts a span of the stage in the trace of the calling thread; the span ends when the returned callback runs,
+     * on any thread.
+     */
+    default Runnable startStage(String stage) {
+        return () -> {
+        };
+    }
+
+    /**
+     * Runs the command with the trace of the calling thread, wherever it runs.
+     */
+    default <T> Supplier<T> propagated(Supplier<T> command) {
+        return command;
+    }
+}
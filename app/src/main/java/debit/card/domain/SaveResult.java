@@ -0,0 +1,17 @@
+package debit.card.domain;
+
+import java.util.UUID;
+
+sealed interface SaveResult permits
+        SaveResult.Saved,
+        SaveResult.VersionConflict {
+
+    record Saved(Long version) implements SaveResult {
+    }
+
+    /**
+     * The card was modified by someone else since it was read, nothing has been stored.
+     */
+    record VersionConflict(UUID cardUUID, Long expectedVersion) implements SaveResult {
+    }
+}
@@ -0,0 +1,157 @@
+package debit.card.domain;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import debit.card.view.VersionedDebitCardSummary;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Serves card summaries from memory. Every save made through this repository replaces the cached summary before
+ * it is acknowledged, so a node never answers with a summary older than its own writes. Writes made by other
+ * nodes become visible once the entry expires.
+ */
+class SummaryCachingDebitCardRepository implements DebitCardRepository {
+    private final DebitCardRepository debitCardRepository;
+    private final Cache<UUID, VersionedDebitCardSummary> summaries;
+    private final Counter hits;
+    private final Counter misses;
+
+    SummaryCachingDebitCardRepository(DebitCardRepository debitCardRepository, SummaryCachePolicy cachePolicy, MeterRegistry meterRegistry) {
+        var evictions = Counter.builder("debit.card.summary.cache.evictions")
+                .description("Summaries evicted from the summary cache because of its size or age limit")
+                .register(meterRegistry);
+        this.debitCardRepository = debitCardRepository;
+        this.summaries = Caffeine.newBuilder()
+                .maximumSize(cachePolicy.maximumSize())
+                .expireAfterWrite(cachePolicy.expireAfterWrite())
+                .executor(Runnable::run)
+                .removalListener((UUID cardUUID, VersionedDebitCardSummary summary, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        evictions.increment();
+                    }
+                })
+                .build();
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        Gauge.builder("debit.card.summary.cache.size", summaries, Cache::estimatedSize)
+                .description("Approximate number of summaries in the summary cache")
+                .register(meterRegistry);
+    }
+
+    static DebitCardRepository decorate(DebitCardRepository debitCardRepository, SummaryCachePolicy cachePolicy, MeterRegistry meterRegistry) {
+        return cachePolicy.enabled()
+                ? new SummaryCachingDebitCardRepository(debitCardRepository, cachePolicy, meterRegistry)
+                : debitCardRepository;
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("debit.card.summary.cache.lookups")
+                .description("Summary cache lookups by result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Option<VersionedDebitCardSummary> getVersionedSummaryByUUID(UUID cardUUID) {
+        var cached = summaries.getIfPresent(cardUUID);
+        if (cached != null) {
+            hits.increment();
+            return Option.some(cached);
+        }
+        misses.increment();
+        return debitCardRepository.getVersionedSummaryByUUID(cardUUID)
+                .map(loaded -> remember(cardUUID, loaded));
+    }
+
+    /**
+     * Answers with the version of the cached summary when there is one, so the version always matches
+     * the summary this repository would serve.
+     */
+    @Override
+    public Option<Long> getVersion(UUID cardUUID) {
+        return Option.of(summaries.getIfPresent(cardUUID))
+                .map(VersionedDebitCardSummary::version)
+                .orElse(() -> debitCardRepository.getVersion(cardUUID));
+    }
+
+    @Override
+    public Option<DebitCard> getByUUID(UUID cardUUID) {
+        return debitCardRepository.getByUUID(cardUUID);
+    }
+
+    @Override
+    public Option<EventsAfter> getEventsAfter(UUID cardUUID, long sequence) {
+        return debitCardRepository.getEventsAfter(cardUUID, sequence);
+    }
+
+    @Override
+    public SaveResult save(DebitCard card) {
+        var cardUUID = card.toSummary().cardUUID();
+        SaveResult result;
+        try {
+            result = debitCardRepository.save(card);
+        } catch (RuntimeException e) {
+            summaries.invalidate(cardUUID);
+            throw e;
+        }
+        switch (result) {
+            case SaveResult.Saved saved -> remember(cardUUID, versionedSummaryOf(card.saved()));
+            case SaveResult.VersionConflict conflict -> summaries.invalidate(cardUUID);
+        }
+        return result;
+    }
+
+    @Override
+    public Option<DebitCardSnapshot> takeSnapshot(UUID cardUUID) {
+        return debitCardRepository.takeSnapshot(cardUUID);
+    }
+
+    @Override
+    public List<DebitCardEvent.Failure> getRejections(UUID cardUUID) {
+        return debitCardRepository.getRejections(cardUUID);
+    }
+
+    @Override
+    public Map<UUID, Boolean> findTransactionOutcomes(UUID cardUUID, Set<UUID> transactionIds) {
+        return debitCardRepository.findTransactionOutcomes(cardUUID, transactionIds);
+    }
+
+    @Override
+    public TransactionHistoryPage getTransactions(UUID cardUUID, TransactionHistoryQuery query) {
+        return debitCardRepository.getTransactions(cardUUID, query);
+    }
+
+    private static VersionedDebitCardSummary versionedSummaryOf(DebitCard savedCard) {
+        return new VersionedDebitCardSummary(savedCard.version(), savedCard.toSummary());
+    }
+
+    private VersionedDebitCardSummary remember(UUID cardUUID, VersionedDebitCardSummary summary) {
+        return summaries.asMap().merge(cardUUID, summary, SummaryCachingDebitCardRepository::newerVersion);
+    }
+
+    private static VersionedDebitCardSummary newerVersion(VersionedDebitCardSummary cached, VersionedDebitCardSummary candidate) {
+        return candidate.version() >= cached.version() ? candidate : cached;
+    }
+}
+
+record SummaryCachePolicy(
+        boolean enabled,
+        long maximumSize,
+        Duration expireAfterWrite
+) {
+    static SummaryCachePolicy disabled() {
+        return new SummaryCachePolicy(false, 0, Duration.ZERO);
+    }
+}
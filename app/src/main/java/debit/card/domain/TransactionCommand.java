@@ -1,6 +1,5 @@
 package debit.card.domain;
 
-import java.math.BigDecimal;
 import java.util.UUID;
 
 public sealed interface TransactionCommand permits
@@ -8,19 +7,19 @@ public sealed interface TransactionCommand permits
         PayOff {
     UUID transactionId();
 
-    BigDecimal value();
+    Money value();
 
-    static TransactionCommand charge(UUID transactionId, BigDecimal chargeAmount) {
+    static TransactionCommand charge(UUID transactionId, Money chargeAmount) {
         return new ChargeCommand(transactionId, chargeAmount.negate());
     }
 
-    static TransactionCommand payOff(UUID transactionId, BigDecimal payOffAmount) {
+    static TransactionCommand payOff(UUID transactionId, Money payOffAmount) {
         return new PayOff(transactionId, payOffAmount);
     }
 }
 
-record ChargeCommand(UUID transactionId, BigDecimal value) implements TransactionCommand {
+record ChargeCommand(UUID transactionId, Money value) implements TransactionCommand {
 }
 
-record PayOff(UUID transactionId, BigDecimal value) implements TransactionCommand {
+record PayOff(UUID transactionId, Money value) implements TransactionCommand {
 }
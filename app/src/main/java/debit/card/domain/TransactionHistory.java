@@ -0,0 +1,135 @@
+package debit.card.domain;
+
+import debit.card.view.TransactionHistoryEntry;
+import debit.card.view.TransactionHistoryPage;
+import debit.card.view.TransactionHistoryQuery;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static debit.card.view.TransactionHistoryEntry.Outcome.ACCEPTED;
+import static debit.card.view.TransactionHistoryEntry.Outcome.REJECTED;
+
+/**
+ * Charges and pay-offs of a card read from its stored events and rejections. The sequence of a transaction is the
+ * position of its event or rejection among all changes of the card, so the history is written by the same update
+ * as the changes and a page starts at the change after the cursor. Sequences are not dense: limits and blocks take
+ * positions too. Rejections are stored with their positions, events take the positions left between them.
+ * Stores reading changes by position keep the counts of every chunk of positions, see
+ * {@link DebitCardHistoryChunkEntity}, and page with {@link #page(TransactionHistoryQuery, int, Map, ChunkReader)}.
+ */
+final class TransactionHistory {
+
+    private TransactionHistory() {
+    }
+
+    static long firstPosition(TransactionHistoryQuery query) {
+        return Math.max(query.after() + 1, 0);
+    }
+
+    /**
+     * A page found with the counts of the chunks of positions, keyed by chunk number. Chunks before the
+     * {@link #firstPosition first position} of the query and chunks without transactions of the requested kinds are
+     * skipped; the others are read whole, one at a time, until the page is full. Where the events and rejections of
+     * a chunk start follows from the counts of the chunks before it.
+     */
+    static TransactionHistoryPage page(
+            TransactionHistoryQuery query,
+            int chunkSize,
+            Map<String, DebitCardHistoryChunkEntity> chunks,
+            ChunkReader reader) {
+        var firstPosition = firstPosition(query);
+        var kinds = CardTransactionHistory.Kind.ALL.filter(kind -> kind.matches(query));
+        var matching = List.<TransactionHistoryEntry>empty();
+        var rejectionsBefore = 0L;
+        for (var chunk = 0; chunk < chunks.size() && matching.size() <= query.limit(); chunk++) {
+            var counts = DebitCardHistoryChunkEntity.of(chunks, chunk);
+            var chunkStart = (long) chunk * chunkSize;
+            if (chunkStart + counts.changes() > firstPosition && kinds.exists(kind -> counts.transactions(kind) > 0)) {
+                var changes = reader.read(
+                        chunkStart,
+                        chunkStart - rejectionsBefore,
+                        counts.changes() - counts.rejections(),
+                        rejectionsBefore,
+                        counts.rejections()
+                );
+                matching = matching.appendAll(entriesOf(chunkStart, changes)
+                        .filter(entry -> entry.sequence() >= firstPosition && CardTransactionHistory.Kind.of(entry).matches(query)));
+            }
+            rejectionsBefore += counts.rejections();
+        }
+        return TransactionHistoryPage.of(matching.take(query.limit() + 1), query.limit());
+    }
+
+    static Option<CardTransactionHistory.Kind> kindOf(DebitCardEvent change) {
+        return entryOf(0, change).map(CardTransactionHistory.Kind::of);
+    }
+
+    static Option<UUID> transactionOf(DebitCardEvent change) {
+        return entryOf(0, change).map(TransactionHistoryEntry::transactionUUID);
+    }
+
+    /**
+     * Entries of the changes stored by one save, the first of them at the given position.
+     */
+    static List<TransactionHistoryEntry> entriesOf(long firstPosition, List<DebitCardEvent> changes) {
+        return changes
+                .zipWithIndex()
+                .flatMap(change -> entryOf(firstPosition + change._2, change._1));
+    }
+
+    /**
+     * Events and rejections stored from the given position on, put back in the order they were made.
+     */
+    static List<DebitCardEvent> interleave(long firstPosition, Iterable<DebitCardEvent> events, Iterable<Rejection> rejections) {
+        var changes = List.<DebitCardEvent>empty();
+        var position = firstPosition;
+        var remainingEvents = events.iterator();
+        var remainingRejections = rejections.iterator();
+        var nextRejection = remainingRejections.hasNext() ? remainingRejections.next() : null;
+        while (nextRejection != null || remainingEvents.hasNext()) {
+            if (nextRejection != null && (nextRejection.position() <= position || !remainingEvents.hasNext())) {
+                changes = changes.prepend(nextRejection.failure());
+                nextRejection = remainingRejections.hasNext() ? remainingRejections.next() : null;
+            } else {
+                changes = changes.prepend(remainingEvents.next());
+            }
+            position++;
+        }
+        return changes.reverse();
+    }
+
+    private static Option<TransactionHistoryEntry> entryOf(long position, DebitCardEvent change) {
+        return switch (change) {
+            case DebitCardEvent.TransactionAccepted accepted -> Option.some(entryOf(position, ACCEPTED, accepted.uuid(), accepted.value()));
+            case DebitCardEvent.TransactionRejected rejected -> Option.some(entryOf(position, REJECTED, rejected.uuid(), rejected.value()));
+            default -> Option.none();
+        };
+    }
+
+    /**
+     * Charges are stored as negative values, pay-offs as positive ones.
+     */
+    private static TransactionHistoryEntry entryOf(long position, TransactionHistoryEntry.Outcome outcome, UUID transactionUUID, Money value) {
+        var charge = value.minorUnits() < 0;
+        return new TransactionHistoryEntry(
+                position,
+                transactionUUID,
+                charge ? TransactionHistoryEntry.Type.CHARGE : TransactionHistoryEntry.Type.PAY_OFF,
+                outcome,
+                (charge ? value.negate() : value).toBigDecimal()
+        );
+    }
+
+    /**
+     * Reads the changes at the positions of one chunk: the given number of events from the index of the first one
+     * among all events of the card and of rejections from the index of the first one among all its rejections,
+     * put back in the order they were made.
+     */
+    @FunctionalInterface
+    interface ChunkReader {
+        List<DebitCardEvent> read(long firstPosition, long firstEvent, int events, long firstRejection, int rejections);
+    }
+}
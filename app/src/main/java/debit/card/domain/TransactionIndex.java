@@ -0,0 +1,314 @@
+package debit.card.domain;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Map;
+import io.vavr.collection.Queue;
+import io.vavr.collection.Set;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+/**
+ * Outcomes of the transactions applied to a card, bounded in size however long the history of the card grows.
+ * <p>
+ * Outcomes of the latest {@value #WINDOW} transactions are kept exactly. Older transactions leave only their UUID
+ * in Bloom filters of {@value #GENERATION_CAPACITY} transactions each, and the oldest of {@value #GENERATIONS}
+ * filters is dropped when a new one starts. A transaction the filters might have seen has to be looked up in the
+ * stored events; a transaction older than all filters is not recognized, so a retry sent after more than
+ * {@code WINDOW + GENERATIONS * GENERATION_CAPACITY} later transactions of the card is applied again.
+ * An index of a card loaded with rejections it did not replay is {@linkplain #withMissingOutcomes() missing outcomes}:
+ * every transaction it does not know might have been seen.
+ * <p>
+ * Filters are immutable. Transactions added to the newest generation are kept in a set of their own and the filter
+ * is rebuilt with them once the generation is full or the index is encoded, so versions of a card derived from the
+ * same index never see each other's transactions.
+ */
+final class TransactionIndex {
+    static final int WINDOW = 256;
+    static final int GENERATION_CAPACITY = 2048;
+    static final int GENERATIONS = 4;
+    private static final byte ENCODING_VERSION = 2;
+    private static final byte ENCODING_VERSION_WITHOUT_MISSING_OUTCOMES = 1;
+    private static final int OUTCOME_SIZE = 2 * Long.BYTES + 1;
+
+    private final Queue<UUID> latestTransactions;
+    private final Map<UUID, Boolean> latestOutcomes;
+    private final Vector<TransactionFilter> generations;
+    private final Set<UUID> unfiltered;
+    private final int inNewestGeneration;
+    private final boolean missingOutcomes;
+
+    private TransactionIndex(
+            Queue<UUID> latestTransactions,
+            Map<UUID, Boolean> latestOutcomes,
+            Vector<TransactionFilter> generations,
+            Set<UUID> unfiltered,
+            int inNewestGeneration,
+            boolean missingOutcomes
+    ) {
+        this.latestTransactions = latestTransactions;
+        this.latestOutcomes = latestOutcomes;
+        this.generations = generations;
+        this.unfiltered = unfiltered;
+        this.inNewestGeneration = inNewestGeneration;
+        this.missingOutcomes = missingOutcomes;
+    }
+
+    static TransactionIndex empty() {
+        return new TransactionIndex(Queue.empty(), HashMap.empty(), Vector.empty(), HashSet.empty(), 0, false);
+    }
+
+    /**
+     * The same index for a card with transactions whose outcomes were never recorded in it: rejections stored
+     * after its snapshot by another writer, which loads do not read.
+     */
+    TransactionIndex withMissingOutcomes() {
+        return missingOutcomes
+                ? this
+                : new TransactionIndex(latestTransactions, latestOutcomes, generations, unfiltered, inNewestGeneration, true);
+    }
+
+    /**
+     * Outcome of a transaction among the latest ones of the card.
+     */
+    Option<Boolean> outcomeOf(UUID transactionId) {
+        return latestOutcomes.get(transactionId);
+    }
+
+    /**
+     * Whether the transaction may have been applied to the card, including transactions whose outcome
+     * is no longer kept.
+     */
+    boolean mightHaveSeen(UUID transactionId) {
+        return missingOutcomes
+                || latestOutcomes.containsKey(transactionId)
+                || unfiltered.contains(transactionId)
+                || generations.exists(filter -> filter.mightContain(transactionId));
+    }
+
+    TransactionIndex record(UUID transactionId, boolean accepted) {
+        if (latestOutcomes.containsKey(transactionId)) {
+            return new TransactionIndex(latestTransactions, latestOutcomes.put(transactionId, accepted), generations, unfiltered, inNewestGeneration, missingOutcomes);
+        }
+        var index = new TransactionIndex(
+                latestTransactions.enqueue(transactionId),
+                latestOutcomes.put(transactionId, accepted),
+                generations,
+                unfiltered,
+                inNewestGeneration,
+                missingOutcomes
+        );
+        return index.latestTransactions.size() > WINDOW ? index.forgetOldest() : index;
+    }
+
+    /**
+     * Builder recording transactions on top of this index, for replays recording many of them at once.
+     */
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    private TransactionIndex forgetOldest() {
+        var oldest = latestTransactions.dequeue();
+        var filters = generations;
+        var pending = unfiltered;
+        var inNewest = inNewestGeneration;
+        if (isFull(filters, inNewest)) {
+            filters = startGeneration(filters, pending);
+            pending = HashSet.empty();
+            inNewest = 0;
+        }
+        return new TransactionIndex(oldest._2, latestOutcomes.remove(oldest._1), filters, pending.add(oldest._1), inNewest + 1, missingOutcomes);
+    }
+
+    private static boolean isFull(Vector<TransactionFilter> generations, int inNewestGeneration) {
+        return generations.isEmpty() || inNewestGeneration == GENERATION_CAPACITY;
+    }
+
+    /**
+     * Rebuilds the filter of the full newest generation with its unfiltered transactions and starts an empty one.
+     */
+    private static Vector<TransactionFilter> startGeneration(Vector<TransactionFilter> generations, Set<UUID> unfiltered) {
+        var started = filterNewest(generations, unfiltered).append(TransactionFilter.withCapacity(GENERATION_CAPACITY));
+        return started.size() > GENERATIONS ? started.drop(1) : started;
+    }
+
+    private static Vector<TransactionFilter> filterNewest(Vector<TransactionFilter> generations, Set<UUID> unfiltered) {
+        return unfiltered.isEmpty()
+                ? generations
+                : generations.update(generations.size() - 1, generations.last().withAll(unfiltered));
+    }
+
+    /**
+     * Binary form stored with snapshots: whether outcomes are missing, the latest outcomes oldest first, then the
+     * filters oldest first.
+     */
+    byte[] encode() {
+        var filters = filterNewest(generations, unfiltered);
+        var filterSize = filters.map(TransactionFilter::encodedSize).sum().intValue();
+        var buffer = ByteBuffer.allocate(2 + 3 * Integer.BYTES + latestTransactions.size() * OUTCOME_SIZE + filterSize);
+        buffer.put(ENCODING_VERSION).put((byte) (missingOutcomes ? 1 : 0)).putInt(latestTransactions.size());
+        latestTransactions.forEach(transactionId -> buffer
+                .putLong(transactionId.getMostSignificantBits())
+                .putLong(transactionId.getLeastSignificantBits())
+                .put((byte) (latestOutcomes.get(transactionId).get() ? 1 : 0)));
+        buffer.putInt(filters.size()).putInt(inNewestGeneration);
+        filters.forEach(filter -> filter.writeTo(buffer));
+        return buffer.array();
+    }
+
+    static TransactionIndex decode(byte[] encoded) {
+        var buffer = ByteBuffer.wrap(encoded);
+        var encodingVersion = buffer.get();
+        if (encodingVersion != ENCODING_VERSION && encodingVersion != ENCODING_VERSION_WITHOUT_MISSING_OUTCOMES) {
+            throw new IllegalArgumentException("Unknown transaction index encoding " + encodingVersion);
+        }
+        var missingOutcomes = encodingVersion == ENCODING_VERSION && buffer.get() == 1;
+        var latestTransactions = Queue.<UUID>empty();
+        var latestOutcomes = HashMap.<UUID, Boolean>empty();
+        for (int i = buffer.getInt(); i > 0; i--) {
+            var transactionId = new UUID(buffer.getLong(), buffer.getLong());
+            latestTransactions = latestTransactions.enqueue(transactionId);
+            latestOutcomes = latestOutcomes.put(transactionId, buffer.get() == 1);
+        }
+        var generationCount = buffer.getInt();
+        var inNewestGeneration = buffer.getInt();
+        var generations = Vector.<TransactionFilter>empty();
+        for (int i = 0; i < generationCount; i++) {
+            generations = generations.append(TransactionFilter.readFrom(buffer));
+        }
+        return new TransactionIndex(latestTransactions, latestOutcomes, generations, HashSet.empty(), inNewestGeneration, missingOutcomes);
+    }
+
+    /**
+     * Mutable index for a replay: the latest outcomes are kept in insertion order and the oldest one is moved to the
+     * filters as soon as the window overflows, without an immutable index per recorded transaction. A transaction
+     * recorded again keeps its place, as with {@link #record(UUID, boolean)}.
+     */
+    static final class Builder {
+        private final LinkedHashMap<UUID, Boolean> latestOutcomes = new LinkedHashMap<>();
+        private Vector<TransactionFilter> generations;
+        private Set<UUID> unfiltered;
+        private int inNewestGeneration;
+        private final boolean missingOutcomes;
+
+        private Builder(TransactionIndex index) {
+            index.latestTransactions.forEach(transactionId -> latestOutcomes.put(transactionId, index.latestOutcomes.get(transactionId).get()));
+            this.generations = index.generations;
+            this.unfiltered = index.unfiltered;
+            this.inNewestGeneration = index.inNewestGeneration;
+            this.missingOutcomes = index.missingOutcomes;
+        }
+
+        void record(UUID transactionId, boolean accepted) {
+            latestOutcomes.put(transactionId, accepted);
+            if (latestOutcomes.size() > WINDOW) {
+                var oldest = latestOutcomes.keySet().iterator().next();
+                latestOutcomes.remove(oldest);
+                if (isFull(generations, inNewestGeneration)) {
+                    generations = startGeneration(generations, unfiltered);
+                    unfiltered = HashSet.empty();
+                    inNewestGeneration = 0;
+                }
+                unfiltered = unfiltered.add(oldest);
+                inNewestGeneration++;
+            }
+        }
+
+        TransactionIndex build() {
+            return new TransactionIndex(
+                    Queue.ofAll(latestOutcomes.keySet()),
+                    HashMap.ofAll(latestOutcomes),
+                    generations,
+                    unfiltered,
+                    inNewestGeneration,
+                    missingOutcomes
+            );
+        }
+    }
+}
+
+final class TransactionFilter {
+    private static final int BITS_PER_ENTRY = 16;
+    private static final int HASH_FUNCTIONS = 11;
+
+    private final long[] words;
+    private final long bitCount;
+    private final int capacity;
+
+    private TransactionFilter(int capacity, long[] words) {
+        this.capacity = capacity;
+        this.words = words;
+        this.bitCount = words.length * 64L;
+    }
+
+    static TransactionFilter withCapacity(int capacity) {
+        return new TransactionFilter(capacity, new long[Math.max(1, (capacity * BITS_PER_ENTRY + 63) / 64)]);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * A new filter with the bits of this one and of the given transactions; this one is left unchanged.
+     */
+    TransactionFilter withAll(Iterable<UUID> transactionIds) {
+        var added = Arrays.copyOf(words, words.length);
+        for (var transactionId : transactionIds) {
+            var firstHash = mix(transactionId.getMostSignificantBits());
+            var secondHash = mix(transactionId.getLeastSignificantBits()) | 1;
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                var bit = Math.floorMod(firstHash + i * secondHash, bitCount);
+                added[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+        return new TransactionFilter(capacity, added);
+    }
+
+    boolean mightContain(UUID transactionId) {
+        var firstHash = mix(transactionId.getMostSignificantBits());
+        var secondHash = mix(transactionId.getLeastSignificantBits()) | 1;
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            var bit = Math.floorMod(firstHash + i * secondHash, bitCount);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int encodedSize() {
+        return 2 * Integer.BYTES + words.length * Long.BYTES;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(capacity).putInt(words.length);
+        for (var word : words) {
+            buffer.putLong(word);
+        }
+    }
+
+    static TransactionFilter readFrom(ByteBuffer buffer) {
+        var capacity = buffer.getInt();
+        var words = new long[buffer.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong();
+        }
+        return new TransactionFilter(capacity, words);
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -7,5 +7,5 @@ public record ChargeCardCommand(
         UUID cardUUID,
         UUID transactionUUID,
         BigDecimal amount
-) implements CardCommand {
+) implements TransactionCardCommand {
 }
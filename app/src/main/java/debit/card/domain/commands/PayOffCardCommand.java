@@ -7,5 +7,5 @@ public record PayOffCardCommand(
         UUID cardUUID,
         UUID transactionUUID,
         BigDecimal amount
-) implements CardCommand{
+) implements TransactionCardCommand {
 }
@@ -0,0 +1,12 @@
+package debit.card.domain.commands;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+public sealed interface TransactionCardCommand extends CardCommand permits
+        ChargeCardCommand,
+        PayOffCardCommand {
+    UUID transactionUUID();
+
+    BigDecimal amount();
+}
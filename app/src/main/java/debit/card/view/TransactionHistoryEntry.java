@@ -0,0 +1,25 @@
+package debit.card.view;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * A charge or pay-off in the history of a card. The amount is always positive, the type tells its direction.
+ */
+public record TransactionHistoryEntry(
+        long sequence,
+        UUID transactionUUID,
+        Type type,
+        Outcome outcome,
+        BigDecimal amount
+) {
+    public enum Type {
+        CHARGE,
+        PAY_OFF
+    }
+
+    public enum Outcome {
+        ACCEPTED,
+        REJECTED
+    }
+}
@@ -0,0 +1,19 @@
+package debit.card.view;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+/**
+ * Transactions of a card in the order of their sequence. {@code nextCursor} is the sequence to ask for the next
+ * page after, empty on the last page.
+ */
+public record TransactionHistoryPage(
+        List<TransactionHistoryEntry> transactions,
+        Option<Long> nextCursor
+) {
+    public static TransactionHistoryPage of(List<TransactionHistoryEntry> matching, int limit) {
+        return matching.size() > limit
+                ? new TransactionHistoryPage(matching.take(limit), Option.some(matching.get(limit - 1).sequence()))
+                : new TransactionHistoryPage(matching, Option.none());
+    }
+}
@@ -0,0 +1,26 @@
+package debit.card.view;
+
+import io.vavr.control.Option;
+
+/**
+ * Asks for at most {@code limit} transactions with sequence greater than {@code after}, optionally only those
+ * of the given outcome and type.
+ */
+public record TransactionHistoryQuery(
+        long after,
+        int limit,
+        Option<TransactionHistoryEntry.Outcome> outcome,
+        Option<TransactionHistoryEntry.Type> type
+) {
+    public static final long FROM_START = -1;
+
+    public TransactionHistoryQuery {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive, got " + limit);
+        }
+    }
+
+    public boolean isFiltered() {
+        return outcome.isDefined() || type.isDefined();
+    }
+}
@@ -0,0 +1,10 @@
+package debit.card.view;
+
+/**
+ * Summary of a card together with the version of the card it reflects.
+ */
+public record VersionedDebitCardSummary(
+        long version,
+        DebitCardSummary summary
+) {
+}
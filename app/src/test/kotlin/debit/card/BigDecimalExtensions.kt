@@ -1,4 +1,9 @@
 package debit.card
 
+import debit.card.domain.Money
+
 val String.bd
-    get() = this.toBigDecimal()
\ No newline at end of file
+    get() = this.toBigDecimal()
+
+val String.money
+    get() = Money.of(this.toBigDecimal(), 2)
@@ -0,0 +1,103 @@
+package debit.card.api
+
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.exc.InvalidFormatException
+import debit.card.bd
+import debit.card.domain.commands.*
+import debit.card.view.DebitCardSummary
+import io.vavr.control.Option
+import io.vavr.jackson.datatype.VavrModule
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.MethodSource
+import org.junit.jupiter.api.Test
+import java.util.*
+
+internal class HotPathJsonModuleTest {
+    private val defaultMapper = ObjectMapper()
+            .registerModule(VavrModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+    private val hotPathMapper = defaultMapper.copy()
+            .registerModule(HotPathJsonModule())
+
+    @ParameterizedTest
+    @MethodSource("responses")
+    fun `should write the same json as default configuration`(response: Any) {
+        assertThat(hotPathMapper.writeValueAsString(response)).isEqualTo(defaultMapper.writeValueAsString(response))
+    }
+
+    @Test
+    fun `should read the same requests as default configuration`() {
+        // given
+        val transactionUUID = UUID.randomUUID()
+        val transaction = """{"transactionUUID":"$transactionUUID","ignored":{"nested":[1,2]},"amount":10.50}"""
+        val limit = """{"limit":"-100"}"""
+
+        // expect
+        assertThat(hotPathMapper.readValue(transaction, ChargeCardRequest::class.java))
+                .isEqualTo(defaultMapper.readValue(transaction, ChargeCardRequest::class.java))
+        assertThat(hotPathMapper.readValue(transaction, PayOffRequest::class.java))
+                .isEqualTo(defaultMapper.readValue(transaction, PayOffRequest::class.java))
+        assertThat(hotPathMapper.readValue(limit, AssignLimitRequest::class.java))
+                .isEqualTo(defaultMapper.readValue(limit, AssignLimitRequest::class.java))
+        assertThat(hotPathMapper.readValue("{}", ChargeCardRequest::class.java)).isEqualTo(ChargeCardRequest(null, null))
+    }
+
+    @Test
+    fun `should reject malformed uuid`() {
+        assertThatThrownBy { hotPathMapper.readValue("""{"transactionUUID":"not-a-uuid","amount":1}""", ChargeCardRequest::class.java) }
+                .isInstanceOf(InvalidFormatException::class.java)
+    }
+
+    @Test
+    fun `should parse uuid of ascii hex digits of either case`() {
+        // given
+        val uuid = UUID.randomUUID()
+        val chars = uuid.toString().uppercase().toCharArray()
+
+        // expect
+        assertThat(UuidChars.parse(chars, 0, chars.size)).isEqualTo(uuid)
+    }
+
+    @Test
+    fun `should not parse uuid with non ascii digits or in other than canonical form`() {
+        // given
+        val canonical = "123e4567-e89b-12d3-a456-426614174000"
+        val arabicIndicDigit = canonical.replaceFirst('3', '\u0663').toCharArray()
+        val fullWidthLetter = canonical.replaceFirst('e', '\uFF45').toCharArray()
+        val base64 = "Ej5FZ+ibEtOkVkJmFBdAAA==".toCharArray()
+
+        // expect
+        assertThat(UuidChars.parse(arabicIndicDigit, 0, arabicIndicDigit.size)).isNull()
+        assertThat(UuidChars.parse(fullWidthLetter, 0, fullWidthLetter.size)).isNull()
+        assertThat(UuidChars.parse(base64, 0, base64.size)).isNull()
+    }
+
+    @Test
+    fun `should round trip uuid characters`() {
+        repeat(100) {
+            val uuid = UUID.randomUUID()
+            val chars = CharArray(UuidChars.LENGTH)
+            UuidChars.write(uuid, chars)
+
+            assertThat(String(chars)).isEqualTo(uuid.toString())
+            assertThat(UuidChars.parse(chars, 0, chars.size)).isEqualTo(uuid)
+        }
+    }
+
+    companion object {
+        @JvmStatic
+        fun responses() = listOf(
+                DebitCardSummary(UUID.randomUUID(), "-10.50".bd, Option.of("-100".bd), false),
+                DebitCardSummary(UUID.randomUUID(), "0".bd, Option.none(), true),
+                ChargeCardCommand(UUID.randomUUID(), UUID.randomUUID(), "10".bd),
+                PayOffCardCommand(UUID.randomUUID(), UUID.randomUUID(), "0.01".bd),
+                AssignLimitCommand(UUID.randomUUID(), "-100".bd),
+                BlockCardCommand(UUID.randomUUID()),
+                UnblockCardCommand(UUID.randomUUID()),
+                ErrorView("CannotChargeError", ChargeCardCommand(UUID.randomUUID(), UUID.randomUUID(), "1".bd))
+        )
+    }
+}
@@ -0,0 +1,34 @@
+package debit.card.api
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Instant
+
+internal class SlowestTracesTest {
+    private val slowestTraces = SlowestTraces(2)
+
+    @Test
+    fun `should keep only the slowest traces, slowest first`() {
+        // when
+        listOf(5.0, 1.0, 9.0, 3.0, 7.0).forEach { slowestTraces.offer(traceOf(it)) }
+
+        // then
+        assertThat(slowestTraces.slowest().map { it.durationMillis() }).containsExactly(9.0, 7.0)
+    }
+
+    @Test
+    fun `should start over when cleared`() {
+        // given
+        listOf(5.0, 9.0).forEach { slowestTraces.offer(traceOf(it)) }
+
+        // when
+        slowestTraces.clear()
+        slowestTraces.offer(traceOf(1.0))
+
+        // then
+        assertThat(slowestTraces.slowest().map { it.durationMillis() }).containsExactly(1.0)
+    }
+
+    private fun traceOf(durationMillis: Double) =
+            TracedRequest("GET /v1/debit-cards", 200, Instant.now(), durationMillis, listOf())
+}
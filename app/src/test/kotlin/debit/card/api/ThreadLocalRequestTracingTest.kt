@@ -0,0 +1,50 @@
+package debit.card.api
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.function.Supplier
+
+internal class ThreadLocalRequestTracingTest {
+    private val tracing = ThreadLocalRequestTracing()
+
+    @Test
+    fun `should add stages to the trace of a traced request only`() {
+        // given
+        val trace = RequestTrace.begin("PUT /v1/debit-cards/charge")
+
+        // when
+        try {
+            tracing.stage("load") { "card" }
+            tracing.startStage("charge").run()
+        } finally {
+            trace.end()
+        }
+        tracing.stage("persist") { "card" }
+
+        // then
+        assertThat(trace.spans().map { it.stage() }).containsExactly("load", "charge")
+        assertThat(trace.serverTiming()).contains("load;dur=", "charge;dur=", "total;dur=")
+        assertThat(RequestTrace.current()).isEmpty()
+    }
+
+    @Test
+    fun `should follow command onto another thread`() {
+        // given
+        val executor = Executors.newSingleThreadExecutor()
+        val trace = RequestTrace.begin("PUT /v1/debit-cards/charge")
+
+        // when
+        try {
+            val command = tracing.propagated(Supplier { tracing.stage("persist") { RequestTrace.current().isDefined } })
+            assertThat(CompletableFuture.supplyAsync(command, executor).get()).isTrue()
+        } finally {
+            trace.end()
+            executor.shutdown()
+        }
+
+        // then
+        assertThat(trace.spans().map { it.stage() }).containsExactlyInAnyOrder("lane-queue", "persist")
+    }
+}
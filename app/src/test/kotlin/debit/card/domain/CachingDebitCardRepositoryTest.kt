@@ -0,0 +1,78 @@
+package debit.card.domain
+
+import debit.card.domain.TransactionCommand.charge
+import debit.card.money
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.*
+
+internal class CachingDebitCardRepositoryTest : DebitCardRepositoryTest() {
+    private val meterRegistry = SimpleMeterRegistry()
+    private val storage = InMemoryDebitCardRepository()
+
+    override val repository = CachingDebitCardRepository(storage, AggregateCachePolicy(true, 2, Duration.ofMinutes(1)), meterRegistry)
+
+    private val cardUUID = UUID.randomUUID()
+
+    @Test
+    fun `should serve card saved through cache without reading it again`() {
+        // given
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+
+        // when
+        val card = repository.getByUUID(cardUUID)
+
+        // then
+        assertThat(card.get().version()).isEqualTo(0)
+        assertThat(lookups("hit")).isEqualTo(1.0)
+        assertThat(lookups("miss")).isEqualTo(0.0)
+    }
+
+    @Test
+    fun `should catch up cached card with events saved behind its back`() {
+        // given
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        val cachedCard = repository.getByUUID(cardUUID).get()
+
+        // and
+        storage.save(cachedCard.applyTransaction(charge(UUID.randomUUID(), "30".money)))
+
+        // when
+        val card = repository.getByUUID(cardUUID).get()
+
+        // then
+        assertThat(card.version()).isEqualTo(1)
+        assertThat(card.sequence()).isEqualTo(2)
+        assertThat(card.toSummary().balance).isEqualByComparingTo("-30")
+        assertThat(lookups("catch-up")).isEqualTo(1.0)
+    }
+
+    @Test
+    fun `should forget card removed from underlying storage`() {
+        // given
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+
+        // when
+        storage.clean()
+
+        // then
+        assertThat(repository.getByUUID(cardUUID).isEmpty).isTrue()
+    }
+
+    @Test
+    fun `should evict cards above maximum size`() {
+        // given
+        repeat(10) { repository.save(DebitCard.createNew(UUID.randomUUID()).assignLimit("-100".money)) }
+
+        // when
+        repository.getByUUID(UUID.randomUUID())
+
+        // then
+        assertThat(meterRegistry.get("debit.card.aggregate.cache.evictions").counter().count()).isGreaterThan(0.0)
+    }
+
+    private fun lookups(result: String) =
+            meterRegistry.get("debit.card.aggregate.cache.lookups").tag("result", result).counter().count()
+}
@@ -0,0 +1,84 @@
+package debit.card.domain
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+internal class CardLanesTest {
+    private val cardLanes = CardLanes.of(1, 1, Duration.ofMillis(50))
+
+    @AfterEach
+    fun closeLanes() {
+        cardLanes.close()
+    }
+
+    @Test
+    fun `should fail command instead of running it outside its lane when lane queue stays full`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        val laneBusy = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val running = cardLanes.submit(cardUUID) {
+            laneBusy.countDown()
+            release.await(5, TimeUnit.SECONDS)
+            Thread.currentThread().name
+        }
+        laneBusy.await(5, TimeUnit.SECONDS)
+        val queued = cardLanes.submit(cardUUID) { Thread.currentThread().name }
+
+        // when
+        val overflow = cardLanes.submit(cardUUID) { Thread.currentThread().name }
+
+        // then
+        assertThat(overflow).isCompletedExceptionally
+        assertThatThrownBy { overflow.get() }
+            .isInstanceOf(ExecutionException::class.java)
+            .hasCauseInstanceOf(RejectedExecutionException::class.java)
+        release.countDown()
+        assertThat(cardLanes.await(cardUUID, running)).isEqualTo("debit-card-lane-0")
+        assertThat(cardLanes.await(cardUUID, queued)).isEqualTo("debit-card-lane-0")
+    }
+
+    @Test
+    fun `should queue command on its lane once lane queue has room again`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        val laneBusy = CountDownLatch(1)
+        val running = cardLanes.submit(cardUUID) {
+            laneBusy.countDown()
+            Thread.sleep(10)
+            Thread.currentThread().name
+        }
+        laneBusy.await(5, TimeUnit.SECONDS)
+        val queued = cardLanes.submit(cardUUID) { Thread.currentThread().name }
+
+        // when
+        val waiting = cardLanes.submit(cardUUID) { Thread.currentThread().name }
+
+        // then
+        assertThat(cardLanes.await(cardUUID, running)).isEqualTo("debit-card-lane-0")
+        assertThat(cardLanes.await(cardUUID, queued)).isEqualTo("debit-card-lane-0")
+        assertThat(cardLanes.await(cardUUID, waiting)).isEqualTo("debit-card-lane-0")
+    }
+
+    @Test
+    fun `should fail command submitted after lanes are closed`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        cardLanes.close()
+
+        // when
+        val rejected = cardLanes.submit(cardUUID) { Thread.currentThread().name }
+
+        // then
+        assertThatThrownBy { cardLanes.await(cardUUID, rejected) }
+            .isInstanceOf(RejectedExecutionException::class.java)
+    }
+}
@@ -0,0 +1,83 @@
+package debit.card.domain
+
+import debit.card.money
+import io.vavr.control.Option
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.MethodSource
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.util.*
+
+internal class DebitCardEventCodecTest {
+
+    @ParameterizedTest
+    @MethodSource("events")
+    fun `should decode encoded event`(event: DebitCardEvent) {
+        // when
+        val decoded = DebitCardEventCodec.decode(DebitCardEventCodec.encode(event))
+
+        // then
+        assertThat(decoded).isEqualTo(event)
+    }
+
+    @Test
+    fun `should store small amounts in a few bytes`() {
+        // given
+        val event = DebitCardEvent.TransactionAccepted(UUID.randomUUID(), "-12.50".money)
+
+        // when
+        val encoded = DebitCardEventCodec.encode(event)
+
+        // then
+        assertThat(encoded).hasSize(1 + 1 + 16 + 2 + 2)
+    }
+
+    @Test
+    fun `should reject unknown schema version`() {
+        // given
+        val encoded = DebitCardEventCodec.encode(DebitCardEvent.CardBlocked())
+        encoded[0] = 99
+
+        // expect
+        assertThatThrownBy { DebitCardEventCodec.decode(encoded) }.isInstanceOf(IllegalStateException::class.java)
+    }
+
+    @Test
+    fun `should decode encoded snapshot`() {
+        // given
+        val accepted = UUID.randomUUID()
+        val rejected = UUID.randomUUID()
+        val transactions = TransactionIndex.empty().record(accepted, true).record(rejected, false)
+        val snapshot = DebitCardSnapshot(4, 1, 3L, Option.none(), "-12.50".money, true, transactions)
+
+        // when
+        val decoded = DebitCardEventCodec.readSnapshot(ByteBuffer.wrap(DebitCardEventCodec.encodeSnapshot(snapshot)))
+
+        // then
+        assertThat(decoded.sequence()).isEqualTo(4)
+        assertThat(decoded.rejections()).isEqualTo(1)
+        assertThat(decoded.version()).isEqualTo(3L)
+        assertThat(decoded.limit().isEmpty).isTrue()
+        assertThat(decoded.balance()).isEqualTo("-12.50".money)
+        assertThat(decoded.blocked()).isTrue()
+        assertThat(decoded.transactions().outcomeOf(accepted).get()).isTrue()
+        assertThat(decoded.transactions().outcomeOf(rejected).get()).isFalse()
+    }
+
+    companion object {
+        @JvmStatic
+        fun events() = listOf(
+                DebitCardEvent.LimitAssigned("-1000".money),
+                DebitCardEvent.TransactionAccepted(UUID.randomUUID(), "0".money),
+                DebitCardEvent.TransactionAccepted(UUID.randomUUID(), Money(Long.MAX_VALUE, 2)),
+                DebitCardEvent.TransactionRejected(UUID.randomUUID(), Money(Long.MIN_VALUE, 18)),
+                DebitCardEvent.TransactionRejected(UUID.randomUUID(), Money(-128, 0)),
+                DebitCardEvent.TransactionAccepted(UUID.randomUUID(), Money(128, 0)),
+                DebitCardEvent.CardBlocked(),
+                DebitCardEvent.CardBlockedRejected(),
+                DebitCardEvent.CardUnblocked()
+        )
+    }
+}
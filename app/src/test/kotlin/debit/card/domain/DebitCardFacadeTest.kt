@@ -1,10 +1,15 @@
 package debit.card.domain
 
 import debit.card.bd
+import debit.card.money
 import debit.card.domain.DebitCard.createNew
 import debit.card.domain.DebitCardError.*
 import debit.card.domain.commands.*
 import debit.card.view.DebitCardSummary
+import debit.card.view.TransactionHistoryEntry
+import debit.card.view.TransactionHistoryQuery
+import io.vavr.control.Option
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Named
@@ -13,15 +18,27 @@ import org.junit.jupiter.params.ParameterizedTest
 import org.junit.jupiter.params.provider.Arguments
 import org.junit.jupiter.params.provider.Arguments.arguments
 import org.junit.jupiter.params.provider.MethodSource
+import java.time.Duration
 import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
 import java.util.stream.Stream
 
 internal abstract class DebitCardFacadeTest {
     protected abstract val module: DebitCardModule
     protected abstract val repository: DebitCardRepository
+    protected open val aggregateCachePolicy: AggregateCachePolicy = AggregateCachePolicy.disabled()
+    protected open val summaryCachePolicy: SummaryCachePolicy = SummaryCachePolicy.disabled()
+    protected open val cardLanes: CardLanes = CardLanes.inline()
 
-    val facade: DebitCardFacade
-        get() = module.facade(repository)
+    protected val meterRegistry = SimpleMeterRegistry()
+    protected val requestTracing = StageRecordingTracing()
+
+    val facade: DebitCardFacade by lazy {
+        module.facade(repository, CurrencyUnit.of("PLN"), aggregateCachePolicy, summaryCachePolicy, meterRegistry, cardLanes, requestTracing, "test")
+    }
 
     protected abstract fun cleanState()
 
@@ -37,7 +54,7 @@ internal abstract class DebitCardFacadeTest {
         val storedSummary = getSummaryById(cardUUID)
 
         // then
-        assertThat(storedSummary.balance).isEqualTo("0")
+        assertThat(storedSummary.balance).isEqualByComparingTo("0")
         assertThat(storedSummary.limit).isEmpty()
         assertThat(storedSummary.blocked).isFalse()
     }
@@ -53,13 +70,13 @@ internal abstract class DebitCardFacadeTest {
         // then
         assertThat(result.isSuccess).isTrue()
         val cardSummary = getSummaryById(cardUUID)
-        assertThat(cardSummary.limit.get()).isEqualTo("15".bd)
+        assertThat(cardSummary.limit.get()).isEqualByComparingTo("15")
     }
 
     @Test
     fun `should not assign limit to the card with already assigned limit`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("20".bd))
+        thereIsACard(createNew(cardUUID).assignLimit("20".money))
 
         // when
         val result = facade.assignLimitToCard(AssignLimitCommand(cardUUID, "15".bd))
@@ -68,14 +85,14 @@ internal abstract class DebitCardFacadeTest {
         assertThat(result.isSuccess).isFalse()
         assertThat(result.error()).isEqualTo(LimitAlreadyAssigned())
         val cardSummary = getSummaryById(cardUUID)
-        assertThat(cardSummary.limit.get()).isEqualTo("20".bd)
+        assertThat(cardSummary.limit.get()).isEqualByComparingTo("20")
     }
 
 
     @Test
     fun `should be able to charge a card when it does not exceed limit`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd))
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
 
         // when
         val result = facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd))
@@ -83,14 +100,28 @@ internal abstract class DebitCardFacadeTest {
         // then
         assertThat(result.isSuccess).isTrue()
         val summary = getSummaryById(cardUUID)
-        assertThat(summary.balance).isEqualTo("-15")
-        assertThat(summary.limit.get()).isEqualTo("-20")
+        assertThat(summary.balance).isEqualByComparingTo("-15")
+        assertThat(summary.limit.get()).isEqualByComparingTo("-20")
+    }
+
+    @Test
+    fun `should return summary amounts at scale of currency`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+
+        // when
+        facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd))
+
+        // then
+        val summary = getSummaryById(cardUUID)
+        assertThat(summary.balance).isEqualTo("-15.00".bd)
+        assertThat(summary.limit.get()).isEqualTo("-20.00".bd)
     }
 
     @Test
     fun `should not be able to charge a card when it exceeds limit`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd))
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
 
         // when
         val result = facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "25".bd))
@@ -98,14 +129,238 @@ internal abstract class DebitCardFacadeTest {
         // then
         assertThat(result.isSuccess).isFalse()
         val summary = getSummaryById(cardUUID)
-        assertThat(summary.balance).isEqualTo("0")
-        assertThat(summary.limit.get()).isEqualTo("-20")
+        assertThat(summary.balance).isEqualByComparingTo("0")
+        assertThat(summary.limit.get()).isEqualByComparingTo("-20")
+    }
+
+    @Test
+    fun `should not apply the same charge twice`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+        val charge = ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd)
+        facade.chargeCard(charge)
+
+        // when
+        val result = facade.chargeCard(charge)
+
+        // then
+        assertThat(result.isSuccess).isTrue()
+        val summary = getSummaryById(cardUUID)
+        assertThat(summary.balance).isEqualByComparingTo("-15")
+    }
+
+    @Test
+    fun `should return original rejection for retried charge`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+        val charge = ChargeCardCommand(cardUUID, UUID.randomUUID(), "25".bd)
+        facade.chargeCard(charge)
+        facade.payOffCard(PayOffCardCommand(cardUUID, UUID.randomUUID(), "10".bd))
+
+        // when
+        val result = facade.chargeCard(charge)
+
+        // then
+        assertThat(result.isSuccess).isFalse()
+        assertThat(result.error()).isEqualTo(CannotChargeError())
+        val summary = getSummaryById(cardUUID)
+        assertThat(summary.balance).isEqualByComparingTo("10")
+    }
+
+    @Test
+    fun `should not apply the same pay off twice even after snapshot`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+        val payOff = PayOffCardCommand(cardUUID, UUID.randomUUID(), "15".bd)
+        facade.payOffCard(payOff)
+        facade.takeSnapshot(cardUUID)
+
+        // when
+        val result = facade.payOffCard(payOff)
+
+        // then
+        assertThat(result.isSuccess).isTrue()
+        val summary = getSummaryById(cardUUID)
+        assertThat(summary.balance).isEqualByComparingTo("15")
+    }
+
+    @Test
+    fun `should not charge a card with amount more precise than currency allows`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+
+        // when
+        val result = facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "0.001".bd))
+
+        // then
+        assertThat(result.isSuccess).isFalse()
+        assertThat(result.error()).isEqualTo(InvalidAmountError())
+        val summary = getSummaryById(cardUUID)
+        assertThat(summary.balance).isEqualByComparingTo("0")
+    }
+
+    @Test
+    fun `should apply batch of transactions per card in order and return results in request order`() {
+        // given
+        val otherCardUUID = UUID.randomUUID()
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+        thereIsACard(createNew(otherCardUUID).assignLimit("-5".money))
+        val commands = io.vavr.collection.List.of<TransactionCardCommand>(
+                ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd),
+                ChargeCardCommand(otherCardUUID, UUID.randomUUID(), "10".bd),
+                ChargeCardCommand(cardUUID, UUID.randomUUID(), "10".bd),
+                PayOffCardCommand(otherCardUUID, UUID.randomUUID(), "3".bd),
+                PayOffCardCommand(cardUUID, UUID.randomUUID(), "5".bd),
+                ChargeCardCommand(cardUUID, UUID.randomUUID(), "10".bd)
+        )
+
+        // when
+        val results = facade.applyTransactions(commands)
+
+        // then
+        assertThat(results.map { it.fold({ command, _ -> command }, { command -> command }) }).containsExactlyElementsOf(commands)
+        assertThat(results.map { it.isSuccess }).containsExactly(true, false, false, true, true, true)
+        assertThat(results[1].error()).isEqualTo(CannotChargeError())
+        assertThat(results[2].error()).isEqualTo(CannotChargeError())
+        assertThat(getSummaryById(cardUUID).balance).isEqualByComparingTo("-20")
+        assertThat(getSummaryById(otherCardUUID).balance).isEqualByComparingTo("3")
+    }
+
+    @Test
+    fun `should apply every transaction of a batch once`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+        val rejectedBefore = ChargeCardCommand(cardUUID, UUID.randomUUID(), "25".bd)
+        facade.chargeCard(rejectedBefore)
+        val charge = ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd)
+
+        // when
+        val results = facade.applyTransactions(io.vavr.collection.List.of(
+                charge,
+                PayOffCardCommand(cardUUID, UUID.randomUUID(), "25".bd),
+                rejectedBefore,
+                charge
+        ))
+
+        // then
+        assertThat(results.map { it.isSuccess }).containsExactly(true, true, false, true)
+        assertThat(results[2].error()).isEqualTo(CannotChargeError())
+        assertThat(getSummaryById(cardUUID).balance).isEqualByComparingTo("10")
+    }
+
+    @Test
+    fun `should return original rejection for charge retried after its outcome was forgotten`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+        val rejectedLongAgo = ChargeCardCommand(cardUUID, UUID.randomUUID(), "25".bd)
+        facade.chargeCard(rejectedLongAgo)
+        facade.applyTransactions(io.vavr.collection.List.fill(TransactionIndex.WINDOW) {
+            PayOffCardCommand(cardUUID, UUID.randomUUID(), "1".bd)
+        })
+        facade.takeSnapshot(cardUUID)
+
+        // when
+        val result = facade.chargeCard(rejectedLongAgo)
+
+        // then
+        assertThat(result.isSuccess).isFalse()
+        assertThat(result.error()).isEqualTo(CannotChargeError())
+        assertThat(getSummaryById(cardUUID).balance).isEqualByComparingTo(TransactionIndex.WINDOW.toString())
+    }
+
+    @Test
+    fun `should fail only batch items of missing card or with invalid amount`() {
+        // given
+        val missingCardUUID = UUID.randomUUID()
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+
+        // when
+        val results = facade.applyTransactions(io.vavr.collection.List.of(
+                ChargeCardCommand(missingCardUUID, UUID.randomUUID(), "1".bd),
+                ChargeCardCommand(cardUUID, UUID.randomUUID(), "0.001".bd),
+                ChargeCardCommand(cardUUID, UUID.randomUUID(), "1".bd)
+        ))
+
+        // then
+        assertThat(results[0].error()).isEqualTo(CardNotFoundError())
+        assertThat(results[1].error()).isEqualTo(InvalidAmountError())
+        assertThat(results[2].isSuccess).isTrue()
+        assertThat(getSummaryById(cardUUID).balance).isEqualByComparingTo("-1")
+    }
+
+    @Test
+    fun `should apply submitted transaction`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+        val charge = ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd)
+
+        // when
+        val result = facade.submitTransaction(charge).get(5, TimeUnit.SECONDS)
+
+        // then
+        assertThat(result.isSuccess).isTrue()
+        assertThat(facade.submitTransaction(charge).get(5, TimeUnit.SECONDS).isSuccess).isTrue()
+        assertThat(getSummaryById(cardUUID).balance).isEqualByComparingTo("-15")
+    }
+
+    @Test
+    fun `should list charges made through facade in transaction history`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+        val accepted = ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd)
+        val rejected = ChargeCardCommand(cardUUID, UUID.randomUUID(), "10".bd)
+        facade.chargeCard(accepted)
+        facade.chargeCard(rejected)
+        val query = TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 10, Option.none(), Option.none())
+
+        // when
+        val page = facade.getTransactions(cardUUID, query)
+
+        // then
+        assertThat(page.get().transactions.map { it.transactionUUID to it.outcome }).containsExactly(
+                accepted.transactionUUID to TransactionHistoryEntry.Outcome.ACCEPTED,
+                rejected.transactionUUID to TransactionHistoryEntry.Outcome.REJECTED
+        )
+        assertThat(facade.getTransactions(UUID.randomUUID(), query).isEmpty).isTrue()
+    }
+
+    @Test
+    fun `should time operations by outcome and count their errors`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+
+        // when
+        facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd))
+        facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "10".bd))
+        facade.blockCard(BlockCardCommand(UUID.randomUUID()))
+
+        // then
+        assertThat(operationCount("charge", "success")).isEqualTo(1)
+        assertThat(operationCount("charge", "failure")).isEqualTo(1)
+        assertThat(operationCount("block", "failure")).isEqualTo(1)
+        assertThat(errorCount("charge", "CannotChargeError")).isEqualTo(1.0)
+        assertThat(errorCount("block", "CardNotFoundError")).isEqualTo(1.0)
+        assertThat(stageCount("load")).isEqualTo(3)
+        assertThat(stageCount("decide")).isEqualTo(2)
+        assertThat(stageCount("persist")).isEqualTo(2)
+    }
+
+    @Test
+    fun `should report operation and its stages to request tracing`() {
+        // given
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
+
+        // when
+        facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "15".bd))
+
+        // then
+        assertThat(requestTracing.stages).contains("charge", "load", "decide", "persist")
     }
 
     @Test
     fun `should be able to block a card`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd))
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
 
         // when
         val result = facade.blockCard(BlockCardCommand(cardUUID))
@@ -119,7 +374,7 @@ internal abstract class DebitCardFacadeTest {
     @Test
     fun `cannot block blocked card`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd).block())
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money).block())
 
         // when
         val result = facade.blockCard(BlockCardCommand(cardUUID))
@@ -134,7 +389,7 @@ internal abstract class DebitCardFacadeTest {
     @Test
     fun `should not allow to charge blocked card`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd).block())
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money).block())
 
         // when
         val result = facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "5".bd))
@@ -144,15 +399,15 @@ internal abstract class DebitCardFacadeTest {
         assertThat(result.error()).isEqualTo(CannotChargeError())
         val summary = getSummaryById(cardUUID)
         assertThat(summary.blocked).isTrue()
-        assertThat(summary.balance).isEqualTo("0")
-        assertThat(summary.limit.get()).isEqualTo("-20")
+        assertThat(summary.balance).isEqualByComparingTo("0")
+        assertThat(summary.limit.get()).isEqualByComparingTo("-20")
 
     }
 
     @Test
     fun `should be able pay off`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd))
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
 
         // when
         val result = facade.payOffCard(PayOffCardCommand(cardUUID, UUID.randomUUID(), "15".bd))
@@ -160,14 +415,14 @@ internal abstract class DebitCardFacadeTest {
         // then
         assertThat(result.isSuccess).isTrue()
         val summary = getSummaryById(cardUUID)
-        assertThat(summary.balance).isEqualTo("15")
-        assertThat(summary.limit.get()).isEqualTo("-20")
+        assertThat(summary.balance).isEqualByComparingTo("15")
+        assertThat(summary.limit.get()).isEqualByComparingTo("-20")
     }
 
     @Test
     fun `should be able pay off card even if it is blocked`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd).block())
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money).block())
 
         // when
         val result = facade.payOffCard(PayOffCardCommand(cardUUID, UUID.randomUUID(), "15".bd))
@@ -175,14 +430,14 @@ internal abstract class DebitCardFacadeTest {
         // then
         assertThat(result.isSuccess).isTrue()
         val summary = getSummaryById(cardUUID)
-        assertThat(summary.balance).isEqualTo("15")
-        assertThat(summary.limit.get()).isEqualTo("-20")
+        assertThat(summary.balance).isEqualByComparingTo("15")
+        assertThat(summary.limit.get()).isEqualByComparingTo("-20")
     }
 
     @Test
     fun `should be able to unblock not blocked card`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd))
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money))
 
         // when
         val result = facade.unblockCard(UnblockCardCommand(cardUUID))
@@ -196,7 +451,7 @@ internal abstract class DebitCardFacadeTest {
     @Test
     fun `should be able unblock card once it is blocked`() {
         // given
-        thereIsACard(createNew(cardUUID).assignLimit("-20".bd).block())
+        thereIsACard(createNew(cardUUID).assignLimit("-20".money).block())
 
         // when
         val result = facade.unblockCard(UnblockCardCommand(cardUUID))
@@ -227,6 +482,15 @@ internal abstract class DebitCardFacadeTest {
     private fun getSummaryById(cardUUID: UUID): DebitCardSummary =
             facade.getSummary(cardUUID).get()
 
+    private fun operationCount(operation: String, outcome: String) =
+            meterRegistry.get("debit.card.operation").tag("operation", operation).tag("outcome", outcome).timer().count()
+
+    private fun errorCount(operation: String, error: String) =
+            meterRegistry.get("debit.card.errors").tag("operation", operation).tag("error", error).counter().count()
+
+    private fun stageCount(stage: String) =
+            meterRegistry.get("debit.card.stage").tag("stage", stage).timer().count()
+
     companion object {
         private val cardUUID = UUID.randomUUID()
 
@@ -249,4 +513,68 @@ internal class DebitCardFacadeUnitTest : DebitCardFacadeTest() {
     override fun cleanState() {
         repository.clean()
     }
-}
\ No newline at end of file
+}
+
+internal class CachedDebitCardFacadeUnitTest : DebitCardFacadeTest() {
+    override val module = DebitCardModule()
+    override val repository = InMemoryDebitCardRepository()
+    override val aggregateCachePolicy = AggregateCachePolicy(true, 100, Duration.ofMinutes(1))
+
+    override fun cleanState() {
+        repository.clean()
+    }
+}
+
+internal class SummaryCachedDebitCardFacadeUnitTest : DebitCardFacadeTest() {
+    override val module = DebitCardModule()
+    override val repository = InMemoryDebitCardRepository()
+    override val summaryCachePolicy = SummaryCachePolicy(true, 100, Duration.ofMinutes(1))
+
+    override fun cleanState() {
+        repository.clean()
+    }
+}
+
+internal class LanedDebitCardFacadeUnitTest : DebitCardFacadeTest() {
+    override val module = DebitCardModule()
+    override val repository = InMemoryDebitCardRepository()
+    override val cardLanes = CardLanes.of(4, 64, Duration.ofSeconds(1), requestTracing)
+
+    override fun cleanState() {
+        repository.clean()
+    }
+
+    @Test
+    fun `should apply every concurrent charge of the same card`() {
+        // given
+        val cardUUID = facade.createNewCard()
+        facade.assignLimitToCard(AssignLimitCommand(cardUUID, "-1000".bd))
+        val charges = 100
+        val executor = Executors.newFixedThreadPool(8)
+
+        // when
+        val results = (1..charges)
+                .map { executor.submit<DebitCardOperationResult<ChargeCardCommand>> { facade.chargeCard(ChargeCardCommand(cardUUID, UUID.randomUUID(), "1".bd)) } }
+                .map { it.get(5, TimeUnit.SECONDS) }
+        executor.shutdown()
+
+        // then
+        assertThat(results).allMatch { it.isSuccess }
+        assertThat(facade.getSummary(cardUUID).get().balance).isEqualByComparingTo("-100")
+    }
+}
+
+internal class StageRecordingTracing : RequestTracing {
+    val stages: Queue<String> = ConcurrentLinkedQueue()
+
+    override fun <T> stage(stage: String, call: Supplier<T>): T {
+        stages.add(stage)
+        return call.get()
+    }
+
+    override fun recordStage(stage: String, startedAt: Long, durationNanos: Long) {
+        stages.add(stage)
+    }
+
+    override fun startStage(stage: String): Runnable = Runnable { stages.add(stage) }
+}
@@ -1,11 +1,11 @@
 package debit.card.domain
 
 import debit.card.bd
+import debit.card.money
 import debit.card.domain.TransactionCommand.charge
 import debit.card.domain.TransactionCommand.payOff
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.Test
-import java.math.BigDecimal
 import java.util.*
 
 internal class DebitCardTest {
@@ -19,21 +19,21 @@ internal class DebitCardTest {
         val card = DebitCard.createNew()
 
         // when
-        val result = card.assignLimit("-10.00".bd)
+        val result = card.assignLimit("-10.00".money)
 
         // then
         assertThat(result.pendingChanges()).containsExactly(
-                DebitCardEvent.LimitAssigned("-10.00".bd)
+                DebitCardEvent.LimitAssigned("-10.00".money)
         )
     }
 
     @Test
     fun `should not be able to assign limit to debit card if was assigned before`() {
         // given
-        val card = cardWithAssignedLimit("-10.00".bd)
+        val card = cardWithAssignedLimit("-10.00".money)
 
         // when
-        card.assignLimit("-15.00".bd)
+        card.assignLimit("-15.00".money)
 
         // then
         assertThat(card.pendingChanges()).isEmpty()
@@ -42,67 +42,67 @@ internal class DebitCardTest {
     @Test
     fun `charge that is bigger than card balance should not be accepted`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
-        val cardAfterTransaction = card.applyTransaction(charge(firstTransactionId, "200.01".bd))
+        val cardAfterTransaction = card.applyTransaction(charge(firstTransactionId, "200.01".money))
 
         // then
         assertThat(cardAfterTransaction.pendingChanges())
                 .containsExactly(
-                        DebitCardEvent.TransactionRejected(firstTransactionId, "-200.01".bd)
+                        DebitCardEvent.TransactionRejected(firstTransactionId, "-200.01".money)
                 )
     }
 
     @Test
     fun `charge that is smaller than card balance should be accepted`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
-        val result = card.applyTransaction(charge(firstTransactionId, "199.01".bd))
+        val result = card.applyTransaction(charge(firstTransactionId, "199.01".money))
 
         // then
         assertThat(result.pendingChanges())
                 .containsExactly(
-                        DebitCardEvent.TransactionAccepted(firstTransactionId, "-199.01".bd)
+                        DebitCardEvent.TransactionAccepted(firstTransactionId, "-199.01".money)
                 )
     }
 
     @Test
     fun `card pay off should add balance to card`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
         val result = card
-                .applyTransaction(payOff(firstTransactionId, "10".bd))
-                .applyTransaction(charge(secondTransactionId, "200.01".bd))
+                .applyTransaction(payOff(firstTransactionId, "10".money))
+                .applyTransaction(charge(secondTransactionId, "200.01".money))
 
         // then
         assertThat(result.pendingChanges()).containsExactly(
-                DebitCardEvent.TransactionAccepted(firstTransactionId, "10".bd),
-                DebitCardEvent.TransactionAccepted(secondTransactionId, "-200.01".bd)
+                DebitCardEvent.TransactionAccepted(firstTransactionId, "10".money),
+                DebitCardEvent.TransactionAccepted(secondTransactionId, "-200.01".money)
         )
     }
 
     @Test
     fun `charge transactions should be accepted until card balance is not below limit`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
         val result = card.applyTransactions(
-                charge(UUID.randomUUID(), "10".bd),
-                charge(UUID.randomUUID(), "50".bd),
-                charge(UUID.randomUUID(), "100".bd),
-                charge(UUID.randomUUID(), "40".bd),
+                charge(UUID.randomUUID(), "10".money),
+                charge(UUID.randomUUID(), "50".money),
+                charge(UUID.randomUUID(), "100".money),
+                charge(UUID.randomUUID(), "40".money),
 
-                charge(UUID.randomUUID(), "1".bd),
+                charge(UUID.randomUUID(), "1".money),
 
-                payOff(UUID.randomUUID(), "1".bd),
-                charge(UUID.randomUUID(), "1".bd),
-                charge(UUID.randomUUID(), "1".bd)
+                payOff(UUID.randomUUID(), "1".money),
+                charge(UUID.randomUUID(), "1".money),
+                charge(UUID.randomUUID(), "1".money)
         )
 
         // then
@@ -123,7 +123,7 @@ internal class DebitCardTest {
     @Test
     fun `should allow to block a card when it is not blocked`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
         val result = card.block()
@@ -137,7 +137,7 @@ internal class DebitCardTest {
     @Test
     fun `should not allow to block a card when it is blocked`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
         val result = card
@@ -154,32 +154,32 @@ internal class DebitCardTest {
     @Test
     fun `should not allow to charge a card when it is blocked`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
         val result = card.block()
-                .applyTransaction(charge(firstTransactionId, "10".bd))
+                .applyTransaction(charge(firstTransactionId, "10".money))
 
         // then
         assertThat(result.pendingChanges()).containsExactly(
                 DebitCardEvent.CardBlocked(),
-                DebitCardEvent.TransactionRejected(firstTransactionId, "-10".bd)
+                DebitCardEvent.TransactionRejected(firstTransactionId, "-10".money)
         )
     }
 
     @Test
     fun `should allow to pay off a card when it is blocked`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
         val result = card.block()
-                .applyTransaction(payOff(firstTransactionId, "10".bd))
+                .applyTransaction(payOff(firstTransactionId, "10".money))
 
         // then
         assertThat(result.pendingChanges()).containsExactly(
                 DebitCardEvent.CardBlocked(),
-                DebitCardEvent.TransactionAccepted(firstTransactionId, "10".bd)
+                DebitCardEvent.TransactionAccepted(firstTransactionId, "10".money)
         )
 
     }
@@ -187,18 +187,18 @@ internal class DebitCardTest {
     @Test
     fun `should allow to unblock card when it is blocked`() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
         val result = card.block()
                 .unblock()
-                .applyTransaction(charge(firstTransactionId, "10".bd))
+                .applyTransaction(charge(firstTransactionId, "10".money))
 
         // then
         assertThat(result.pendingChanges()).containsExactly(
                 DebitCardEvent.CardBlocked(),
                 DebitCardEvent.CardUnblocked(),
-                DebitCardEvent.TransactionAccepted(firstTransactionId, "-10".bd)
+                DebitCardEvent.TransactionAccepted(firstTransactionId, "-10".money)
         )
 
     }
@@ -206,7 +206,7 @@ internal class DebitCardTest {
     @Test
     fun `nothing should happen when someone try to unblock not blocked card `() {
         // given
-        val card = cardWithAssignedLimit("-200".bd)
+        val card = cardWithAssignedLimit("-200".money)
 
         // when
         val result = card.unblock()
@@ -215,7 +215,93 @@ internal class DebitCardTest {
         assertThat(result.pendingChanges()).isEmpty()
     }
 
-    private fun cardWithAssignedLimit(limit: BigDecimal): DebitCard = DebitCard.createNew()
+    @Test
+    fun `card restored from snapshot should have the same state as card replayed from all events`() {
+        // given
+        val history = io.vavr.collection.List.of<DebitCardEvent>(
+                DebitCardEvent.LimitAssigned("-200".money),
+                DebitCardEvent.TransactionAccepted(firstTransactionId, "-50".money),
+                DebitCardEvent.CardBlocked(),
+                DebitCardEvent.TransactionAccepted(secondTransactionId, "20".money)
+        )
+        val cardUUID = UUID.randomUUID()
+        val snapshot = DebitCard.fromEvents(cardUUID, 1L, history.take(2)).snapshot()
+
+        // when
+        val result = DebitCard.fromSnapshot(cardUUID, 3L, snapshot, history.drop(2))
+
+        // then
+        assertThat(result.toSummary()).isEqualTo(DebitCard.fromEvents(cardUUID, 3L, history).toSummary())
+        assertThat(result.version()).isEqualTo(3L)
+        assertThat(result.pendingChanges()).isEmpty()
+    }
+
+    @Test
+    fun `replayed card should have the same state as card that produced the events`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        val card = DebitCard.createNew(cardUUID)
+                .assignLimit("-200".money)
+                .applyTransactions(
+                        charge(firstTransactionId, "150".money),
+                        charge(secondTransactionId, "100".money),
+                        payOff(UUID.randomUUID(), "20.5".money)
+                )
+                .block()
+                .block()
+
+        // when
+        val replayedCard = DebitCard.fromEvents(cardUUID, 0L, card.replayableChanges(), card.rejectionsAfterSave())
+
+        // then
+        assertThat(replayedCard.toSummary()).isEqualTo(card.toSummary())
+        assertThat(replayedCard.sequence()).isEqualTo(card.sequenceAfterSave())
+        assertThat(replayedCard.rejections()).isEqualTo(card.rejectionsAfterSave())
+        assertThat(replayedCard.pendingChanges()).isEmpty()
+        assertThat(replayedCard.transactionOutcome(firstTransactionId).get()).isTrue()
+        assertThat(replayedCard.transactionOutcome(secondTransactionId).isEmpty).isTrue()
+        assertThat(replayedCard.mightHaveSeenTransaction(secondTransactionId)).isTrue()
+    }
+
+    @Test
+    fun `card without limit should keep balance at scale of amounts paid into it`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        val card = DebitCard.createNew(cardUUID)
+                .applyTransaction(payOff(firstTransactionId, "10".money))
+
+        // when
+        val replayedCard = DebitCard.fromEvents(cardUUID, 0L, card.replayableChanges())
+
+        // then
+        assertThat(card.toSummary().balance).isEqualTo("10.00".bd)
+        assertThat(replayedCard.toSummary()).isEqualTo(card.toSummary())
+    }
+
+    @Test
+    fun `should keep rejections out of replayable changes`() {
+        // given
+        val card = cardWithAssignedLimit("-100".money)
+
+        // when
+        val result = card.applyTransaction(charge(firstTransactionId, "150".money))
+                .applyTransaction(charge(secondTransactionId, "50".money))
+                .block()
+                .block()
+
+        // then
+        assertThat(result.replayableChanges()).containsExactly(
+                DebitCardEvent.TransactionAccepted(secondTransactionId, "-50".money),
+                DebitCardEvent.CardBlocked()
+        )
+        assertThat(result.failedChanges()).containsExactly(
+                DebitCardEvent.TransactionRejected(firstTransactionId, "-150".money),
+                DebitCardEvent.CardBlockedRejected()
+        )
+        assertThat(result.sequenceAfterSave()).isEqualTo(3)
+    }
+
+    private fun cardWithAssignedLimit(limit: Money): DebitCard = DebitCard.createNew()
             .assignLimit(limit)
             .flushChanges()
 }
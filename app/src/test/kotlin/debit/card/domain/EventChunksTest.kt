@@ -0,0 +1,53 @@
+package debit.card.domain
+
+import debit.card.money
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.util.*
+
+internal class EventChunksTest {
+
+    @Test
+    fun `should return events after given sequence across chunk boundaries`() {
+        // given
+        val events = (1..150).map { DebitCardEvent.TransactionAccepted(UUID.randomUUID(), "1".money) }
+
+        // when
+        val chunks = events.chunked(7).fold(EventChunks.empty()) { stored, batch -> stored.appendAll(batch) }
+
+        // then
+        assertThat(chunks.size()).isEqualTo(150)
+        assertThat(chunks.from(0).toList()).isEqualTo(events)
+        assertThat(chunks.from(64).toList()).isEqualTo(events.drop(64))
+        assertThat(chunks.from(100).toList()).isEqualTo(events.drop(100))
+        assertThat(chunks.from(150).toList()).isEmpty()
+    }
+
+    @Test
+    fun `should not change previous version when appending`() {
+        // given
+        val first = DebitCardEvent.CardBlocked()
+        val previous = EventChunks.empty().appendAll(listOf(first))
+
+        // when
+        val next = previous.appendAll(listOf(DebitCardEvent.CardUnblocked()))
+
+        // then
+        assertThat(previous.from(0).toList()).containsExactly(first)
+        assertThat(next.size()).isEqualTo(2)
+    }
+
+    @Test
+    fun `should not repeat events when last chunk is full`() {
+        // given
+        val events = (1..EventChunks.CHUNK_SIZE).map { DebitCardEvent.CardBlocked() }
+
+        // when
+        val chunks = EventChunks.empty().appendAll(events)
+
+        // then
+        assertThat(chunks.from(EventChunks.CHUNK_SIZE.toLong()).toList()).isEmpty()
+        assertThat(chunks.appendAll(listOf(DebitCardEvent.CardUnblocked())).from(64).toList())
+                .containsExactly(DebitCardEvent.CardUnblocked())
+    }
+}
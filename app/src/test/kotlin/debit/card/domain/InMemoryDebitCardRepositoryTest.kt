@@ -1,12 +1,21 @@
 package debit.card.domain
 
 import debit.card.bd
+import debit.card.money
 import debit.card.domain.TransactionCommand.charge
+import debit.card.domain.TransactionCommand.payOff
+import debit.card.view.TransactionHistoryEntry
+import debit.card.view.TransactionHistoryQuery
+import io.vavr.collection.HashSet
+import io.vavr.control.Option
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import org.assertj.core.api.Assertions
 import org.assertj.core.api.Assertions.assertThat
-import org.assertj.core.api.Assertions.assertThatThrownBy
 import org.junit.jupiter.api.Test
 import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 internal abstract class DebitCardRepositoryTest {
     protected abstract val repository: DebitCardRepository
@@ -17,8 +26,8 @@ internal abstract class DebitCardRepositoryTest {
     fun `should store debit card and flush all changes`() {
         // given
         val card = DebitCard.createNew(debitCardId)
-                .assignLimit("10".bd)
-                .applyTransaction(charge(UUID.randomUUID(), "5".bd))
+                .assignLimit("10".money)
+                .applyTransaction(charge(UUID.randomUUID(), "5".money))
                 .block()
                 .unblock()
 
@@ -36,8 +45,8 @@ internal abstract class DebitCardRepositoryTest {
     fun `should read debit card summary`() {
         // given
         val card = DebitCard.createNew(debitCardId)
-                .assignLimit("10".bd)
-                .applyTransaction(charge(UUID.randomUUID(), "5".bd))
+                .assignLimit("10".money)
+                .applyTransaction(charge(UUID.randomUUID(), "5".money))
                 .block()
                 .unblock()
 
@@ -51,10 +60,121 @@ internal abstract class DebitCardRepositoryTest {
     }
 
     @Test
-    fun `should throw exception when try to save stale object`() {
+    fun `should read debit card from snapshot and events stored after it`() {
         // given
         val card = DebitCard.createNew(debitCardId)
-                .assignLimit("10".bd)
+                .assignLimit("-10".money)
+                .applyTransaction(charge(UUID.randomUUID(), "5".money))
+        repository.save(card)
+
+        // and
+        val snapshot = repository.takeSnapshot(debitCardId)
+        val cardAfterSnapshot = repository.getByUUID(debitCardId).get()
+                .applyTransaction(charge(UUID.randomUUID(), "3".money))
+                .block()
+        repository.save(cardAfterSnapshot)
+
+        // when
+        val readCard = repository.getByUUID(debitCardId)
+
+        // then
+        assertThat(snapshot.get().sequence).isEqualTo(2)
+        assertThat(snapshot.get().balance).isEqualTo("-5".money)
+        assertThat(readCard.get().toSummary()).isEqualTo(cardAfterSnapshot.toSummary())
+        assertThat(readCard.get().version()).isEqualTo(1)
+    }
+
+    @Test
+    fun `should append only pending changes on consecutive saves`() {
+        // given
+        repository.save(DebitCard.createNew(debitCardId).assignLimit("-100".money))
+
+        // when
+        repeat(3) {
+            val card = repository.getByUUID(debitCardId).get()
+            repository.save(card.applyTransaction(charge(UUID.randomUUID(), "10".money)))
+        }
+
+        // then
+        val readCard = repository.getByUUID(debitCardId).get()
+        assertThat(readCard.version()).isEqualTo(3)
+        assertThat(readCard.sequence()).isEqualTo(4)
+        assertThat(readCard.toSummary().balance).isEqualTo("-30.00".bd)
+    }
+
+    @Test
+    fun `should not take snapshot of not existing card`() {
+        // expect
+        assertThat(repository.takeSnapshot(debitCardId).isEmpty).isTrue()
+    }
+
+    @Test
+    fun `should keep rejections apart from replayed events`() {
+        // given
+        val rejectedTransaction = UUID.randomUUID()
+        repository.save(DebitCard.createNew(debitCardId).assignLimit("-100".money))
+        val card = repository.getByUUID(debitCardId).get()
+
+        // when
+        repository.save(card.applyTransaction(charge(rejectedTransaction, "500".money)).block().block())
+
+        // then
+        val readCard = repository.getByUUID(debitCardId).get()
+        assertThat(readCard.sequence()).isEqualTo(2)
+        assertThat(readCard.rejections()).isEqualTo(2)
+        assertThat(readCard.outcomeOf(rejectedTransaction)).isEqualTo(Option.some(false))
+        val eventsAfter = repository.getEventsAfter(debitCardId, 0).get()
+        assertThat(eventsAfter.events).containsExactly(
+                DebitCardEvent.LimitAssigned("-100".money),
+                DebitCardEvent.CardBlocked()
+        )
+        assertThat(eventsAfter.rejections).isEqualTo(2)
+        assertThat(repository.getRejections(debitCardId)).containsExactly(
+                DebitCardEvent.TransactionRejected(rejectedTransaction, "-500".money),
+                DebitCardEvent.CardBlockedRejected()
+        )
+    }
+
+    @Test
+    fun `should find rejected transactions stored before and after snapshot`() {
+        // given
+        val rejectedBeforeSnapshot = UUID.randomUUID()
+        val rejectedAfterSnapshot = UUID.randomUUID()
+        repository.save(DebitCard.createNew(debitCardId).assignLimit("-100".money).applyTransaction(charge(rejectedBeforeSnapshot, "500".money)))
+        repository.takeSnapshot(debitCardId)
+
+        // when
+        repository.save(repository.getByUUID(debitCardId).get().applyTransaction(charge(rejectedAfterSnapshot, "500".money)))
+
+        // then
+        val readCard = repository.getByUUID(debitCardId).get()
+        assertThat(readCard.outcomeOf(rejectedBeforeSnapshot)).isEqualTo(Option.some(false))
+        assertThat(readCard.outcomeOf(rejectedAfterSnapshot)).isEqualTo(Option.some(false))
+        assertThat(readCard.outcomeOf(UUID.randomUUID()).isEmpty).isTrue()
+        assertThat(readCard.rejections()).isEqualTo(2)
+        assertThat(repository.getEventsAfter(debitCardId, readCard.sequence()).get().size()).isZero()
+    }
+
+    @Test
+    fun `should look up outcomes of requested transactions only`() {
+        // given
+        val (accepted, rejected, laterCharge) = thereAreSavedTransactions()
+        val unknown = UUID.randomUUID()
+
+        // when
+        val outcomes = repository.findTransactionOutcomes(debitCardId, HashSet.of(accepted.first, rejected, unknown))
+
+        // then
+        assertThat(outcomes.toJavaMap()).isEqualTo(mapOf(accepted.first to true, rejected to false))
+        assertThat(repository.findTransactionOutcomes(debitCardId, HashSet.of(laterCharge)).toJavaMap()).isEqualTo(mapOf(laterCharge to true))
+        assertThat(repository.findTransactionOutcomes(UUID.randomUUID(), HashSet.of(accepted.first)).isEmpty).isTrue()
+    }
+
+    @Test
+    fun `should report version conflict when try to save stale object`() {
+        // given
+        val card = DebitCard.createNew(debitCardId)
+                .assignLimit("10".money)
 
         repository.save(card)
 
@@ -63,7 +183,7 @@ internal abstract class DebitCardRepositoryTest {
         val sameCard2 = repository.getByUUID(debitCardId).get()
 
         // when
-        sameCard1.applyTransaction(charge(UUID.randomUUID(), "5".bd))
+        sameCard1.applyTransaction(charge(UUID.randomUUID(), "5".money))
         sameCard2.block()
                 .unblock()
 
@@ -75,14 +195,210 @@ internal abstract class DebitCardRepositoryTest {
         assertThat(readCard.get()).isEqualTo(sameCard1.toSummary())
 
         // and
-        assertThatThrownBy { repository.save(sameCard2) }.isInstanceOf(RuntimeException::class.java)
+        assertThat(repository.save(sameCard2)).isEqualTo(SaveResult.VersionConflict(debitCardId, sameCard2.version()))
 
     }
 
+    @Test
+    fun `should read version matching versioned summary`() {
+        // given
+        repository.save(DebitCard.createNew(debitCardId).assignLimit("-100".money))
+        val card = repository.getByUUID(debitCardId).get()
+        repository.save(card.applyTransaction(charge(UUID.randomUUID(), "30".money)))
+
+        // when
+        val version = repository.getVersion(debitCardId)
+        val summary = repository.getVersionedSummaryByUUID(debitCardId)
+
+        // then
+        assertThat(version.get()).isEqualTo(1L)
+        assertThat(summary.get().version).isEqualTo(1L)
+        assertThat(summary.get().summary.balance).isEqualByComparingTo("-30".bd)
+        assertThat(repository.getVersion(UUID.randomUUID()).isEmpty).isTrue()
+    }
+
+    @Test
+    fun `should page transactions in the order they were made`() {
+        // given
+        val (accepted, rejected, laterCharge) = thereAreSavedTransactions()
+
+        // when
+        val firstPage = repository.getTransactions(debitCardId, TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 2, Option.none(), Option.none()))
+        val secondPage = repository.getTransactions(debitCardId, TransactionHistoryQuery(firstPage.nextCursor.get(), 2, Option.none(), Option.none()))
+
+        // then
+        assertThat(firstPage.transactions.map { it.transactionUUID }).containsExactly(accepted.first, rejected)
+        assertThat(secondPage.transactions.map { it.transactionUUID }).containsExactly(accepted.second, laterCharge)
+        assertThat(secondPage.nextCursor.isEmpty).isTrue()
+        assertThat(firstPage.transactions.head()).isEqualTo(TransactionHistoryEntry(
+                1, accepted.first, TransactionHistoryEntry.Type.CHARGE, TransactionHistoryEntry.Outcome.ACCEPTED, "10".bd
+        ))
+        assertThat(firstPage.nextCursor.get()).isEqualTo(2L)
+    }
+
+    @Test
+    fun `should page through long history of accepted and rejected transactions`() {
+        // given
+        repository.save(DebitCard.createNew(debitCardId).assignLimit("-100".money))
+        val transactions = (1..600).map { UUID.randomUUID() }
+        transactions.withIndex().chunked(150).forEach { saved ->
+            repository.save(saved.fold(repository.getByUUID(debitCardId).get()) { card, (index, transaction) ->
+                card.applyTransaction(if (index % 3 == 0) charge(transaction, "5000".money) else payOff(transaction, "1".money))
+            })
+        }
+
+        // when
+        val paged = generateSequence(repository.getTransactions(debitCardId, TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 7, Option.none(), Option.none()))) { page ->
+            page.nextCursor.map { cursor -> repository.getTransactions(debitCardId, TransactionHistoryQuery(cursor, 7, Option.none(), Option.none())) }.orNull
+        }.flatMap { it.transactions }.toList()
+        val rejected = repository.getTransactions(debitCardId, TransactionHistoryQuery(300, 1000, Option.some(TransactionHistoryEntry.Outcome.REJECTED), Option.none()))
+
+        // then
+        assertThat(paged.map { it.transactionUUID }).containsExactlyElementsOf(transactions)
+        assertThat(paged.map { it.sequence }).containsExactlyElementsOf((1L..600L).toList())
+        assertThat(rejected.transactions.map { it.transactionUUID })
+                .containsExactlyElementsOf(transactions.filterIndexed { index, _ -> index % 3 == 0 && index + 1 > 300 })
+    }
+
+    @Test
+    fun `should page only transactions of requested outcome and type`() {
+        // given
+        val (accepted, rejected, laterCharge) = thereAreSavedTransactions()
+
+        // when
+        val rejections = repository.getTransactions(debitCardId, TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 10, Option.some(TransactionHistoryEntry.Outcome.REJECTED), Option.none()))
+        val charges = repository.getTransactions(debitCardId, TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 2, Option.none(), Option.some(TransactionHistoryEntry.Type.CHARGE)))
+        val acceptedPayOffs = repository.getTransactions(debitCardId, TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 10, Option.some(TransactionHistoryEntry.Outcome.ACCEPTED), Option.some(TransactionHistoryEntry.Type.PAY_OFF)))
+
+        // then
+        assertThat(rejections.transactions.map { it.transactionUUID }).containsExactly(rejected)
+        assertThat(charges.transactions.map { it.transactionUUID }).containsExactly(accepted.first, rejected)
+        assertThat(repository.getTransactions(debitCardId, TransactionHistoryQuery(charges.nextCursor.get(), 2, Option.none(), Option.some(TransactionHistoryEntry.Type.CHARGE)))
+                .transactions.map { it.transactionUUID }).containsExactly(laterCharge)
+        assertThat(acceptedPayOffs.transactions.map { it.transactionUUID }).containsExactly(accepted.second)
+        assertThat(repository.getTransactions(UUID.randomUUID(), TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 10, Option.none(), Option.none()))
+                .transactions).isEmpty()
+    }
+
+    /**
+     * A charge and a pay-off accepted and a charge rejected in one save, then a charge accepted in the next one.
+     */
+    private fun thereAreSavedTransactions(): Triple<Pair<UUID, UUID>, UUID, UUID> {
+        val accepted = Pair(UUID.randomUUID(), UUID.randomUUID())
+        val rejected = UUID.randomUUID()
+        val laterCharge = UUID.randomUUID()
+        repository.save(DebitCard.createNew(debitCardId).assignLimit("-100".money))
+        repository.save(repository.getByUUID(debitCardId).get()
+                .applyTransaction(charge(accepted.first, "10".money))
+                .applyTransaction(charge(rejected, "500".money))
+                .applyTransaction(payOff(accepted.second, "5".money)))
+        repository.save(repository.getByUUID(debitCardId).get()
+                .applyTransaction(charge(laterCharge, "20".money)))
+        return Triple(accepted, rejected, laterCharge)
+    }
+
+    /**
+     * Outcome known to the loaded card or, for a transaction it might have seen, looked up like the facade does.
+     */
+    private fun DebitCard.outcomeOf(transactionId: UUID): Option<Boolean> =
+            transactionOutcome(transactionId).orElse {
+                if (mightHaveSeenTransaction(transactionId))
+                    repository.findTransactionOutcomes(debitCardId, HashSet.of(transactionId)).get(transactionId)
+                else
+                    Option.none()
+            }
 }
 
 internal class InMemoryDebitCardRepositoryTest : DebitCardRepositoryTest() {
 
-    override val repository = InMemoryDebitCardRepository()
+    private val meterRegistry = SimpleMeterRegistry()
 
+    override val repository = InMemoryDebitCardRepository(SnapshotPolicy.defaultPolicy(), ReplayMetrics(meterRegistry, "stub"))
+
+    @Test
+    fun `should read summary without replaying events`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        val card = repository.getByUUID(cardUUID).get()
+        repository.save(card.applyTransaction(charge(UUID.randomUUID(), "30".money)).block())
+        val replaysBefore = meterRegistry.summary("debit.card.replay.length", "repository", "stub").count()
+
+        // when
+        val summary = repository.getSummaryByUUID(cardUUID).get()
+
+        // then
+        assertThat(summary.balance).isEqualByComparingTo("-30".bd)
+        assertThat(summary.limit.get()).isEqualByComparingTo("-100".bd)
+        assertThat(summary.blocked).isTrue()
+        assertThat(meterRegistry.summary("debit.card.replay.length", "repository", "stub").count()).isEqualTo(replaysBefore)
+    }
+
+    @Test
+    fun `should time replay of every loaded card`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+
+        // when
+        repository.getByUUID(cardUUID)
+        repository.getByUUID(cardUUID)
+
+        // then
+        assertThat(meterRegistry.get("debit.card.stage").tag("stage", "replay").tag("repository", "stub").timer().count()).isEqualTo(2)
+    }
+
+    @Test
+    fun `should let exactly one of concurrent writers of the same version win`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        val card = repository.getByUUID(cardUUID).get()
+        val writers = 8
+        val start = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(writers)
+
+        // when
+        val results = (1..writers).map {
+            executor.submit<SaveResult> {
+                start.await()
+                repository.save(card.applyTransaction(charge(UUID.randomUUID(), "10".money)))
+            }
+        }
+        start.countDown()
+        val saveResults = results.map { it.get(5, TimeUnit.SECONDS) }
+        executor.shutdown()
+
+        // then
+        assertThat(saveResults.filterIsInstance<SaveResult.Saved>()).hasSize(1)
+        assertThat(saveResults.filterIsInstance<SaveResult.VersionConflict>()).hasSize(writers - 1)
+        assertThat(repository.getSummaryByUUID(cardUUID).get().balance).isEqualByComparingTo("-10".bd)
+        assertThat(repository.getByUUID(cardUUID).get().sequence()).isEqualTo(2)
+    }
+
+}
+
+internal class SnapshottingInMemoryDebitCardRepositoryTest : DebitCardRepositoryTest() {
+
+    override val repository = InMemoryDebitCardRepository(SnapshotPolicy(2), ReplayMetrics.unregistered())
+
+    @Test
+    fun `should take snapshot every interval events and replay only events after it`() {
+        // given
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        repeat(5) {
+            val card = repository.getByUUID(cardUUID).get()
+            repository.save(card.applyTransaction(charge(UUID.randomUUID(), "10".money)))
+        }
+
+        // when
+        val snapshot = repository.takeSnapshot(cardUUID)
+        val summary = repository.getSummaryByUUID(cardUUID)
+
+        // then
+        assertThat(snapshot.get().sequence).isEqualTo(6)
+        assertThat(snapshot.get().version).isEqualTo(5)
+        assertThat(summary.get().balance).isEqualTo("-50.00".bd)
+    }
 }
\ No newline at end of file
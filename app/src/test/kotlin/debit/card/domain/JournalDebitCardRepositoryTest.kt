@@ -0,0 +1,228 @@
+package debit.card.domain
+
+import debit.card.bd
+import debit.card.domain.TransactionCommand.charge
+import debit.card.money
+import debit.card.view.TransactionHistoryEntry
+import debit.card.view.TransactionHistoryQuery
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.vavr.control.Option
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+
+internal class JournalDebitCardRepositoryTest : DebitCardRepositoryTest() {
+
+    private val directory: Path = Files.createTempDirectory("journal")
+
+    private val meterRegistry = SimpleMeterRegistry()
+
+    private var opened = open()
+
+    override val repository: DebitCardRepository
+        get() = opened
+
+    @AfterEach
+    fun cleanUp() {
+        opened.close()
+        directory.toFile().deleteRecursively()
+    }
+
+    @Test
+    fun `should recover cards after reopening journal`() {
+        // given
+        val cardUUID = thereIsAChargedCard(charges = 3)
+
+        // when
+        reopen()
+
+        // then
+        val card = repository.getByUUID(cardUUID).get()
+        assertThat(card.version()).isEqualTo(3)
+        assertThat(card.sequence()).isEqualTo(4)
+        assertThat(card.toSummary().balance).isEqualByComparingTo("-30".bd)
+    }
+
+    @Test
+    fun `should recover transaction history after reopening journal`() {
+        // given
+        val cardUUID = thereIsAChargedCard(charges = 3)
+        repository.save(repository.getByUUID(cardUUID).get().applyTransaction(charge(UUID.randomUUID(), "5000".money)))
+        val query = TransactionHistoryQuery(TransactionHistoryQuery.FROM_START, 10, Option.none(), Option.none())
+        val beforeReopen = repository.getTransactions(cardUUID, query)
+
+        // when
+        reopen()
+
+        // then
+        assertThat(repository.getTransactions(cardUUID, query)).isEqualTo(beforeReopen)
+        assertThat(beforeReopen.transactions.map { it.outcome }).containsExactly(
+                TransactionHistoryEntry.Outcome.ACCEPTED,
+                TransactionHistoryEntry.Outcome.ACCEPTED,
+                TransactionHistoryEntry.Outcome.ACCEPTED,
+                TransactionHistoryEntry.Outcome.REJECTED
+        )
+    }
+
+    @Test
+    fun `should recover rejections apart from events after reopening journal`() {
+        // given
+        val cardUUID = thereIsAChargedCard(charges = 2)
+        val rejected = UUID.randomUUID()
+        repository.save(repository.getByUUID(cardUUID).get().applyTransaction(charge(rejected, "5000".money)).block().block())
+
+        // when
+        reopen()
+
+        // then
+        val card = repository.getByUUID(cardUUID).get()
+        assertThat(card.sequence()).isEqualTo(4)
+        assertThat(card.rejections()).isEqualTo(2)
+        assertThat(repository.getRejections(cardUUID)).containsExactly(
+                DebitCardEvent.TransactionRejected(rejected, "-5000".money),
+                DebitCardEvent.CardBlockedRejected()
+        )
+    }
+
+    @Test
+    fun `should recover card from its latest snapshot after reopening journal`() {
+        // given
+        val cardUUID = thereIsAChargedCard(charges = 5)
+        val snapshot = repository.takeSnapshot(cardUUID).get()
+        reopen()
+        val replayedBefore = replayLength().totalAmount()
+
+        // when
+        val card = repository.getByUUID(cardUUID).get()
+
+        // then
+        assertThat(replayLength().totalAmount()).isEqualTo(replayedBefore)
+        assertThat(card.sequence()).isEqualTo(snapshot.sequence())
+        assertThat(card.version()).isEqualTo(snapshot.version())
+        assertThat(card.toSummary().balance).isEqualByComparingTo("-50".bd)
+    }
+
+    @Test
+    fun `should replay changes saved after the latest snapshot after reopening journal`() {
+        // given
+        val cardUUID = thereIsAChargedCard(charges = 5)
+        repository.takeSnapshot(cardUUID)
+        repository.save(repository.getByUUID(cardUUID).get().applyTransaction(charge(UUID.randomUUID(), "10".money)))
+        reopen()
+        val replayedBefore = replayLength().totalAmount()
+
+        // when
+        val card = repository.getByUUID(cardUUID).get()
+
+        // then
+        assertThat(replayLength().totalAmount() - replayedBefore).isLessThanOrEqualTo(1.0)
+        assertThat(card.version()).isEqualTo(6)
+        assertThat(card.toSummary().balance).isEqualByComparingTo("-60".bd)
+    }
+
+    @Test
+    fun `should compute summary once after reopening journal`() {
+        // given
+        val cardUUID = thereIsAChargedCard(charges = 3)
+        reopen()
+        val summary = repository.getSummaryByUUID(cardUUID).get()
+        val replaysBefore = replayLength().count()
+
+        // when
+        val again = repository.getSummaryByUUID(cardUUID).get()
+
+        // then
+        assertThat(again).isEqualTo(summary)
+        assertThat(again.balance).isEqualByComparingTo("-30".bd)
+        assertThat(replayLength().count()).isEqualTo(replaysBefore)
+    }
+
+    @Test
+    fun `should continue in next segment when current one is full`() {
+        // given
+        opened.close()
+        opened = open(segmentSize = 256)
+
+        // when
+        val cardUUID = thereIsAChargedCard(charges = 20)
+        reopen(segmentSize = 256)
+
+        // then
+        assertThat(Files.list(directory).filter { it.fileName.toString().endsWith(".journal") }.count()).isGreaterThan(1)
+        assertThat(repository.getSummaryByUUID(cardUUID).get().balance).isEqualByComparingTo("-200".bd)
+    }
+
+    @Test
+    fun `should not open journal that is already open`() {
+        // given
+        val cardUUID = thereIsAChargedCard(charges = 1)
+
+        // when
+        val secondOpen = assertThatThrownBy { open() }
+
+        // then
+        secondOpen.isInstanceOf(IllegalStateException::class.java)
+        assertThat(repository.getByUUID(cardUUID).get().version()).isEqualTo(1)
+        reopen()
+        assertThat(repository.getByUUID(cardUUID).get().version()).isEqualTo(1)
+    }
+
+    @Test
+    fun `should truncate torn record at the end of journal`() {
+        // given
+        val cardUUID = thereIsAChargedCard(charges = 2)
+        val end = segmentEnd()
+        opened.close()
+        RandomAccessFile(directory.resolve("segment-00000000.journal").toFile(), "rw").use {
+            it.seek(end)
+            it.writeInt(100)
+            it.writeInt(12345)
+            it.write(ByteArray(50) { 7 })
+        }
+
+        // when
+        opened = open()
+
+        // then
+        assertThat(repository.getByUUID(cardUUID).get().version()).isEqualTo(2)
+        val card = repository.getByUUID(cardUUID).get()
+        assertThat(repository.save(card.applyTransaction(charge(UUID.randomUUID(), "1".money)))).isEqualTo(SaveResult.Saved(3))
+        reopen()
+        assertThat(repository.getSummaryByUUID(cardUUID).get().balance).isEqualByComparingTo("-21".bd)
+    }
+
+    private fun thereIsAChargedCard(charges: Int): UUID {
+        val cardUUID = UUID.randomUUID()
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-1000".money))
+        repeat(charges) {
+            val card = repository.getByUUID(cardUUID).get()
+            repository.save(card.applyTransaction(charge(UUID.randomUUID(), "10".money)))
+        }
+        return cardUUID
+    }
+
+    private fun replayLength() = meterRegistry.summary("debit.card.replay.length", "repository", "journal")
+
+    private fun segmentEnd(): Long {
+        val segment = ByteBuffer.wrap(Files.readAllBytes(directory.resolve("segment-00000000.journal")))
+        var end = 0
+        while (segment.getInt(end) != 0) {
+            end += 2 * Int.SIZE_BYTES + segment.getInt(end)
+        }
+        return end.toLong()
+    }
+
+    private fun reopen(segmentSize: Int = JournalDebitCardRepository.DEFAULT_SEGMENT_SIZE) {
+        opened.close()
+        opened = open(segmentSize)
+    }
+
+    private fun open(segmentSize: Int = JournalDebitCardRepository.DEFAULT_SEGMENT_SIZE) =
+            JournalDebitCardRepository.open(directory, segmentSize, SnapshotPolicy(2), ReplayMetrics(meterRegistry, "journal"))
+}
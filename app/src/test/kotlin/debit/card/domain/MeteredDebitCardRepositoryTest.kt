@@ -0,0 +1,36 @@
+package debit.card.domain
+
+import debit.card.domain.TransactionCommand.charge
+import debit.card.money
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.util.*
+
+internal class MeteredDebitCardRepositoryTest : DebitCardRepositoryTest() {
+    private val meterRegistry = SimpleMeterRegistry()
+
+    override val repository = MeteredDebitCardRepository(InMemoryDebitCardRepository(), DebitCardMetrics(meterRegistry, "stub"))
+
+    private val cardUUID = UUID.randomUUID()
+
+    @Test
+    fun `should time load and persist stages and count version conflicts`() {
+        // given
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        val card = repository.getByUUID(cardUUID).get()
+        repository.save(card.applyTransaction(charge(UUID.randomUUID(), "10".money)))
+
+        // when
+        val result = repository.save(card.block())
+
+        // then
+        assertThat(result).isInstanceOf(SaveResult.VersionConflict::class.java)
+        assertThat(stageCount("load")).isEqualTo(1)
+        assertThat(stageCount("persist")).isEqualTo(3)
+        assertThat(meterRegistry.get("debit.card.version.conflicts").tag("repository", "stub").counter().count()).isEqualTo(1.0)
+    }
+
+    private fun stageCount(stage: String) =
+            meterRegistry.get("debit.card.stage").tag("stage", stage).tag("repository", "stub").timer().count()
+}
@@ -0,0 +1,60 @@
+package debit.card.domain
+
+import debit.card.bd
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+
+internal class MoneyTest {
+
+    @Test
+    fun `should convert amount to minor units of given scale`() {
+        // when
+        val money = Money.of("-12.5".bd, 2)
+
+        // then
+        assertThat(money).isEqualTo(Money(-1250, 2))
+        assertThat(money.toBigDecimal()).isEqualTo("-12.50".bd)
+    }
+
+    @Test
+    fun `should reject amount that loses precision`() {
+        // expect
+        assertThatThrownBy { Money.of("0.001".bd, 2) }.isInstanceOf(ArithmeticException::class.java)
+    }
+
+    @Test
+    fun `should reject amount that does not fit into long`() {
+        // expect
+        assertThatThrownBy { Money.of("92233720368547758.08".bd, 2) }.isInstanceOf(ArithmeticException::class.java)
+    }
+
+    @Test
+    fun `should reject amounts of different scales`() {
+        // given
+        val balance = Money(15, 0)
+
+        // expect
+        assertThatThrownBy { balance.plus(Money(-1050, 2)) }.isInstanceOf(IllegalArgumentException::class.java)
+        assertThatThrownBy { balance.canAdd(Money(-1050, 2)) }.isInstanceOf(IllegalArgumentException::class.java)
+        assertThatThrownBy { balance.isAtLeast(Money(1500, 2)) }.isInstanceOf(IllegalArgumentException::class.java)
+    }
+
+    @Test
+    fun `should detect overflow of addition`() {
+        // given
+        val balance = Money(Long.MAX_VALUE - 1, 2)
+
+        // expect
+        assertThat(balance.canAdd(Money(1, 2))).isTrue()
+        assertThat(balance.canAdd(Money(2, 2))).isFalse()
+        assertThatThrownBy { balance.plus(Money(2, 2)) }.isInstanceOf(ArithmeticException::class.java)
+    }
+
+    @Test
+    fun `should compare amounts by minor units`() {
+        // expect
+        assertThat(Money(-2000, 2).isAtLeast(Money(-2000, 2))).isTrue()
+        assertThat(Money(-2001, 2).isAtLeast(Money(-2000, 2))).isFalse()
+    }
+}
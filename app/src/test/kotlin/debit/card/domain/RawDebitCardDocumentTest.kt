@@ -0,0 +1,93 @@
+package debit.card.domain
+
+import com.mongodb.MongoClientSettings
+import debit.card.domain.TransactionCommand.charge
+import debit.card.money
+import org.assertj.core.api.Assertions.assertThat
+import org.bson.Document
+import org.bson.RawBsonDocument
+import org.bson.UuidRepresentation
+import org.bson.codecs.configuration.CodecRegistries
+import org.junit.jupiter.api.Test
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext
+import java.util.*
+
+internal class RawDebitCardDocumentTest {
+    private val codecRegistry = CodecRegistries.withUuidRepresentation(MongoClientSettings.getDefaultCodecRegistry(), UuidRepresentation.STANDARD)
+    private val converter = MappingMongoConverter(NoOpDbRefResolver.INSTANCE, MongoMappingContext()).apply { afterPropertiesSet() }
+    private val cardUUID = UUID.randomUUID()
+
+    @Test
+    fun `should replay the same card as mapped entity for binary and legacy events`() {
+        // given
+        val card = cardAfterCharges(5)
+        val events = card.pendingChanges()
+        val mixed = stored(events.map(DebitCardEventEntity::from).toJavaList().take(3) + events.map(DebitCardEventEntity::legacy).toJavaList().drop(3))
+
+        // when
+        val document = RawDebitCardDocument(mixed, codecRegistry, CurrencyUnit.of("PLN"))
+        val replayed = DebitCard.fromEvents(cardUUID, document.version(), document.eventsAfter(0))
+
+        // then
+        assertThat(document.version()).isEqualTo(7)
+        assertThat(replayed.toSummary()).isEqualTo(card.toSummary())
+        assertThat(replayed.sequence()).isEqualTo(events.size().toLong())
+    }
+
+    @Test
+    fun `should skip events before given sequence`() {
+        // given
+        val events = cardAfterCharges(5).pendingChanges()
+        val document = RawDebitCardDocument(stored(events.map(DebitCardEventEntity::from).toJavaList()), codecRegistry, CurrencyUnit.of("PLN"))
+
+        // when
+        val eventsAfter = document.eventsAfter(4)
+
+        // then
+        assertThat(eventsAfter.toList()).isEqualTo(events.drop(4).toJavaList())
+        assertThat(eventsAfter.decoded()).isEqualTo(2)
+    }
+
+    @Test
+    fun `should read events and number of rejections without decoding rejections`() {
+        // given
+        val card = DebitCard.createNew(cardUUID).assignLimit("-100".money)
+                .applyTransaction(charge(UUID.randomUUID(), "500".money))
+                .block()
+                .block()
+        val rejections = card.pendingRejections().map(DebitCardRejectionEntity::from).toJavaList()
+        val document = RawDebitCardDocument(stored(card.replayableChanges().map(DebitCardEventEntity::from).toJavaList(), rejections), codecRegistry, CurrencyUnit.of("PLN"))
+
+        // when
+        val eventsAfter = document.eventsAfter(0)
+
+        // then
+        assertThat(eventsAfter.toList()).isEqualTo(card.replayableChanges().toJavaList())
+        assertThat(eventsAfter.decoded()).isEqualTo(2)
+        assertThat(document.rejectionCount()).isEqualTo(2)
+    }
+
+    @Test
+    fun `should read document without events`() {
+        // given
+        val document = RawDebitCardDocument(stored(listOf()), codecRegistry, CurrencyUnit.of("PLN"))
+
+        // expect
+        assertThat(document.eventsAfter(0).toList()).isEmpty()
+        assertThat(document.rejectionCount()).isZero()
+        assertThat(document.snapshot().isEmpty).isTrue()
+    }
+
+    private fun cardAfterCharges(charges: Int): DebitCard =
+            (1..charges).fold(DebitCard.createNew(cardUUID).assignLimit("-100".money)) { card, _ ->
+                card.applyTransaction(charge(UUID.randomUUID(), "10".money))
+            }
+
+    private fun stored(events: List<DebitCardEventEntity>, rejections: List<DebitCardRejectionEntity>? = null): RawBsonDocument {
+        val document = Document()
+        converter.write(DebitCardEntity(cardUUID, 7, events, rejections, rejections?.size?.toLong() ?: 0, null, null, null, null), document)
+        return RawBsonDocument(document, codecRegistry.get(Document::class.java))
+    }
+}
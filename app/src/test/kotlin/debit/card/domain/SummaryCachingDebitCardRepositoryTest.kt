@@ -0,0 +1,79 @@
+package debit.card.domain
+
+import debit.card.domain.TransactionCommand.charge
+import debit.card.money
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.*
+
+internal class SummaryCachingDebitCardRepositoryTest : DebitCardRepositoryTest() {
+    private val meterRegistry = SimpleMeterRegistry()
+    private val storage = InMemoryDebitCardRepository()
+
+    override val repository = SummaryCachingDebitCardRepository(storage, SummaryCachePolicy(true, 2, Duration.ofMinutes(1)), meterRegistry)
+
+    private val cardUUID = UUID.randomUUID()
+
+    @Test
+    fun `should serve summary of card saved through cache without reading it again`() {
+        // given
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+
+        // when
+        val summary = repository.getSummaryByUUID(cardUUID)
+
+        // then
+        assertThat(summary.get().limit.get()).isEqualByComparingTo("-100")
+        assertThat(lookups("hit")).isEqualTo(1.0)
+        assertThat(lookups("miss")).isEqualTo(0.0)
+    }
+
+    @Test
+    fun `should replace loaded summary with the one of acknowledged save`() {
+        // given
+        storage.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        repository.getSummaryByUUID(cardUUID)
+        val card = repository.getByUUID(cardUUID).get()
+
+        // when
+        repository.save(card.applyTransaction(charge(UUID.randomUUID(), "30".money)))
+
+        // then
+        assertThat(repository.getSummaryByUUID(cardUUID).get().balance).isEqualByComparingTo("-30")
+        assertThat(lookups("miss")).isEqualTo(1.0)
+        assertThat(lookups("hit")).isEqualTo(1.0)
+    }
+
+    @Test
+    fun `should serve stored summary after version conflict`() {
+        // given
+        repository.save(DebitCard.createNew(cardUUID).assignLimit("-100".money))
+        val card = repository.getByUUID(cardUUID).get()
+        val older = card.applyTransaction(charge(UUID.randomUUID(), "10".money))
+        repository.save(older)
+        repository.save(repository.getByUUID(cardUUID).get().applyTransaction(charge(UUID.randomUUID(), "20".money)))
+
+        // when
+        repository.save(older)
+
+        // then
+        assertThat(repository.getSummaryByUUID(cardUUID).get().balance).isEqualByComparingTo("-30")
+    }
+
+    @Test
+    fun `should evict summaries above maximum size`() {
+        // given
+        repeat(10) { repository.save(DebitCard.createNew(UUID.randomUUID()).assignLimit("-100".money)) }
+
+        // when
+        repository.getSummaryByUUID(UUID.randomUUID())
+
+        // then
+        assertThat(meterRegistry.get("debit.card.summary.cache.evictions").counter().count()).isGreaterThan(0.0)
+    }
+
+    private fun lookups(result: String) =
+            meterRegistry.get("debit.card.summary.cache.lookups").tag("result", result).counter().count()
+}
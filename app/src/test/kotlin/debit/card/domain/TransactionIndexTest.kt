@@ -0,0 +1,131 @@
+package debit.card.domain
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.util.*
+
+internal class TransactionIndexTest {
+
+    @Test
+    fun `should return outcome of recorded transactions`() {
+        // given
+        val accepted = UUID.randomUUID()
+        val rejected = UUID.randomUUID()
+
+        // when
+        val index = TransactionIndex.empty()
+                .record(accepted, true)
+                .record(rejected, false)
+
+        // then
+        assertThat(index.outcomeOf(accepted).get()).isTrue()
+        assertThat(index.outcomeOf(rejected).get()).isFalse()
+        assertThat(index.outcomeOf(UUID.randomUUID()).isEmpty).isTrue()
+    }
+
+    @Test
+    fun `should keep outcomes of latest transactions only`() {
+        // given
+        val transactions = (1..TransactionIndex.WINDOW + 10).map { UUID.randomUUID() }
+
+        // when
+        val index = transactions.fold(TransactionIndex.empty()) { index, uuid -> index.record(uuid, true) }
+
+        // then
+        assertThat(transactions.take(10)).allMatch { index.outcomeOf(it).isEmpty }
+        assertThat(transactions.drop(10)).allMatch { index.outcomeOf(it).isDefined }
+    }
+
+    @Test
+    fun `should remember transactions whose outcome was forgotten`() {
+        // given
+        val transactions = (1..3000).map { UUID.randomUUID() }
+
+        // when
+        val index = transactions.fold(TransactionIndex.empty()) { index, uuid -> index.record(uuid, true) }
+
+        // then
+        assertThat(transactions).allMatch { index.mightHaveSeen(it) }
+        assertThat((1..1000).count { index.mightHaveSeen(UUID.randomUUID()) }).isLessThan(10)
+    }
+
+    @Test
+    fun `should forget transactions older than every filter`() {
+        // given
+        val oldest = UUID(0, 0)
+        val later = (1..TransactionIndex.WINDOW + TransactionIndex.GENERATIONS * TransactionIndex.GENERATION_CAPACITY)
+                .map { UUID(1, it.toLong()) }
+
+        // when
+        val index = later.fold(TransactionIndex.empty().record(oldest, true)) { index, uuid -> index.record(uuid, true) }
+
+        // then
+        assertThat(index.outcomeOf(oldest).isEmpty).isTrue()
+        assertThat(index.mightHaveSeen(oldest)).isFalse()
+        assertThat(later.takeLast(TransactionIndex.WINDOW)).allMatch { index.outcomeOf(it).isDefined }
+    }
+
+    @Test
+    fun `should not see transactions recorded in later versions of the index`() {
+        // given
+        val index = TransactionIndex.empty()
+        val laterTransaction = UUID.randomUUID()
+
+        // when
+        index.record(laterTransaction, true)
+
+        // then
+        assertThat(index.outcomeOf(laterTransaction).isEmpty).isTrue()
+    }
+
+    @Test
+    fun `should not see transactions forgotten by other versions of the index`() {
+        // given
+        val index = (1..TransactionIndex.WINDOW + 10).fold(TransactionIndex.empty()) { index, _ -> index.record(UUID.randomUUID(), true) }
+        val otherTransaction = UUID.randomUUID()
+
+        // when
+        val other = (1..TransactionIndex.WINDOW).fold(index.record(otherTransaction, true)) { other, _ -> other.record(UUID.randomUUID(), true) }
+
+        // then
+        assertThat(other.mightHaveSeen(otherTransaction)).isTrue()
+        assertThat(index.mightHaveSeen(otherTransaction)).isFalse()
+        assertThat(TransactionIndex.decode(other.encode()).mightHaveSeen(otherTransaction)).isTrue()
+    }
+
+    @Test
+    fun `should rebuild index from its encoded form`() {
+        // given
+        val forgotten = (1..1000).map { UUID.randomUUID() }
+        val accepted = UUID.randomUUID()
+        val rejected = UUID.randomUUID()
+        val index = forgotten.fold(TransactionIndex.empty()) { index, uuid -> index.record(uuid, true) }
+                .record(accepted, true)
+                .record(rejected, false)
+
+        // when
+        val decoded = TransactionIndex.decode(index.encode())
+
+        // then
+        assertThat(decoded.outcomeOf(accepted).get()).isTrue()
+        assertThat(decoded.outcomeOf(rejected).get()).isFalse()
+        assertThat(forgotten).allMatch { decoded.mightHaveSeen(it) }
+        assertThat(forgotten.take(10)).allMatch { decoded.outcomeOf(it).isEmpty }
+    }
+
+    @Test
+    fun `should see every unknown transaction once outcomes are missing`() {
+        // given
+        val accepted = UUID.randomUUID()
+        val index = TransactionIndex.empty().record(accepted, true).withMissingOutcomes()
+
+        // when
+        val decoded = TransactionIndex.decode(index.encode())
+
+        // then
+        assertThat(decoded.outcomeOf(accepted).get()).isTrue()
+        assertThat(decoded.outcomeOf(UUID.randomUUID()).isEmpty).isTrue()
+        assertThat(decoded.mightHaveSeen(UUID.randomUUID())).isTrue()
+        assertThat(TransactionIndex.empty().mightHaveSeen(UUID.randomUUID())).isFalse()
+    }
+}
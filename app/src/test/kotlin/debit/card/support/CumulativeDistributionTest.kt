@@ -0,0 +1,68 @@
+package debit.card.support
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.within
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import kotlin.random.Random
+
+internal class CumulativeDistributionTest {
+
+    @Test
+    fun `should pick index whose cumulative probability covers the given one`() {
+        // given
+        val distribution = CumulativeDistribution.ofWeights(1.0, 2.0, 1.0)
+
+        // expect
+        assertThat(distribution.pick(0.0)).isEqualTo(0)
+        assertThat(distribution.pick(0.25)).isEqualTo(0)
+        assertThat(distribution.pick(0.26)).isEqualTo(1)
+        assertThat(distribution.pick(0.75)).isEqualTo(1)
+        assertThat(distribution.pick(0.76)).isEqualTo(2)
+        assertThat(distribution.pick(0.9999999)).isEqualTo(2)
+    }
+
+    @Test
+    fun `should never pick index with zero weight`() {
+        // given
+        val distribution = CumulativeDistribution.ofWeights(0.0, 1.0, 0.0)
+
+        // expect
+        assertThat((1..1000).map { distribution.pick(Random.nextDouble()) }).containsOnly(1)
+    }
+
+    @Test
+    fun `should pick uniformly with zero skew`() {
+        // given
+        val distribution = CumulativeDistribution.zipf(4, 0.0)
+
+        // expect
+        assertThat(distribution.size()).isEqualTo(4)
+        assertThat(distribution.pick(0.24)).isEqualTo(0)
+        assertThat(distribution.pick(0.26)).isEqualTo(1)
+        assertThat(distribution.pick(0.51)).isEqualTo(2)
+        assertThat(distribution.pick(0.76)).isEqualTo(3)
+    }
+
+    @Test
+    fun `should pick first indexes most often with high skew`() {
+        // given
+        val distribution = CumulativeDistribution.zipf(1000, 1.2)
+        val random = Random(42)
+
+        // when
+        val picks = (1..100_000).map { distribution.pick(random.nextDouble()) }
+
+        // then
+        val expectedFirstShare = 1.0 / (1..1000).sumOf { 1 / Math.pow(it.toDouble(), 1.2) }
+        assertThat(picks.count { it == 0 } / 100_000.0).isCloseTo(expectedFirstShare, within(0.01))
+        assertThat(picks.count { it < 10 }).isGreaterThan(picks.count { it >= 10 })
+        assertThat(picks).allMatch { it in 0 until 1000 }
+    }
+
+    @Test
+    fun `should not create distribution without weights`() {
+        // expect
+        assertThrows<IllegalArgumentException> { CumulativeDistribution.ofWeights() }
+    }
+}
@@ -0,0 +1,53 @@
+package debit.card.support;
+
+import java.util.Arrays;
+
+/**
+ * Picks indexes {@code 0..size-1} with fixed probabilities by a binary search over their cumulative probabilities.
+ * Shared by the benchmarks and the load generator, which compile it into their own source sets.
+ */
+public final class CumulativeDistribution {
+    private final double[] cumulativeProbabilities;
+
+    private CumulativeDistribution(double[] weights) {
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("Distribution needs at least one weight");
+        }
+        cumulativeProbabilities = new double[weights.length];
+        var sum = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulativeProbabilities[i] = sum;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    public static CumulativeDistribution ofWeights(double... weights) {
+        return new CumulativeDistribution(weights);
+    }
+
+    /**
+     * Index {@code i} has weight {@code 1 / (i + 1)^skew}: 0 is uniform, above 1 most picks hit the first few indexes.
+     */
+    public static CumulativeDistribution zipf(int size, double skew) {
+        var weights = new double[size];
+        for (int i = 0; i < size; i++) {
+            weights[i] = 1 / Math.pow(i + 1, skew);
+        }
+        return new CumulativeDistribution(weights);
+    }
+
+    public int size() {
+        return cumulativeProbabilities.length;
+    }
+
+    /**
+     * Index picked by a probability drawn uniformly from {@code [0, 1)}.
+     */
+    public int pick(double probability) {
+        var index = Arrays.binarySearch(cumulativeProbabilities, probability);
+        return Math.min(index < 0 ? -index - 1 : index, cumulativeProbabilities.length - 1);
+    }
+}